@@ -536,8 +536,7 @@ public final class InvoiceWorker {
             // check if a payment is applied and use the currency conversion from there
             if (UtilValidate.isEmpty(conversionRate)) {
                 List<GenericValue> paymentAppls = invoice.getRelated("PaymentApplication", null, null, false);
-                for (GenericValue paymentAppl : paymentAppls) {
-                    GenericValue payment = paymentAppl.getRelatedOne("Payment", false);
+                for (GenericValue payment : delegator.getRelatedOneForList("Payment", paymentAppls, false)) {
                     if (UtilValidate.isNotEmpty(payment.getBigDecimal("actualCurrencyAmount"))) {
                         if (UtilValidate.isEmpty(conversionRate)) {
                             conversionRate = payment.getBigDecimal("amount").divide(payment.getBigDecimal("actualCurrencyAmount"),new MathContext(100)).setScale(decimals,rounding);
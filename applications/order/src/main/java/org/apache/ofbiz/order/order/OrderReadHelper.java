@@ -213,22 +213,29 @@ public class OrderReadHelper {
     public Map<String, BigDecimal> getReceivedPaymentTotalsByPaymentMethod() {
         Map<String, BigDecimal> paymentMethodAmounts = new HashMap<String, BigDecimal>();
         List<GenericValue> paymentPrefs = getPaymentPreferences();
-        for (GenericValue paymentPref : paymentPrefs) {
-            List<GenericValue> payments = new LinkedList<GenericValue>();
+        // load the payments of all the preferences at once instead of one query per preference
+        List<List<GenericValue>> paymentsByPref = null;
+        if (UtilValidate.isNotEmpty(paymentPrefs)) {
             try {
-                List<EntityExpr> exprs = UtilMisc.toList(EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "PMNT_RECEIVED"),
-                        EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "PMNT_CONFIRMED"));
-                payments = paymentPref.getRelated("Payment", null, null, false);
-                payments = EntityUtil.filterByOr(payments, exprs);
-                List<EntityExpr> conds = UtilMisc.toList(EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "CUSTOMER_PAYMENT"),
-                        EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "CUSTOMER_DEPOSIT"),
-                        EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "INTEREST_RECEIPT"),
-                        EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "GC_DEPOSIT"),
-                        EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "POS_PAID_IN"));
-                payments = EntityUtil.filterByOr(payments, conds);
+                paymentsByPref = orderHeader.getDelegator().getRelatedForList("Payment", null, null, paymentPrefs, false);
             } catch (GenericEntityException e) {
                 Debug.logError(e, module);
             }
+        }
+        List<EntityExpr> exprs = UtilMisc.toList(EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "PMNT_RECEIVED"),
+                EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "PMNT_CONFIRMED"));
+        List<EntityExpr> conds = UtilMisc.toList(EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "CUSTOMER_PAYMENT"),
+                EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "CUSTOMER_DEPOSIT"),
+                EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "INTEREST_RECEIPT"),
+                EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "GC_DEPOSIT"),
+                EntityCondition.makeCondition("paymentTypeId", EntityOperator.EQUALS, "POS_PAID_IN"));
+        Iterator<List<GenericValue>> paymentsIter = paymentsByPref != null ? paymentsByPref.iterator() : null;
+        for (GenericValue paymentPref : paymentPrefs) {
+            List<GenericValue> payments = new LinkedList<GenericValue>();
+            if (paymentsIter != null) {
+                payments = EntityUtil.filterByOr(paymentsIter.next(), exprs);
+                payments = EntityUtil.filterByOr(payments, conds);
+            }
 
             BigDecimal chargedToPaymentPref = ZERO;
             for (GenericValue payment : payments) {
@@ -292,13 +299,11 @@ public class OrderReadHelper {
             prefs = UtilMisc.toList(orderPaymentPreference);
         }
         if (prefs != null) {
-            for (GenericValue payPref : prefs) {
-                try {
-                    orderPayments.addAll(payPref.getRelated("Payment", null, null, false));
-                } catch (GenericEntityException e) {
-                    Debug.logError(e, module);
-                    return null;
-                }
+            try {
+                orderPayments.addAll(EntityUtil.getRelated("Payment", null, prefs, false));
+            } catch (GenericEntityException e) {
+                Debug.logError(e, module);
+                return null;
             }
         }
         return orderPayments;
@@ -1386,13 +1391,10 @@ public class OrderReadHelper {
 
     public boolean getRejectedOrderItems() {
         List<GenericValue> items = getOrderItems();
+        List<List<GenericValue>> receiptsByItem = getShipmentReceiptsByItem(items);
+        Iterator<List<GenericValue>> receiptsIter = receiptsByItem != null ? receiptsByItem.iterator() : null;
         for (GenericValue item : items) {
-            List<GenericValue> receipts = null;
-            try {
-                receipts = item.getRelated("ShipmentReceipt", null, null, false);
-            } catch (GenericEntityException e) {
-                Debug.logWarning(e, module);
-            }
+            List<GenericValue> receipts = receiptsIter != null ? receiptsIter.next() : null;
             if (UtilValidate.isNotEmpty(receipts)) {
                 for (GenericValue rec : receipts) {
                     BigDecimal rejected = rec.getBigDecimal("quantityRejected");
@@ -1405,15 +1407,24 @@ public class OrderReadHelper {
         return false;
     }
 
+    private static List<List<GenericValue>> getShipmentReceiptsByItem(List<GenericValue> items) {
+        if (UtilValidate.isEmpty(items)) {
+            return null;
+        }
+        try {
+            return items.get(0).getDelegator().getRelatedForList("ShipmentReceipt", null, null, items, false);
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, module);
+            return null;
+        }
+    }
+
     public boolean getPartiallyReceivedItems() {
         List<GenericValue> items = getOrderItems();
+        List<List<GenericValue>> receiptsByItem = getShipmentReceiptsByItem(items);
+        Iterator<List<GenericValue>> receiptsIter = receiptsByItem != null ? receiptsByItem.iterator() : null;
         for (GenericValue item : items) {
-            List<GenericValue> receipts = null;
-            try {
-                receipts = item.getRelated("ShipmentReceipt", null, null, false);
-            } catch (GenericEntityException e) {
-                Debug.logWarning(e, module);
-            }
+            List<GenericValue> receipts = receiptsIter != null ? receiptsIter.next() : null;
             if (UtilValidate.isNotEmpty(receipts)) {
                 for (GenericValue rec : receipts) {
                     BigDecimal acceptedQuantity = rec.getBigDecimal("quantityAccepted");
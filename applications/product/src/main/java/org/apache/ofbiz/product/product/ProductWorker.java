@@ -24,6 +24,7 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -173,8 +174,9 @@ public final class ProductWorker {
     public static String getAggregatedInstanceId(Delegator delegator, String  aggregatedProductId, String configId) throws GenericEntityException {
         List<GenericValue> productAssocs = getAggregatedAssocs(delegator, aggregatedProductId);
         if (UtilValidate.isNotEmpty(productAssocs) && UtilValidate.isNotEmpty(configId)) {
+            Iterator<GenericValue> productIter = delegator.getRelatedOneForList("AssocProduct", productAssocs, false).iterator();
             for (GenericValue productAssoc: productAssocs) {
-                GenericValue product = productAssoc.getRelatedOne("AssocProduct", false);
+                GenericValue product = productIter.next();
                 if (configId.equals(product.getString("configId"))) {
                     return productAssoc.getString("productIdTo");
                 }
@@ -330,11 +332,13 @@ public final class ProductWorker {
                     Set<GenericValue> distFeatures = getVariantDistinguishingFeatures(alternativeOptionProduct);
                     if (UtilValidate.isNotEmpty(distFeatures)) {
                         StringBuilder nameBuf = new StringBuilder();
-                        for (GenericValue productFeature: distFeatures) {
+                        List<GenericValue> productFeatures = new ArrayList<GenericValue>(distFeatures);
+                        Iterator<GenericValue> productFeatureTypeIter = delegator.getRelatedOneForList("ProductFeatureType", productFeatures, true).iterator();
+                        for (GenericValue productFeature: productFeatures) {
                             if (nameBuf.length() > 0) {
                                 nameBuf.append(", ");
                             }
-                            GenericValue productFeatureType = productFeature.getRelatedOne("ProductFeatureType", true);
+                            GenericValue productFeatureType = productFeatureTypeIter.next();
                             if (productFeatureType != null) {
                                 nameBuf.append(productFeatureType.get("description", locale));
                                 nameBuf.append(":");
@@ -436,16 +440,18 @@ public final class ProductWorker {
                                                     .orderBy("productFeatureTypeId", "sequenceNum")
                                                     .cache(true)
                                                     .queryList();
+            // the feature types of all the features at once instead of one query per type
+            Iterator<GenericValue> productFeatureTypeIter = delegator.getRelatedOneForList("ProductFeatureType", featuresSorted, false).iterator();
             String oldType = null;
             List<Map<String,String>> featureList = new LinkedList<Map<String,String>>();
             for (GenericValue productFeatureAppl: featuresSorted) {
+                GenericValue productFeatureType = productFeatureTypeIter.next();
                 if (oldType == null || !oldType.equals(productFeatureAppl.getString("productFeatureTypeId"))) {
                     // use first entry for type and description
                     if (oldType != null) {
                         featureTypeFeatures.add(featureList);
                         featureList = new LinkedList<Map<String,String>>();
                     }
-                    GenericValue productFeatureType = EntityQuery.use(delegator).from("ProductFeatureType").where("productFeatureTypeId", productFeatureAppl.getString("productFeatureTypeId")).queryOne();
                     featureList.add(UtilMisc.<String, String>toMap("productFeatureTypeId", productFeatureAppl.getString("productFeatureTypeId"),
                             "description", productFeatureType.getString("description")));
                     oldType = productFeatureAppl.getString("productFeatureTypeId");
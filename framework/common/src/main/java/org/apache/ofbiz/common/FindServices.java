@@ -23,6 +23,7 @@ import static org.apache.ofbiz.base.util.UtilGenerics.checkMap;
 
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -44,6 +45,7 @@ import org.apache.ofbiz.base.util.UtilValidate;
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntity;
 import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericModelException;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.condition.EntityComparisonOperator;
 import org.apache.ofbiz.entity.condition.EntityCondition;
@@ -60,6 +62,7 @@ import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.GenericServiceException;
 import org.apache.ofbiz.service.LocalDispatcher;
 import org.apache.ofbiz.service.ServiceUtil;
+import org.apache.ofbiz.widget.renderer.Paginator;
 
 /**
  * FindServices Class
@@ -420,6 +423,7 @@ public class FindServices {
      *                              viewSize: the length of the page (number of records)
      *  Extra output parameter: listSize: size of the totallist
      *                                         list : the list itself.
+     *                                         keysetNext : with keysetAfter, the keysetAfter value for the next page (null on the last page)
      *
      * @param dctx
      * @param context
@@ -435,7 +439,9 @@ public class FindServices {
 
         Map<String, Object> result = performFind(dctx,context);
 
-        int start = viewIndex.intValue() * viewSize.intValue();
+        // a keyset page starts at the first row of the result, see performFind
+        boolean keysetPaging = getKeysetAfter(context, checkMap(context.get("inputFields"), String.class, Object.class)) != null;
+        int start = keysetPaging ? 0 : viewIndex.intValue() * viewSize.intValue();
         List<GenericValue> list = null;
         Integer listSize = 0;
         try {
@@ -449,6 +455,15 @@ public class FindServices {
 
         result.put("listSize", listSize);
         result.put("list",list);
+        if (keysetPaging) {
+            Map<String, Object> keysetNext = null;
+            if (list != null && list.size() == viewSize.intValue()) {
+                String orderBy = (String) context.get("orderBy");
+                List<String> orderByList = UtilValidate.isNotEmpty(orderBy) ? StringUtil.split(orderBy, "|") : null;
+                keysetNext = EntityUtil.getKeysetValues(list.get(list.size() - 1), orderByList);
+            }
+            result.put("keysetNext", keysetNext);
+        }
         result.remove("listIt");
         return result;
     }
@@ -458,6 +473,11 @@ public class FindServices {
      *
      * This is a generic method that expects entity data affixed with special suffixes
      * to indicate their purpose in formulating an SQL query statement.
+     * When keysetAfter is passed the result starts right after that position in the
+     * orderBy ordering (keyset pagination) instead of at the start of page viewIndex.
+     * With keysetPaging set to Y and no keysetAfter, the position is read from the
+     * inputFields named with the Paginator.KEYSET_AFTER_PREFIX, as sent by the Next link
+     * of the pager; without them it is the first page.
      */
     public static Map<String, Object> performFind(DispatchContext dctx, Map<String, ?> context) {
         String entityName = (String) context.get("entityName");
@@ -496,8 +516,12 @@ public class FindServices {
 
         Integer viewSize = (Integer) context.get("viewSize");
         Integer viewIndex = (Integer) context.get("viewIndex");
+        Map<String, Object> keysetAfter = getKeysetAfter(context, inputFields);
         Integer maxRows = null;
-        if (viewSize != null && viewIndex != null) {
+        if (keysetAfter != null) {
+            // the rows before the page are skipped by the keyset condition, not read and discarded
+            maxRows = viewSize;
+        } else if (viewSize != null && viewIndex != null) {
             maxRows = viewSize * (viewIndex + 1);
         }
 
@@ -521,7 +545,7 @@ public class FindServices {
                                                                              "fieldList", fieldList, "entityConditionList", exprList,
                                                                              "noConditionFind", noConditionFind, "distinct", distinct,
                                                                              "locale", context.get("locale"), "timeZone", context.get("timeZone"),
-                                                                             "maxRows", maxRows));
+                                                                             "maxRows", maxRows, "keysetAfter", keysetAfter));
         } catch (GenericServiceException gse) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "CommonFindErrorRetrieveIterator", UtilMisc.toMap("errorString", gse.getMessage()), locale));
         }
@@ -632,21 +656,25 @@ public class FindServices {
         }
         Integer maxRows = (Integer) context.get("maxRows");
         maxRows = maxRows != null ? maxRows : -1;
+        Map<String, Object> keysetAfter = UtilGenerics.checkMap(context.get("keysetAfter"));
         Delegator delegator = dctx.getDelegator();
         // Retrieve entities  - an iterator over all the values
         EntityListIterator listIt = null;
         int listSize = 0;
         try {
             if (noConditionFind || (entityConditionList != null && entityConditionList.getConditionListSize() > 0)) {
-                listIt = EntityQuery.use(delegator)
+                EntityQuery query = EntityQuery.use(delegator)
                                     .select(fieldSet)
                                     .from(entityName)
                                     .where(entityConditionList)
                                     .orderBy(orderByList)
                                     .cursorScrollInsensitive()
                                     .maxRows(maxRows)
-                                    .distinct(distinct)
-                                    .queryIterator();
+                                    .distinct(distinct);
+                if (keysetAfter != null) {
+                    query.after(makeKeysetValue(delegator, entityName, keysetAfter));
+                }
+                listIt = query.queryIterator();
                 listSize = listIt.getResultsSizeAfterPartialList();
             }
         } catch (GenericEntityException e) {
@@ -659,6 +687,64 @@ public class FindServices {
         return results;
     }
 
+    /**
+     * Returns the keysetAfter parameter or, when keysetPaging is Y, the keysetAfter values found in the inputFields
+     * under the Paginator.KEYSET_AFTER_PREFIX; null when the find is not paged by keyset.
+     */
+    private static Map<String, Object> getKeysetAfter(Map<String, ?> context, Map<String, ?> inputFields) {
+        Map<String, Object> keysetAfter = UtilGenerics.checkMap(context.get("keysetAfter"));
+        if (keysetAfter != null) {
+            return keysetAfter;
+        }
+        String keysetPaging = (String) context.get("keysetPaging");
+        if (UtilValidate.isEmpty(keysetPaging) && inputFields != null) {
+            // try finding in inputFields Map
+            keysetPaging = (String) inputFields.get("keysetPaging");
+        }
+        if (!"Y".equals(keysetPaging)) {
+            return null;
+        }
+        keysetAfter = new HashMap<String, Object>();
+        if (inputFields != null) {
+            for (Map.Entry<String, ?> entry : inputFields.entrySet()) {
+                if (entry.getKey().startsWith(Paginator.KEYSET_AFTER_PREFIX) && !ObjectType.isEmpty(entry.getValue())) {
+                    keysetAfter.put(entry.getKey().substring(Paginator.KEYSET_AFTER_PREFIX.length()), entry.getValue());
+                }
+            }
+        }
+        return keysetAfter;
+    }
+
+    /**
+     * Converts the keysetAfter parameter, which usually comes from a request, to a value of the entity
+     * so that the keyset condition is built with values of the field types. An empty Map is the first page.
+     */
+    private static GenericValue makeKeysetValue(Delegator delegator, String entityName, Map<String, Object> keysetAfter) throws GenericEntityException {
+        if (keysetAfter.isEmpty()) {
+            return null;
+        }
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find definition for entity name " + entityName);
+        }
+        GenericValue keysetValue = delegator.makeValue(entityName);
+        for (Map.Entry<String, Object> entry : keysetAfter.entrySet()) {
+            if (!modelEntity.isField(entry.getKey())) {
+                throw new GenericModelException("The keysetAfter field [" + entry.getKey() + "] is not a field of entity " + entityName);
+            }
+            try {
+                if (entry.getValue() instanceof String) {
+                    keysetValue.setString(entry.getKey(), (String) entry.getValue());
+                } else {
+                    keysetValue.set(entry.getKey(), entry.getValue());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new GenericEntityException("Could not set the keysetAfter field [" + entry.getKey() + "] of entity " + entityName + ": " + e.getMessage(), e);
+            }
+        }
+        return keysetValue;
+    }
+
     private static String dayStart(String timeStampString, int daysLater, TimeZone timeZone, Locale locale) {
         String retValue = null;
         Timestamp ts = null;
@@ -31,6 +31,7 @@ import org.apache.ofbiz.entity.condition.EntityCondition;
 import org.apache.ofbiz.entity.datasource.GenericHelper;
 import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
 import org.apache.ofbiz.entity.eca.EntityEcaHandler;
+import org.apache.ofbiz.entity.journal.EntityChangeJournal;
 import org.apache.ofbiz.entity.model.DynamicViewEntity;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelField;
@@ -215,6 +216,12 @@ public interface Delegator {
 
     Object decryptFieldValue(String entityName, ModelField.EncryptMethod encryptMethod, String encValue) throws EntityCryptoException;
 
+    /**
+     * Decrypts the values of an encrypted field read from many rows, looking the key up only once.
+     * @return the decrypted values in the same order, null for the null and empty values
+     */
+    List<Object> decryptFieldValues(String entityName, ModelField.EncryptMethod encryptMethod, List<String> encValues) throws EntityCryptoException;
+
     Object encryptFieldValue(String entityName, ModelField.EncryptMethod encryptMethod, Object fieldValue) throws EntityCryptoException;
 
     /**
@@ -385,6 +392,12 @@ public interface Delegator {
 
     Cache getCache();
 
+    /**
+     * Returns the change data capture journal of this delegator, or null when it is not enabled
+     * (see the change-journal-enabled attribute of the delegator element).
+     */
+    EntityChangeJournal getChangeJournal();
+
     String getCurrentSessionIdentifier();
 
     String getCurrentUserIdentifier();
@@ -663,6 +676,50 @@ public interface Delegator {
      */
     GenericValue getRelatedOne(String relationName, GenericValue value, boolean useCache) throws GenericEntityException;
 
+    /**
+     * Get the named Related Entity for each GenericValue of a list. The related
+     * values of all the list members are read with a few queries on the
+     * relation fields (chunked IN or OR conditions) instead of one query per
+     * member.
+     *
+     * @param relationName
+     *            String containing the relation name which is the combination
+     *            of relation.title and relation.rel-entity-name as specified in
+     *            the entity XML definition file
+     * @param byAndFields
+     *            the fields that must equal in order to keep; may be null
+     * @param orderBy
+     *            The fields of the named entity to order the query by; may be
+     *            null; optionally add a " ASC" for ascending or " DESC" for
+     *            descending
+     * @param values
+     *            List of GenericValue instances of the same entity
+     * @param useCache
+     *            Whether to cache the results; the related list of each member
+     *            is cached as getRelated would cache it
+     * @return List with, at the same index as each member of values, the List
+     *         of its related GenericValue instances
+     */
+    List<List<GenericValue>> getRelatedForList(String relationName, Map<String, ? extends Object> byAndFields, List<String> orderBy, List<GenericValue> values, boolean useCache) throws GenericEntityException;
+
+    /**
+     * Get the related entity, where relation is of type one, for each
+     * GenericValue of a list. The related values of all the list members are
+     * read with a few queries instead of one findOne per member.
+     *
+     * @param relationName
+     *            String containing the relation name which is the combination
+     *            of relation.title and relation.rel-entity-name as specified in
+     *            the entity XML definition file
+     * @param values
+     *            List of GenericValue instances of the same entity
+     * @param useCache
+     *            Whether to cache the results
+     * @return List with, at the same index as each member of values, its
+     *         related GenericValue or null if there is none
+     */
+    List<GenericValue> getRelatedOneForList(String relationName, List<GenericValue> values, boolean useCache) throws GenericEntityException;
+
     void initEntityEcaHandler();
 
     void initDistributedCacheClear();
@@ -829,6 +886,9 @@ public interface Delegator {
 
     void rollback();
 
+    /** Sets the change data capture journal the committed changes are written to, null to stop journaling */
+    void setChangeJournal(EntityChangeJournal changeJournal);
+
     void setDistributedCacheClear(DistributedCacheClear distributedCacheClear);
 
     void setEntityCrypto(EntityCrypto crypto);
@@ -887,6 +947,13 @@ public interface Delegator {
      * will either all succeed or all fail, if the data source supports
      * transactions. This is just like to othersToStore feature of the
      * GenericEntity on a create or store.</p>
+     * <p>When the bulk upsert option is set the existing values are looked up
+     * with one query per chunk of values of the same entity and the creates
+     * and updates are sent as JDBC batches. The entity ECA rules are then
+     * evaluated per chunk rather than per value: the validate and run rules
+     * of all the values created in a chunk before the batch insert, their
+     * cache-clear and return rules after it, then the same for the values
+     * updated in the chunk.</p>
      *
      * @param storeOptions
      *            An instance of EntityStoreOptions that specifies advanced store
@@ -59,6 +59,7 @@ public class DelegatorContainer implements Container {
 
     @Override
     public void stop() throws ContainerException {
+        DelegatorFactory.closeChangeJournals();
     }
 
     @Override
@@ -71,6 +71,26 @@ public abstract class DelegatorFactory implements Factory<Delegator, String> {
         } while (true);
     }
 
+    /** Closes the change journals of the delegators created so far, when the delegator container stops */
+    public static void closeChangeJournals() {
+        for (Future<Delegator> future: delegators.values()) {
+            if (!future.isDone()) {
+                continue;
+            }
+            try {
+                Delegator delegator = future.get();
+                if (delegator != null && delegator.getChangeJournal() != null) {
+                    delegator.getChangeJournal().close();
+                }
+            } catch (ExecutionException e) {
+                // the delegator could not be created, it has no change journal
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
     public static final class DelegatorConfigurable implements Callable<Delegator> {
         private final String delegatorName;
 
@@ -18,22 +18,28 @@
  */
 package org.apache.ofbiz.entity;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
@@ -52,13 +58,16 @@ import org.apache.ofbiz.base.util.UtilValidate;
 import org.apache.ofbiz.base.util.UtilXml;
 import org.apache.ofbiz.entity.cache.Cache;
 import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityOperator;
 import org.apache.ofbiz.entity.config.model.Datasource;
 import org.apache.ofbiz.entity.config.model.DelegatorElement;
 import org.apache.ofbiz.entity.config.model.EntityConfig;
 import org.apache.ofbiz.entity.datasource.GenericHelper;
 import org.apache.ofbiz.entity.datasource.GenericHelperFactory;
 import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
+import org.apache.ofbiz.entity.datasource.ReadReplicaHelper;
 import org.apache.ofbiz.entity.eca.EntityEcaHandler;
+import org.apache.ofbiz.entity.journal.EntityChangeJournal;
 import org.apache.ofbiz.entity.model.DynamicViewEntity;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelEntityChecker;
@@ -98,21 +107,34 @@ public class GenericDelegator implements Delegator {
     /** This flag is only here for lower level technical testing, it shouldn't be user configurable (or at least I don't think so yet); when true all operations without a transaction will be wrapped in one; seems to be necessary for some (all?) XA aware connection pools, and should improve overall stability and consistency */
     public static final boolean alwaysUseTransaction = true;
 
+    /** Maximum number of key values bound in a single query by getRelatedForList and getRelatedOneForList */
+    private static final int RELATED_KEYS_PER_QUERY = 500;
+
     protected String delegatorBaseName = null;
     protected String delegatorFullName = null;
     protected String delegatorTenantId = null;
     private String originalDelegatorName = null;
 
     protected DelegatorElement delegatorInfo = null;
+    /** The helpers that read from the read datasources, by entity group name */
+    protected final ConcurrentHashMap<String, ReadReplicaHelper> readReplicaHelpers = new ConcurrentHashMap<String, ReadReplicaHelper>();
 
     protected Cache cache = null;
 
     protected final AtomicReference<Future<DistributedCacheClear>> distributedCacheClear = new AtomicReference<Future<DistributedCacheClear>>();
     protected boolean warnNoEcaHandler = false;
     protected final AtomicReference<Future<EntityEcaHandler<?>>> entityEcaHandler = new AtomicReference<Future<EntityEcaHandler<?>>>();
+    /** The ECA rule runners by entity name, shared with the clones of this delegator */
+    protected ConcurrentHashMap<String, EntityEcaRuleRunner<?>> ecaRuleRunners = new ConcurrentHashMap<String, EntityEcaRuleRunner<?>>();
+    /** Moved on each time the ECA rules change, a runner built for an older version is not kept in ecaRuleRunners */
+    protected AtomicLong ecaRulesVersion = new AtomicLong();
+    protected static final EntityEcaRuleRunner<?> noEcaRuleRunner = createEntityEcaRuleRunner(null, null, 0);
     protected final AtomicReference<SequenceUtil> AtomicRefSequencer = new AtomicReference<SequenceUtil>(null);
     protected EntityCrypto crypto = null;
 
+    /** The change data capture journal, null when it is not enabled */
+    protected volatile EntityChangeJournal changeJournal = null;
+
     /** A ThreadLocal variable to allow other methods to specify a user identifier (usually the userLoginId, though technically the Entity Engine doesn't know anything about the UserLogin entity) */
     protected static ThreadLocal<List<String>> userIdentifierStack = new ThreadLocal<List<String>>();
     /** A ThreadLocal variable to allow other methods to specify a session identifier (usually the visitId, though technically the Entity Engine doesn't know anything about the Visit entity) */
@@ -245,7 +267,16 @@ public class GenericDelegator implements Delegator {
         // NOTE: doing some things before the ECAs and such to make sure it is in place just in case it is used in a service engine startup thing or something
 
         // setup the crypto class; this also after the delegator is in the cache otherwise we get infinite recursion
-        this.crypto = new EntityCrypto(this, kekText);
+        this.crypto = new EntityCrypto(this, kekText, this.delegatorInfo.getDecryptedValueCacheTtl(), this.delegatorInfo.getDecryptedValueCacheSize());
+
+        // open the change journal; the changes are appended to it when their transaction commits
+        if (this.delegatorInfo.getChangeJournalEnabled()) {
+            File journalDir = new File(this.delegatorInfo.getChangeJournalDir());
+            if (!journalDir.isAbsolute()) {
+                journalDir = new File(System.getProperty("ofbiz.home"), this.delegatorInfo.getChangeJournalDir());
+            }
+            this.changeJournal = new EntityChangeJournal(new File(journalDir, delegatorFullName));
+        }
     }
 
     private void initializeOneGenericHelper(String groupName) {
@@ -558,6 +589,42 @@ public class GenericDelegator implements Delegator {
         return getEntityHelper(entity.getEntityName());
     }
 
+    /** Returns the helper of the entity. For a replica read of an entity whose group has read datasources, returns a
+     * helper that reads from the read datasources and falls back to the datasource of the group. */
+    protected GenericHelper getEntityHelper(String entityName, boolean replicaRead) throws GenericEntityException {
+        GenericHelper helper = getEntityHelper(entityName);
+        // the datasources of a tenant are defined in the database, they have no read datasources
+        if (!replicaRead || UtilValidate.isNotEmpty(this.delegatorTenantId)) {
+            return helper;
+        }
+        String groupName = this.getEntityGroupName(entityName);
+        List<String> readDataSources = this.delegatorInfo.getGroupReadDataSources(groupName);
+        if (readDataSources.isEmpty()) {
+            return helper;
+        }
+        ReadReplicaHelper readReplicaHelper = this.readReplicaHelpers.get(groupName);
+        if (readReplicaHelper == null || readReplicaHelper.getPrimaryHelper() != helper) {
+            List<GenericHelperInfo> replicaHelperInfos = new ArrayList<GenericHelperInfo>(readDataSources.size());
+            for (String readDataSource : readDataSources) {
+                replicaHelperInfos.add(new GenericHelperInfo(groupName, readDataSource));
+            }
+            readReplicaHelper = new ReadReplicaHelper(helper, replicaHelperInfos);
+            this.readReplicaHelpers.put(groupName, readReplicaHelper);
+        }
+        return readReplicaHelper;
+    }
+
+    /** Returns true if a read can use the read datasources: when it is not part of a transaction or when the find options ask for a replica, never when it locks rows */
+    protected boolean isReplicaRead(EntityFindOptions findOptions) throws GenericEntityException {
+        if (findOptions != null && findOptions.getSkipLocked()) {
+            return false;
+        }
+        if (findOptions != null && findOptions.getUseReplica()) {
+            return true;
+        }
+        return !TransactionUtil.isTransactionInPlace();
+    }
+
     /* (non-Javadoc)
      * @see org.apache.ofbiz.entity.Delegator#getEntityFieldType(org.apache.ofbiz.entity.model.ModelEntity, java.lang.String)
      */
@@ -831,6 +898,7 @@ public class GenericDelegator implements Delegator {
 
             if (value != null) {
                 value.setDelegator(this);
+                this.journalChange(EntityEcaHandler.OP_CREATE, value, null);
                 if (value.lockEnabled()) {
                     refresh(value);
                 } else {
@@ -887,6 +955,7 @@ public class GenericDelegator implements Delegator {
             }
             if (value != null) {
                 value.setDelegator(this);
+                this.journalChange(EntityEcaHandler.OP_CREATE, value, null);
                 if (value.lockEnabled()) {
                     refresh(value);
                 } else {
@@ -994,6 +1063,9 @@ public class GenericDelegator implements Delegator {
                 removedEntity = this.findOne(primaryKey.getEntityName(), primaryKey, false);
             }
             int num = helper.removeByPrimaryKey(primaryKey);
+            if (num > 0) {
+                this.journalChange(EntityEcaHandler.OP_REMOVE, primaryKey, Collections.<String>emptyList());
+            }
 
             // doCacheClear
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_REMOVE, primaryKey, false);
@@ -1050,6 +1122,9 @@ public class GenericDelegator implements Delegator {
             int num = helper.removeByPrimaryKey(value.getPrimaryKey());
             // Need to call removedFromDatasource() here because the helper calls removedFromDatasource() on the PK instead of the GenericEntity.
             value.removedFromDatasource();
+            if (num > 0) {
+                this.journalChange(EntityEcaHandler.OP_REMOVE, value, Collections.<String>emptyList());
+            }
 
             // doCacheClear
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_REMOVE, value, false);
@@ -1114,6 +1189,9 @@ public class GenericDelegator implements Delegator {
             int rowsAffected = helper.removeByCondition(this, modelEntity, condition);
             if (rowsAffected > 0) {
                 this.clearCacheLine(entityName);
+                if (this.changeJournal != null) {
+                    this.changeJournal.addConditionChange(EntityEcaHandler.OP_REMOVE, entityName, null);
+                }
             }
 
             if (testMode) {
@@ -1196,6 +1274,9 @@ public class GenericDelegator implements Delegator {
             int rowsAffected =  helper.storeByCondition(this, modelEntity, fieldsToSet, condition);
             if (rowsAffected > 0) {
                 this.clearCacheLine(entityName);
+                if (this.changeJournal != null) {
+                    this.changeJournal.addConditionChange(EntityEcaHandler.OP_STORE, entityName, fieldsToSet.keySet());
+                }
             }
 
             if (testMode) {
@@ -1241,7 +1322,15 @@ public class GenericDelegator implements Delegator {
                 updatedEntity = this.findOne(value.getEntityName(), value.getPrimaryKey(), false);
             }
 
+            // the fields changed have to be known before the store takes the new snapshot of the value
+            List<String> changedFields = null;
+            if (this.changeJournal != null) {
+                changedFields = EntityChangeJournal.getChangedFields(value, true);
+            }
             int retVal = helper.store(value);
+            if (changedFields != null) {
+                this.journalChange(EntityEcaHandler.OP_STORE, value, changedFields);
+            }
 
             // doCacheClear
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, value, false);
@@ -1286,6 +1375,10 @@ public class GenericDelegator implements Delegator {
         // if no store options passed, use default
         if (storeOptions == null) storeOptions = new EntityStoreOptions();
 
+        if (storeOptions.isBulkUpsert()) {
+            return this.storeAllBulk(values, storeOptions);
+        }
+
         int numberChanged = 0;
 
         boolean beganTransaction = false;
@@ -1352,6 +1445,190 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /**
+     * Bulk upsert implementation of storeAll: consecutive values of the same entity are split in chunks, the existing
+     * values of each chunk are found with a single query and the resulting creates and updates are sent to the helper
+     * as JDBC batches. The entity ECA rules, audit log and cache clearing are run for each value, but not in the order
+     * of create and store: in each chunk the validate and run rules of all the created values are evaluated before the
+     * batch insert, then the cache-clear and return rules of each of them, and only then the same for the stored values.
+     */
+    protected int storeAllBulk(List<GenericValue> values, EntityStoreOptions storeOptions) throws GenericEntityException {
+        int chunkSize = Math.max(storeOptions.getChunkSize(), 1);
+        int numberChanged = 0;
+
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+
+            List<GenericValue> chunk = new LinkedList<GenericValue>();
+            for (GenericValue value: values) {
+                if (!chunk.isEmpty() && (chunk.size() >= chunkSize || !chunk.get(0).getEntityName().equals(value.getEntityName()))) {
+                    numberChanged += storeAllChunk(chunk, storeOptions);
+                    chunk.clear();
+                }
+                chunk.add(value);
+            }
+            numberChanged += storeAllChunk(chunk, storeOptions);
+
+            TransactionUtil.commit(beganTransaction);
+            return numberChanged;
+        } catch (Exception e) {
+            String errMsg = "Failure in storeAll bulk operation: " + e.toString() + ". Rolling back transaction.";
+            Debug.logError(e, errMsg, module);
+            TransactionUtil.rollback(beganTransaction, errMsg, e);
+            throw new GenericEntityException(e);
+        }
+    }
+
+    private int storeAllChunk(List<GenericValue> chunk, EntityStoreOptions storeOptions) throws GenericEntityException {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        ModelEntity modelEntity = chunk.get(0).getModelEntity();
+        GenericHelper helper = getEntityHelper(modelEntity);
+
+        // find all existing values of the chunk in a single query
+        // NOTE: like in storeAll don't use a find method because we don't want the ECA events to fire and such
+        List<EntityCondition> pkConditions = new LinkedList<EntityCondition>();
+        List<Object> pkValues = new LinkedList<Object>();
+        for (GenericValue value: chunk) {
+            GenericPK primaryKey = value.getPrimaryKey();
+            if (!primaryKey.isPrimaryKey()) {
+                throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
+            }
+            if (modelEntity.getPksSize() == 1) {
+                pkValues.add(primaryKey.get(modelEntity.getOnlyPk().getName()));
+            } else {
+                pkConditions.add(EntityCondition.makeCondition(primaryKey.getAllFields()));
+            }
+        }
+        EntityCondition condition;
+        if (modelEntity.getPksSize() == 1) {
+            condition = EntityCondition.makeCondition(modelEntity.getOnlyPk().getName(), EntityOperator.IN, pkValues);
+        } else {
+            condition = EntityCondition.makeCondition(pkConditions, EntityOperator.OR);
+        }
+        Map<GenericPK, GenericValue> existingValues = new HashMap<GenericPK, GenericValue>();
+        EntityListIterator existingIterator = helper.findListIteratorByCondition(this, modelEntity, condition, null, null, null, null);
+        try {
+            GenericValue existing;
+            while ((existing = existingIterator.next()) != null) {
+                existingValues.put(existing.getPrimaryKey(), existing);
+            }
+        } finally {
+            existingIterator.close();
+        }
+
+        // diff against the existing values, only sending the fields that have changed
+        List<GenericValue> valuesToCreate = new LinkedList<GenericValue>();
+        List<GenericValue> valuesToStore = new LinkedList<GenericValue>();
+        List<GenericValue> storedOriginals = new LinkedList<GenericValue>();
+        for (GenericValue value: chunk) {
+            GenericPK primaryKey = value.getPrimaryKey();
+            GenericValue existing = existingValues.get(primaryKey);
+            if (existing == null) {
+                if (storeOptions.isCreateDummyFks()) {
+                    value.checkFks(true);
+                }
+                valuesToCreate.add(value);
+                // the same primary key found later in the chunk will be an update of this value
+                existingValues.put(primaryKey, GenericValue.create(value));
+            } else {
+                GenericValue toStore = GenericValue.create(this, modelEntity, primaryKey);
+                boolean atLeastOneField = false;
+                Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
+                while (nonPksIter.hasNext()) {
+                    ModelField modelField = nonPksIter.next();
+                    String fieldName = modelField.getName();
+                    if (value.containsKey(fieldName)) {
+                        Object fieldValue = value.get(fieldName);
+                        Object oldValue = existing.get(fieldName);
+                        if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
+                            toStore.put(fieldName, fieldValue);
+                            atLeastOneField = true;
+                        }
+                    }
+                }
+
+                if (atLeastOneField) {
+                    if (storeOptions.isCreateDummyFks()) {
+                        value.checkFks(true);
+                    }
+                    // keeps the stamp fields of the value, eg for a data import that maintains the time stamps
+                    toStore.setIsFromEntitySync(value.getIsFromEntitySync());
+                    valuesToStore.add(toStore);
+                    storedOriginals.add(existing);
+                    GenericValue merged = GenericValue.create(existing);
+                    merged.setNonPKFields(toStore.getAllFields());
+                    existingValues.put(primaryKey, merged);
+                }
+            }
+        }
+
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(modelEntity.getEntityName());
+        int numberChanged = 0;
+        if (!valuesToCreate.isEmpty()) {
+            for (GenericValue value: valuesToCreate) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_CREATE, value, false);
+                ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_CREATE, value, false);
+                value.setDelegator(this);
+                // if audit log on for any fields, save new value with no old value because it's a create
+                if (modelEntity.getHasFieldWithAuditLog()) {
+                    createEntityAuditLogAll(value, false, false);
+                }
+            }
+
+            helper.createAll(valuesToCreate);
+            numberChanged += valuesToCreate.size();
+
+            for (GenericValue value: valuesToCreate) {
+                this.journalChange(EntityEcaHandler.OP_CREATE, value, null);
+                if (testMode) {
+                    storeForTestRollback(new TestOperation(OperationType.INSERT, value));
+                }
+                if (value.lockEnabled()) {
+                    refresh(value);
+                } else {
+                    // doCacheClear
+                    ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_CREATE, value, false);
+                    this.clearCacheLine(value);
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_CREATE, value, false);
+            }
+        }
+        if (!valuesToStore.isEmpty()) {
+            for (GenericValue value: valuesToStore) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_STORE, value, false);
+                ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_STORE, value, false);
+                // if audit log on for any fields, save old value before the update so we still have both
+                if (modelEntity.getHasFieldWithAuditLog()) {
+                    createEntityAuditLogAll(value, true, false);
+                }
+            }
+
+            numberChanged += helper.storeAll(valuesToStore);
+
+            Iterator<GenericValue> storedOriginalsIter = storedOriginals.iterator();
+            for (GenericValue value: valuesToStore) {
+                GenericValue storedOriginal = storedOriginalsIter.next();
+                // the value only holds the fields that differ from the stored one
+                this.journalChange(EntityEcaHandler.OP_STORE, value, null);
+                // doCacheClear
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, value, false);
+                this.clearCacheLine(value);
+                if (testMode) {
+                    storeForTestRollback(new TestOperation(OperationType.UPDATE, storedOriginal));
+                }
+                // refresh the valueObject to get the new version
+                if (value.lockEnabled()) {
+                    refresh(value);
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_STORE, value, false);
+            }
+        }
+        return numberChanged;
+    }
+
     /* (non-Javadoc)
      * @see org.apache.ofbiz.entity.Delegator#removeAll(java.lang.String)
      */
@@ -1423,6 +1700,8 @@ public class GenericDelegator implements Delegator {
             }
         }
 
+        // the values that go to the cache are read from the datasource of the group, a replica may be behind
+        boolean replicaRead = !useCache && isReplicaRead(null);
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1431,7 +1710,7 @@ public class GenericDelegator implements Delegator {
 
             ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_FIND, primaryKey, false);
 
-            GenericHelper helper = getEntityHelper(entityName);
+            GenericHelper helper = getEntityHelper(entityName, replicaRead);
             GenericValue value = null;
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, primaryKey, false);
@@ -1468,6 +1747,7 @@ public class GenericDelegator implements Delegator {
      */
     @Override
     public GenericValue findByPrimaryKeyPartial(GenericPK primaryKey, Set<String> keys) throws GenericEntityException {
+        boolean replicaRead = isReplicaRead(null);
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1477,7 +1757,7 @@ public class GenericDelegator implements Delegator {
             EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(primaryKey.getEntityName());
             ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_FIND, primaryKey, false);
 
-            GenericHelper helper = getEntityHelper(primaryKey.getEntityName());
+            GenericHelper helper = getEntityHelper(primaryKey.getEntityName(), replicaRead);
             GenericValue value = null;
 
             if (!primaryKey.isPrimaryKey()) {
@@ -1524,6 +1804,11 @@ public class GenericDelegator implements Delegator {
      */
     @Override
     public EntityListIterator find(String entityName, EntityCondition whereEntityCondition, EntityCondition havingEntityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions) throws GenericEntityException {
+        return find(entityName, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions, isReplicaRead(findOptions));
+    }
+
+    /** Like {@link #find(String, EntityCondition, EntityCondition, Set, List, EntityFindOptions)}, reading from the read datasources of the entity group if replicaRead is true and the group has some */
+    protected EntityListIterator find(String entityName, EntityCondition whereEntityCondition, EntityCondition havingEntityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean replicaRead) throws GenericEntityException {
 
         // if there is no transaction throw an exception, we don't want to create a transaction here since closing it would mess up the ELI
         if (!TransactionUtil.isTransactionInPlace()) {
@@ -1547,7 +1832,7 @@ public class GenericDelegator implements Delegator {
         }
 
         ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
-        GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+        GenericHelper helper = getEntityHelper(modelEntity.getEntityName(), replicaRead);
         EntityListIterator eli = helper.findListIteratorByCondition(this, modelEntity, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions);
         eli.setDelegator(this);
 
@@ -1560,6 +1845,13 @@ public class GenericDelegator implements Delegator {
      */
     @Override
     public List<GenericValue> findList(String entityName, EntityCondition entityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean useCache) throws GenericEntityException {
+        // the lists that go to the cache are read from the datasource of the group unless a replica is asked for, a replica may be behind
+        boolean replicaRead = (!useCache || (findOptions != null && findOptions.getUseReplica())) && isReplicaRead(findOptions);
+        return findList(entityName, entityCondition, fieldsToSelect, orderBy, findOptions, useCache, replicaRead);
+    }
+
+    /** Like {@link #findList(String, EntityCondition, Set, List, EntityFindOptions, boolean)}, reading from the read datasources of the entity group if replicaRead is true and the group has some */
+    protected List<GenericValue> findList(String entityName, EntityCondition entityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean useCache, boolean replicaRead) throws GenericEntityException {
 
         EntityEcaRuleRunner<?> ecaRunner = null;
         GenericValue dummyValue = null;
@@ -1584,7 +1876,7 @@ public class GenericDelegator implements Delegator {
             EntityListIterator eli = null;
             List<GenericValue> list = null;
             try {
-                eli = this.find(entityName, entityCondition, null, fieldsToSelect, orderBy, findOptions);
+                eli = this.find(entityName, entityCondition, null, fieldsToSelect, orderBy, findOptions, replicaRead);
                 list = eli.getCompleteList();
             } finally {
                 if (eli != null) {
@@ -1627,7 +1919,7 @@ public class GenericDelegator implements Delegator {
         if (whereEntityCondition != null) whereEntityCondition.checkCondition(modelViewEntity);
         if (havingEntityCondition != null) havingEntityCondition.checkCondition(modelViewEntity);
 
-        GenericHelper helper = getEntityHelper(dynamicViewEntity.getOneRealEntityName());
+        GenericHelper helper = getEntityHelper(dynamicViewEntity.getOneRealEntityName(), isReplicaRead(findOptions));
         EntityListIterator eli = helper.findListIteratorByCondition(this, modelViewEntity, whereEntityCondition,
                 havingEntityCondition, fieldsToSelect, orderBy, findOptions);
         eli.setDelegator(this);
@@ -1642,6 +1934,7 @@ public class GenericDelegator implements Delegator {
     public long findCountByCondition(String entityName, EntityCondition whereEntityCondition,
             EntityCondition havingEntityCondition, EntityFindOptions findOptions) throws GenericEntityException {
 
+        boolean replicaRead = isReplicaRead(findOptions);
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1661,7 +1954,7 @@ public class GenericDelegator implements Delegator {
             }
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
-            GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+            GenericHelper helper = getEntityHelper(modelEntity.getEntityName(), replicaRead);
             long count = helper.findCountByCondition(this, modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, dummyValue, false);
@@ -1680,6 +1973,7 @@ public class GenericDelegator implements Delegator {
      */
     @Override
     public List<GenericValue> getMultiRelation(GenericValue value, String relationNameOne, String relationNameTwo, List<String> orderBy) throws GenericEntityException {
+        boolean replicaRead = isReplicaRead(null);
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1694,7 +1988,7 @@ public class GenericDelegator implements Delegator {
             ModelRelation modelRelationTwo = modelEntityOne.getRelation(relationNameTwo);
             ModelEntity modelEntityTwo = getModelEntity(modelRelationTwo.getRelEntityName());
 
-            GenericHelper helper = getEntityHelper(modelEntity);
+            GenericHelper helper = getEntityHelper(modelEntity.getEntityName(), replicaRead);
             List<GenericValue> result = helper.findByMultiRelation(value, modelRelationOne, modelEntityOne, modelRelationTwo, modelEntityTwo, orderBy);
             TransactionUtil.commit(beganTransaction);
             return result;
@@ -1779,6 +2073,238 @@ public class GenericDelegator implements Delegator {
         return this.findOne(relation.getRelEntityName(), fields, useCache);
     }
 
+    /* (non-Javadoc)
+     * @see org.apache.ofbiz.entity.Delegator#getRelatedForList(java.lang.String, java.util.Map, java.util.List, java.util.List, boolean)
+     */
+    @Override
+    public List<List<GenericValue>> getRelatedForList(String relationName, Map<String, ? extends Object> byAndFields, List<String> orderBy, List<GenericValue> values, boolean useCache) throws GenericEntityException {
+        List<List<GenericValue>> relatedLists = new ArrayList<List<GenericValue>>(values.size());
+        if (values.isEmpty()) {
+            return relatedLists;
+        }
+        ModelRelation relation = getRelationForList(relationName, values);
+        String relEntityName = relation.getRelEntityName();
+        EntityEcaRuleRunner<?> ecaRunner = null;
+        GenericValue dummyValue = null;
+        if (useCache) {
+            ecaRunner = this.getEcaRuleRunner(relEntityName);
+            dummyValue = GenericValue.create(getModelReader().getModelEntity(relEntityName));
+            ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, dummyValue, false);
+        }
+
+        // the related values of each distinct key, in the order they are returned by the query
+        Map<List<Object>, List<GenericValue>> relatedByKey = new HashMap<List<Object>, List<GenericValue>>();
+        Map<List<Object>, Map<String, Object>> keysToFind = new LinkedHashMap<List<Object>, Map<String, Object>>();
+        List<List<Object>> valueKeys = new ArrayList<List<Object>>(values.size());
+        for (GenericValue value : values) {
+            List<Object> key = makeRelationKey(relation, value);
+            valueKeys.add(key);
+            if (key == null || relatedByKey.containsKey(key) || keysToFind.containsKey(key)) {
+                continue;
+            }
+            // same fields as getRelated so that the cache lines are shared
+            Map<String, Object> fields = new HashMap<String, Object>();
+            if (byAndFields != null) {
+                fields.putAll(byAndFields);
+            }
+            for (ModelKeyMap keyMap : relation.getKeyMaps()) {
+                fields.put(keyMap.getRelFieldName(), value.get(keyMap.getFieldName()));
+            }
+            if (useCache) {
+                List<GenericValue> cacheList = this.cache.get(relEntityName, EntityCondition.makeCondition(fields), orderBy);
+                if (cacheList != null) {
+                    relatedByKey.put(key, cacheList);
+                    continue;
+                }
+            }
+            keysToFind.put(key, fields);
+        }
+
+        if (!keysToFind.isEmpty()) {
+            for (List<Object> key : keysToFind.keySet()) {
+                relatedByKey.put(key, new LinkedList<GenericValue>());
+            }
+            for (GenericValue relatedValue : findRelatedByKeys(relation, byAndFields, keysToFind.keySet(), orderBy, useCache)) {
+                List<GenericValue> relatedList = relatedByKey.get(makeRelatedKey(relation, relatedValue));
+                if (relatedList != null) {
+                    relatedList.add(relatedValue);
+                }
+            }
+            if (useCache) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
+                for (Map.Entry<List<Object>, Map<String, Object>> entry : keysToFind.entrySet()) {
+                    this.cache.put(relEntityName, EntityCondition.makeCondition(entry.getValue()), orderBy, relatedByKey.get(entry.getKey()));
+                }
+            }
+        }
+
+        Iterator<GenericValue> valueIter = values.iterator();
+        for (List<Object> key : valueKeys) {
+            GenericValue value = valueIter.next();
+            if (key == null) {
+                // a key field is null, getRelated does an IS NULL lookup in that case
+                relatedLists.add(this.getRelated(relationName, byAndFields, orderBy, value, useCache));
+            } else if (useCache) {
+                relatedLists.add(relatedByKey.get(key));
+            } else {
+                relatedLists.add(new LinkedList<GenericValue>(relatedByKey.get(key)));
+            }
+        }
+        return relatedLists;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.ofbiz.entity.Delegator#getRelatedOneForList(java.lang.String, java.util.List, boolean)
+     */
+    @Override
+    public List<GenericValue> getRelatedOneForList(String relationName, List<GenericValue> values, boolean useCache) throws GenericEntityException {
+        List<GenericValue> relatedValues = new ArrayList<GenericValue>(values.size());
+        if (values.isEmpty()) {
+            return relatedValues;
+        }
+        ModelRelation relation = getRelationForList(relationName, values);
+        if (!"one".equals(relation.getType()) && !"one-nofk".equals(relation.getType())) {
+            throw new GenericModelException("Relation is not a 'one' or a 'one-nofk' relation: " + relationName + " of entity " + values.get(0).getEntityName());
+        }
+        String relEntityName = relation.getRelEntityName();
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(relEntityName);
+
+        Map<List<Object>, GenericValue> relatedByKey = new HashMap<List<Object>, GenericValue>();
+        Map<List<Object>, GenericPK> keysToFind = new LinkedHashMap<List<Object>, GenericPK>();
+        List<List<Object>> valueKeys = new ArrayList<List<Object>>(values.size());
+        for (GenericValue value : values) {
+            List<Object> key = makeRelationKey(relation, value);
+            valueKeys.add(key);
+            if (key == null || relatedByKey.containsKey(key) || keysToFind.containsKey(key)) {
+                continue;
+            }
+            Map<String, Object> fields = new HashMap<String, Object>();
+            for (ModelKeyMap keyMap : relation.getKeyMaps()) {
+                fields.put(keyMap.getRelFieldName(), value.get(keyMap.getFieldName()));
+            }
+            GenericPK primaryKey = this.makePK(relEntityName, fields);
+            if (!primaryKey.isPrimaryKey()) {
+                throw new GenericModelException("[GenericDelegator.getRelatedOneForList] Relation " + relationName + " does not map to the primary key of " + relEntityName);
+            }
+            if (useCache) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, primaryKey, false);
+                GenericValue cachedValue = cache.get(primaryKey);
+                if (cachedValue != null) {
+                    relatedByKey.put(key, cachedValue == GenericValue.NULL_VALUE ? null : cachedValue);
+                    continue;
+                }
+            }
+            keysToFind.put(key, primaryKey);
+        }
+
+        if (!keysToFind.isEmpty()) {
+            for (GenericValue relatedValue : findRelatedByKeys(relation, null, keysToFind.keySet(), null, useCache)) {
+                relatedByKey.put(makeRelatedKey(relation, relatedValue), relatedValue);
+            }
+            for (Map.Entry<List<Object>, GenericPK> entry : keysToFind.entrySet()) {
+                GenericValue relatedValue = relatedByKey.get(entry.getKey());
+                if (useCache) {
+                    if (relatedValue != null) {
+                        ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, relatedValue, false);
+                        this.putInPrimaryKeyCache(entry.getValue(), relatedValue);
+                    } else {
+                        this.putInPrimaryKeyCache(entry.getValue(), GenericValue.NULL_VALUE);
+                    }
+                }
+                relatedByKey.put(entry.getKey(), relatedValue);
+            }
+        }
+
+        Iterator<GenericValue> valueIter = values.iterator();
+        for (List<Object> key : valueKeys) {
+            GenericValue value = valueIter.next();
+            if (key == null) {
+                relatedValues.add(this.getRelatedOne(relationName, value, useCache));
+            } else {
+                relatedValues.add(relatedByKey.get(key));
+            }
+        }
+        return relatedValues;
+    }
+
+    private ModelRelation getRelationForList(String relationName, List<GenericValue> values) throws GenericEntityException {
+        String entityName = values.get(0).getEntityName();
+        for (GenericValue value : values) {
+            if (!entityName.equals(value.getEntityName())) {
+                throw new GenericModelException("Cannot get the related values of a list of values of different entities: " + entityName + " and " + value.getEntityName());
+            }
+        }
+        ModelRelation relation = values.get(0).getModelEntity().getRelation(relationName);
+        if (relation == null) {
+            throw new GenericModelException("Could not find relation for relationName: " + relationName + " for entity " + entityName);
+        }
+        return relation;
+    }
+
+    /** Returns the values of the relation fields of a value, or null if one of them is null */
+    private static List<Object> makeRelationKey(ModelRelation relation, GenericValue value) {
+        List<Object> key = new ArrayList<Object>(relation.getKeyMaps().size());
+        for (ModelKeyMap keyMap : relation.getKeyMaps()) {
+            Object keyValue = value.get(keyMap.getFieldName());
+            if (keyValue == null) {
+                return null;
+            }
+            key.add(keyValue);
+        }
+        return key;
+    }
+
+    /** Returns the values of the related fields of a related value, in the same order as makeRelationKey */
+    private static List<Object> makeRelatedKey(ModelRelation relation, GenericValue relatedValue) {
+        List<Object> key = new ArrayList<Object>(relation.getKeyMaps().size());
+        for (ModelKeyMap keyMap : relation.getKeyMaps()) {
+            key.add(relatedValue.get(keyMap.getRelFieldName()));
+        }
+        return key;
+    }
+
+    /** Reads the related values of all the keys, with an IN condition for single field relations and an OR of the key fields otherwise, a chunk of keys per query; the values that go to the cache are read from the datasource of the group */
+    private List<GenericValue> findRelatedByKeys(ModelRelation relation, Map<String, ? extends Object> byAndFields, Collection<List<Object>> keys, List<String> orderBy, boolean useCache) throws GenericEntityException {
+        List<ModelKeyMap> keyMaps = relation.getKeyMaps();
+        // the values that go to the cache are read from the datasource of the group, a replica may be behind
+        boolean replicaRead = !useCache && isReplicaRead(null);
+        // keep the number of bind parameters of a query well below the database limits (eg 1000 IN values on Oracle, 2100 parameters on SQL Server)
+        int chunkSize = Math.max(1, RELATED_KEYS_PER_QUERY / keyMaps.size());
+        List<GenericValue> relatedValues = new LinkedList<GenericValue>();
+        List<List<Object>> chunk = new ArrayList<List<Object>>(Math.min(chunkSize, keys.size()));
+        Iterator<List<Object>> keyIter = keys.iterator();
+        while (keyIter.hasNext()) {
+            chunk.add(keyIter.next());
+            if (chunk.size() < chunkSize && keyIter.hasNext()) {
+                continue;
+            }
+            EntityCondition keyCondition;
+            if (keyMaps.size() == 1) {
+                List<Object> inValues = new ArrayList<Object>(chunk.size());
+                for (List<Object> key : chunk) {
+                    inValues.add(key.get(0));
+                }
+                keyCondition = EntityCondition.makeCondition(keyMaps.get(0).getRelFieldName(), EntityOperator.IN, inValues);
+            } else {
+                List<EntityCondition> keyConditions = new ArrayList<EntityCondition>(chunk.size());
+                for (List<Object> key : chunk) {
+                    Map<String, Object> keyFields = new HashMap<String, Object>();
+                    for (int i = 0; i < keyMaps.size(); i++) {
+                        keyFields.put(keyMaps.get(i).getRelFieldName(), key.get(i));
+                    }
+                    keyConditions.add(EntityCondition.makeCondition(keyFields));
+                }
+                keyCondition = EntityCondition.makeCondition(keyConditions, EntityOperator.OR);
+            }
+            if (UtilValidate.isNotEmpty(byAndFields)) {
+                keyCondition = EntityCondition.makeCondition(EntityCondition.makeCondition(byAndFields), keyCondition);
+            }
+            relatedValues.addAll(this.findList(relation.getRelEntityName(), keyCondition, null, orderBy, null, false, replicaRead));
+            chunk.clear();
+        }
+        return relatedValues;
+    }
+
 
     // ======================================
     // ======= Cache Related Methods ========
@@ -2065,6 +2591,30 @@ public class GenericDelegator implements Delegator {
         this.distributedCacheClear.set(new ConstantFuture<DistributedCacheClear>(distributedCacheClear));
     }
 
+    /* (non-Javadoc)
+     * @see org.apache.ofbiz.entity.Delegator#getChangeJournal()
+     */
+    @Override
+    public EntityChangeJournal getChangeJournal() {
+        return this.changeJournal;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.ofbiz.entity.Delegator#setChangeJournal(org.apache.ofbiz.entity.journal.EntityChangeJournal)
+     */
+    @Override
+    public void setChangeJournal(EntityChangeJournal changeJournal) {
+        this.changeJournal = changeJournal;
+    }
+
+    /** Adds the change to the change journal if there is one; when changedFields is null the fields set on the value are used */
+    protected void journalChange(String operation, GenericEntity value, List<String> changedFields) {
+        EntityChangeJournal journal = this.changeJournal;
+        if (journal != null) {
+            journal.addChange(operation, value, changedFields != null ? changedFields : EntityChangeJournal.getChangedFields(value, false));
+        }
+    }
+
     // ======= XML Related Methods ========
     /* (non-Javadoc)
      * @see org.apache.ofbiz.entity.Delegator#readXmlDocument(java.net.URL)
@@ -2179,16 +2729,64 @@ public class GenericDelegator implements Delegator {
     // ======= Misc Methods ========
 
     protected static class EntityEcaRuleRunner<T> {
+        protected static final String[] events = {EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.EV_RUN, EntityEcaHandler.EV_RETURN,
+                EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.EV_CACHE_PUT};
+        protected static final String[] operations = {EntityEcaHandler.OP_CREATE, EntityEcaHandler.OP_STORE, EntityEcaHandler.OP_REMOVE, EntityEcaHandler.OP_FIND};
+        /** Set in the rule mask when there are rules on an event not listed above */
+        protected static final int OTHER_EVENT_BIT = 1 << 31;
+
         protected EntityEcaHandler<T> entityEcaHandler;
         protected Map<String, List<T>> eventMap;
+        /** The ecaRulesVersion of the delegator read before the event map was */
+        protected final long version;
+        /** One bit per event and operation that has rules, see ruleBit(); zero for an entity without rules */
+        protected final int ruleMask;
 
-        protected EntityEcaRuleRunner(EntityEcaHandler<T> entityEcaHandler, Map<String, List<T>> eventMap) {
+        protected EntityEcaRuleRunner(EntityEcaHandler<T> entityEcaHandler, Map<String, List<T>> eventMap, long version) {
             this.entityEcaHandler = entityEcaHandler;
             this.eventMap = eventMap;
+            this.version = version;
+            int ruleMask = 0;
+            if (entityEcaHandler != null && UtilValidate.isNotEmpty(eventMap)) {
+                for (Map.Entry<String, List<T>> eventEntry: eventMap.entrySet()) {
+                    if (UtilValidate.isEmpty(eventEntry.getValue())) {
+                        continue;
+                    }
+                    if (indexOf(events, eventEntry.getKey()) < 0) {
+                        ruleMask |= OTHER_EVENT_BIT;
+                        continue;
+                    }
+                    for (String operation: operations) {
+                        if (entityEcaHandler.hasRules(eventEntry.getValue(), operation)) {
+                            ruleMask |= ruleBit(eventEntry.getKey(), operation);
+                        }
+                    }
+                }
+            }
+            this.ruleMask = ruleMask;
+        }
+
+        private static int indexOf(String[] names, String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the bit of the event and operation in the rule mask, or all the bits for an event or operation not known here */
+        protected static int ruleBit(String event, String currentOperation) {
+            int eventIndex = indexOf(events, event);
+            int operationIndex = indexOf(operations, currentOperation);
+            if (eventIndex < 0 || operationIndex < 0) {
+                return -1;
+            }
+            return 1 << (eventIndex * operations.length + operationIndex);
         }
 
         protected void evalRules(String event, String currentOperation, GenericEntity value, boolean isError) throws GenericEntityException {
-            if (entityEcaHandler == null) {
+            if ((ruleMask & ruleBit(event, currentOperation)) == 0) {
                 return;
             }
             //if (!"find".equals(currentOperation)) {
@@ -2200,13 +2798,31 @@ public class GenericDelegator implements Delegator {
 
     protected EntityEcaRuleRunner<?> getEcaRuleRunner(String entityName) {
         if (this.testRollbackInProgress) {
-            return createEntityEcaRuleRunner(null, null);
+            return noEcaRuleRunner;
+        }
+        EntityEcaHandler<Object> entityEcaHandler = getEntityEcaHandler();
+        if (entityEcaHandler == null) {
+            return noEcaRuleRunner;
+        }
+        // the runners are built once per entity, they know which events and operations have rules
+        long version = this.ecaRulesVersion.get();
+        EntityEcaRuleRunner<?> ecaRunner = this.ecaRuleRunners.get(entityName);
+        if (ecaRunner != null && ecaRunner.entityEcaHandler == entityEcaHandler && ecaRunner.version == version) {
+            return ecaRunner;
+        }
+        // the version is read before the event map, so a runner built while the rules change carries the old version
+        // and is replaced on the next call instead of being kept after setEntityEcaHandler cleared the runners
+        EntityEcaRuleRunner<?> newRunner = createEntityEcaRuleRunner(entityEcaHandler, entityName, version);
+        if (ecaRunner == null) {
+            this.ecaRuleRunners.putIfAbsent(entityName, newRunner);
+        } else {
+            this.ecaRuleRunners.replace(entityName, ecaRunner, newRunner);
         }
-        return createEntityEcaRuleRunner(getEntityEcaHandler(), entityName);
+        return newRunner;
     }
 
-    protected static <T> EntityEcaRuleRunner<T> createEntityEcaRuleRunner(EntityEcaHandler<T> entityEcaHandler, String entityName) {
-        return new EntityEcaRuleRunner<T>(entityEcaHandler, entityEcaHandler != null ? entityEcaHandler.getEntityEventMap(entityName) : null);
+    protected static <T> EntityEcaRuleRunner<T> createEntityEcaRuleRunner(EntityEcaHandler<T> entityEcaHandler, String entityName, long version) {
+        return new EntityEcaRuleRunner<T>(entityEcaHandler, entityEcaHandler != null ? entityEcaHandler.getEntityEventMap(entityName) : null, version);
     }
 
     /* (non-Javadoc)
@@ -2216,6 +2832,9 @@ public class GenericDelegator implements Delegator {
     public <T> void setEntityEcaHandler(EntityEcaHandler<T> entityEcaHandler) {
         this.entityEcaHandler.set(new ConstantFuture<EntityEcaHandler<?>>(entityEcaHandler));
         this.warnNoEcaHandler = false;
+        // also drops the rules indexed by entity, the handler sets itself again when its rules are reloaded
+        this.ecaRulesVersion.incrementAndGet();
+        this.ecaRuleRunners.clear();
     }
 
     /* (non-Javadoc)
@@ -2411,6 +3030,11 @@ public class GenericDelegator implements Delegator {
         return null;
     }
 
+    @Override
+    public List<Object> decryptFieldValues(String entityName, ModelField.EncryptMethod encryptMethod, List<String> encValues) throws EntityCryptoException {
+        return this.crypto.decryptAll(entityName, encryptMethod, encValues);
+    }
+
     /* (non-Javadoc)
      * @see org.apache.ofbiz.entity.Delegator#setEntityCrypto(org.apache.ofbiz.entity.util.EntityCrypto)
      */
@@ -2527,7 +3151,10 @@ public class GenericDelegator implements Delegator {
         newDelegator.distributedCacheClear.set(this.distributedCacheClear.get());
         newDelegator.originalDelegatorName = getOriginalDelegatorName();
         newDelegator.entityEcaHandler.set(this.entityEcaHandler.get());
+        newDelegator.ecaRuleRunners = this.ecaRuleRunners;
+        newDelegator.ecaRulesVersion = this.ecaRulesVersion;
         newDelegator.crypto = this.crypto;
+        newDelegator.changeJournal = this.changeJournal;
         // In case this delegator is in testMode give it a reference to
         // the rollback list
         newDelegator.testMode = this.testMode;
@@ -55,6 +55,7 @@ import org.apache.ofbiz.entity.condition.EntityFieldMap;
 import org.apache.ofbiz.entity.jdbc.SqlJdbcUtil;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelFieldIndex;
 import org.apache.ofbiz.entity.model.ModelFieldType;
 import org.apache.ofbiz.entity.model.ModelKeyMap;
 import org.apache.ofbiz.entity.model.ModelRelation;
@@ -88,18 +89,16 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     /** Reference to an instance of GenericDelegator used to do some basic operations on this entity value. If null various methods in this class will fail. This is automatically set by the GenericDelegator for all GenericValue objects instantiated through it. You may set this manually for objects you instantiate manually, but it is optional. */
     private transient Delegator internalDelegator = null;
 
-    /** A Map containing the original field values from the database.
+    /** Contains the fields for this entity. The values are kept in an array indexed by
+     *  the position of the field in the ModelEntity, see GenericEntityFields. The storage
+     *  allows for two things: non-synchronized reads (synchronized writes are done through
+     *  synchronized setters) and being able to store null values. Null values are important
+     *  because with them we can distinguish between desiring to set a value to null and
+     *  desiring to not modify the current value on an update.
+     *  The original field values from the database are tracked by the same object.
+     *  It is made by init with the field index of the model, see fields().
      */
-    private Map<String, Object> originalDbValues = null;
-
-    /** Contains the fields for this entity. Note that this should always be a
-     *  HashMap to allow for two things: non-synchronized reads (synchronized
-     *  writes are done through synchronized setters) and being able to store
-     *  null values. Null values are important because with them we can distinguish
-     *  between desiring to set a value to null and desiring to not modify the
-     *  current value on an update.
-     */
-    private Map<String, Object> fields = new HashMap<String, Object>();
+    private GenericEntityFields fields = null;
 
     /** Contains the entityName of this entity, necessary for efficiency when creating EJBs */
     private String entityName = null;
@@ -168,6 +167,22 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         return this.observable;
     }
 
+    /** Returns the fields, made without a field index if the entity was not initialized */
+    private GenericEntityFields fields() {
+        if (this.fields == null) {
+            this.fields = new GenericEntityFields((ModelFieldIndex) null);
+        }
+        return this.fields;
+    }
+
+    private void initFields(ModelFieldIndex index) {
+        if (this.fields == null) {
+            this.fields = new GenericEntityFields(index);
+        } else {
+            this.fields.setIndex(index);
+        }
+    }
+
     /** Creates new GenericEntity */
     protected void init(ModelEntity modelEntity) {
         assertIsMutable();
@@ -176,6 +191,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        initFields(modelEntity.getFieldIndex());
         this.observable = new Observable();
 
         // check some things
@@ -192,6 +208,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        initFields(modelEntity.getFieldIndex());
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -214,6 +231,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        initFields(modelEntity.getFieldIndex());
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -235,7 +253,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         this.entityName = value.getEntityName();
         // NOTE: could call getModelEntity to insure we have a value, just in case the value passed in has been serialized, but might as well leave it null to keep the object light if it isn't there
         this.modelEntity = value.modelEntity;
-        if (value.fields != null) this.fields.putAll(value.fields);
+        if (value.fields != null) this.fields = new GenericEntityFields(value.fields);
         this.delegatorName = value.delegatorName;
         this.internalDelegator = value.internalDelegator;
         this.observable = new Observable(value.observable);
@@ -246,8 +264,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         // from GenericEntity
         this.delegatorName = null;
         this.internalDelegator = null;
-        this.originalDbValues = null;
-        this.fields = new HashMap<String, Object>();
+        this.fields = null;
         this.entityName = null;
         this.modelEntity = null;
         this.generateHashCode = true;
@@ -267,7 +284,9 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         if (!thisPK.equals(newPK)) {
             throw new GenericEntityException("Could not refresh value, new value did not have the same primary key; this PK=" + thisPK + ", new value PK=" + newPK);
         }
-        this.fields = new HashMap<String, Object>(newValue.fields);
+        GenericEntityFields newFields = new GenericEntityFields(newValue.fields());
+        newFields.copySnapshot(fields());
+        this.fields = newFields;
         this.setDelegator(newValue.getDelegator());
         this.generateHashCode = newValue.generateHashCode;
         this.cachedHashCode = newValue.cachedHashCode;
@@ -289,7 +308,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
      */
     public void synchronizedWithDatasource() {
         assertIsMutable();
-        this.originalDbValues = Collections.unmodifiableMap(getAllFields());
+        fields().takeSnapshot();
         this.clearChanged();
     }
 
@@ -312,7 +331,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     public void setImmutable() {
         if (this.mutable) {
             this.mutable = false;
-            this.fields = Collections.unmodifiableMap(this.fields);
+            fields().setImmutable();
         }
     }
 
@@ -341,6 +360,10 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
             if (modelEntity == null) {
                 throw new IllegalStateException("[GenericEntity.getModelEntity] could not find modelEntity for entityName " + entityName);
             }
+            // a deserialized value has its fields by name, an immutable one may be read by other threads
+            if (this.mutable) {
+                fields().setIndex(modelEntity.getFieldIndex());
+            }
         }
         return modelEntity;
     }
@@ -372,7 +395,18 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         if (getModelEntity().getField(name) == null) {
             throw new IllegalArgumentException("The field name (or key) [" + name + "] is not valid for entity [" + this.getEntityName() + "].");
         }
-        return fields.get(name);
+        return fields().get(name);
+    }
+
+    /**
+     * Returns the value of the field at a position of a field index, see {@link ModelEntity#getFieldIndex()}; the
+     * position is resolved once by the caller instead of looking the field up by name on every call.
+     * @param fieldIndex the field index of the model entity the position was resolved against
+     * @param position the position of the field in the field index
+     * @return the value of the field
+     */
+    public Object get(ModelFieldIndex fieldIndex, int position) {
+        return fields().get(fieldIndex, position);
     }
 
     /** Returns true if the entity contains all of the primary key fields, but NO others. */
@@ -380,13 +414,13 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         return isPrimaryKey(false);
     }
     public boolean isPrimaryKey(boolean requireValue) {
-        TreeSet<String> fieldKeys = new TreeSet<String>(this.fields.keySet());
+        TreeSet<String> fieldKeys = new TreeSet<String>(fields().keySet());
         for (ModelField curPk: this.getModelEntity().getPkFieldsUnmodifiable()) {
             String fieldName = curPk.getName();
             if (requireValue) {
-                if (this.fields.get(fieldName) == null) return false;
+                if (fields().get(fieldName) == null) return false;
             } else {
-                if (!this.fields.containsKey(fieldName)) return false;
+                if (!fields().containsKey(fieldName)) return false;
             }
             fieldKeys.remove(fieldName);
         }
@@ -403,9 +437,9 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         for (ModelField curPk: this.getModelEntity().getPkFieldsUnmodifiable()) {
             String fieldName = curPk.getName();
             if (requireValue) {
-                if (this.fields.get(fieldName) == null) return false;
+                if (fields().get(fieldName) == null) return false;
             } else {
-                if (!this.fields.containsKey(fieldName)) return false;
+                if (!fields().containsKey(fieldName)) return false;
             }
         }
         return true;
@@ -483,14 +517,14 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
                     }
                 }
             }
-            Object old = fields.put(name, value);
+            Object old = fields().put(name, value);
 
             generateHashCode = true;
             this.setChanged();
             this.notifyObservers(name);
             return old;
         } else {
-            return fields.get(name);
+            return fields().get(name);
         }
     }
 
@@ -498,14 +532,14 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         assertIsMutable();
         if (modelField == null) throw new IllegalArgumentException("Cannot set field with a null modelField");
         generateHashCode = true;
-        this.fields.put(modelField.getName(), value);
+        fields().put(modelField.getName(), value);
         this.setChanged();
         this.notifyObservers(modelField.getName());
     }
 
     public Object dangerousGetNoCheckButFast(ModelField modelField) {
         if (modelField == null) throw new IllegalArgumentException("Cannot get field with a null modelField");
-        return this.fields.get(modelField.getName());
+        return fields().get(modelField.getName());
     }
 
     /** Sets the named field to the passed value, converting the value from a String to the corrent type using <code>Type.valueOf()</code>
@@ -994,14 +1028,14 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
      * @return java.util.Collection
      */
     public Collection<String> getAllKeys() {
-        return fields.keySet();
+        return fields().keySet();
     }
 
     /** Returns key/value pairs of entity fields
      * @return java.util.Map
      */
     public Map<String, Object> getAllFields() {
-        return new HashMap<String, Object>(this.fields);
+        return new HashMap<String, Object>(fields());
     }
 
     /** Used by clients to specify exactly the fields they are interested in
@@ -1013,7 +1047,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         Map<String, Object> aMap = new HashMap<String, Object>();
 
         for (String aKey: keysofFields) {
-            aMap.put(aKey, this.fields.get(aKey));
+            aMap.put(aKey, fields().get(aKey));
         }
         return aMap;
     }
@@ -1033,7 +1067,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         if (fields == null) return true;
         if (UtilValidate.isEmpty(keyValuePairs)) return true;
         for (Map.Entry<String, ? extends Object> anEntry: keyValuePairs.entrySet()) {
-            if (!UtilValidate.areEqual(anEntry.getValue(), this.fields.get(anEntry.getKey()))) {
+            if (!UtilValidate.areEqual(anEntry.getValue(), fields().get(anEntry.getKey()))) {
                 return false;
             }
         }
@@ -1281,7 +1315,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         if (obj instanceof GenericEntity) {
             GenericEntity that = (GenericEntity) obj;
-            return this.entityName.equals(that.entityName) && this.fields.equals(that.fields);
+            return this.entityName.equals(that.entityName) && fields().equals(that.fields());
         }
         return false;
     }
@@ -1297,7 +1331,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
             if (getEntityName() != null) {
                 cachedHashCode += getEntityName().hashCode() >> 1;
             }
-            cachedHashCode += fields.hashCode() >> 1;
+            cachedHashCode += fields().hashCode() >> 1;
             generateHashCode = false;
         }
         return cachedHashCode;
@@ -1316,8 +1350,8 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         theString.append(getEntityName());
         theString.append(']');
 
-        for (String curKey: new TreeSet<String>(fields.keySet())) {
-            Object curValue = fields.get(curKey);
+        for (String curKey: new TreeSet<String>(fields().keySet())) {
+            Object curValue = fields().get(curKey);
             ModelField field = this.getModelEntity().getField(curKey);
             if (field.getEncryptMethod().isEncrypted() && curValue instanceof String) {
                 String encryptField = (String) curValue;
@@ -1351,8 +1385,8 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         theString.append(getEntityName());
         theString.append(']');
 
-        for (String curKey: new TreeSet<String>(fields.keySet())) {
-            Object curValue = fields.get(curKey);
+        for (String curKey: new TreeSet<String>(fields().keySet())) {
+            Object curValue = fields().get(curKey);
             theString.append('[');
             theString.append(curKey);
             theString.append(',');
@@ -1366,8 +1400,8 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     }
 
     protected int compareToFields(GenericEntity that, String name) {
-        Comparable<Object> thisVal = UtilGenerics.cast(this.fields.get(name));
-        Object thatVal = that.fields.get(name);
+        Comparable<Object> thisVal = UtilGenerics.cast(fields().get(name));
+        Object thatVal = that.fields().get(name);
 
         if (thisVal == null) {
             if (thatVal == null)
@@ -1434,15 +1468,15 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     // ---- Methods added to implement the Map interface: ----
 
     public Object remove(Object key) {
-        return this.fields.remove(key);
+        return fields().remove(key);
     }
 
     public boolean containsKey(Object key) {
-        return this.fields.containsKey(key);
+        return fields().containsKey(key);
     }
 
     public java.util.Set<Map.Entry<String, Object>> entrySet() {
-        return Collections.unmodifiableMap(this.fields).entrySet();
+        return Collections.unmodifiableMap(fields()).entrySet();
     }
 
     public Object put(String key, Object value) {
@@ -1454,7 +1488,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     }
 
     public void clear() {
-        this.fields.clear();
+        fields().clear();
     }
 
     public Object get(Object key) {
@@ -1462,23 +1496,23 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     }
 
     public java.util.Set<String> keySet() {
-        return Collections.unmodifiableSet(this.fields.keySet());
+        return Collections.unmodifiableSet(fields().keySet());
     }
 
     public boolean isEmpty() {
-        return this.fields.isEmpty();
+        return fields().isEmpty();
     }
 
     public java.util.Collection<Object> values() {
-        return Collections.unmodifiableMap(this.fields).values();
+        return Collections.unmodifiableMap(fields()).values();
     }
 
     public boolean containsValue(Object value) {
-        return this.fields.containsValue(value);
+        return fields().containsValue(value);
     }
 
     public int size() {
-        return this.fields.size();
+        return fields().size();
     }
 
     public boolean matches(EntityCondition condition) {
@@ -1518,15 +1552,14 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     }
 
     public boolean originalDbValuesAvailable() {
-        return this.originalDbValues != null ? true : false;
+        return fields().hasSnapshot();
     }
 
     public Object getOriginalDbValue(String name) {
         if (getModelEntity().getField(name) == null) {
             throw new IllegalArgumentException("[GenericEntity.get] \"" + name + "\" is not a field of " + getEntityName());
         }
-        if (originalDbValues == null) return null;
-        return originalDbValues.get(name);
+        return fields().getOriginal(name);
     }
 
     /**
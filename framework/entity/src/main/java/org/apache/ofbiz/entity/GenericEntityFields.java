@@ -0,0 +1,545 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.ofbiz.base.util.UtilGenerics;
+import org.apache.ofbiz.entity.model.ModelFieldIndex;
+
+/**
+ * Field storage for <code>GenericEntity</code>.
+ * <p>Values are kept in an <code>Object[]</code> indexed by the position of the field in
+ * the <code>ModelFieldIndex</code> of the entity; an empty slot means the field is not set,
+ * and a field explicitly set to null holds a marker so that the two cases stay distinguishable
+ * (an update only writes the fields that are set). Names that are not part of the index,
+ * for example fields added to the model after the index was built, go to an overflow
+ * <code>HashMap</code>.</p>
+ * <p>Instead of copying all values when the entity is synchronized with the data source,
+ * the original values are kept copy-on-write: a <code>BitSet</code> records which positions
+ * have been written since the snapshot and only those previous values are saved.</p>
+ *
+ */
+@SuppressWarnings("serial")
+final class GenericEntityFields extends AbstractMap<String, Object> implements Serializable {
+
+    /** Marker for a field that is set to null; an enum so it survives serialization */
+    private enum NullValue { INSTANCE }
+
+    // the positions only mean something with the index of the model entity, the fields are serialized by name
+    private transient ModelFieldIndex index;
+    private transient Object[] values;
+    private transient int indexedSize = 0;
+    private transient Map<String, Object> overflow = null;
+
+    private boolean immutable = false;
+
+    private boolean snapshotTaken = false;
+    private transient BitSet changed = null;
+    private transient Object[] originalValues = null;
+    private transient Map<String, Object> originalOverflow = null;
+
+    private transient Set<Map.Entry<String, Object>> entrySet = null;
+
+    GenericEntityFields(ModelFieldIndex index) {
+        this.index = index;
+        this.values = index != null ? new Object[index.size()] : null;
+    }
+
+    /** Copy constructor; the copy is mutable and has no original values */
+    GenericEntityFields(GenericEntityFields other) {
+        this.index = other.index;
+        this.values = other.values != null ? other.values.clone() : null;
+        this.indexedSize = other.indexedSize;
+        if (other.overflow != null) {
+            this.overflow = new HashMap<String, Object>(other.overflow);
+        }
+    }
+
+    /**
+     * Moves the values and the original values to the given index; used when the entity learns its model after
+     * values were set, or after deserialization.
+     */
+    void setIndex(ModelFieldIndex newIndex) {
+        if (newIndex == this.index) {
+            return;
+        }
+        if (this.indexedSize == 0 && this.overflow == null && !this.snapshotTaken) {
+            // nothing to move
+            this.index = newIndex;
+            this.values = newIndex != null ? new Object[newIndex.size()] : null;
+            return;
+        }
+        GenericEntityFields previous = new GenericEntityFields(this);
+        previous.snapshotTaken = this.snapshotTaken;
+        previous.changed = this.changed;
+        previous.originalValues = this.originalValues;
+        previous.originalOverflow = this.originalOverflow;
+        this.index = newIndex;
+        this.values = newIndex != null ? new Object[newIndex.size()] : null;
+        this.indexedSize = 0;
+        this.overflow = null;
+        this.snapshotTaken = false;
+        this.changed = null;
+        this.originalValues = null;
+        this.originalOverflow = null;
+        for (Map.Entry<String, Object> entry: previous.entrySet()) {
+            store(entry.getKey(), entry.getValue());
+        }
+        copySnapshot(previous);
+    }
+
+    ModelFieldIndex getIndex() {
+        return this.index;
+    }
+
+    void setImmutable() {
+        this.immutable = true;
+    }
+
+    private void assertIsMutable() {
+        if (this.immutable) {
+            throw new UnsupportedOperationException("Cannot modify the fields of an immutable entity object");
+        }
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NullValue.INSTANCE : value;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NullValue.INSTANCE ? null : value;
+    }
+
+    private int positionOf(Object key) {
+        return this.index != null ? this.index.indexOf(key) : -1;
+    }
+
+    // ---- Original value bookkeeping ----
+
+    /** Marks the current values as the original values from the data source */
+    void takeSnapshot() {
+        this.snapshotTaken = true;
+        this.changed = null;
+        this.originalValues = null;
+        this.originalOverflow = this.overflow != null ? new HashMap<String, Object>(this.overflow) : null;
+    }
+
+    /** Carries the original values of another instance over to this one, see GenericEntity.refreshFromValue */
+    void copySnapshot(GenericEntityFields other) {
+        this.snapshotTaken = false;
+        this.changed = null;
+        this.originalValues = null;
+        this.originalOverflow = null;
+        if (!other.snapshotTaken) {
+            return;
+        }
+        this.snapshotTaken = true;
+        if (this.values != null) {
+            this.changed = new BitSet(this.values.length);
+            this.originalValues = new Object[this.values.length];
+            this.changed.set(0, this.values.length);
+        }
+        if (other.index != null) {
+            for (int i = 0; i < other.index.size(); i++) {
+                Object original = other.originalAt(i);
+                if (original != null) {
+                    copyOriginal(other.index.getName(i), original);
+                }
+            }
+        }
+        if (other.originalOverflow != null) {
+            for (Map.Entry<String, Object> entry: other.originalOverflow.entrySet()) {
+                copyOriginal(entry.getKey(), mask(entry.getValue()));
+            }
+        }
+    }
+
+    private void copyOriginal(String name, Object maskedValue) {
+        int position = positionOf(name);
+        if (position >= 0) {
+            this.originalValues[position] = maskedValue;
+        } else {
+            if (this.originalOverflow == null) {
+                this.originalOverflow = new HashMap<String, Object>();
+            }
+            this.originalOverflow.put(name, unmask(maskedValue));
+        }
+    }
+
+    boolean hasSnapshot() {
+        return this.snapshotTaken;
+    }
+
+    Object getOriginal(String name) {
+        if (!this.snapshotTaken) {
+            return null;
+        }
+        int position = positionOf(name);
+        if (position >= 0) {
+            return unmask(originalAt(position));
+        }
+        return this.originalOverflow != null ? this.originalOverflow.get(name) : null;
+    }
+
+    private Object originalAt(int position) {
+        if (this.changed != null && this.changed.get(position)) {
+            return this.originalValues[position];
+        }
+        return this.values[position];
+    }
+
+    private void beforeWrite(int position) {
+        if (!this.snapshotTaken) {
+            return;
+        }
+        if (this.changed == null) {
+            this.changed = new BitSet(this.values.length);
+            this.originalValues = new Object[this.values.length];
+        }
+        if (!this.changed.get(position)) {
+            this.originalValues[position] = this.values[position];
+            this.changed.set(position);
+        }
+    }
+
+    // ---- Serialization ----
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new HashMap<String, Object>(this));
+        Map<String, Object> originals = null;
+        if (this.snapshotTaken) {
+            originals = new HashMap<String, Object>();
+            if (this.index != null) {
+                for (int i = 0; i < this.index.size(); i++) {
+                    Object original = originalAt(i);
+                    if (original != null) {
+                        originals.put(this.index.getName(i), unmask(original));
+                    }
+                }
+            }
+            if (this.originalOverflow != null) {
+                originals.putAll(this.originalOverflow);
+            }
+        }
+        out.writeObject(originals);
+    }
+
+    /** The fields are read without an index, GenericEntity moves them to the index of its model */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Map<String, Object> current = UtilGenerics.cast(in.readObject());
+        this.overflow = current.isEmpty() ? null : current;
+        this.originalOverflow = UtilGenerics.cast(in.readObject());
+    }
+
+    // ---- Map implementation ----
+
+    private Object store(String key, Object value) {
+        int position = positionOf(key);
+        if (position >= 0) {
+            beforeWrite(position);
+            Object old = this.values[position];
+            if (old == null) {
+                this.indexedSize++;
+            }
+            this.values[position] = mask(value);
+            return unmask(old);
+        }
+        if (this.overflow == null) {
+            this.overflow = new HashMap<String, Object>();
+        }
+        return this.overflow.put(key, value);
+    }
+
+    private Object removeAt(int position) {
+        Object old = this.values[position];
+        if (old != null) {
+            beforeWrite(position);
+            this.values[position] = null;
+            this.indexedSize--;
+        }
+        return unmask(old);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int position = positionOf(key);
+        if (position >= 0) {
+            return unmask(this.values[position]);
+        }
+        return this.overflow != null ? this.overflow.get(key) : null;
+    }
+
+    /** Returns the value at a position of the given index, looking the field up by name if this map uses another index */
+    Object get(ModelFieldIndex expectedIndex, int position) {
+        if (this.index == expectedIndex) {
+            return unmask(this.values[position]);
+        }
+        return get(expectedIndex.getName(position));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int position = positionOf(key);
+        if (position >= 0) {
+            return this.values[position] != null;
+        }
+        return this.overflow != null && this.overflow.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        assertIsMutable();
+        return store(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        assertIsMutable();
+        int position = positionOf(key);
+        if (position >= 0) {
+            return removeAt(position);
+        }
+        return this.overflow != null ? this.overflow.remove(key) : null;
+    }
+
+    @Override
+    public void clear() {
+        assertIsMutable();
+        if (this.values != null) {
+            for (int i = 0; i < this.values.length; i++) {
+                removeAt(i);
+            }
+        }
+        this.overflow = null;
+    }
+
+    @Override
+    public int size() {
+        return this.indexedSize + (this.overflow != null ? this.overflow.size() : 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (this.values != null) {
+            Object masked = mask(value);
+            for (Object current: this.values) {
+                if (current != null && masked.equals(current)) {
+                    return true;
+                }
+            }
+        }
+        return this.overflow != null && this.overflow.containsValue(value);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (this.entrySet == null) {
+            this.entrySet = new EntrySet();
+        }
+        return this.entrySet;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof GenericEntityFields) {
+            GenericEntityFields that = (GenericEntityFields) obj;
+            if (this.index == that.index && this.index != null) {
+                // same layout, compare the arrays directly
+                if (this.indexedSize != that.indexedSize) {
+                    return false;
+                }
+                for (int i = 0; i < this.values.length; i++) {
+                    Object thisValue = this.values[i];
+                    Object thatValue = that.values[i];
+                    if (thisValue == null ? thatValue != null : !thisValue.equals(thatValue)) {
+                        return false;
+                    }
+                }
+                Map<String, Object> thisOverflow = this.overflow != null ? this.overflow : new HashMap<String, Object>();
+                Map<String, Object> thatOverflow = that.overflow != null ? that.overflow : new HashMap<String, Object>();
+                return thisOverflow.equals(thatOverflow);
+            }
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        // same contract as AbstractMap.hashCode, without creating entry objects
+        int hashCode = 0;
+        if (this.values != null) {
+            for (int i = 0; i < this.values.length; i++) {
+                Object value = this.values[i];
+                if (value != null) {
+                    value = unmask(value);
+                    hashCode += this.index.getName(i).hashCode() ^ (value == null ? 0 : value.hashCode());
+                }
+            }
+        }
+        if (this.overflow != null) {
+            hashCode += this.overflow.hashCode();
+        }
+        return hashCode;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return GenericEntityFields.this.size();
+        }
+
+        @Override
+        public void clear() {
+            GenericEntityFields.this.clear();
+        }
+    }
+
+    private final class Entry implements Map.Entry<String, Object> {
+        private final int position;
+
+        private Entry(int position) {
+            this.position = position;
+        }
+
+        public String getKey() {
+            return index.getName(this.position);
+        }
+
+        public Object getValue() {
+            return unmask(values[this.position]);
+        }
+
+        public Object setValue(Object value) {
+            assertIsMutable();
+            beforeWrite(this.position);
+            Object old = values[this.position];
+            values[this.position] = mask(value);
+            return unmask(old);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>) obj;
+            Object value = getValue();
+            return getKey().equals(that.getKey()) && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int nextPosition = -1;
+        private int lastPosition = -1;
+        private Iterator<Map.Entry<String, Object>> overflowIterator = null;
+        private boolean lastFromOverflow = false;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            nextPosition++;
+            while (values != null && nextPosition < values.length && values[nextPosition] == null) {
+                nextPosition++;
+            }
+        }
+
+        private boolean indexedRemaining() {
+            return values != null && nextPosition < values.length;
+        }
+
+        public boolean hasNext() {
+            if (indexedRemaining()) {
+                return true;
+            }
+            if (overflowIterator == null && overflow != null) {
+                overflowIterator = overflow.entrySet().iterator();
+            }
+            return overflowIterator != null && overflowIterator.hasNext();
+        }
+
+        public Map.Entry<String, Object> next() {
+            if (indexedRemaining()) {
+                lastPosition = nextPosition;
+                lastFromOverflow = false;
+                advance();
+                return new Entry(lastPosition);
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastFromOverflow = true;
+            // not the entry of the overflow map, its setValue would bypass the immutable flag
+            return new AbstractMap.SimpleImmutableEntry<String, Object>(overflowIterator.next());
+        }
+
+        public void remove() {
+            assertIsMutable();
+            if (lastFromOverflow) {
+                overflowIterator.remove();
+                lastFromOverflow = false;
+            } else {
+                if (lastPosition < 0) {
+                    throw new IllegalStateException();
+                }
+                removeAt(lastPosition);
+                lastPosition = -1;
+            }
+        }
+    }
+}
@@ -18,9 +18,13 @@
  *******************************************************************************/
 package org.apache.ofbiz.entity.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -33,15 +37,59 @@ import org.apache.ofbiz.entity.GenericPK;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.condition.EntityCondition;
 import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelViewEntity;
 
 public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<EntityCondition, ConcurrentMap<K, V>> {
 
     public static final String module = AbstractEntityConditionCache.class.getName();
 
+    /** The index of the cached conditions of each entity; the cache of an entity is only changed while holding the lock of its index */
+    private final ConcurrentMap<String, EntityConditionIndex> conditionIndexes = new ConcurrentHashMap<String, EntityConditionIndex>();
+
     protected AbstractEntityConditionCache(String delegatorName, String id) {
         super(delegatorName, id);
     }
 
+    protected EntityConditionIndex getConditionIndex(String entityName) {
+        EntityConditionIndex conditionIndex = conditionIndexes.get(entityName);
+        if (conditionIndex == null) {
+            conditionIndex = new EntityConditionIndex();
+            EntityConditionIndex existingIndex = conditionIndexes.putIfAbsent(entityName, conditionIndex);
+            if (existingIndex != null) {
+                conditionIndex = existingIndex;
+            }
+        }
+        return conditionIndex;
+    }
+
+    /**
+     * Returns true if the keys of the values cached for each condition are recorded in the condition index, which
+     * makes it possible to remove only the conditions a changed value matches instead of the whole entity cache.
+     */
+    protected boolean isTrackingMembers() {
+        return false;
+    }
+
+    @Override
+    public void remove(String entityName) {
+        EntityConditionIndex conditionIndex = getConditionIndex(entityName);
+        synchronized (conditionIndex) {
+            super.remove(entityName);
+            conditionIndex.clear();
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (EntityConditionIndex conditionIndex : conditionIndexes.values()) {
+            synchronized (conditionIndex) {
+                conditionIndex.clear();
+            }
+        }
+    }
+
     protected V get(String entityName, EntityCondition condition, K key) {
         ConcurrentMap<K, V> conditionCache = getConditionCache(entityName, condition);
         if (conditionCache == null) return null;
@@ -60,24 +108,97 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
     }
 
     /**
-     * Removes all condition caches that include the specified entity.
+     * Removes the condition caches of the entity that may include the specified value, and all condition caches of
+     * the view entities that include the entity.
+     * <p>When the cache records the values of each condition (see {@link #isTrackingMembers()}) and the value has all
+     * its fields, only the conditions that contained the value and the conditions the value now matches are removed;
+     * otherwise, or when some condition was cached with values without their primary key, all condition caches of the
+     * entity are removed.</p>
      */
     public void remove(GenericEntity entity) {
-        UtilCache.clearCache(getCacheName(entity.getEntityName()));
+        if (!removeMatching(entity)) {
+            remove(entity.getEntityName());
+        }
         ModelEntity model = entity.getModelEntity();
         if (model != null) {
             Iterator<String> it = model.getViewConvertorsIterator();
             while (it.hasNext()) {
                 String targetEntityName = it.next();
-                UtilCache.clearCache(getCacheName(targetEntityName));
+                remove(targetEntityName);
+            }
+        }
+    }
+
+    /** Removes the conditions that contained the value or match it, returns false if that can not be determined */
+    protected boolean removeMatching(GenericEntity entity) {
+        ModelEntity model = entity.getModelEntity();
+        if (!isTrackingMembers() || model == null || model instanceof ModelViewEntity) {
+            return false;
+        }
+        // a partial value (eg a store of some fields only) can not be matched against the conditions
+        for (ModelField field : model.getFieldsUnmodifiable()) {
+            if (!entity.containsKey(field.getName())) {
+                return false;
+            }
+        }
+        String entityName = model.getEntityName();
+        UtilCache<EntityCondition, ConcurrentMap<K, V>> entityCache = getCache(entityName);
+        if (entityCache == null) {
+            return true;
+        }
+        EntityConditionIndex conditionIndex = getConditionIndex(entityName);
+        synchronized (conditionIndex) {
+            // a condition cached with values without their primary key may have contained the old value
+            if (conditionIndex.hasIncompleteMembers()) {
+                return false;
+            }
+            Set<EntityCondition> conditionsToRemove = new HashSet<EntityCondition>();
+            conditionIndex.collectMemberConditions(makeMemberKey(model, entity), conditionsToRemove);
+            Set<EntityCondition> candidates = new HashSet<EntityCondition>();
+            conditionIndex.collectCandidates(entity, candidates);
+            for (EntityCondition condition : candidates) {
+                if (!conditionsToRemove.contains(condition) && conditionMatches(conditionIndex, condition, model, entity)) {
+                    conditionsToRemove.add(condition);
+                }
+            }
+            if (Debug.verboseOn()) Debug.logVerbose("Removing " + conditionsToRemove.size() + " of " + entityCache.size() + " conditions from cache [" + entityCache.getName() + "] for value " + entity.getPrimaryKey(), module);
+            for (EntityCondition condition : conditionsToRemove) {
+                entityCache.remove(condition);
+                conditionIndex.remove(condition);
             }
         }
+        return true;
+    }
+
+    private boolean conditionMatches(EntityConditionIndex conditionIndex, EntityCondition condition, ModelEntity model, GenericEntity entity) {
+        if (condition == null) {
+            return true;
+        }
+        try {
+            return conditionIndex.getPredicate(condition, getDelegator(), model).matches(getDelegator(), entity);
+        } catch (RuntimeException e) {
+            // conditions that can't be evaluated in memory (eg a where string) are always removed
+            return true;
+        }
+    }
+
+    /** Returns the key the value is recorded with in the condition index, the list of its primary key field values */
+    protected static List<Object> makeMemberKey(ModelEntity model, Map<String, ? extends Object> value) {
+        List<Object> memberKey = new ArrayList<Object>(model.getPksSize());
+        for (ModelField pkField : model.getPkFieldsUnmodifiable()) {
+            memberKey.add(value.get(pkField.getName()));
+        }
+        return memberKey;
     }
 
     public void remove(String entityName, EntityCondition condition) {
         UtilCache<EntityCondition, ConcurrentMap<K, V>> cache = getCache(entityName);
         if (cache == null) return;
-        cache.remove(condition);
+        EntityConditionIndex conditionIndex = getConditionIndex(entityName);
+        synchronized (conditionIndex) {
+            cache.remove(condition);
+            conditionIndex.remove(condition);
+        }
     }
 
     protected V remove(String entityName, EntityCondition condition, K key) {
@@ -113,12 +234,44 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         EntityCondition conditionKey = getConditionKey(condition);
         ConcurrentMap<K, V> conditionCache = utilCache.get(conditionKey);
         if (conditionCache == null) {
-            conditionCache = new ConcurrentHashMap<K, V>();
-            utilCache.put(conditionKey, conditionCache);
+            EntityConditionIndex conditionIndex = getConditionIndex(entityName);
+            synchronized (conditionIndex) {
+                conditionCache = utilCache.get(conditionKey);
+                if (conditionCache == null) {
+                    // conditions that expired from the cache are not removed from the index, drop them once in a while
+                    if (conditionIndex.size() > 2 * utilCache.size() + 64) {
+                        conditionIndex.retainAll(utilCache.getCacheLineKeys());
+                    }
+                    conditionIndex.add(conditionKey, getDelegator(), getDelegator().getModelEntity(entityName));
+                    conditionCache = new ConcurrentHashMap<K, V>();
+                    utilCache.put(conditionKey, conditionCache);
+                }
+            }
         }
         return conditionCache;
     }
 
+    /**
+     * Puts a value in the cache of a condition and records the keys of the given member values in the condition index,
+     * in one step so that a concurrent {@link #remove(GenericEntity)} sees either both or none.
+     */
+    protected V putWithMembers(String entityName, EntityCondition condition, K key, V value, Collection<? extends Map<String, Object>> members) {
+        ModelEntity model = this.getDelegator().getModelEntity(entityName);
+        if (!isTrackingMembers() || model instanceof ModelViewEntity) {
+            return getOrCreateConditionCache(entityName, condition).put(key, value);
+        }
+        List<List<Object>> memberKeys = new ArrayList<List<Object>>(members.size());
+        for (Map<String, Object> member : members) {
+            memberKeys.add(makeMemberKey(model, member));
+        }
+        EntityConditionIndex conditionIndex = getConditionIndex(entityName);
+        synchronized (conditionIndex) {
+            Map<K, V> conditionCache = getOrCreateConditionCache(entityName, condition);
+            conditionIndex.addMembers(getConditionKey(condition), getDelegator(), model, memberKeys);
+            return conditionCache.put(key, value);
+        }
+    }
+
     protected static final <K,V> boolean isNull(Map<K,V> value) {
         return value == null || value == GenericEntity.NULL_ENTITY || value == GenericValue.NULL_VALUE;
     }
@@ -25,6 +25,7 @@ import org.apache.ofbiz.base.util.cache.UtilCache;
 import org.apache.ofbiz.entity.GenericPK;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityConditionPredicate;
 import org.apache.ofbiz.entity.model.ModelEntity;
 
 public class EntityCache extends AbstractCache<GenericPK, GenericValue> {
@@ -64,10 +65,13 @@ public class EntityCache extends AbstractCache<GenericPK, GenericValue> {
     public void remove(String entityName, EntityCondition condition) {
         UtilCache<GenericPK, GenericValue> entityCache = getCache(entityName);
         if (entityCache == null) return;
+        EntityConditionPredicate predicate = EntityConditionPredicate.compile(getDelegator(), getDelegator().getModelEntity(entityName), condition);
         for (GenericPK pk: entityCache.getCacheLineKeys()) {
             GenericValue entity = entityCache.get(pk);
             if (entity == null) continue;
-            if (condition.entityMatches(entity)) entityCache.remove(pk);
+            // the marker for a value not found is not a value of the entity
+            boolean matches = entity == GenericValue.NULL_VALUE ? condition.entityMatches(entity) : predicate.matches(entity);
+            if (matches) entityCache.remove(pk);
         }
     }
 
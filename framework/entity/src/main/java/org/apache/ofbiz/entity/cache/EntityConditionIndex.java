@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.cache;
+
+import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntity;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityConditionList;
+import org.apache.ofbiz.entity.condition.EntityConditionPredicate;
+import org.apache.ofbiz.entity.condition.EntityConditionValue;
+import org.apache.ofbiz.entity.condition.EntityExpr;
+import org.apache.ofbiz.entity.condition.EntityFieldMap;
+import org.apache.ofbiz.entity.condition.EntityFieldValue;
+import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+
+/**
+ * Index of the conditions cached for one entity, used to find the cached conditions a changed value
+ * may affect without evaluating every cached condition.
+ * <p>A condition that requires a field to be equal to a constant (at the top level or in a chain of ANDs)
+ * is indexed by that field and the constant converted to the Java type of the field; a value can only match the
+ * condition if it has that value for the field. Conditions without such a constraint, or whose constant can not be
+ * converted to the type of the field, are kept in a separate set and are always candidates.</p>
+ * <p>The primary keys of the values in the cached results of a condition can also be recorded, so that the
+ * conditions a value matched before it was changed can be found without knowing the old value. The results of a
+ * condition selected without all the primary key fields can not be recorded, see {@link #hasIncompleteMembers()}.</p>
+ * <p>This class is not thread safe, callers synchronize on the index instance.</p>
+ *
+ */
+final class EntityConditionIndex {
+
+    private final Map<String, Map<Object, Set<EntityCondition>>> conditionsByField = new HashMap<String, Map<Object, Set<EntityCondition>>>();
+    private final Set<EntityCondition> unindexedConditions = new HashSet<EntityCondition>();
+    /** The field and value each indexed condition is indexed by */
+    private final Map<EntityCondition, Map.Entry<String, Object>> indexEntries = new HashMap<EntityCondition, Map.Entry<String, Object>>();
+    private final Map<Object, Set<EntityCondition>> conditionsByMember = new HashMap<Object, Set<EntityCondition>>();
+    private final Map<EntityCondition, Set<Object>> membersByCondition = new HashMap<EntityCondition, Set<Object>>();
+    /** The conditions with cached values that are missing a primary key field */
+    private final Set<EntityCondition> incompleteMemberConditions = new HashSet<EntityCondition>();
+    /** The compiled conditions, the cached conditions are frozen so they can be compiled once */
+    private final Map<EntityCondition, EntityConditionPredicate> predicates = new HashMap<EntityCondition, EntityConditionPredicate>();
+
+    /** Adds a condition to the index, does nothing if the condition is already indexed */
+    void add(EntityCondition condition, Delegator delegator, ModelEntity modelEntity) {
+        if (indexEntries.containsKey(condition) || unindexedConditions.contains(condition)) {
+            return;
+        }
+        Map.Entry<String, Object> indexEntry = findEqualityConstraint(condition, delegator, modelEntity);
+        if (indexEntry == null) {
+            unindexedConditions.add(condition);
+            return;
+        }
+        indexEntries.put(condition, indexEntry);
+        Map<Object, Set<EntityCondition>> conditionsByValue = conditionsByField.get(indexEntry.getKey());
+        if (conditionsByValue == null) {
+            conditionsByValue = new HashMap<Object, Set<EntityCondition>>();
+            conditionsByField.put(indexEntry.getKey(), conditionsByValue);
+        }
+        Set<EntityCondition> conditions = conditionsByValue.get(indexEntry.getValue());
+        if (conditions == null) {
+            conditions = new HashSet<EntityCondition>();
+            conditionsByValue.put(indexEntry.getValue(), conditions);
+        }
+        conditions.add(condition);
+    }
+
+    /** Records the keys of values in the cached results of a condition, a key with a null primary key field value is not recorded */
+    void addMembers(EntityCondition condition, Delegator delegator, ModelEntity modelEntity, Collection<? extends List<? extends Object>> memberKeys) {
+        add(condition, delegator, modelEntity);
+        Set<Object> members = membersByCondition.get(condition);
+        if (members == null) {
+            members = new HashSet<Object>();
+            membersByCondition.put(condition, members);
+        }
+        for (List<? extends Object> memberKey : memberKeys) {
+            if (memberKey.contains(null)) {
+                incompleteMemberConditions.add(condition);
+            } else if (members.add(memberKey)) {
+                Set<EntityCondition> conditions = conditionsByMember.get(memberKey);
+                if (conditions == null) {
+                    conditions = new HashSet<EntityCondition>();
+                    conditionsByMember.put(memberKey, conditions);
+                }
+                conditions.add(condition);
+            }
+        }
+    }
+
+    void remove(EntityCondition condition) {
+        predicates.remove(condition);
+        incompleteMemberConditions.remove(condition);
+        if (!unindexedConditions.remove(condition)) {
+            Map.Entry<String, Object> indexEntry = indexEntries.remove(condition);
+            if (indexEntry != null) {
+                Map<Object, Set<EntityCondition>> conditionsByValue = conditionsByField.get(indexEntry.getKey());
+                Set<EntityCondition> conditions = conditionsByValue.get(indexEntry.getValue());
+                conditions.remove(condition);
+                if (conditions.isEmpty()) {
+                    conditionsByValue.remove(indexEntry.getValue());
+                    if (conditionsByValue.isEmpty()) {
+                        conditionsByField.remove(indexEntry.getKey());
+                    }
+                }
+            }
+        }
+        Set<Object> members = membersByCondition.remove(condition);
+        if (members != null) {
+            for (Object memberKey : members) {
+                Set<EntityCondition> conditions = conditionsByMember.get(memberKey);
+                conditions.remove(condition);
+                if (conditions.isEmpty()) {
+                    conditionsByMember.remove(memberKey);
+                }
+            }
+        }
+    }
+
+    /** Removes the conditions that are not in the given collection, used to drop conditions that expired from the cache */
+    void retainAll(Collection<? extends EntityCondition> conditions) {
+        Set<EntityCondition> toRemove = new HashSet<EntityCondition>(unindexedConditions);
+        toRemove.addAll(indexEntries.keySet());
+        toRemove.removeAll(new HashSet<EntityCondition>(conditions));
+        for (EntityCondition condition : toRemove) {
+            remove(condition);
+        }
+    }
+
+    void clear() {
+        conditionsByField.clear();
+        unindexedConditions.clear();
+        indexEntries.clear();
+        conditionsByMember.clear();
+        membersByCondition.clear();
+        incompleteMemberConditions.clear();
+        predicates.clear();
+    }
+
+    int size() {
+        return unindexedConditions.size() + indexEntries.size();
+    }
+
+    /**
+     * Returns true if the cached results of a condition have values without their primary key (eg a list selected
+     * with some fields only); the conditions such a value matched before it was changed can not be found.
+     */
+    boolean hasIncompleteMembers() {
+        return !incompleteMemberConditions.isEmpty();
+    }
+
+    /** Adds the conditions the value may match, a superset of the conditions it actually matches */
+    void collectCandidates(Map<String, ? extends Object> value, Set<EntityCondition> candidates) {
+        candidates.addAll(unindexedConditions);
+        for (Map.Entry<String, Map<Object, Set<EntityCondition>>> fieldEntry : conditionsByField.entrySet()) {
+            if (!value.containsKey(fieldEntry.getKey())) {
+                for (Set<EntityCondition> conditions : fieldEntry.getValue().values()) {
+                    candidates.addAll(conditions);
+                }
+                continue;
+            }
+            Set<EntityCondition> conditions = fieldEntry.getValue().get(value.get(fieldEntry.getKey()));
+            if (conditions != null) {
+                candidates.addAll(conditions);
+            }
+        }
+    }
+
+    /** Adds the conditions whose cached results contain the value with the given key */
+    void collectMemberConditions(Object memberKey, Set<EntityCondition> conditions) {
+        Set<EntityCondition> memberConditions = conditionsByMember.get(memberKey);
+        if (memberConditions != null) {
+            conditions.addAll(memberConditions);
+        }
+    }
+
+    /** Returns the compiled condition, the condition is compiled on first use and again when the entity definition was reloaded */
+    EntityConditionPredicate getPredicate(EntityCondition condition, Delegator delegator, ModelEntity modelEntity) {
+        EntityConditionPredicate predicate = predicates.get(condition);
+        if (predicate == null || predicate.getModelEntity() != modelEntity) {
+            predicate = EntityConditionPredicate.compile(delegator, modelEntity, condition);
+            predicates.put(condition, predicate);
+        }
+        return predicate;
+    }
+
+    /** Returns a field = constant constraint every value matching the condition must satisfy, or null if there is none */
+    private static Map.Entry<String, Object> findEqualityConstraint(EntityCondition condition, Delegator delegator, ModelEntity modelEntity) {
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            if (EntityOperator.AND.equals(expr.getOperator())) {
+                Map.Entry<String, Object> indexEntry = findEqualityConstraint((EntityCondition) expr.getLhs(), delegator, modelEntity);
+                return indexEntry != null ? indexEntry : findEqualityConstraint((EntityCondition) expr.getRhs(), delegator, modelEntity);
+            }
+            if (EntityOperator.EQUALS.equals(expr.getOperator()) && expr.getLhs() instanceof EntityFieldValue) {
+                return makeIndexEntry(delegator, modelEntity, ((EntityFieldValue) expr.getLhs()).getFieldName(), expr.getRhs());
+            }
+        } else if (condition instanceof EntityFieldMap) {
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            Iterator<Map.Entry<String, ? extends Object>> fieldIter = fieldMap.getFieldEntryIterator();
+            // all the expressions of a field map use the same comparison operator
+            if (EntityOperator.AND.equals(fieldMap.getOperator()) && fieldIter.hasNext() && EntityOperator.EQUALS.equals(fieldMap.getCondition(0).getOperator())) {
+                while (fieldIter.hasNext()) {
+                    Map.Entry<String, ? extends Object> fieldEntry = fieldIter.next();
+                    Map.Entry<String, Object> indexEntry = makeIndexEntry(delegator, modelEntity, fieldEntry.getKey(), fieldEntry.getValue());
+                    if (indexEntry != null) {
+                        return indexEntry;
+                    }
+                }
+            }
+        } else if (condition instanceof EntityConditionList<?>) {
+            EntityConditionList<?> conditionList = (EntityConditionList<?>) condition;
+            if (EntityOperator.AND.equals(conditionList.getOperator())) {
+                Iterator<? extends EntityCondition> conditionIter = conditionList.getConditionIterator();
+                while (conditionIter.hasNext()) {
+                    Map.Entry<String, Object> indexEntry = findEqualityConstraint(conditionIter.next(), delegator, modelEntity);
+                    if (indexEntry != null) {
+                        return indexEntry;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map.Entry<String, Object> makeIndexEntry(Delegator delegator, ModelEntity modelEntity, String fieldName, Object value) {
+        // a null, a wildcard or another field can not be looked up by value
+        if (value == null || value == GenericEntity.NULL_FIELD || value == EntityOperator.WILDCARD || value instanceof EntityConditionValue) {
+            return null;
+        }
+        ModelField field = modelEntity.getField(fieldName);
+        if (field == null) {
+            return null;
+        }
+        // the values are looked up by the constant of the type of the field (eg a Long for a String "10" constant),
+        // a constant that can not be converted is not indexed
+        Object fieldValue = EntityConditionPredicate.convertConstant(delegator, modelEntity, field, value);
+        // the equals of BigDecimal compares the scale too
+        if (fieldValue == null || fieldValue instanceof BigDecimal) {
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<String, Object>(fieldName, fieldValue);
+    }
+}
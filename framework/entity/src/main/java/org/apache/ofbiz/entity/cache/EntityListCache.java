@@ -20,7 +20,6 @@ package org.apache.ofbiz.entity.cache;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ofbiz.base.util.Debug;
@@ -76,8 +75,12 @@ public class EntityListCache extends AbstractEntityConditionCache<Object, List<G
         for (GenericValue memberValue : entities) {
             memberValue.setImmutable();
         }
-        Map<Object, List<GenericValue>> conditionCache = getOrCreateConditionCache(entityName, getFrozenConditionKey(condition));
-        return conditionCache.put(getOrderByKey(orderBy), entities);
+        return putWithMembers(entityName, getFrozenConditionKey(condition), getOrderByKey(orderBy), entities, entities);
+    }
+
+    @Override
+    protected boolean isTrackingMembers() {
+        return true;
     }
 
     public List<GenericValue> remove(String entityName, EntityCondition condition, List<String> orderBy) {
@@ -0,0 +1,416 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.condition;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.oro.text.regex.Pattern;
+import org.apache.oro.text.regex.Perl5Matcher;
+import org.apache.ofbiz.base.lang.ThreadSafe;
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralException;
+import org.apache.ofbiz.base.util.ObjectType;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntity;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelFieldIndex;
+import org.apache.ofbiz.entity.model.ModelFieldType;
+
+/**
+ * An <code>EntityCondition</code> compiled for one entity, to evaluate the condition in memory on many values.
+ * <p>Compiling resolves the position of each field in the field index of the entity so that the field values of a
+ * <code>GenericEntity</code> are read without a lookup by name, converts the constant operands to the Java type of their
+ * field, builds a hash set for IN lists and a pattern for LIKE, and turns the AND/OR lists into arrays that are evaluated
+ * with short circuit. Evaluating a compiled condition does not allocate, except for LIKE.</p>
+ * <p>The parts of a condition that can not be compiled (eg sub-selects, date filters, comparisons between two fields)
+ * are evaluated with <code>EntityCondition.mapMatches</code>.</p>
+ *
+ */
+@ThreadSafe
+public final class EntityConditionPredicate {
+
+    /*
+     * Developers - this is an immutable class. Once constructed, the object should not change state.
+     * Therefore, the object can be safely shared by multiple threads.
+     */
+
+    public static final String module = EntityConditionPredicate.class.getName();
+
+    private final ModelEntity modelEntity;
+    private final Node root;
+
+    private EntityConditionPredicate(ModelEntity modelEntity, Node root) {
+        this.modelEntity = modelEntity;
+        this.root = root;
+    }
+
+    /**
+     * Compiles a condition for an entity.
+     *@param delegator The delegator used to find the Java types of the fields, may be null in which case the constant operands are not converted
+     *@param modelEntity The entity the condition will be evaluated on
+     *@param condition The condition to compile, a null condition matches all values
+     *@return the compiled condition
+     */
+    public static EntityConditionPredicate compile(Delegator delegator, ModelEntity modelEntity, EntityCondition condition) {
+        Node root = condition != null ? new Compiler(delegator, modelEntity).compile(condition) : Constant.TRUE;
+        return new EntityConditionPredicate(modelEntity, root);
+    }
+
+    /**
+     * Converts a constant to the Java type of a field, as the compiled conditions compare it with the field values.
+     *@return the constant of the Java type of the field, or null if the type is unknown or the constant can not be converted
+     */
+    public static Object convertConstant(Delegator delegator, ModelEntity modelEntity, ModelField field, Object constant) {
+        try {
+            ModelFieldType fieldType = delegator.getEntityFieldType(modelEntity, field.getType());
+            if (fieldType == null) {
+                return null;
+            }
+            if (ObjectType.instanceOf(constant, fieldType.getJavaType())) {
+                return constant;
+            }
+            Object converted = ObjectType.simpleTypeConvert(constant, fieldType.getJavaType(), null, null);
+            return converted != null && ObjectType.instanceOf(converted, fieldType.getJavaType()) ? converted : null;
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Could not get the type of field [" + field.getName() + "] of entity [" + modelEntity.getEntityName() + "], not converting the constant", module);
+        } catch (GeneralException e) {
+            if (Debug.verboseOn()) Debug.logVerbose("Could not convert constant [" + constant + "] to the type of field [" + field.getName() + "]: " + e.toString(), module);
+        } catch (RuntimeException e) {
+            if (Debug.verboseOn()) Debug.logVerbose("Could not convert constant [" + constant + "] to the type of field [" + field.getName() + "]: " + e.toString(), module);
+        }
+        return null;
+    }
+
+    /** Returns the entity this condition was compiled for */
+    public ModelEntity getModelEntity() {
+        return modelEntity;
+    }
+
+    /** Returns true if the value matches the condition, the value should be of the entity this condition was compiled for */
+    public boolean matches(GenericEntity entity) {
+        return root.matches(null, entity);
+    }
+
+    /** Returns true if the field values in the map match the condition */
+    public boolean matches(Delegator delegator, Map<String, ? extends Object> map) {
+        return root.matches(delegator, map);
+    }
+
+    private static abstract class Node {
+        abstract boolean matches(Delegator delegator, Map<String, ? extends Object> map);
+    }
+
+    private static final class Constant extends Node {
+        private static final Constant TRUE = new Constant(true);
+        private final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(Delegator delegator, Map<String, ? extends Object> map) {
+            return value;
+        }
+    }
+
+    private static final class Join extends Node {
+        private final Node[] nodes;
+        private final boolean shortCircuitValue;
+
+        private Join(Node[] nodes, boolean shortCircuitValue) {
+            this.nodes = nodes;
+            this.shortCircuitValue = shortCircuitValue;
+        }
+
+        @Override
+        boolean matches(Delegator delegator, Map<String, ? extends Object> map) {
+            for (Node node : nodes) {
+                if (node.matches(delegator, map) == shortCircuitValue) {
+                    return shortCircuitValue;
+                }
+            }
+            return !shortCircuitValue;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node node;
+
+        private Not(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        boolean matches(Delegator delegator, Map<String, ? extends Object> map) {
+            return !node.matches(delegator, map);
+        }
+    }
+
+    /** A part of the condition that is evaluated as is */
+    private static final class Interpreted extends Node {
+        private final EntityCondition condition;
+
+        private Interpreted(EntityCondition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        boolean matches(Delegator delegator, Map<String, ? extends Object> map) {
+            if (delegator == null && map instanceof GenericEntity) {
+                delegator = ((GenericEntity) map).getDelegator();
+            }
+            return condition.mapMatches(delegator, map);
+        }
+    }
+
+    /** A comparison of a field with a constant */
+    private static abstract class FieldNode extends Node {
+        private final ModelFieldIndex fieldIndex;
+        private final int position;
+        private final String fieldName;
+
+        private FieldNode(ModelFieldIndex fieldIndex, int position) {
+            this.fieldIndex = fieldIndex;
+            this.position = position;
+            this.fieldName = fieldIndex.getName(position);
+        }
+
+        @Override
+        final boolean matches(Delegator delegator, Map<String, ? extends Object> map) {
+            Object value;
+            if (map instanceof GenericEntity) {
+                value = ((GenericEntity) map).get(fieldIndex, position);
+            } else {
+                value = map.get(fieldName);
+            }
+            return matches(value);
+        }
+
+        abstract boolean matches(Object value);
+    }
+
+    private static final class IsNull extends FieldNode {
+        private final boolean negate;
+
+        private IsNull(ModelFieldIndex fieldIndex, int position, boolean negate) {
+            super(fieldIndex, position);
+            this.negate = negate;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            return (value == null) != negate;
+        }
+    }
+
+    private static final class Equals extends FieldNode {
+        private final Object constant;
+        private final boolean negate;
+
+        private Equals(ModelFieldIndex fieldIndex, int position, Object constant, boolean negate) {
+            super(fieldIndex, position);
+            this.constant = constant;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            // the constant is never null, so a null value is never equal
+            return (value != null && value.equals(constant)) != negate;
+        }
+    }
+
+    private static final class Compare extends FieldNode {
+        private final Comparable<Object> constant;
+        private final int operatorId;
+
+        @SuppressWarnings("unchecked")
+        private Compare(ModelFieldIndex fieldIndex, int position, Object constant, int operatorId) {
+            super(fieldIndex, position);
+            this.constant = (Comparable<Object>) constant;
+            this.operatorId = operatorId;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean matches(Object value) {
+            if (value == null) {
+                return false;
+            }
+            int result = ((Comparable<Object>) value).compareTo(constant);
+            switch (operatorId) {
+                case EntityOperator.ID_LESS_THAN: return result < 0;
+                case EntityOperator.ID_GREATER_THAN: return result > 0;
+                case EntityOperator.ID_LESS_THAN_EQUAL_TO: return result <= 0;
+                default: return result >= 0;
+            }
+        }
+    }
+
+    private static final class In extends FieldNode {
+        private final Set<Object> constants;
+        private final boolean negate;
+
+        private In(ModelFieldIndex fieldIndex, int position, Set<Object> constants, boolean negate) {
+            super(fieldIndex, position);
+            this.constants = constants;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            return (value != null && constants.contains(value)) != negate;
+        }
+    }
+
+    private static final class Like extends FieldNode {
+        private final Pattern pattern;
+        private final boolean negate;
+
+        private Like(ModelFieldIndex fieldIndex, int position, Pattern pattern, boolean negate) {
+            super(fieldIndex, position);
+            this.pattern = pattern;
+            this.negate = negate;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            if (value == null) {
+                return negate;
+            }
+            if (!(value instanceof String)) {
+                // same as EntityComparisonOperator.compareLike, a non String value is like anything
+                return !negate;
+            }
+            return new Perl5Matcher().matches((String) value, pattern) != negate;
+        }
+    }
+
+    private static final class Compiler {
+        private final Delegator delegator;
+        private final ModelEntity modelEntity;
+        private final ModelFieldIndex fieldIndex;
+
+        private Compiler(Delegator delegator, ModelEntity modelEntity) {
+            this.delegator = delegator;
+            this.modelEntity = modelEntity;
+            this.fieldIndex = modelEntity.getFieldIndex();
+        }
+
+        private Node compile(EntityCondition condition) {
+            if (condition instanceof EntityConditionListBase<?>) {
+                EntityConditionListBase<?> conditionList = (EntityConditionListBase<?>) condition;
+                List<? extends EntityCondition> conditions = conditionList.conditionList;
+                Node[] nodes = new Node[conditions != null ? conditions.size() : 0];
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i] = compile(conditions.get(i));
+                }
+                return new Join(nodes, conditionList.getOperator().shortCircuitValue);
+            } else if (condition instanceof EntityExpr) {
+                return compileExpr((EntityExpr) condition);
+            } else if (condition instanceof EntityConditionFunction.NOT) {
+                return new Not(compile(((EntityConditionFunction) condition).condition));
+            }
+            return new Interpreted(condition);
+        }
+
+        private Node compileExpr(EntityExpr expr) {
+            EntityOperator<?, ?, ?> operator = expr.getOperator();
+            Object lhs = expr.getLhs();
+            Object rhs = expr.getRhs();
+            if (operator instanceof EntityJoinOperator) {
+                Node[] nodes = new Node[] {compile((EntityCondition) lhs), compile((EntityCondition) rhs)};
+                return new Join(nodes, ((EntityJoinOperator) operator).shortCircuitValue);
+            }
+            if (rhs == EntityOperator.WILDCARD) {
+                return Constant.TRUE;
+            }
+            if (!(lhs instanceof EntityFieldValue) || rhs instanceof EntityConditionValue || rhs == GenericEntity.NULL_FIELD) {
+                return new Interpreted(expr);
+            }
+            String fieldName = ((EntityFieldValue) lhs).getFieldName();
+            ModelField field = modelEntity.getField(fieldName);
+            int position = fieldIndex.indexOf(fieldName);
+            if (field == null || position < 0) {
+                return new Interpreted(expr);
+            }
+            switch (operator.getId()) {
+                case EntityOperator.ID_EQUALS:
+                case EntityOperator.ID_NOT_EQUAL:
+                    boolean negate = operator.getId() == EntityOperator.ID_NOT_EQUAL;
+                    if (rhs == null) {
+                        return new IsNull(fieldIndex, position, negate);
+                    }
+                    return new Equals(fieldIndex, position, convert(field, rhs), negate);
+                case EntityOperator.ID_LESS_THAN:
+                case EntityOperator.ID_GREATER_THAN:
+                case EntityOperator.ID_LESS_THAN_EQUAL_TO:
+                case EntityOperator.ID_GREATER_THAN_EQUAL_TO:
+                    Object constant = convert(field, rhs);
+                    if (!(constant instanceof Comparable<?>)) {
+                        return new Interpreted(expr);
+                    }
+                    return new Compare(fieldIndex, position, constant, operator.getId());
+                case EntityOperator.ID_IN:
+                case EntityOperator.ID_NOT_IN:
+                    if (rhs == null) {
+                        return new Interpreted(expr);
+                    }
+                    Set<Object> constants = new HashSet<Object>();
+                    if (rhs instanceof Collection<?>) {
+                        for (Object item : (Collection<?>) rhs) {
+                            constants.add(convert(field, item));
+                        }
+                    } else {
+                        constants.add(convert(field, rhs));
+                    }
+                    return new In(fieldIndex, position, constants, operator.getId() == EntityOperator.ID_NOT_IN);
+                case EntityOperator.ID_LIKE:
+                case EntityOperator.ID_NOT_LIKE:
+                    if (!(rhs instanceof String)) {
+                        return new Interpreted(expr);
+                    }
+                    Pattern pattern = EntityComparisonOperator.makeOroPattern((String) rhs);
+                    if (pattern == null) {
+                        return new Interpreted(expr);
+                    }
+                    return new Like(fieldIndex, position, pattern, operator.getId() == EntityOperator.ID_NOT_LIKE);
+                default:
+                    // BETWEEN and custom operators
+                    return new Interpreted(expr);
+            }
+        }
+
+        /** Converts a constant to the Java type of the field, so that eg a String or an Integer constant compares with a Long field */
+        private Object convert(ModelField field, Object constant) {
+            if (delegator == null || constant == null) {
+                return constant;
+            }
+            Object converted = convertConstant(delegator, modelEntity, field, constant);
+            return converted != null ? converted : constant;
+        }
+    }
+}
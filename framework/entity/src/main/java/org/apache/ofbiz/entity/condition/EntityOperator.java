@@ -241,6 +241,16 @@ public abstract class EntityOperator<L, R, T> extends EntityConditionBase {
         return false;
     }
 
+    /** Returns the registered operator with the same id, so that deserialized conditions use the shared instances */
+    protected Object readResolve() {
+        for (EntityOperator<?,?,?> operator: registry.values()) {
+            if (operator.idInt == this.idInt && operator.getClass() == this.getClass()) {
+                return operator;
+            }
+        }
+        return this;
+    }
+
     public boolean entityMatches(GenericEntity entity, L lhs, R rhs) {
         return mapMatches(entity.getDelegator(), entity, lhs, rhs);
     }
@@ -61,6 +61,10 @@ public class OrderByItem implements Comparator<GenericEntity> {
         return descending;
     }
 
+    public Boolean getNullsFirst() {
+        return nullsFirst;
+    }
+
     public static final OrderByItem parse(Object obj) {
         if (obj instanceof String) {
             return parse((String) obj);
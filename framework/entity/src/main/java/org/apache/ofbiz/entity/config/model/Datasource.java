@@ -55,6 +55,7 @@ public final class Datasource {
     private final boolean useProxyCursor;
     private final String proxyCursorName; // type = xs:string
     private final int resultFetchSize; // type = xs:integer
+    private final int batchSize; // type = xs:integer
     private final boolean useForeignKeys;
     private final boolean useForeignKeyIndices;
     private final boolean checkFksOnStart;
@@ -71,6 +72,7 @@ public final class Datasource {
     private final boolean useBinaryTypeForBlob;
     private final boolean useOrderByNulls;
     private final String offsetStyle;
+    private final boolean useSkipLocked;
     private final String tableType; // type = xs:string
     private final String characterSet; // type = xs:string
     private final String collate; // type = xs:string
@@ -130,6 +132,16 @@ public final class Datasource {
                 throw new GenericEntityConfException("<datasource> element result-fetch-size attribute is invalid" + lineNumberText);
             }
         }
+        String batchSize = element.getAttribute("batch-size");
+        if (batchSize.isEmpty()) {
+            this.batchSize = 100;
+        } else {
+            try {
+                this.batchSize = Integer.parseInt(batchSize);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<datasource> element batch-size attribute is invalid" + lineNumberText);
+            }
+        }
         this.useForeignKeys = !"false".equals(element.getAttribute("use-foreign-keys"));
         this.useForeignKeyIndices = !"false".equals(element.getAttribute("use-foreign-key-indices"));
         this.checkFksOnStart = "true".equals(element.getAttribute("check-fks-on-start"));
@@ -158,6 +170,7 @@ public final class Datasource {
             offsetStyle = "none";
         }
         this.offsetStyle = offsetStyle;
+        this.useSkipLocked = "true".equals(element.getAttribute("use-skip-locked"));
         this.tableType = element.getAttribute("table-type").intern();
         this.characterSet = element.getAttribute("character-set").intern();
         this.collate = element.getAttribute("collate").intern();
@@ -289,6 +302,11 @@ public final class Datasource {
         return this.resultFetchSize;
     }
 
+    /** Returns the value of the <code>batch-size</code> attribute. */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
     /** Returns the value of the <code>use-foreign-keys</code> attribute. */
     public boolean getUseForeignKeys() {
         return this.useForeignKeys;
@@ -369,6 +387,11 @@ public final class Datasource {
         return this.offsetStyle;
     }
 
+    /** Returns the value of the <code>use-skip-locked</code> attribute. */
+    public boolean getUseSkipLocked() {
+        return this.useSkipLocked;
+    }
+
     /** Returns the value of the <code>table-type</code> attribute. */
     public String getTableType() {
         return this.tableType;
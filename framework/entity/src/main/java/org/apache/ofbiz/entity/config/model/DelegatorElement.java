@@ -49,8 +49,13 @@ public final class DelegatorElement {
     private final String sequencedIdPrefix; // type = xs:string
     private final String defaultGroupName; // type = xs:string
     private final String keyEncryptingKey; // type = xs:string
+    private final boolean changeJournalEnabled;
+    private final String changeJournalDir; // type = xs:string
+    private final long decryptedValueCacheTtl;
+    private final int decryptedValueCacheSize;
     private final List<GroupMap> groupMapList; // <group-map>
     private final Map<String, String> groupMapMap; // <group-map>
+    private final Map<String, List<String>> groupReadMapMap; // <group-map><read-datasource>
 
     DelegatorElement(Element element) throws GenericEntityConfException {
         String lineNumberText = EntityConfig.createConfigFileLineNumberText(element);
@@ -94,19 +99,50 @@ public final class DelegatorElement {
         }
         this.defaultGroupName = defaultGroupName;
         this.keyEncryptingKey = element.getAttribute("key-encrypting-key").intern();
+        this.changeJournalEnabled = "true".equalsIgnoreCase(element.getAttribute("change-journal-enabled"));
+        String changeJournalDir = element.getAttribute("change-journal-dir").intern();
+        if (changeJournalDir.isEmpty()) {
+            changeJournalDir = "runtime/journal";
+        }
+        this.changeJournalDir = changeJournalDir;
+        String decryptedValueCacheTtl = element.getAttribute("decrypted-value-cache-ttl");
+        if (decryptedValueCacheTtl.isEmpty()) {
+            this.decryptedValueCacheTtl = 0;
+        } else {
+            try {
+                this.decryptedValueCacheTtl = Long.parseLong(decryptedValueCacheTtl);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<delegator> element decrypted-value-cache-ttl attribute is invalid" + lineNumberText);
+            }
+        }
+        String decryptedValueCacheSize = element.getAttribute("decrypted-value-cache-size");
+        if (decryptedValueCacheSize.isEmpty()) {
+            this.decryptedValueCacheSize = 1000;
+        } else {
+            try {
+                this.decryptedValueCacheSize = Integer.parseInt(decryptedValueCacheSize);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<delegator> element decrypted-value-cache-size attribute is invalid" + lineNumberText);
+            }
+        }
         List<? extends Element> groupMapElementList = UtilXml.childElementList(element, "group-map");
         if (groupMapElementList.isEmpty()) {
             throw new GenericEntityConfException("<delegator> element child elements <group-map> are missing" + lineNumberText);
         } else {
             List<GroupMap> groupMapList = new ArrayList<GroupMap>(groupMapElementList.size());
             Map<String, String> groupMapMap = new HashMap<String, String>();
+            Map<String, List<String>> groupReadMapMap = new HashMap<String, List<String>>();
             for (Element groupMapElement : groupMapElementList) {
                 GroupMap groupMap = new GroupMap(groupMapElement);
                 groupMapList.add(groupMap);
                 groupMapMap.put(groupMap.getGroupName(), groupMap.getDatasourceName());
+                if (!groupMap.getReadDatasourceNames().isEmpty()) {
+                    groupReadMapMap.put(groupMap.getGroupName(), groupMap.getReadDatasourceNames());
+                }
             }
             this.groupMapList = Collections.unmodifiableList(groupMapList);
             this.groupMapMap = Collections.unmodifiableMap(groupMapMap);
+            this.groupReadMapMap = Collections.unmodifiableMap(groupReadMapMap);
         }
     }
 
@@ -170,6 +206,26 @@ public final class DelegatorElement {
         return this.keyEncryptingKey;
     }
 
+    /** Returns the value of the <code>change-journal-enabled</code> attribute. */
+    public boolean getChangeJournalEnabled() {
+        return this.changeJournalEnabled;
+    }
+
+    /** Returns the value of the <code>change-journal-dir</code> attribute. */
+    public String getChangeJournalDir() {
+        return this.changeJournalDir;
+    }
+
+    /** Returns the value of the <code>decrypted-value-cache-ttl</code> attribute. */
+    public long getDecryptedValueCacheTtl() {
+        return this.decryptedValueCacheTtl;
+    }
+
+    /** Returns the value of the <code>decrypted-value-cache-size</code> attribute. */
+    public int getDecryptedValueCacheSize() {
+        return this.decryptedValueCacheSize;
+    }
+
     /** Returns the <code>&lt;group-map&gt;</code> child elements. */
     public List<GroupMap> getGroupMapList() {
         return this.groupMapList;
@@ -180,4 +236,14 @@ public final class DelegatorElement {
     public String getGroupDataSource(String groupName) {
         return this.groupMapMap.get(groupName);
     }
+
+    /** Returns the <code>&lt;read-datasource&gt; datasource-name</code> attribute values of the specified
+     * <code>&lt;group-map&gt;</code> element, or an empty list if the group has no read datasource. */
+    public List<String> getGroupReadDataSources(String groupName) {
+        List<String> readDataSources = this.groupReadMapMap.get(groupName);
+        if (readDataSources == null) {
+            return Collections.emptyList();
+        }
+        return readDataSources;
+    }
 }
@@ -50,6 +50,7 @@ public final class EntityConfig {
     private final TransactionFactory transactionFactory; // <transaction-factory>
     private final ConnectionFactory connectionFactory; // <connection-factory>
     private final DebugXaResources debugXaResources; // <debug-xa-resources>
+    private final TransactionMonitorElement transactionMonitor; // <transaction-monitor>
     private final List<DelegatorElement> delegatorList; // <delegator>
     private final Map<String, DelegatorElement> delegatorMap; // <delegator>
     private final List<EntityModelReader> entityModelReaderList; // <entity-model-reader>
@@ -109,6 +110,12 @@ public final class EntityConfig {
         } else {
             this.debugXaResources = new DebugXaResources(debugXaResourcesElement);
         }
+        Element transactionMonitorElement = UtilXml.firstChildElement(element, "transaction-monitor");
+        if (transactionMonitorElement != null) {
+            this.transactionMonitor = new TransactionMonitorElement(transactionMonitorElement);
+        } else {
+            this.transactionMonitor = null;
+        }
         List<? extends Element> delegatorElementList = UtilXml.childElementList(element, "delegator");
         if (delegatorElementList.isEmpty()) {
             throw new GenericEntityConfException("<entity-config> element child elements <delegator> are missing");
@@ -260,6 +267,11 @@ public final class EntityConfig {
         return this.debugXaResources;
     }
 
+    /** Returns the <code>&lt;transaction-monitor&gt;</code> child element, or <code>null</code> if no child element was found. */
+    public TransactionMonitorElement getTransactionMonitor() {
+        return this.transactionMonitor;
+    }
+
     /** Returns the specified <code>&lt;delegator&gt;</code> child element, or <code>null</code> if no child element was found. */
     public DelegatorElement getDelegator(String name) {
         return this.delegatorMap.get(name);
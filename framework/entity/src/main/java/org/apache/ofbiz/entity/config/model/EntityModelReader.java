@@ -36,6 +36,7 @@ import org.w3c.dom.Element;
 public final class EntityModelReader {
 
     private final String name; // type = xs:string
+    private final String snapshotLocation; // type = xs:string
     private final List<Resource> resourceList; // <resource>
 
     EntityModelReader(Element element) throws GenericEntityConfException {
@@ -45,6 +46,7 @@ public final class EntityModelReader {
             throw new GenericEntityConfException("<entity-model-reader> element name attribute is empty" + lineNumberText);
         }
         this.name = name;
+        this.snapshotLocation = element.getAttribute("snapshot-location").intern();
         List<? extends Element> resourceElementList = UtilXml.childElementList(element, "resource");
         if (resourceElementList.isEmpty()) {
             this.resourceList = Collections.emptyList();
@@ -62,6 +64,11 @@ public final class EntityModelReader {
         return this.name;
     }
 
+    /** Returns the value of the <code>snapshot-location</code> attribute. */
+    public String getSnapshotLocation() {
+        return this.snapshotLocation;
+    }
+
     /** Returns the <code>&lt;resource&gt;</code> child elements. */
     public List<Resource> getResourceList() {
         return this.resourceList;
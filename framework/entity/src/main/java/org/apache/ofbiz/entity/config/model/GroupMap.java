@@ -18,7 +18,12 @@
  *******************************************************************************/
 package org.apache.ofbiz.entity.config.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.ofbiz.base.lang.ThreadSafe;
+import org.apache.ofbiz.base.util.UtilXml;
 import org.apache.ofbiz.entity.GenericEntityConfException;
 import org.w3c.dom.Element;
 
@@ -32,6 +37,7 @@ public final class GroupMap {
 
     private final String groupName; // type = xs:string
     private final String datasourceName; // type = xs:string
+    private final List<String> readDatasourceNames; // <read-datasource>
 
     GroupMap(Element element) throws GenericEntityConfException {
         String lineNumberText = EntityConfig.createConfigFileLineNumberText(element);
@@ -45,6 +51,20 @@ public final class GroupMap {
             throw new GenericEntityConfException("<group-map> element datasource-name attribute is empty" + lineNumberText);
         }
         this.datasourceName = datasourceName;
+        List<? extends Element> readDatasourceElementList = UtilXml.childElementList(element, "read-datasource");
+        if (readDatasourceElementList.isEmpty()) {
+            this.readDatasourceNames = Collections.emptyList();
+        } else {
+            List<String> readDatasourceNames = new ArrayList<String>(readDatasourceElementList.size());
+            for (Element readDatasourceElement : readDatasourceElementList) {
+                String readDatasourceName = readDatasourceElement.getAttribute("datasource-name").intern();
+                if (readDatasourceName.isEmpty()) {
+                    throw new GenericEntityConfException("<read-datasource> element datasource-name attribute is empty" + EntityConfig.createConfigFileLineNumberText(readDatasourceElement));
+                }
+                readDatasourceNames.add(readDatasourceName);
+            }
+            this.readDatasourceNames = Collections.unmodifiableList(readDatasourceNames);
+        }
     }
 
     /** Returns the value of the <code>group-name</code> attribute. */
@@ -56,4 +76,9 @@ public final class GroupMap {
     public String getDatasourceName() {
         return this.datasourceName;
     }
+
+    /** Returns the <code>datasource-name</code> attribute values of the <code>&lt;read-datasource&gt;</code> child elements. */
+    public List<String> getReadDatasourceNames() {
+        return this.readDatasourceNames;
+    }
 }
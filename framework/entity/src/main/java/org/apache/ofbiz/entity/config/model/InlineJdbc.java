@@ -49,6 +49,8 @@ public final class InlineJdbc extends JdbcElement {
     private final boolean testOnBorrow; // type = xs:boolean
     private final boolean testOnReturn; // type = xs:boolean
     private final boolean testWhileIdle; // type = xs:boolean
+    private final boolean poolPreparedStatements; // type = xs:boolean
+    private final int maxOpenPreparedStatements; // type = xs:nonNegativeInteger
     private final String poolXaWrapperClass; // type = xs:string
 
     InlineJdbc(Element element) throws GenericEntityConfException {
@@ -166,6 +168,17 @@ public final class InlineJdbc extends JdbcElement {
         this.testOnBorrow = "true".equals(element.getAttribute("test-on-borrow"));
         this.testOnReturn = "true".equals(element.getAttribute("test-on-return"));
         this.testWhileIdle = "true".equals(element.getAttribute("test-while-idle"));
+        this.poolPreparedStatements = "true".equals(element.getAttribute("pool-prepared-statements"));
+        String maxOpenPreparedStatements = element.getAttribute("max-open-prepared-statements");
+        if (maxOpenPreparedStatements.isEmpty()) {
+            this.maxOpenPreparedStatements = 100;
+        } else {
+            try {
+                this.maxOpenPreparedStatements = Integer.parseInt(maxOpenPreparedStatements);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element max-open-prepared-statements attribute is invalid" + lineNumberText);
+            }
+        }
         this.poolXaWrapperClass = element.getAttribute("pool-xa-wrapper-class").intern();
     }
 
@@ -264,6 +277,16 @@ public final class InlineJdbc extends JdbcElement {
         return this.testWhileIdle;
     }
 
+    /** Returns the value of the <code>pool-prepared-statements</code> attribute. */
+    public boolean getPoolPreparedStatements() {
+        return this.poolPreparedStatements;
+    }
+
+    /** Returns the value of the <code>max-open-prepared-statements</code> attribute. */
+    public int getMaxOpenPreparedStatements() {
+        return this.maxOpenPreparedStatements;
+    }
+
     /** Returns the value of the <code>pool-xa-wrapper-class</code> attribute. */
     public String getPoolXaWrapperClass() {
         return this.poolXaWrapperClass;
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.config.model;
+
+import org.apache.ofbiz.base.lang.ThreadSafe;
+import org.apache.ofbiz.entity.GenericEntityConfException;
+import org.w3c.dom.Element;
+
+/**
+ * An object that models the <code>&lt;transaction-monitor&gt;</code> element.
+ *
+ * @see <code>entity-config.xsd</code>
+ */
+@ThreadSafe
+public final class TransactionMonitorElement {
+
+    private final boolean enabled;
+    private final long longTransactionThreshold;
+    private final long checkInterval;
+
+    TransactionMonitorElement(Element element) throws GenericEntityConfException {
+        String lineNumberText = EntityConfig.createConfigFileLineNumberText(element);
+        this.enabled = !"false".equals(element.getAttribute("enabled"));
+        String longTransactionThreshold = element.getAttribute("long-transaction-threshold");
+        if (longTransactionThreshold.isEmpty()) {
+            this.longTransactionThreshold = 60000;
+        } else {
+            try {
+                this.longTransactionThreshold = Long.parseLong(longTransactionThreshold);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<transaction-monitor> element long-transaction-threshold attribute is invalid" + lineNumberText);
+            }
+        }
+        String checkInterval = element.getAttribute("check-interval");
+        if (checkInterval.isEmpty()) {
+            this.checkInterval = 10000;
+        } else {
+            try {
+                this.checkInterval = Long.parseLong(checkInterval);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<transaction-monitor> element check-interval attribute is invalid" + lineNumberText);
+            }
+        }
+    }
+
+    /** Returns the value of the <code>enabled</code> attribute. */
+    public boolean getEnabled() {
+        return this.enabled;
+    }
+
+    /** Returns the value of the <code>long-transaction-threshold</code> attribute. */
+    public long getLongTransactionThreshold() {
+        return this.longTransactionThreshold;
+    }
+
+    /** Returns the value of the <code>check-interval</code> attribute. */
+    public long getCheckInterval() {
+        return this.checkInterval;
+    }
+}
@@ -24,6 +24,7 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.transaction.TransactionManager;
@@ -111,6 +112,12 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         factory.setDefaultReadOnly(false);
         factory.setRollbackOnReturn(false);
         factory.setEnableAutoCommitOnReturn(false);
+        if (jdbcElement.getPoolPreparedStatements()) {
+            // reuse the statements prepared for the same SQL on a connection, negative means no limit for DBCP
+            factory.setPoolStatements(true);
+            int maxOpenPreparedStatements = jdbcElement.getMaxOpenPreparedStatements();
+            factory.setMaxOpenPrepatedStatements(maxOpenPreparedStatements > 0 ? maxOpenPreparedStatements : -1);
+        }
         String transIso = jdbcElement.getIsolationLevel();
         if (!transIso.isEmpty()) {
             if ("Serializable".equals(transIso)) {
@@ -172,4 +179,13 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         return dataSourceInfo;
     }
 
+    /** Returns the information of all the pools, by helper name */
+    public static Map<String, Map<String, Object>> getAllDataSourceInfo() {
+        Map<String, Map<String, Object>> allDataSourceInfo = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, DebugManagedDataSource> entry: dsCache.entrySet()) {
+            allDataSourceInfo.put(entry.getKey(), entry.getValue().getInfo());
+        }
+        return allDataSourceInfo;
+    }
+
 }
@@ -25,16 +25,22 @@ import org.apache.commons.pool2.ObjectPool;
 
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.entity.transaction.TransactionMonitor;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DebugManagedDataSource extends ManagedDataSource {
 
     public static final String module = DebugManagedDataSource.class.getName();
 
+    // the time taken by getConnection, mostly waiting for a free connection when the pool is exhausted
+    private final TransactionMonitor.Histogram borrowWaits = new TransactionMonitor.Histogram();
+    private final AtomicLong borrowFailures = new AtomicLong();
+
     public DebugManagedDataSource(ObjectPool pool, TransactionRegistry transactionRegistry) {
         super(pool, transactionRegistry);
     }
@@ -49,7 +55,15 @@ public class DebugManagedDataSource extends ManagedDataSource {
                 Debug.logVerbose("Borrowing a connection from the pool; used/idle/total: " + super.getPool().getNumActive() + "/" + super.getPool().getNumIdle() + "/" + (super.getPool().getNumActive() + super.getPool().getNumIdle()), module);
             }
         }
-        return super.getConnection();
+        long startTime = System.currentTimeMillis();
+        try {
+            return super.getConnection();
+        } catch (SQLException e) {
+            borrowFailures.incrementAndGet();
+            throw e;
+        } finally {
+            borrowWaits.record(System.currentTimeMillis() - startTime);
+        }
     }
 
     public Map<String, Object> getInfo() {
@@ -64,7 +78,14 @@ public class DebugManagedDataSource extends ManagedDataSource {
             dataSourceInfo.put("poolMaxWait", objectPool.getMaxWaitMillis());
             dataSourceInfo.put("poolMinEvictableIdleTimeMillis", objectPool.getMinEvictableIdleTimeMillis());
             dataSourceInfo.put("poolMinIdle", objectPool.getMinIdle());
+            dataSourceInfo.put("poolNumWaiters", objectPool.getNumWaiters());
         }
+        long borrowCount = borrowWaits.getCount();
+        dataSourceInfo.put("poolBorrowCount", borrowCount);
+        dataSourceInfo.put("poolBorrowFailures", borrowFailures.get());
+        dataSourceInfo.put("poolMeanBorrowWait", borrowCount > 0 ? borrowWaits.getTotal() / borrowCount : 0);
+        dataSourceInfo.put("poolMaxBorrowWait", borrowWaits.getMax());
+        dataSourceInfo.put("poolBorrowWaitHistogram", borrowWaits.getCounts());
         return dataSourceInfo;
     }
 
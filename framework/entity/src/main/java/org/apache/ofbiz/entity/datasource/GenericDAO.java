@@ -20,6 +20,7 @@ package org.apache.ofbiz.entity.datasource;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Collections;
@@ -54,6 +55,7 @@ import org.apache.ofbiz.entity.jdbc.SQLProcessor;
 import org.apache.ofbiz.entity.jdbc.SqlJdbcUtil;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelFieldIndex;
 import org.apache.ofbiz.entity.model.ModelFieldTypeReader;
 import org.apache.ofbiz.entity.model.ModelKeyMap;
 import org.apache.ofbiz.entity.model.ModelRelation;
@@ -75,6 +77,8 @@ public class GenericDAO {
     private final GenericHelperInfo helperInfo;
     private final ModelFieldTypeReader modelFieldTypeReader;
     private final Datasource datasource;
+    /** The SQL templates of the entities, by entity name */
+    private final ConcurrentHashMap<String, EntitySqlTemplates> sqlTemplates = new ConcurrentHashMap<String, EntitySqlTemplates>();
 
     public static GenericDAO getGenericDAO(GenericHelperInfo helperInfo) {
         String cacheKey = helperInfo.getHelperFullName();
@@ -112,7 +116,7 @@ public class GenericDAO {
         SQLProcessor sqlP = new SQLProcessor(entity.getDelegator(), helperInfo);
 
         try {
-            return singleInsert(entity, modelEntity, modelEntity.getFieldsUnmodifiable(), sqlP);
+            return singleInsert(entity, modelEntity, getSqlTemplates(modelEntity).getFields(), sqlP);
         } catch (GenericEntityException e) {
             sqlP.rollback();
             // no need to create nested, just throw original which will have all info: throw new GenericEntityException("Exception while inserting the following entity: " + entity.toString(), e);
@@ -127,46 +131,17 @@ public class GenericDAO {
             return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
         }
 
-        // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
-        // NOTE: these fairly complicated if statements have a few objectives:
-        //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
-        //   2. don't set the stamp values if it is from an EntitySync (ie maintain original values), unless the stamps are null then set it anyway, ie even if it was from an EntitySync (also used for imports and such)
-        boolean stampTxIsField = modelEntity.isField(ModelEntity.STAMP_TX_FIELD);
-        boolean createStampTxIsField = modelEntity.isField(ModelEntity.CREATE_STAMP_TX_FIELD);
-        if ((stampTxIsField || createStampTxIsField) && (!entity.getIsFromEntitySync() || (stampTxIsField && entity.get(ModelEntity.STAMP_TX_FIELD) == null) || (createStampTxIsField && entity.get(ModelEntity.CREATE_STAMP_TX_FIELD) == null))) {
-            Timestamp txStartStamp = TransactionUtil.getTransactionStartStamp();
-            if (stampTxIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_TX_FIELD) == null)) {
-                entity.set(ModelEntity.STAMP_TX_FIELD, txStartStamp);
-                addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_TX_FIELD, modelEntity);
-            }
-            if (createStampTxIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.CREATE_STAMP_TX_FIELD) == null)) {
-                entity.set(ModelEntity.CREATE_STAMP_TX_FIELD, txStartStamp);
-                addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_TX_FIELD, modelEntity);
-            }
-        }
-
-        // if we have a STAMP_FIELD or CREATE_STAMP_FIELD then set it with NOW
-        boolean stampIsField = modelEntity.isField(ModelEntity.STAMP_FIELD);
-        boolean createStampIsField = modelEntity.isField(ModelEntity.CREATE_STAMP_FIELD);
-        if ((stampIsField || createStampIsField)  && (!entity.getIsFromEntitySync() || (stampIsField && entity.get(ModelEntity.STAMP_FIELD) == null) || (createStampIsField && entity.get(ModelEntity.CREATE_STAMP_FIELD) == null))) {
-            Timestamp startStamp = TransactionUtil.getTransactionUniqueNowStamp();
-            if (stampIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_FIELD) == null)) {
-                entity.set(ModelEntity.STAMP_FIELD, startStamp);
-                addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
-            }
-            if (createStampIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.CREATE_STAMP_FIELD) == null)) {
-                entity.set(ModelEntity.CREATE_STAMP_FIELD, startStamp);
-                addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
-            }
+        setCreateStamps(entity, modelEntity, fieldsToSave);
+        EntitySqlTemplates templates = getSqlTemplates(modelEntity);
+        String sql;
+        if (fieldsToSave.size() == templates.getFields().size()) {
+            // all the fields are inserted
+            fieldsToSave = templates.getFields();
+            sql = templates.getInsertSql();
+        } else {
+            sql = makeInsertSql(modelEntity, fieldsToSave);
         }
 
-        StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
-
-        modelEntity.colNameString(fieldsToSave, sqlB, "");
-        sqlB.append(") VALUES (");
-        modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
-        String sql = sqlB.append(")").toString();
-
         try {
             sqlP.prepareStatement(sql);
             SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
@@ -251,30 +226,21 @@ public class GenericDAO {
             }
         }
 
-        // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
-        // NOTE: these fairly complicated if statements have a few objectives:
-        //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
-        //   2. don't set the stamp values if it is from an EntitySync (ie maintain original values), unless the stamps are null then set it anyway, ie even if it was from an EntitySync (also used for imports and such)
-        if (modelEntity.isField(ModelEntity.STAMP_TX_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_TX_FIELD) == null)) {
-            entity.set(ModelEntity.STAMP_TX_FIELD, TransactionUtil.getTransactionStartStamp());
-            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_TX_FIELD, modelEntity);
-        }
-
-        // if we have a STAMP_FIELD then update it with NOW.
-        if (modelEntity.isField(ModelEntity.STAMP_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_FIELD) == null)) {
-            entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
-            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
+        setUpdateStamps(entity, modelEntity, fieldsToSave);
+        EntitySqlTemplates templates = getSqlTemplates(modelEntity);
+        String sql;
+        if (templates.isAllNopks(fieldsToSave) && hasPkValues(modelEntity, entity)) {
+            // all the non primary key fields are updated
+            fieldsToSave = templates.getNopks();
+            sql = templates.getUpdateSql(entity);
+        } else {
+            sql = makeUpdateSql(modelEntity, fieldsToSave, entity);
         }
 
-        StringBuilder sql = new StringBuilder().append("UPDATE ").append(modelEntity.getTableName(datasource)).append(" SET ");
-        modelEntity.colNameString(fieldsToSave, sql, "", "=?, ", "=?", false);
-        sql.append(" WHERE ");
-        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
-
         int retVal = 0;
 
         try {
-            sqlP.prepareStatement(sql.toString());
+            sqlP.prepareStatement(sql);
             SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             retVal = sqlP.executeUpdate();
@@ -506,27 +472,22 @@ public class GenericDAO {
             throw new GenericEntityException("Entity has no primary keys, cannot select by primary key");
         }
 
-        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
-
-        if (modelEntity.getNopksSize() > 0) {
-            modelEntity.colNameString(modelEntity.getNopksCopy(), sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
+        EntitySqlTemplates templates = getSqlTemplates(modelEntity);
+        String sql;
+        if (hasPkValues(modelEntity, entity)) {
+            sql = templates.getSelectSql(entity);
         } else {
-            sqlBuffer.append("*");
+            sql = makeSelectSql(modelEntity, entity);
         }
 
-        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
-        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
-
         try {
-            sqlP.prepareStatement(sqlBuffer.toString(), true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            sqlP.prepareStatement(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             sqlP.executeQuery();
 
             if (sqlP.next()) {
                 int idx = 1;
-                Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
-                while (nopkIter.hasNext()) {
-                    ModelField curField = nopkIter.next();
+                for (ModelField curField : templates.getNopks()) {
                     SqlJdbcUtil.getValue(sqlP.getResultSet(), idx, curField, entity, modelFieldTypeReader);
                     idx++;
                 }
@@ -755,6 +716,11 @@ public class GenericDAO {
         // OFFSET clause
         makeOffsetString(sqlBuffer, findOptions);
 
+        // row locking clause
+        if (findOptions.getSkipLocked() && datasource.getUseSkipLocked() && modelViewEntity == null) {
+            sqlBuffer.append(" FOR UPDATE SKIP LOCKED");
+        }
+
         // make the final SQL String
         String sql = sqlBuffer.toString();
 
@@ -893,6 +859,9 @@ public class GenericDAO {
                     if (findOptions.getLimit() > -1) {
                         offsetString.append(" FETCH FIRST ").append(findOptions.getLimit()).append(" ROWS ONLY");
                     }
+                } else if (findOptions.getLimit() > -1) {
+                    // no offset, eg a keyset page
+                    offsetString.append(" FETCH FIRST ").append(findOptions.getLimit()).append(" ROWS ONLY");
                 }
             }
         }
@@ -1164,13 +1133,17 @@ public class GenericDAO {
             throw new org.apache.ofbiz.entity.GenericNotImplementedException("Operation delete not supported yet for view entities");
         }
 
-        StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
-        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        String sql;
+        if (hasPkValues(modelEntity, entity)) {
+            sql = getSqlTemplates(modelEntity).getDeleteSql(entity);
+        } else {
+            sql = makeDeleteSql(modelEntity, entity);
+        }
 
         int retVal;
 
         try {
-            sqlP.prepareStatement(sql.toString());
+            sqlP.prepareStatement(sql);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             retVal = sqlP.executeUpdate();
             entity.removedFromDatasource();
@@ -1218,6 +1191,433 @@ public class GenericDAO {
 
     /* ====================================================================== */
 
+    /* ====================================================================== */
+
+    /**
+     * Inserts the given entities using JDBC batches. Consecutive entities of the same entity are
+     * sent in a single batch that is executed when the datasource batch-size is reached or when the
+     * next entity is of a different entity, so the relative order of the inserts is preserved.
+     * View entities are inserted one by one.
+     *@param entities The entities to insert
+     *@return int representing number of rows effected by this operation
+     */
+    public int insertBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        int batchSize = datasource.getBatchSize();
+        int retVal = 0;
+        List<GenericEntity> batch = new LinkedList<GenericEntity>();
+        ModelEntity batchModelEntity = null;
+
+        for (GenericEntity entity: entities) {
+            ModelEntity modelEntity = entity.getModelEntity();
+            if (modelEntity == null) {
+                throw new GenericModelException("Could not find ModelEntity record for entityName: " + entity.getEntityName());
+            }
+            if (batchSize <= 1 || modelEntity instanceof ModelViewEntity) {
+                retVal += executeInsertBatch(batch, batchModelEntity);
+                batch.clear();
+                retVal += insert(entity);
+                continue;
+            }
+            if (modelEntity != batchModelEntity || batch.size() >= batchSize) {
+                retVal += executeInsertBatch(batch, batchModelEntity);
+                batch.clear();
+                batchModelEntity = modelEntity;
+            }
+            setCreateStamps(entity, modelEntity, modelEntity.getFieldsUnmodifiable());
+            batch.add(entity);
+        }
+        retVal += executeInsertBatch(batch, batchModelEntity);
+        return retVal;
+    }
+
+    private int executeInsertBatch(List<GenericEntity> batch, ModelEntity modelEntity) throws GenericEntityException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        EntitySqlTemplates templates = getSqlTemplates(modelEntity);
+        List<ModelField> fieldsToSave = templates.getFields();
+        SQLProcessor sqlP = new SQLProcessor(batch.get(0).getDelegator(), helperInfo);
+        try {
+            sqlP.prepareStatement(templates.getInsertSql());
+            for (GenericEntity entity: batch) {
+                SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+            }
+            int retVal = countBatchUpdates(sqlP.executeBatch(), batch, false);
+            for (GenericEntity entity: batch) {
+                entity.synchronizedWithDatasource();
+            }
+            return retVal;
+        } catch (GenericEntityException e) {
+            sqlP.rollback();
+            throw new GenericEntityException("Error while inserting a batch of " + batch.size() + " values of entity " + modelEntity.getEntityName(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    /**
+     * Updates the given entities using JDBC batches. Like in {@link #update(GenericEntity)} only the
+     * non primary key fields present in each entity are updated; consecutive entities of the same
+     * entity updating the same set of fields are sent in a single batch. View entities, entities
+     * with optimistic locking and entities with an incomplete primary key are updated one by one.
+     *@param entities The entities to update
+     *@return int representing number of rows effected by this operation
+     */
+    public int updateBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        int batchSize = datasource.getBatchSize();
+        int retVal = 0;
+        List<GenericEntity> batch = new LinkedList<GenericEntity>();
+        ModelEntity batchModelEntity = null;
+        List<ModelField> batchFields = null;
+
+        for (GenericEntity entity: entities) {
+            ModelEntity modelEntity = entity.getModelEntity();
+            if (modelEntity == null) {
+                throw new GenericModelException("Could not find ModelEntity record for entityName: " + entity.getEntityName());
+            }
+            if (batchSize <= 1 || modelEntity instanceof ModelViewEntity || modelEntity.lock() || !entity.containsPrimaryKey(true)) {
+                retVal += executeUpdateBatch(batch, batchModelEntity, batchFields);
+                batch.clear();
+                retVal += update(entity);
+                continue;
+            }
+
+            List<ModelField> fieldsToSave = new LinkedList<ModelField>();
+            Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
+            while (nopkIter.hasNext()) {
+                ModelField curField = nopkIter.next();
+                if (entity.containsKey(curField.getName())) {
+                    fieldsToSave.add(curField);
+                }
+            }
+            if (fieldsToSave.isEmpty()) {
+                // same as a single update, nothing to do but counted as updated
+                retVal++;
+                continue;
+            }
+            setUpdateStamps(entity, modelEntity, fieldsToSave);
+
+            if (modelEntity != batchModelEntity || !fieldsToSave.equals(batchFields) || batch.size() >= batchSize) {
+                retVal += executeUpdateBatch(batch, batchModelEntity, batchFields);
+                batch.clear();
+                batchModelEntity = modelEntity;
+                batchFields = fieldsToSave;
+            }
+            batch.add(entity);
+        }
+        retVal += executeUpdateBatch(batch, batchModelEntity, batchFields);
+        return retVal;
+    }
+
+    private int executeUpdateBatch(List<GenericEntity> batch, ModelEntity modelEntity, List<ModelField> fieldsToSave) throws GenericEntityException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        SQLProcessor sqlP = new SQLProcessor(batch.get(0).getDelegator(), helperInfo);
+        try {
+            sqlP.prepareStatement(makeUpdateSql(modelEntity, fieldsToSave, batch.get(0)));
+            for (GenericEntity entity: batch) {
+                SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+            }
+            int retVal = countBatchUpdates(sqlP.executeBatch(), batch, true);
+            for (GenericEntity entity: batch) {
+                entity.synchronizedWithDatasource();
+            }
+            return retVal;
+        } catch (GenericEntityNotFoundException e) {
+            // reported as by a single update
+            sqlP.rollback();
+            throw e;
+        } catch (GenericEntityException e) {
+            sqlP.rollback();
+            throw new GenericEntityException("Error while updating a batch of " + batch.size() + " values of entity " + modelEntity.getEntityName(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    /**
+     * Deletes the given entities by primary key using JDBC batches. Consecutive entities of the same
+     * entity are sent in a single batch; entities with an incomplete primary key are deleted one by one.
+     *@param entities The entities to delete
+     *@return int representing number of rows effected by this operation
+     */
+    public int deleteBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        int batchSize = datasource.getBatchSize();
+        int retVal = 0;
+        List<GenericEntity> batch = new LinkedList<GenericEntity>();
+        ModelEntity batchModelEntity = null;
+
+        for (GenericEntity entity: entities) {
+            ModelEntity modelEntity = entity.getModelEntity();
+            if (modelEntity == null) {
+                throw new GenericModelException("Could not find ModelEntity record for entityName: " + entity.getEntityName());
+            }
+            if (batchSize <= 1 || modelEntity instanceof ModelViewEntity || !entity.containsPrimaryKey(true)) {
+                retVal += executeDeleteBatch(batch, batchModelEntity);
+                batch.clear();
+                retVal += delete(entity);
+                continue;
+            }
+            if (modelEntity != batchModelEntity || batch.size() >= batchSize) {
+                retVal += executeDeleteBatch(batch, batchModelEntity);
+                batch.clear();
+                batchModelEntity = modelEntity;
+            }
+            batch.add(entity);
+        }
+        retVal += executeDeleteBatch(batch, batchModelEntity);
+        return retVal;
+    }
+
+    private int executeDeleteBatch(List<GenericEntity> batch, ModelEntity modelEntity) throws GenericEntityException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        SQLProcessor sqlP = new SQLProcessor(batch.get(0).getDelegator(), helperInfo);
+        try {
+            GenericEntity firstEntity = batch.get(0);
+            sqlP.prepareStatement(hasPkValues(modelEntity, firstEntity) ? getSqlTemplates(modelEntity).getDeleteSql(firstEntity) : makeDeleteSql(modelEntity, firstEntity));
+            for (GenericEntity entity: batch) {
+                SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+            }
+            int retVal = countBatchUpdates(sqlP.executeBatch(), batch, false);
+            for (GenericEntity entity: batch) {
+                entity.removedFromDatasource();
+            }
+            return retVal;
+        } catch (GenericDataSourceException e) {
+            sqlP.rollback();
+            throw new GenericDataSourceException("Exception while deleting a batch of " + batch.size() + " values of entity " + modelEntity.getEntityName(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    private int countBatchUpdates(int[] updateCounts, List<GenericEntity> batch, boolean requireFound) throws GenericEntityException {
+        int retVal = 0;
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                // the driver executed the statement but doesn't know how many rows were affected
+                retVal++;
+            } else if (updateCounts[i] == 0 && requireFound) {
+                throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + batch.get(i).toString());
+            } else if (updateCounts[i] > 0) {
+                retVal += updateCounts[i];
+            }
+        }
+        return retVal;
+    }
+
+    /* ====================================================================== */
+
+    private void setCreateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
+        // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
+        // NOTE: these fairly complicated if statements have a few objectives:
+        //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
+        //   2. don't set the stamp values if it is from an EntitySync (ie maintain original values), unless the stamps are null then set it anyway, ie even if it was from an EntitySync (also used for imports and such)
+        boolean stampTxIsField = modelEntity.isField(ModelEntity.STAMP_TX_FIELD);
+        boolean createStampTxIsField = modelEntity.isField(ModelEntity.CREATE_STAMP_TX_FIELD);
+        if ((stampTxIsField || createStampTxIsField) && (!entity.getIsFromEntitySync() || (stampTxIsField && entity.get(ModelEntity.STAMP_TX_FIELD) == null) || (createStampTxIsField && entity.get(ModelEntity.CREATE_STAMP_TX_FIELD) == null))) {
+            Timestamp txStartStamp = TransactionUtil.getTransactionStartStamp();
+            if (stampTxIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_TX_FIELD) == null)) {
+                entity.set(ModelEntity.STAMP_TX_FIELD, txStartStamp);
+                addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_TX_FIELD, modelEntity);
+            }
+            if (createStampTxIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.CREATE_STAMP_TX_FIELD) == null)) {
+                entity.set(ModelEntity.CREATE_STAMP_TX_FIELD, txStartStamp);
+                addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_TX_FIELD, modelEntity);
+            }
+        }
+
+        // if we have a STAMP_FIELD or CREATE_STAMP_FIELD then set it with NOW
+        boolean stampIsField = modelEntity.isField(ModelEntity.STAMP_FIELD);
+        boolean createStampIsField = modelEntity.isField(ModelEntity.CREATE_STAMP_FIELD);
+        if ((stampIsField || createStampIsField)  && (!entity.getIsFromEntitySync() || (stampIsField && entity.get(ModelEntity.STAMP_FIELD) == null) || (createStampIsField && entity.get(ModelEntity.CREATE_STAMP_FIELD) == null))) {
+            Timestamp startStamp = TransactionUtil.getTransactionUniqueNowStamp();
+            if (stampIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_FIELD) == null)) {
+                entity.set(ModelEntity.STAMP_FIELD, startStamp);
+                addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
+            }
+            if (createStampIsField && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.CREATE_STAMP_FIELD) == null)) {
+                entity.set(ModelEntity.CREATE_STAMP_FIELD, startStamp);
+                addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
+            }
+        }
+    }
+
+    private void setUpdateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
+        // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
+        // NOTE: these fairly complicated if statements have a few objectives:
+        //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
+        //   2. don't set the stamp values if it is from an EntitySync (ie maintain original values), unless the stamps are null then set it anyway, ie even if it was from an EntitySync (also used for imports and such)
+        if (modelEntity.isField(ModelEntity.STAMP_TX_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_TX_FIELD) == null)) {
+            entity.set(ModelEntity.STAMP_TX_FIELD, TransactionUtil.getTransactionStartStamp());
+            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_TX_FIELD, modelEntity);
+        }
+
+        // if we have a STAMP_FIELD then update it with NOW.
+        if (modelEntity.isField(ModelEntity.STAMP_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_FIELD) == null)) {
+            entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
+            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
+        }
+    }
+
+    /** Returns the SQL templates of the entity, they are made again when the definition of the entity changed */
+    private EntitySqlTemplates getSqlTemplates(ModelEntity modelEntity) {
+        EntitySqlTemplates templates = sqlTemplates.get(modelEntity.getEntityName());
+        if (templates == null || !templates.isFor(modelEntity)) {
+            templates = new EntitySqlTemplates(modelEntity);
+            sqlTemplates.put(modelEntity.getEntityName(), templates);
+        }
+        return templates;
+    }
+
+    /** Returns true if all the primary key fields have a single value, the SQL by primary key then only depends on the entity */
+    private static boolean hasPkValues(ModelEntity modelEntity, GenericEntity entity) {
+        Iterator<ModelField> pksIter = modelEntity.getPksIterator();
+        while (pksIter.hasNext()) {
+            Object value = entity.dangerousGetNoCheckButFast(pksIter.next());
+            // a null makes a "IS NULL" clause and a collection a list of parameters
+            if (value == null || value == GenericEntity.NULL_FIELD || value instanceof Collection<?>) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String makeSelectSql(ModelEntity modelEntity, GenericEntity entity) throws GenericEntityException {
+        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
+
+        if (modelEntity.getNopksSize() > 0) {
+            modelEntity.colNameString(modelEntity.getNopksCopy(), sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
+        } else {
+            sqlBuffer.append("*");
+        }
+
+        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
+        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
+        return sqlBuffer.toString();
+    }
+
+    private String makeInsertSql(ModelEntity modelEntity, List<ModelField> fieldsToSave) {
+        StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
+
+        modelEntity.colNameString(fieldsToSave, sqlB, "");
+        sqlB.append(") VALUES (");
+        modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
+        return sqlB.append(")").toString();
+    }
+
+    private String makeUpdateSql(ModelEntity modelEntity, List<ModelField> fieldsToSave, GenericEntity entity) {
+        StringBuilder sql = new StringBuilder().append("UPDATE ").append(modelEntity.getTableName(datasource)).append(" SET ");
+        modelEntity.colNameString(fieldsToSave, sql, "", "=?, ", "=?", false);
+        sql.append(" WHERE ");
+        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        return sql.toString();
+    }
+
+    private String makeDeleteSql(ModelEntity modelEntity, GenericEntity entity) {
+        StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
+        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        return sql.toString();
+    }
+
+    /**
+     * The SQL of the statements of an entity that only depend on the entity and the datasource: the insert of
+     * all the fields, and the select, update of all the non primary key fields and delete by primary key when all
+     * the primary key fields have a value. Each SQL string is made on first use. The field lists are the fields
+     * to bind or read, in the order of the SQL.
+     */
+    private final class EntitySqlTemplates {
+        private final ModelEntity modelEntity;
+        private final ModelFieldIndex fieldIndex;
+        private final List<ModelField> fields;
+        private final List<ModelField> nopks;
+        private volatile String insertSql = null;
+        private volatile String selectSql = null;
+        private volatile String updateSql = null;
+        private volatile String deleteSql = null;
+
+        private EntitySqlTemplates(ModelEntity modelEntity) {
+            this.modelEntity = modelEntity;
+            this.fieldIndex = modelEntity.getFieldIndex();
+            this.fields = modelEntity.getFieldsUnmodifiable();
+            this.nopks = Collections.unmodifiableList(modelEntity.getNopksCopy());
+        }
+
+        private boolean isFor(ModelEntity modelEntity) {
+            // the field index is replaced when a field is added to or removed from the entity
+            return this.modelEntity == modelEntity && this.fieldIndex == modelEntity.getFieldIndex();
+        }
+
+        private List<ModelField> getFields() {
+            return fields;
+        }
+
+        private List<ModelField> getNopks() {
+            return nopks;
+        }
+
+        /** Returns true if the fields are all the non primary key fields, in any order */
+        private boolean isAllNopks(List<ModelField> fieldsToSave) {
+            if (fieldsToSave.size() != nopks.size()) {
+                return false;
+            }
+            for (ModelField field : fieldsToSave) {
+                if (field.getIsPk()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String getInsertSql() {
+            String sql = insertSql;
+            if (sql == null) {
+                sql = makeInsertSql(modelEntity, fields);
+                insertSql = sql;
+            }
+            return sql;
+        }
+
+        /** Returns the select by primary key, the entity must have a value for all the primary key fields */
+        private String getSelectSql(GenericEntity entity) throws GenericEntityException {
+            String sql = selectSql;
+            if (sql == null) {
+                sql = makeSelectSql(modelEntity, entity);
+                selectSql = sql;
+            }
+            return sql;
+        }
+
+        /** Returns the update by primary key, the entity must have a value for all the primary key fields */
+        private String getUpdateSql(GenericEntity entity) {
+            String sql = updateSql;
+            if (sql == null) {
+                sql = makeUpdateSql(modelEntity, nopks, entity);
+                updateSql = sql;
+            }
+            return sql;
+        }
+
+        /** Returns the delete by primary key, the entity must have a value for all the primary key fields */
+        private String getDeleteSql(GenericEntity entity) {
+            String sql = deleteSql;
+            if (sql == null) {
+                sql = makeDeleteSql(modelEntity, entity);
+                deleteSql = sql;
+            }
+            return sql;
+        }
+    }
+
+    /* ====================================================================== */
+
     public void checkDb(Map<String, ModelEntity> modelEntities, List<String> messages, boolean addMissing) {
         DatabaseUtil dbUtil = new DatabaseUtil(this.helperInfo);
         dbUtil.checkDb(modelEntities, messages, addMissing);
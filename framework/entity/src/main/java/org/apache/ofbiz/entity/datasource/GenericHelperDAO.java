@@ -67,6 +67,19 @@ public class GenericHelperDAO implements GenericHelper {
         return value;
     }
 
+    /** Creates a list of Entities in the form of GenericValues and writes them to the database using JDBC batches
+     *@param values The values to create
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        int retVal = genericDAO.insertBatch(values);
+        if (Debug.verboseOn()) Debug.logVerbose("Insert All Return Value : " + retVal, module);
+        return retVal;
+    }
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -124,6 +137,16 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.delete(primaryKey);
     }
 
+    /** Remove the Generic Entities corresponding to the primaryKeys using JDBC batches
+     *@param  primaryKeys  The primary keys of the entities to remove.
+     *@return int representing number of rows effected by this operation
+     */
+    public int removeAllByPrimaryKeys(List<GenericPK> primaryKeys) throws GenericEntityException {
+        if (primaryKeys == null) return 0;
+        if (Debug.verboseOn()) Debug.logVerbose("Removing " + primaryKeys.size() + " GenericPKs", module);
+        return genericDAO.deleteBatch(primaryKeys);
+    }
+
     /** Finds GenericValues by the conditions specified in the EntityCondition object, the the EntityCondition javadoc for more details.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param whereEntityCondition The EntityCondition object that specifies how to constrain this query before any groupings are done (if this is a view entity with group-by aliases)
@@ -172,6 +195,17 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.update(value);
     }
 
+    /** Store the Entities from the GenericValues to the persistent store using JDBC batches
+     *@param values GenericValue instances containing the entities
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        return genericDAO.updateBatch(values);
+    }
+
     /** Updates a group of values in a single pass.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param fieldsToSet The fields of the named entity to set in the database
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.datasource;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.ofbiz.base.lang.ThreadSafe;
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericPK;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelRelation;
+import org.apache.ofbiz.entity.util.EntityFindOptions;
+import org.apache.ofbiz.entity.util.EntityListIterator;
+
+/**
+ * Entity helper that runs the reads on the read replicas of a datasource (the <code>&lt;read-datasource&gt;</code>
+ * elements of a <code>&lt;group-map&gt;</code>) and the writes on the datasource itself.
+ * <p>The reads are spread over the replicas in turn. A replica that fails with a connection error is skipped for
+ * {@link #RETRY_INTERVAL} milliseconds and the read is tried on the next replica, then on the datasource itself.
+ * Other errors (eg an invalid query) are thrown as is.</p>
+ *
+ */
+@ThreadSafe
+public class ReadReplicaHelper implements GenericHelper {
+
+    public static final String module = ReadReplicaHelper.class.getName();
+
+    /** The time a replica is skipped after a connection error, in milliseconds */
+    public static final long RETRY_INTERVAL = 30000;
+
+    private final GenericHelper primaryHelper;
+    private final List<GenericHelperInfo> replicaHelperInfos;
+    private final long retryInterval;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    /** The time until when each replica is skipped, 0 when it is available */
+    private final AtomicLongArray unavailableUntil;
+
+    public ReadReplicaHelper(GenericHelper primaryHelper, List<GenericHelperInfo> replicaHelperInfos) {
+        this(primaryHelper, replicaHelperInfos, RETRY_INTERVAL);
+    }
+
+    ReadReplicaHelper(GenericHelper primaryHelper, List<GenericHelperInfo> replicaHelperInfos, long retryInterval) {
+        this.primaryHelper = primaryHelper;
+        this.retryInterval = retryInterval;
+        this.replicaHelperInfos = Collections.unmodifiableList(new ArrayList<GenericHelperInfo>(replicaHelperInfos));
+        this.unavailableUntil = new AtomicLongArray(replicaHelperInfos.size());
+    }
+
+    /** Returns the helper of the datasource the replicas are a copy of, used for the writes */
+    public GenericHelper getPrimaryHelper() {
+        return this.primaryHelper;
+    }
+
+    /** Returns the number of replicas that are not skipped because of a recent connection error */
+    public int getAvailableReplicaCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (int i = 0; i < unavailableUntil.length(); i++) {
+            if (unavailableUntil.get(i) <= now) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String getHelperName() {
+        return this.primaryHelper.getHelperName();
+    }
+
+    private abstract static class Read<T> {
+        abstract T run(GenericHelper helper) throws GenericEntityException;
+    }
+
+    private <T> T read(Read<T> read) throws GenericEntityException {
+        int replicaCount = replicaHelperInfos.size();
+        int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicaCount;
+        for (int i = 0; i < replicaCount; i++) {
+            int replica = (start + i) % replicaCount;
+            if (unavailableUntil.get(replica) > System.currentTimeMillis()) {
+                continue;
+            }
+            GenericHelperInfo replicaHelperInfo = replicaHelperInfos.get(replica);
+            try {
+                T result = read.run(GenericHelperFactory.getHelper(replicaHelperInfo));
+                unavailableUntil.set(replica, 0);
+                return result;
+            } catch (GenericEntityException e) {
+                if (!isConnectionError(e)) {
+                    throw e;
+                }
+                unavailableUntil.set(replica, System.currentTimeMillis() + retryInterval);
+                Debug.logWarning(e, "Could not read from replica [" + replicaHelperInfo.getHelperFullName() + "] of datasource [" + getHelperName() + "], skipping it for " + retryInterval + " ms", module);
+            }
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("No replica of datasource [" + getHelperName() + "] available, reading from the datasource", module);
+        return read.run(primaryHelper);
+    }
+
+    /** Returns true if the exception was caused by a connection that could not be made or was lost */
+    private static boolean isConnectionError(Throwable t) {
+        while (t != null) {
+            if (t instanceof SQLTransientConnectionException || t instanceof SQLNonTransientConnectionException || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                // SQLSTATE class 08 is connection exception
+                String sqlState = ((SQLException) t).getSQLState();
+                if (sqlState != null && sqlState.startsWith("08")) {
+                    return true;
+                }
+            }
+            t = t.getCause() != t ? t.getCause() : null;
+        }
+        return false;
+    }
+
+    public GenericValue create(GenericValue value) throws GenericEntityException {
+        return primaryHelper.create(value);
+    }
+
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        return primaryHelper.createAll(values);
+    }
+
+    public GenericValue findByPrimaryKey(final GenericPK primaryKey) throws GenericEntityException {
+        return read(new Read<GenericValue>() {
+            @Override
+            GenericValue run(GenericHelper helper) throws GenericEntityException {
+                return helper.findByPrimaryKey(primaryKey);
+            }
+        });
+    }
+
+    public GenericValue findByPrimaryKeyPartial(final GenericPK primaryKey, final Set<String> keys) throws GenericEntityException {
+        return read(new Read<GenericValue>() {
+            @Override
+            GenericValue run(GenericHelper helper) throws GenericEntityException {
+                return helper.findByPrimaryKeyPartial(primaryKey, keys);
+            }
+        });
+    }
+
+    public List<GenericValue> findAllByPrimaryKeys(final List<GenericPK> primaryKeys) throws GenericEntityException {
+        return read(new Read<List<GenericValue>>() {
+            @Override
+            List<GenericValue> run(GenericHelper helper) throws GenericEntityException {
+                return helper.findAllByPrimaryKeys(primaryKeys);
+            }
+        });
+    }
+
+    public int removeByPrimaryKey(GenericPK primaryKey) throws GenericEntityException {
+        return primaryHelper.removeByPrimaryKey(primaryKey);
+    }
+
+    public int removeAllByPrimaryKeys(List<GenericPK> primaryKeys) throws GenericEntityException {
+        return primaryHelper.removeAllByPrimaryKeys(primaryKeys);
+    }
+
+    public List<GenericValue> findByMultiRelation(final GenericValue value, final ModelRelation modelRelationOne, final ModelEntity modelEntityOne,
+            final ModelRelation modelRelationTwo, final ModelEntity modelEntityTwo, final List<String> orderBy) throws GenericEntityException {
+        return read(new Read<List<GenericValue>>() {
+            @Override
+            List<GenericValue> run(GenericHelper helper) throws GenericEntityException {
+                return helper.findByMultiRelation(value, modelRelationOne, modelEntityOne, modelRelationTwo, modelEntityTwo, orderBy);
+            }
+        });
+    }
+
+    public EntityListIterator findListIteratorByCondition(final Delegator delegator, final ModelEntity modelEntity, final EntityCondition whereEntityCondition,
+            final EntityCondition havingEntityCondition, final Collection<String> fieldsToSelect, final List<String> orderBy, final EntityFindOptions findOptions)
+            throws GenericEntityException {
+        return read(new Read<EntityListIterator>() {
+            @Override
+            EntityListIterator run(GenericHelper helper) throws GenericEntityException {
+                return helper.findListIteratorByCondition(delegator, modelEntity, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions);
+            }
+        });
+    }
+
+    public long findCountByCondition(final Delegator delegator, final ModelEntity modelEntity, final EntityCondition whereEntityCondition,
+            final EntityCondition havingEntityCondition, final EntityFindOptions findOptions) throws GenericEntityException {
+        return read(new Read<Long>() {
+            @Override
+            Long run(GenericHelper helper) throws GenericEntityException {
+                return helper.findCountByCondition(delegator, modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
+            }
+        });
+    }
+
+    public int removeByCondition(Delegator delegator, ModelEntity modelEntity, EntityCondition condition) throws GenericEntityException {
+        return primaryHelper.removeByCondition(delegator, modelEntity, condition);
+    }
+
+    public int storeByCondition(Delegator delegator, ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
+        return primaryHelper.storeByCondition(delegator, modelEntity, fieldsToSet, condition);
+    }
+
+    public int store(GenericValue value) throws GenericEntityException {
+        return primaryHelper.store(value);
+    }
+
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        return primaryHelper.storeAll(values);
+    }
+
+    public void checkDataSource(Map<String, ModelEntity> modelEntities, List<String> messages, boolean addMissing) throws GenericEntityException {
+        primaryHelper.checkDataSource(modelEntities, messages, addMissing);
+    }
+}
@@ -52,4 +52,13 @@ public interface EntityEcaHandler<T> {
     public Map<String, List<T>> getEntityEventMap(String entityName);
 
     public void evalRules(String currentOperation, Map<String, List<T>> eventMap, String event, GenericEntity value, boolean isError) throws GenericEntityException;
+
+    /**
+     * Returns true if at least one of the rules runs on the operation. The delegator asks it once per entity, event and
+     * operation and does not call evalRules for the combinations without rules. The default is true, so a handler that
+     * does not know its rules gets evalRules called for every event and operation.
+     */
+    public default boolean hasRules(List<T> rules, String currentOperation) {
+        return true;
+    }
 }
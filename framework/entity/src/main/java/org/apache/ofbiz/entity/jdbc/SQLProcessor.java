@@ -44,6 +44,7 @@ import org.apache.ofbiz.entity.config.model.EntityConfig;
 import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
 import org.apache.ofbiz.entity.transaction.GenericTransactionException;
 import org.apache.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.apache.ofbiz.entity.transaction.TransactionMonitor;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
 
 /**
@@ -88,6 +89,9 @@ public class SQLProcessor {
     // / true in case the connection shall be closed.
     private boolean _bDeleteConnection = false;
 
+    // / Number of statements added to the batch of the prepared statement and not yet executed
+    private int _batchCount = 0;
+
     /**
      * Construct an object based on the helper/datasource
      *
@@ -369,6 +373,7 @@ public class SQLProcessor {
         try {
             _sql = sql;
             _ind = 1;
+            _batchCount = 0;
             if (specifyTypeAndConcur) {
                 _ps = _connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
                 if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.prepareStatement] _ps=" + _ps, module);
@@ -379,6 +384,9 @@ public class SQLProcessor {
             if (maxRows > 0) {
                 _ps.setMaxRows(maxRows);
                 if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.prepareStatement] max rows set : " + maxRows, module);
+            } else if (_ps.getMaxRows() != 0) {
+                // the statement may come from a statement pool with the max rows of a previous query
+                _ps.setMaxRows(0);
             }
             this.setFetchSize(_ps, fetchSize);
         } catch (SQLException sqle) {
@@ -395,6 +403,7 @@ public class SQLProcessor {
     public ResultSet executeQuery() throws GenericDataSourceException {
         try {
             // if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.executeQuery] ps=" + _ps.toString(), module);
+            TransactionMonitor.noteStatement();
             _rs = _ps.executeQuery();
         } catch (SQLException sqle) {
             this.checkLockWaitInfo(sqle);
@@ -427,6 +436,7 @@ public class SQLProcessor {
         try {
             // if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.executeUpdate] ps=" + _ps.toString(), module);
             //TransactionUtil.printAllThreadsTransactionBeginStacks();
+            TransactionMonitor.noteStatement();
             return _ps.executeUpdate();
         } catch (SQLException sqle) {
             this.checkLockWaitInfo(sqle);
@@ -446,6 +456,7 @@ public class SQLProcessor {
 
         try {
             stmt = _connection.createStatement();
+            TransactionMonitor.noteStatement();
             return stmt.executeUpdate(sql);
         } catch (SQLException sqle) {
             // passing on this exception as nested, no need to log it here: Debug.logError(sqle, "SQLProcessor.executeUpdate(sql) : ERROR : ", module);
@@ -461,6 +472,53 @@ public class SQLProcessor {
         }
     }
 
+    /**
+     * Add the currently bound variables to the batch of the prepared statement
+     * and reset the binding index so that the next set of variables can be bound.
+     *
+     * @throws GenericDataSourceException
+     */
+    public void addBatch() throws GenericDataSourceException {
+        try {
+            _ps.addBatch();
+            _ind = 1;
+            _batchCount++;
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while adding batch for the following:" + _sql, sqle);
+        }
+    }
+
+    /**
+     * Getter: get the number of statements added to the batch and not executed yet
+     *
+     * @return The number of pending batched statements
+     */
+    public int getBatchCount() {
+        return _batchCount;
+    }
+
+    /**
+     * Execute the batch of the prepared statement
+     *
+     * @return  The number of rows updated for each batched statement
+     * @throws GenericDataSourceException
+     */
+    public int[] executeBatch() throws GenericDataSourceException {
+        try {
+            TransactionMonitor.noteStatement();
+            int[] updateCounts = _ps.executeBatch();
+            _batchCount = 0;
+            return updateCounts;
+        } catch (SQLException sqle) {
+            this.checkLockWaitInfo(sqle);
+            if (sqle.getNextException() != null) {
+                // most drivers put the cause of a failed batch in the chained exception
+                Debug.logWarning(sqle.getNextException(), "Next exception of the failed batch for the SQL [" + _sql + "]", module);
+            }
+            throw new GenericDataSourceException("SQL Exception while executing batch of " + _batchCount + " statements for the following:" + _sql, sqle);
+        }
+    }
+
     /**
      * Test if there more records available
      *
@@ -877,6 +935,9 @@ public class SQLProcessor {
         // otherwise only set if the size is > -1 (0 is sometimes used to note ALL rows)
         if (fetchSize > -1) {
             stmt.setFetchSize(fetchSize);
+        } else if (stmt.getFetchSize() != 0) {
+            // the statement may come from a statement pool with the fetch size of a previous query, 0 lets the driver use its default
+            stmt.setFetchSize(0);
         }
     }
 
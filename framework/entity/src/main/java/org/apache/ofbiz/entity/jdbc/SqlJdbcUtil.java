@@ -563,6 +563,14 @@ public final class SqlJdbcUtil {
     }
 
     public static void getValue(ResultSet rs, int ind, ModelField curField, GenericEntity entity, ModelFieldTypeReader modelFieldTypeReader) throws GenericEntityException {
+        getValue(rs, ind, curField, entity, modelFieldTypeReader, true);
+    }
+
+    /**
+     * Sets the value of the field from the result set.
+     * @param decrypt false to leave the value of an encrypted field as read, for the caller to decrypt the values of many rows at once
+     */
+    public static void getValue(ResultSet rs, int ind, ModelField curField, GenericEntity entity, ModelFieldTypeReader modelFieldTypeReader, boolean decrypt) throws GenericEntityException {
         ModelFieldType mft = modelFieldTypeReader.getModelFieldType(curField.getType());
 
         if (mft == null) {
@@ -570,12 +578,8 @@ public final class SqlJdbcUtil {
                     entity.getEntityName() + "." + curField.getName() + ".");
         }
 
-        ModelEntity model = entity.getModelEntity();
-        String encryptionKeyName = entity.getEntityName();
-        if (curField.getEncryptMethod().isEncrypted() && model instanceof ModelViewEntity) {
-            ModelViewEntity modelView = (ModelViewEntity) model;
-            encryptionKeyName = modelView.getAliasedEntity(modelView.getAlias(curField.getName()).getEntityAlias(), entity.getDelegator().getModelReader()).getEntityName();
-        }
+        boolean encrypted = decrypt && curField.getEncryptMethod().isEncrypted();
+        String encryptionKeyName = encrypted ? getEncryptionKeyName(curField, entity) : null;
 
         // ----- Try out the new handler code -----
 
@@ -583,7 +587,7 @@ public final class SqlJdbcUtil {
         if (handler != null) {
             try {
                 Object jdbcValue = handler.getValue(rs, ind);
-                if (jdbcValue instanceof String && curField.getEncryptMethod().isEncrypted()) {
+                if (jdbcValue instanceof String && encrypted) {
                     jdbcValue = entity.getDelegator().decryptFieldValue(encryptionKeyName, curField.getEncryptMethod(), (String) jdbcValue);
                 }
                 entity.dangerousSetNoCheckButFast(curField, jdbcValue);
@@ -640,7 +644,7 @@ public final class SqlJdbcUtil {
                         }
                     } else {
                         String value = rs.getString(ind);
-                        if (value instanceof String && curField.getEncryptMethod().isEncrypted()) {
+                        if (value instanceof String && encrypted) {
                             value = (String) entity.getDelegator().decryptFieldValue(encryptionKeyName, curField.getEncryptMethod(), value);
                         }
                         entity.dangerousSetNoCheckButFast(curField, value);
@@ -814,6 +818,16 @@ public final class SqlJdbcUtil {
         return null;
     }
 
+    /** Returns the name of the key of an encrypted field, the name of the entity the field is in */
+    public static String getEncryptionKeyName(ModelField curField, GenericEntity entity) {
+        ModelEntity model = entity.getModelEntity();
+        if (model instanceof ModelViewEntity) {
+            ModelViewEntity modelView = (ModelViewEntity) model;
+            return modelView.getAliasedEntity(modelView.getAlias(curField.getName()).getEntityAlias(), entity.getDelegator().getModelReader()).getEntityName();
+        }
+        return entity.getEntityName();
+    }
+
     public static void setValue(SQLProcessor sqlP, ModelField modelField, GenericEntity entity, ModelFieldTypeReader modelFieldTypeReader) throws GenericEntityException {
         Object fieldValue = entity.dangerousGetNoCheckButFast(modelField);
 
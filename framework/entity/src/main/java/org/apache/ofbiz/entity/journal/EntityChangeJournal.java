@@ -0,0 +1,604 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilDateTime;
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.base.util.UtilObject;
+import org.apache.ofbiz.entity.GenericEntity;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Change data capture journal of a delegator.
+ * <p>The delegator adds the changes it makes while a transaction is running, they are held by a transaction
+ * synchronization and appended to the journal only when the transaction commits; a rolled back transaction leaves
+ * nothing in it. Each change gets an offset, the changes of a transaction have consecutive offsets.</p>
+ * <p>The journal is a directory of append-only segment files named after the offset of their first record, a segment
+ * is closed once it holds the configured number of records. Every record is written with its length and CRC32, an
+ * incomplete record at the end of the last segment (a crash during a write) is cut off when the journal is opened.
+ * The file is not forced to disk on each commit, the journal is a feed for in-process consumers and not a recovery
+ * log: after an operating system crash the last changes may be missing.</p>
+ * <p>Consumers {@link #subscribe(long) subscribe} from the offset they stopped at and poll the changes, old segments
+ * can be dropped with {@link #removeSegmentsBefore(long)} once all the consumers are past them.</p>
+ *
+ */
+public class EntityChangeJournal {
+
+    public static final String module = EntityChangeJournal.class.getName();
+
+    public static final int DEFAULT_SEGMENT_RECORDS = 100000;
+
+    private static final String SEGMENT_PREFIX = "changes-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    private static final Set<String> stampFields = UtilMisc.toSet(ModelEntity.STAMP_FIELD, ModelEntity.STAMP_TX_FIELD, ModelEntity.CREATE_STAMP_FIELD, ModelEntity.CREATE_STAMP_TX_FIELD);
+
+    private final File directory;
+    private final int segmentRecords;
+    // the changes held for each running transaction; the holders do not reference their transaction, so an entry goes
+    // away with the transaction once the transaction manager drops it
+    private final Map<Transaction, JournalSynchronization> synchronizations = new WeakHashMap<Transaction, JournalSynchronization>();
+
+    // segment files by the offset of their first record, guarded by this
+    private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+    private FileChannel writeChannel = null;
+    private long writeSegmentBase = -1;
+    private long writeSegmentCount = 0;
+    private volatile long nextOffset = 0;
+    private volatile boolean closed = false;
+
+    public EntityChangeJournal(File directory) throws GenericEntityException {
+        this(directory, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    public EntityChangeJournal(File directory, int segmentRecords) throws GenericEntityException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords > 0 ? segmentRecords : DEFAULT_SEGMENT_RECORDS;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new GenericEntityException("Could not create the entity change journal directory " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.put(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        Debug.logWarning("Ignoring file [" + file + "] in the entity change journal directory", module);
+                    }
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            Map.Entry<Long, File> last = segments.lastEntry();
+            writeSegmentBase = last.getKey();
+            writeSegmentCount = recoverSegment(last.getValue());
+            nextOffset = writeSegmentBase + writeSegmentCount;
+        }
+        if (Debug.infoOn()) {
+            Debug.logInfo("Opened the entity change journal in " + directory + " with " + segments.size() + " segment(s), next offset is " + nextOffset, module);
+        }
+    }
+
+    /** Returns the names of the non primary key fields set on the value, without the stamp fields. When compareOriginal
+     * is true and the value was read from the datasource, only the fields that differ from the values read are returned. */
+    public static List<String> getChangedFields(GenericEntity value, boolean compareOriginal) {
+        List<String> changedFields = new LinkedList<String>();
+        boolean original = compareOriginal && value.originalDbValuesAvailable();
+        Iterator<ModelField> fieldIter = value.getModelEntity().getNopksIterator();
+        while (fieldIter.hasNext()) {
+            ModelField modelField = fieldIter.next();
+            String fieldName = modelField.getName();
+            if (stampFields.contains(fieldName) || !value.containsKey(fieldName)) {
+                continue;
+            }
+            if (original && UtilObject.equalsHelper(value.dangerousGetNoCheckButFast(modelField), value.getOriginalDbValue(fieldName))) {
+                continue;
+            }
+            changedFields.add(fieldName);
+        }
+        return changedFields;
+    }
+
+    /** Adds the change of a value, with the operation of the EntityEcaHandler (create, store or remove) */
+    public void addChange(String operation, GenericEntity value, List<String> changedFields) {
+        Map<String, String> primaryKey = new LinkedHashMap<String, String>();
+        Iterator<ModelField> pkIter = value.getModelEntity().getPksIterator();
+        while (pkIter.hasNext()) {
+            ModelField modelField = pkIter.next();
+            Object pkValue = value.dangerousGetNoCheckButFast(modelField);
+            if (pkValue != null) {
+                primaryKey.put(modelField.getName(), pkValue.toString());
+            }
+        }
+        addChange(new EntityChangeRecord(-1, getTxStamp(), value.getEntityName(), operation, primaryKey, changedFields));
+    }
+
+    /** Adds a change made by condition, which has no primary key */
+    public void addConditionChange(String operation, String entityName, Collection<String> changedFields) {
+        List<String> fieldNames = new ArrayList<String>();
+        if (changedFields != null) {
+            fieldNames.addAll(changedFields);
+        }
+        addChange(new EntityChangeRecord(-1, getTxStamp(), entityName, operation, null, fieldNames));
+    }
+
+    private static Timestamp getTxStamp() {
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                return TransactionUtil.getTransactionStartStamp();
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not get the transaction stamp of an entity change", module);
+        }
+        return UtilDateTime.nowTimestamp();
+    }
+
+    private void addChange(EntityChangeRecord change) {
+        if (closed) {
+            return;
+        }
+        try {
+            int status = TransactionUtil.getStatus();
+            if (status == Status.STATUS_MARKED_ROLLBACK) {
+                // the change will never be committed
+                return;
+            }
+            if (status == Status.STATUS_ACTIVE) {
+                Transaction transaction = TransactionFactoryLoader.getInstance().getTransactionManager().getTransaction();
+                JournalSynchronization sync;
+                synchronized (synchronizations) {
+                    sync = synchronizations.get(transaction);
+                    if (sync == null) {
+                        sync = new JournalSynchronization();
+                        TransactionUtil.registerSynchronization(sync);
+                        synchronizations.put(transaction, sync);
+                    }
+                }
+                sync.changes.add(change);
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logError(e, "Could not register the entity change journal with the current transaction, the change is written now", module);
+        } catch (SystemException e) {
+            Debug.logError(e, "Could not register the entity change journal with the current transaction, the change is written now", module);
+        }
+        try {
+            append(Collections.singletonList(change));
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Could not write the change " + change + " to the entity change journal", module);
+        }
+    }
+
+    /** Appends the changes at the end of the journal and wakes up the waiting subscriptions */
+    protected synchronized void append(List<EntityChangeRecord> changes) throws GenericEntityException {
+        if (changes.isEmpty() || closed) {
+            return;
+        }
+        long sizeBefore = -1;
+        try {
+            if (writeChannel == null || writeSegmentCount >= segmentRecords) {
+                openWriteSegment();
+            }
+            sizeBefore = writeChannel.size();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(changes.size() * 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+            DataOutputStream recordOut = new DataOutputStream(recordBytes);
+            CRC32 crc = new CRC32();
+            for (EntityChangeRecord change: changes) {
+                recordBytes.reset();
+                writeRecord(recordOut, change);
+                recordOut.flush();
+                crc.reset();
+                crc.update(recordBytes.toByteArray(), 0, recordBytes.size());
+                out.writeInt(recordBytes.size());
+                out.writeInt((int) crc.getValue());
+                recordBytes.writeTo(out);
+            }
+            out.flush();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                writeChannel.write(buffer);
+            }
+            writeSegmentCount += changes.size();
+            nextOffset += changes.size();
+            notifyAll();
+        } catch (IOException e) {
+            if (sizeBefore >= 0) {
+                // do not leave a partial batch behind, the offsets would no longer match the records
+                try {
+                    writeChannel.truncate(sizeBefore);
+                } catch (IOException e2) {
+                    Debug.logError(e2, "Could not cut off a partial write of the entity change journal", module);
+                }
+            }
+            throw new GenericEntityException("Could not write " + changes.size() + " change(s) to the entity change journal in " + directory, e);
+        }
+    }
+
+    @SuppressWarnings("resource")
+    private void openWriteSegment() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.close();
+            writeChannel = null;
+        }
+        if (writeSegmentBase < 0 || writeSegmentCount >= segmentRecords) {
+            writeSegmentBase = nextOffset;
+            writeSegmentCount = 0;
+            segments.put(writeSegmentBase, segmentFile(writeSegmentBase));
+        }
+        FileChannel channel = new RandomAccessFile(segments.get(writeSegmentBase), "rw").getChannel();
+        channel.position(channel.size());
+        writeChannel = channel;
+    }
+
+    private File segmentFile(long baseOffset) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, baseOffset, SEGMENT_SUFFIX));
+    }
+
+    /** Counts the complete records of the segment and cuts off what follows them */
+    private static long recoverSegment(File file) throws GenericEntityException {
+        long count = 0;
+        long validLength = 0;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+            while (true) {
+                byte[] payload = readFrame(in);
+                if (payload == null) {
+                    break;
+                }
+                validLength += 8 + payload.length;
+                count++;
+            }
+            if (validLength < raf.length()) {
+                Debug.logWarning("Cutting off " + (raf.length() - validLength) + " byte(s) of an incomplete record at the end of the entity change journal segment " + file, module);
+                raf.getChannel().truncate(validLength);
+            }
+        } catch (IOException e) {
+            throw new GenericEntityException("Could not read the entity change journal segment " + file, e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Debug.logWarning(e, module);
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Reads the payload of the next record, or returns null at the end of the file or when the record is not complete or valid */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            return payload;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, EntityChangeRecord change) throws IOException {
+        out.writeLong(change.getTxStamp() != null ? change.getTxStamp().getTime() : -1);
+        out.writeUTF(change.getOperation());
+        out.writeUTF(change.getEntityName());
+        Map<String, String> primaryKey = change.getPrimaryKeyStrings();
+        if (primaryKey == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(primaryKey.size());
+            for (Map.Entry<String, String> entry: primaryKey.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        }
+        List<String> changedFields = change.getChangedFields();
+        out.writeInt(changedFields.size());
+        for (String fieldName: changedFields) {
+            out.writeUTF(fieldName);
+        }
+    }
+
+    private static EntityChangeRecord readRecord(long offset, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long txStampMillis = in.readLong();
+        String operation = in.readUTF();
+        String entityName = in.readUTF();
+        Map<String, String> primaryKey = null;
+        int pkCount = in.readInt();
+        if (pkCount >= 0) {
+            primaryKey = new LinkedHashMap<String, String>();
+            for (int i = 0; i < pkCount; i++) {
+                primaryKey.put(in.readUTF(), in.readUTF());
+            }
+        }
+        int fieldCount = in.readInt();
+        List<String> changedFields = new ArrayList<String>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            changedFields.add(in.readUTF());
+        }
+        return new EntityChangeRecord(offset, txStampMillis >= 0 ? new Timestamp(txStampMillis) : null, entityName, operation, primaryKey, changedFields);
+    }
+
+    /** Returns the offset the next change will get, which is also the number of changes ever written */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    /** Returns the offset of the oldest change still in the journal */
+    public synchronized long getFirstOffset() {
+        return segments.isEmpty() ? nextOffset : segments.firstKey();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Reads at most maxRecords changes, starting at the given offset */
+    public List<EntityChangeRecord> read(long fromOffset, int maxRecords) throws GenericEntityException {
+        return read(new ReadPosition(fromOffset), maxRecords);
+    }
+
+    private List<EntityChangeRecord> read(ReadPosition position, int maxRecords) throws GenericEntityException {
+        List<EntityChangeRecord> records = new ArrayList<EntityChangeRecord>();
+        // everything below this offset is completely written
+        long endOffset = nextOffset;
+        while (records.size() < maxRecords && position.offset < endOffset) {
+            long segmentBase;
+            long segmentEnd;
+            File segmentFile;
+            synchronized (this) {
+                Map.Entry<Long, File> segment = segments.floorEntry(position.offset);
+                if (segment == null) {
+                    if (segments.isEmpty()) {
+                        break;
+                    }
+                    Debug.logWarning("The entity change journal changes from offset " + position.offset + " to " + segments.firstKey() + " were removed before they were read", module);
+                    position.seek(segments.firstKey());
+                    continue;
+                }
+                segmentBase = segment.getKey();
+                segmentFile = segment.getValue();
+                Long higherBase = segments.higherKey(segmentBase);
+                segmentEnd = higherBase != null ? Math.min(higherBase, endOffset) : endOffset;
+            }
+            if (position.segmentBase != segmentBase) {
+                position.segmentBase = segmentBase;
+                position.segmentOffset = segmentBase;
+                position.filePosition = 0;
+            }
+            FileInputStream fis = null;
+            try {
+                fis = new FileInputStream(segmentFile);
+                FileChannel channel = fis.getChannel();
+                channel.position(position.filePosition);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                while (position.segmentOffset < segmentEnd && records.size() < maxRecords) {
+                    byte[] payload = readFrame(in);
+                    if (payload == null) {
+                        throw new GenericEntityException("The entity change journal segment " + segmentFile + " is corrupt at offset " + position.segmentOffset);
+                    }
+                    if (position.segmentOffset >= position.offset) {
+                        records.add(readRecord(position.segmentOffset, payload));
+                        position.offset = position.segmentOffset + 1;
+                    }
+                    position.segmentOffset++;
+                    position.filePosition += 8 + payload.length;
+                }
+            } catch (IOException e) {
+                throw new GenericEntityException("Could not read the entity change journal segment " + segmentFile, e);
+            } finally {
+                if (fis != null) {
+                    try {
+                        fis.close();
+                    } catch (IOException e) {
+                        Debug.logWarning(e, module);
+                    }
+                }
+            }
+            if (position.offset < segmentEnd) {
+                // only when maxRecords was reached
+                break;
+            }
+            position.offset = Math.max(position.offset, segmentEnd);
+        }
+        return records;
+    }
+
+    /** Waits until there is a change at or after the offset, or until the timeout elapses */
+    private synchronized void awaitChange(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (nextOffset <= offset && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+            wait(remaining);
+        }
+    }
+
+    /** Returns a subscription reading the changes from the given offset; use {@link #getNextOffset()} to get only the
+     * changes to come. */
+    public Subscription subscribe(long fromOffset) {
+        return new Subscription(fromOffset);
+    }
+
+    /** Deletes the segments holding only changes older than the given offset, returns the number of segments deleted.
+     * The segment being written is never deleted. */
+    public synchronized int removeSegmentsBefore(long offset) {
+        int removed = 0;
+        Iterator<Map.Entry<Long, File>> segmentIter = segments.entrySet().iterator();
+        while (segmentIter.hasNext()) {
+            Map.Entry<Long, File> segment = segmentIter.next();
+            Long higherBase = segments.higherKey(segment.getKey());
+            if (higherBase == null || higherBase > offset || segment.getKey() == writeSegmentBase) {
+                break;
+            }
+            if (!segment.getValue().delete()) {
+                Debug.logWarning("Could not delete the entity change journal segment " + segment.getValue(), module);
+                break;
+            }
+            segmentIter.remove();
+            removed++;
+        }
+        return removed;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Closes the file being written; the changes committed after this are not journaled. The delegator container
+     * closes the journals of the delegators when it stops. */
+    public synchronized void close() {
+        closed = true;
+        if (writeChannel != null) {
+            try {
+                writeChannel.close();
+            } catch (IOException e) {
+                Debug.logWarning(e, "Could not close the entity change journal in " + directory, module);
+            }
+            writeChannel = null;
+        }
+        notifyAll();
+    }
+
+    /** The offset of the next change to read and where it is in its segment file */
+    private static final class ReadPosition {
+        private long offset;
+        private long segmentBase = -1;
+        private long segmentOffset = -1;
+        private long filePosition = 0;
+
+        private ReadPosition(long offset) {
+            seek(offset);
+        }
+
+        private void seek(long offset) {
+            this.offset = Math.max(offset, 0);
+            this.segmentBase = -1;
+        }
+    }
+
+    /**
+     * A consumer of the journal, reading the changes in offset order. A subscription is not thread-safe, each consumer
+     * thread should have its own; it keeps its place in the segment file between polls.
+     */
+    public class Subscription {
+        private final ReadPosition position;
+
+        private Subscription(long fromOffset) {
+            this.position = new ReadPosition(fromOffset);
+        }
+
+        /** Returns the offset of the next change this subscription will read */
+        public long getOffset() {
+            return position.offset;
+        }
+
+        public void seek(long offset) {
+            position.seek(offset);
+        }
+
+        /** Returns the next changes, at most maxRecords of them, without waiting */
+        public List<EntityChangeRecord> poll(int maxRecords) throws GenericEntityException {
+            return read(position, maxRecords);
+        }
+
+        /** Returns the next changes, waiting at most timeoutMillis for a change when there is none yet */
+        public List<EntityChangeRecord> poll(int maxRecords, long timeoutMillis) throws GenericEntityException, InterruptedException {
+            awaitChange(position.offset, timeoutMillis);
+            return read(position, maxRecords);
+        }
+    }
+
+    /** Holds the changes of a transaction until it is committed */
+    private class JournalSynchronization implements Synchronization {
+        private final List<EntityChangeRecord> changes = Collections.synchronizedList(new ArrayList<EntityChangeRecord>());
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != Status.STATUS_COMMITTED) {
+                return;
+            }
+            try {
+                append(new ArrayList<EntityChangeRecord>(changes));
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Could not write the " + changes.size() + " committed change(s) to the entity change journal", module);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.journal;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericPK;
+
+/**
+ * A committed change of the entity engine, as read from the {@link EntityChangeJournal}.
+ * <p>The operation is one of the EntityEcaHandler operations: create, store or remove. A change made by condition
+ * (storeByCondition, removeByCondition) has no primary key, the consumers have to look at the whole entity again.</p>
+ *
+ */
+public final class EntityChangeRecord {
+
+    private final long offset;
+    private final Timestamp txStamp;
+    private final String entityName;
+    private final String operation;
+    private final Map<String, String> primaryKey;
+    private final List<String> changedFields;
+
+    EntityChangeRecord(long offset, Timestamp txStamp, String entityName, String operation, Map<String, String> primaryKey, List<String> changedFields) {
+        this.offset = offset;
+        this.txStamp = txStamp;
+        this.entityName = entityName;
+        this.operation = operation;
+        this.primaryKey = primaryKey != null ? Collections.unmodifiableMap(primaryKey) : null;
+        this.changedFields = Collections.unmodifiableList(changedFields);
+    }
+
+    /** Returns the position of the change in the journal */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** Returns the transaction stamp of the change, the lastUpdatedTxStamp of the values changed */
+    public Timestamp getTxStamp() {
+        return txStamp;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /** Returns true if the change was made by condition and has no primary key */
+    public boolean isByCondition() {
+        return primaryKey == null;
+    }
+
+    /** Returns the primary key field values as strings, or null for a change made by condition */
+    public Map<String, String> getPrimaryKeyStrings() {
+        return primaryKey;
+    }
+
+    /** Returns the primary key of the changed value, or null for a change made by condition or of an entity that no longer exists */
+    public GenericPK getPrimaryKey(Delegator delegator) {
+        if (primaryKey == null) {
+            return null;
+        }
+        if (delegator.getModelEntity(entityName) == null) {
+            return null;
+        }
+        GenericPK pk = delegator.makePK(entityName);
+        for (Map.Entry<String, String> entry: primaryKey.entrySet()) {
+            pk.setString(entry.getKey(), entry.getValue());
+        }
+        return pk;
+    }
+
+    /** Returns the names of the fields changed, not including the primary key and stamp fields; empty for a remove */
+    public List<String> getChangedFields() {
+        return changedFields;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + "] " + operation + " " + entityName + (primaryKey != null ? primaryKey.toString() : "(by condition)") + " " + changedFields;
+    }
+}
@@ -90,7 +90,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
 
     /** Synchronization object used to control access to the ModelField collection objects.
      * A single lock is used for all ModelField collections so collection updates are atomic. */
-    private final Object fieldsLock = new Object();
+    private final Object fieldsLock = new Object[0]; // an array so that the entity can be serialized
 
     /** Model fields in the order they were defined. This list duplicates the values in fieldsMap, but
      *  we must keep the list in its original sequence for SQL DISTINCT operations to work properly. */
@@ -98,6 +98,9 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
 
     private final Map<String, ModelField> fieldsMap = new HashMap<String, ModelField>();
 
+    /** Name to position table for fieldsList, built on demand and cleared whenever the field collections change */
+    private volatile ModelFieldIndex fieldIndex = null;
+
     private final ArrayList<String> pkFieldNames = new ArrayList<String>();
 
     /** A List of the Field objects for the Entity, one for each Primary Key */
@@ -271,6 +274,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         }
         this.fieldsList.add(newField);
         this.fieldsMap.put(newField.getName(), newField);
+        this.fieldIndex = null;
     }
 
     protected void populateRelated(ModelReader reader, Element entityElement) {
@@ -367,6 +371,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
                 }
                 this.fieldsList.add(newField);
                 this.fieldsMap.put(newField.getName(), newField);
+                this.fieldIndex = null;
                 if (!newField.getIsPk()) {
                     if (existingField != null) {
                         this.nopks.remove(existingField);
@@ -617,6 +622,24 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         return fieldString;
     }
 
+    /** Returns the name to position table of the fields of this entity, in field definition order.
+     * The table is rebuilt after fields are added or removed, so callers holding on to an older
+     * table must be prepared for field names it does not contain.
+     */
+    public ModelFieldIndex getFieldIndex() {
+        ModelFieldIndex index = this.fieldIndex;
+        if (index == null) {
+            synchronized (fieldsLock) {
+                index = this.fieldIndex;
+                if (index == null) {
+                    index = new ModelFieldIndex(this.fieldsList);
+                    this.fieldIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     public ModelField getField(String fieldName) {
         if (fieldName == null) return null;
         synchronized (fieldsLock) {
@@ -630,6 +653,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         synchronized (fieldsLock) {
             this.fieldsList.add(field);
             fieldsMap.put(field.getName(), field);
+            this.fieldIndex = null;
             if (field.getIsPk()) {
                 pks.add(field);
                 if (!pkFieldNames.contains(field.getName())) {
@@ -648,6 +672,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
             ModelField field = fieldsMap.remove(fieldName);
             if (field != null) {
                 this.fieldsList.remove(field);
+                this.fieldIndex = null;
                 if (field.getIsPk()) {
                     pks.remove(field);
                     pkFieldNames.remove(field.getName());
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.ofbiz.base.lang.ThreadSafe;
+
+/**
+ * A name to position table for the fields of a <code>ModelEntity</code>.
+ * <p>The position of a field is its index in the entity field list at the time the
+ * table was built. The table is used by <code>GenericEntity</code> to keep field values
+ * in an array instead of a <code>HashMap</code>. The constructor searches for a hash seed
+ * that places every field name in its own slot (a perfect hash) so that a lookup is a
+ * single slot probe and one <code>String</code> comparison; if no such seed is found the
+ * table falls back to linear probing.</p>
+ *
+ */
+@ThreadSafe
+@SuppressWarnings("serial")
+public final class ModelFieldIndex implements Serializable {
+
+    /*
+     * Developers - this is an immutable class. Once constructed, the object should not change state.
+     * Therefore, the object can be safely shared by multiple threads.
+     */
+
+    private static final int MAX_SEED_TRIES = 64;
+
+    private final String[] names;
+    private final String[] slotNames;
+    private final int[] slotPositions;
+    private final int mask;
+    private final int seed;
+    private final boolean perfect;
+
+    ModelFieldIndex(List<ModelField> fields) {
+        int size = fields.size();
+        this.names = new String[size];
+        for (int i = 0; i < size; i++) {
+            this.names[i] = fields.get(i).getName();
+        }
+        int tableSize = 2;
+        while (tableSize < size * 2) {
+            tableSize <<= 1;
+        }
+        // look for a collision free seed, growing the table at most twice before giving up
+        String[] foundSlotNames = null;
+        int[] foundSlotPositions = null;
+        int foundMask = tableSize - 1;
+        int foundSeed = 0;
+        search:
+        for (int grow = 0; grow < 3; grow++) {
+            int tryMask = (tableSize << grow) - 1;
+            for (int trySeed = 0; trySeed < MAX_SEED_TRIES; trySeed++) {
+                String[] trySlotNames = new String[tryMask + 1];
+                int[] trySlotPositions = new int[tryMask + 1];
+                if (fill(trySlotNames, trySlotPositions, tryMask, trySeed, false)) {
+                    foundSlotNames = trySlotNames;
+                    foundSlotPositions = trySlotPositions;
+                    foundMask = tryMask;
+                    foundSeed = trySeed;
+                    break search;
+                }
+            }
+        }
+        this.perfect = foundSlotNames != null;
+        if (!this.perfect) {
+            foundSlotNames = new String[tableSize];
+            foundSlotPositions = new int[tableSize];
+            fill(foundSlotNames, foundSlotPositions, foundMask, foundSeed, true);
+        }
+        this.slotNames = foundSlotNames;
+        this.slotPositions = foundSlotPositions;
+        this.mask = foundMask;
+        this.seed = foundSeed;
+    }
+
+    private boolean fill(String[] tableNames, int[] tablePositions, int tableMask, int tableSeed, boolean probe) {
+        for (int i = 0; i < names.length; i++) {
+            int slot = slot(names[i], tableMask, tableSeed);
+            while (tableNames[slot] != null) {
+                if (!probe) {
+                    return false;
+                }
+                slot = (slot + 1) & tableMask;
+            }
+            tableNames[slot] = names[i];
+            tablePositions[slot] = i;
+        }
+        return true;
+    }
+
+    private static int slot(String name, int tableMask, int tableSeed) {
+        int h = (name.hashCode() ^ tableSeed) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & tableMask;
+    }
+
+    /** Returns the position of the named field, or -1 if the field is not part of this table */
+    public int indexOf(Object name) {
+        if (!(name instanceof String)) {
+            return -1;
+        }
+        String fieldName = (String) name;
+        int slot = slot(fieldName, mask, seed);
+        String slotName = slotNames[slot];
+        while (slotName != null) {
+            if (slotName == fieldName || slotName.equals(fieldName)) {
+                return slotPositions[slot];
+            }
+            if (perfect) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+            slotName = slotNames[slot];
+        }
+        return -1;
+    }
+
+    /** Returns the name of the field at the given position */
+    public String getName(int position) {
+        return names[position];
+    }
+
+    /** Returns the number of fields in this table */
+    public int size() {
+        return names.length;
+    }
+
+    /** Returns true if every field name has its own slot, ie lookups never probe */
+    public boolean isPerfect() {
+        return perfect;
+    }
+}
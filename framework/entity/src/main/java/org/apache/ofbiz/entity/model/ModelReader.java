@@ -18,7 +18,20 @@
  *******************************************************************************/
 package org.apache.ofbiz.entity.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -29,12 +42,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.ofbiz.base.component.ComponentConfig;
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
 import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.config.MainResourceHandler;
 import org.apache.ofbiz.base.config.ResourceHandler;
 import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.StringUtil;
 import org.apache.ofbiz.base.util.UtilTimer;
 import org.apache.ofbiz.base.util.UtilValidate;
 import org.apache.ofbiz.base.util.UtilXml;
@@ -62,14 +83,18 @@ public class ModelReader implements Serializable {
 
     protected Map<String, ModelEntity> entityCache = null;
 
-    protected int numEntities = 0;
-    protected int numViewEntities = 0;
-    protected int numFields = 0;
-    protected int numRelations = 0;
-    protected int numAutoRelations = 0;
+    // the entities are built concurrently, see readResources()
+    protected final AtomicInteger numEntities = new AtomicInteger();
+    protected final AtomicInteger numViewEntities = new AtomicInteger();
+    protected final AtomicInteger numFields = new AtomicInteger();
+    protected final AtomicInteger numRelations = new AtomicInteger();
+    protected final AtomicInteger numAutoRelations = new AtomicInteger();
 
     protected String modelName;
 
+    /** the file to keep a snapshot of the entity definitions in, empty if there is no snapshot */
+    private final String snapshotLocation;
+
     /** collection of filenames for entity definitions */
     protected Collection<ResourceHandler> entityResourceHandlers;
 
@@ -90,9 +115,7 @@ public class ModelReader implements Serializable {
         ModelReader reader = readers.get(tempModelName);
 
         if (reader == null) {
-            reader = new ModelReader(tempModelName);
-            // preload caches...
-            reader.getEntityCache();
+            reader = new ModelReader(tempModelName).loadModel();
             reader = readers.putIfAbsentAndGet(tempModelName, reader);
         }
         return reader;
@@ -109,6 +132,7 @@ public class ModelReader implements Serializable {
         if (entityModelReaderInfo == null) {
             throw new GenericEntityConfException("Cound not find an entity-model-reader with the name " + modelName);
         }
+        this.snapshotLocation = entityModelReaderInfo.getSnapshotLocation();
 
         // get all of the main resource model stuff, ie specified in the entityengine.xml file
         for (Resource resourceElement : entityModelReaderInfo.getResourceList()) {
@@ -124,32 +148,238 @@ public class ModelReader implements Serializable {
         }
     }
 
-    private ModelEntity buildEntity(ResourceHandler entityResourceHandler, Element curEntityElement, int i, ModelInfo def) throws GenericEntityException {
-        boolean isEntity = "entity".equals(curEntityElement.getNodeName());
-        String entityName = UtilXml.checkEmpty(curEntityElement.getAttribute("entity-name")).intern();
-        boolean redefinedEntity = "true".equals(curEntityElement.getAttribute("redefinition"));
+    /** Loads the entity definitions. When there is a snapshot of the definitions made from the current entity model
+     * resources the reader read from the snapshot is returned, otherwise the resources are read and a new snapshot is written.
+     */
+    private ModelReader loadModel() throws GenericEntityException {
+        if (snapshotLocation.isEmpty()) {
+            getEntityCache();
+            return this;
+        }
+        File snapshotFile = new File(snapshotLocation);
+        String sourceHash = getSourceHash();
+        if (sourceHash != null) {
+            ModelReader snapshot = readSnapshot(snapshotFile, sourceHash);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+        getEntityCache();
+        if (sourceHash != null) {
+            writeSnapshot(snapshotFile, sourceHash);
+        }
+        return this;
+    }
 
-        // add entityName to appropriate resourceHandlerEntities collection
-        Collection<String> resourceHandlerEntityNames = resourceHandlerEntities.get(entityResourceHandler);
+    /** Returns a hash of the locations and contents of the entity model resources, or null if a resource can not be read */
+    private String getSourceHash() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            for (ResourceHandler entityResourceHandler: entityResourceHandlers) {
+                digest.update(entityResourceHandler.getFullLocation().getBytes("UTF-8"));
+                InputStream in = entityResourceHandler.getStream();
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return StringUtil.toHexString(digest.digest());
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Could not read the entity model resources of [" + modelName + "], not using a snapshot", module);
+        } catch (IOException e) {
+            Debug.logWarning(e, "Could not read the entity model resources of [" + modelName + "], not using a snapshot", module);
+        } catch (NoSuchAlgorithmException e) {
+            Debug.logWarning(e, "Could not hash the entity model resources of [" + modelName + "], not using a snapshot", module);
+        }
+        return null;
+    }
 
-        if (resourceHandlerEntityNames == null) {
-            resourceHandlerEntityNames = new LinkedList<String>();
-            resourceHandlerEntities.put(entityResourceHandler, resourceHandlerEntityNames);
+    /** Returns the reader saved in the snapshot file, or null if there is no snapshot of the current resources */
+    private ModelReader readSnapshot(File snapshotFile, String sourceHash) {
+        if (!snapshotFile.exists()) {
+            return null;
         }
-        resourceHandlerEntityNames.add(entityName);
+        UtilTimer utilTimer = new UtilTimer();
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile))));
+            if (!sourceHash.equals(in.readUTF())) {
+                Debug.logInfo("The entity model resources of [" + modelName + "] changed since the snapshot " + snapshotFile + " was written, reading them", module);
+                return null;
+            }
+            ModelReader snapshot = (ModelReader) in.readObject();
+            utilTimer.timerString("Read " + snapshot.entityCache.size() + " entities of [" + modelName + "] from the snapshot " + snapshotFile, module);
+            return snapshot;
+        } catch (IOException e) {
+            // also thrown when the model classes changed since the snapshot was written
+            Debug.logWarning("Could not read the entity model snapshot " + snapshotFile + ", reading the entity model resources: " + e.toString(), module);
+        } catch (ClassNotFoundException e) {
+            Debug.logWarning("Could not read the entity model snapshot " + snapshotFile + ", reading the entity model resources: " + e.toString(), module);
+        } catch (ClassCastException e) {
+            Debug.logWarning("Could not read the entity model snapshot " + snapshotFile + ", reading the entity model resources: " + e.toString(), module);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Debug.logWarning(e, module);
+                }
+            }
+        }
+        return null;
+    }
 
-        // check to see if entity with same name has already been read
-        if (entityCache.containsKey(entityName) && !redefinedEntity) {
-            Debug.logWarning("Entity " + entityName +
-                " is defined more than once, most recent will over-write " +
-                "previous definition(s)", module);
-            Debug.logWarning("Entity " + entityName + " was found in " +
-                entityResourceHandler + ", but was already defined in " +
-                entityResourceHandlerMap.get(entityName).toString(), module);
+    /**
+     * Saves this reader in the snapshot file, written to a temporary file first so a reader never sees a partial snapshot.
+     * When the snapshot can not be written, the temporary file and the previous snapshot, which is of other resources or
+     * could not be read, are deleted.
+     */
+    private void writeSnapshot(File snapshotFile, String sourceHash) {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        ObjectOutputStream out = null;
+        boolean written = false;
+        try {
+            File parentDir = snapshotFile.getAbsoluteFile().getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+            out = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))));
+            out.writeUTF(sourceHash);
+            out.writeObject(this);
+            out.close();
+            out = null;
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            written = true;
+            if (Debug.infoOn()) Debug.logInfo("Wrote the entity model snapshot " + snapshotFile + " for [" + modelName + "]", module);
+        } catch (IOException e) {
+            // eg a NotSerializableException, the temporary file then has the part written before the error
+            Debug.logWarning(e, "Could not write the entity model snapshot " + snapshotFile, module);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Debug.logWarning(e, module);
+                }
+            }
+            if (!written) {
+                deleteSnapshotFile(tempFile);
+                deleteSnapshotFile(snapshotFile);
+            }
         }
+    }
 
-        // add entityName, entityFileName pair to entityResourceHandlerMap map
-        entityResourceHandlerMap.put(entityName, entityResourceHandler);
+    private static void deleteSnapshotFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Debug.logWarning("Could not delete the entity model snapshot file " + file + ", it will be deleted on exit", module);
+            file.deleteOnExit();
+        }
+    }
+
+    /** The entities and extend-entity elements read from one entity model resource */
+    private static final class ResourceModels {
+        private final ResourceHandler resourceHandler;
+        private final List<ModelEntity> modelEntities = new ArrayList<ModelEntity>();
+        private final Set<String> redefinedEntityNames = new HashSet<String>();
+        private final List<Element> extendEntityElements = new ArrayList<Element>();
+
+        private ResourceModels(ResourceHandler resourceHandler) {
+            this.resourceHandler = resourceHandler;
+        }
+    }
+
+    private Callable<ResourceModels> createResourceReaderCallable(final ResourceHandler entityResourceHandler) {
+        return new Callable<ResourceModels>() {
+            public ResourceModels call() throws Exception {
+                return readResource(entityResourceHandler);
+            }
+        };
+    }
+
+    /** Parses an entity model resource and builds its entities, the resources are read concurrently */
+    private ResourceModels readResource(ResourceHandler entityResourceHandler) throws GenericEntityException {
+        UtilTimer utilTimer = new UtilTimer();
+        Document document = null;
+
+        try {
+            document = entityResourceHandler.getDocument();
+        } catch (GenericConfigException e) {
+            throw new GenericEntityConfException("Error getting document from resource handler", e);
+        }
+        if (document == null) {
+            throw new GenericEntityConfException("Could not get document for " + entityResourceHandler.toString());
+        }
+
+        ResourceModels resourceModels = new ResourceModels(entityResourceHandler);
+        Element docElement = document.getDocumentElement();
+
+        if (docElement == null) {
+            Debug.logWarning("No document element found in " + entityResourceHandler.toString(), module);
+            return resourceModels;
+        }
+        docElement.normalize();
+        Node curChild = docElement.getFirstChild();
+
+        ModelInfo def = ModelInfo.createFromElements(ModelInfo.DEFAULT, docElement);
+        int i = 0;
+
+        if (curChild != null) {
+            utilTimer.timerString("Before start of entity loop in " + entityResourceHandler.toString());
+            do {
+                boolean isEntity = "entity".equals(curChild.getNodeName());
+                boolean isViewEntity = "view-entity".equals(curChild.getNodeName());
+                boolean isExtendEntity = "extend-entity".equals(curChild.getNodeName());
+
+                if ((isEntity || isViewEntity) && curChild.getNodeType() == Node.ELEMENT_NODE) {
+                    i++;
+                    Element curEntityElement = (Element) curChild;
+                    ModelEntity modelEntity = buildEntity(entityResourceHandler, curEntityElement, i, def);
+                    resourceModels.modelEntities.add(modelEntity);
+                    if ("true".equals(curEntityElement.getAttribute("redefinition"))) {
+                        resourceModels.redefinedEntityNames.add(modelEntity.getEntityName());
+                    }
+                } else if (isExtendEntity && curChild.getNodeType() == Node.ELEMENT_NODE) {
+                    resourceModels.extendEntityElements.add((Element) curChild);
+                }
+            } while ((curChild = curChild.getNextSibling()) != null);
+        } else {
+            Debug.logWarning("No child nodes found.", module);
+        }
+        utilTimer.timerString("Finished " + entityResourceHandler.toString() + " - Total Entities: " + i + " FINISHED");
+        return resourceModels;
+    }
+
+    /** Reads all the entity model resources concurrently, the results are in the order of the resources */
+    private List<ResourceModels> readResources() throws GenericEntityException {
+        List<Future<ResourceModels>> futures = new ArrayList<Future<ResourceModels>>(entityResourceHandlers.size());
+        for (ResourceHandler entityResourceHandler: entityResourceHandlers) {
+            futures.add(ExecutionPool.GLOBAL_FORK_JOIN.submit(createResourceReaderCallable(entityResourceHandler)));
+        }
+        List<ResourceModels> resourceModelsList = new ArrayList<ResourceModels>(futures.size());
+        for (Future<ResourceModels> future: futures) {
+            try {
+                resourceModelsList.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof GenericEntityException) {
+                    throw (GenericEntityException) e.getCause();
+                }
+                throw new GenericEntityConfException("Error reading entity model resource", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GenericEntityConfException("Interrupted while reading the entity model resources", e);
+            }
+        }
+        return resourceModelsList;
+    }
+
+    private ModelEntity buildEntity(ResourceHandler entityResourceHandler, Element curEntityElement, int i, ModelInfo def) throws GenericEntityException {
+        boolean isEntity = "entity".equals(curEntityElement.getNodeName());
+        String entityName = UtilXml.checkEmpty(curEntityElement.getAttribute("entity-name")).intern();
 
         // utilTimer.timerString("  After entityEntityName -- " + i + " --");
         // ModelEntity entity = createModelEntity(curEntity, utilTimer);
@@ -184,73 +414,59 @@ public class ModelReader implements Serializable {
         return modelEntity;
     }
 
+    /** Records the resource an entity was read from, done in the order of the resources so the last definition of an entity wins */
+    private void registerEntity(ResourceHandler entityResourceHandler, String entityName, boolean redefinedEntity) {
+        // add entityName to appropriate resourceHandlerEntities collection
+        Collection<String> resourceHandlerEntityNames = resourceHandlerEntities.get(entityResourceHandler);
+
+        if (resourceHandlerEntityNames == null) {
+            resourceHandlerEntityNames = new LinkedList<String>();
+            resourceHandlerEntities.put(entityResourceHandler, resourceHandlerEntityNames);
+        }
+        resourceHandlerEntityNames.add(entityName);
+
+        // check to see if entity with same name has already been read
+        if (entityCache.containsKey(entityName) && !redefinedEntity) {
+            Debug.logWarning("Entity " + entityName +
+                " is defined more than once, most recent will over-write " +
+                "previous definition(s)", module);
+            Debug.logWarning("Entity " + entityName + " was found in " +
+                entityResourceHandler + ", but was already defined in " +
+                entityResourceHandlerMap.get(entityName).toString(), module);
+        }
+
+        // add entityName, entityFileName pair to entityResourceHandlerMap map
+        entityResourceHandlerMap.put(entityName, entityResourceHandler);
+    }
+
     public Map<String, ModelEntity> getEntityCache() throws GenericEntityException {
         if (entityCache == null) { // don't want to block here
-            synchronized (ModelReader.class) {
+            synchronized (this) {
                 // must check if null again as one of the blocked threads can still enter
                 if (entityCache == null) { // now it's safe
-                    numEntities = 0;
-                    numViewEntities = 0;
-                    numFields = 0;
-                    numRelations = 0;
-                    numAutoRelations = 0;
+                    numEntities.set(0);
+                    numViewEntities.set(0);
+                    numFields.set(0);
+                    numRelations.set(0);
+                    numAutoRelations.set(0);
 
                     entityCache = new HashMap<String, ModelEntity>();
                     List<ModelViewEntity> tempViewEntityList = new LinkedList<ModelViewEntity>();
                     List<Element> tempExtendEntityElementList = new LinkedList<Element>();
 
-                    UtilTimer utilTimer = new UtilTimer();
-
-                    for (ResourceHandler entityResourceHandler: entityResourceHandlers) {
-
-                        // utilTimer.timerString("Before getDocument in file " + entityFileName);
-                        Document document = null;
-
-                        try {
-                            document = entityResourceHandler.getDocument();
-                        } catch (GenericConfigException e) {
-                            throw new GenericEntityConfException("Error getting document from resource handler", e);
-                        }
-                        if (document == null) {
-                            throw new GenericEntityConfException("Could not get document for " + entityResourceHandler.toString());
-                        }
-
-                        // utilTimer.timerString("Before getDocumentElement in " + entityResourceHandler.toString());
-                        Element docElement = document.getDocumentElement();
-
-                        if (docElement == null) {
-                            return null;
-                        }
-                        docElement.normalize();
-                        Node curChild = docElement.getFirstChild();
-
-                        ModelInfo def = ModelInfo.createFromElements(ModelInfo.DEFAULT, docElement);
-                        int i = 0;
-
-                        if (curChild != null) {
-                            utilTimer.timerString("Before start of entity loop in " + entityResourceHandler.toString());
-                            do {
-                                boolean isEntity = "entity".equals(curChild.getNodeName());
-                                boolean isViewEntity = "view-entity".equals(curChild.getNodeName());
-                                boolean isExtendEntity = "extend-entity".equals(curChild.getNodeName());
-
-                                if ((isEntity || isViewEntity) && curChild.getNodeType() == Node.ELEMENT_NODE) {
-                                    i++;
-                                    ModelEntity modelEntity = buildEntity(entityResourceHandler, (Element) curChild, i, def);
-                                    // put the view entity in a list to get ready for the second pass to populate fields...
-                                    if (isViewEntity) {
-                                        tempViewEntityList.add((ModelViewEntity) modelEntity);
-                                    } else {
-                                        entityCache.put(modelEntity.getEntityName(), modelEntity);
-                                    }
-                                } else if (isExtendEntity && curChild.getNodeType() == Node.ELEMENT_NODE) {
-                                    tempExtendEntityElementList.add((Element) curChild);
-                                }
-                            } while ((curChild = curChild.getNextSibling()) != null);
-                        } else {
-                            Debug.logWarning("No child nodes found.", module);
+                    // the resources are parsed concurrently, then merged in their order
+                    for (ResourceModels resourceModels: readResources()) {
+                        for (ModelEntity modelEntity: resourceModels.modelEntities) {
+                            String entityName = modelEntity.getEntityName();
+                            registerEntity(resourceModels.resourceHandler, entityName, resourceModels.redefinedEntityNames.contains(entityName));
+                            // put the view entity in a list to get ready for the second pass to populate fields...
+                            if (modelEntity instanceof ModelViewEntity) {
+                                tempViewEntityList.add((ModelViewEntity) modelEntity);
+                            } else {
+                                entityCache.put(entityName, modelEntity);
+                            }
                         }
-                        utilTimer.timerString("Finished " + entityResourceHandler.toString() + " - Total Entities: " + i + " FINISHED");
+                        tempExtendEntityElementList.addAll(resourceModels.extendEntityElements);
                     }
 
                     // all entity elements in, now go through extend-entity elements and add their stuff
@@ -381,7 +597,7 @@ TEMP_VIEW_LOOP:
 
                                         ModelRelation existingRelation = relatedEnt.getRelation(title + curModelEntity.getEntityName());
                                         if (existingRelation == null) {
-                                            numAutoRelations++;
+                                            numAutoRelations.incrementAndGet();
                                             if (curModelEntity.getEntityName().equals(relatedEnt.getEntityName())) {
                                                 newSameEntityRelations.add(newRel);
                                             } else {
@@ -423,7 +639,7 @@ TEMP_VIEW_LOOP:
                         for (String message : orderedMessages) {
                             Debug.logInfo(message, module);
                         }
-                        Debug.logInfo("Finished loading entities; #Entities=" + numEntities + " #ViewEntities=" + numViewEntities + " #Fields=" + numFields + " #Relationships=" + numRelations + " #AutoRelationships=" + numAutoRelations, module);
+                        Debug.logInfo("Finished loading entities; #Entities=" + numEntities.get() + " #ViewEntities=" + numViewEntities.get() + " #Fields=" + numFields.get() + " #Relationships=" + numRelations.get() + " #AutoRelationships=" + numAutoRelations.get(), module);
                     }
                 }
             }
@@ -586,25 +802,25 @@ TEMP_VIEW_LOOP:
 
     ModelEntity createModelEntity(Element entityElement, UtilTimer utilTimer, ModelInfo def) {
         if (entityElement == null) return null;
-        this.numEntities++;
+        this.numEntities.incrementAndGet();
         ModelEntity entity = new ModelEntity(this, entityElement, utilTimer, def);
         return entity;
     }
 
     ModelEntity createModelViewEntity(Element entityElement, UtilTimer utilTimer, ModelInfo def) {
         if (entityElement == null) return null;
-        this.numViewEntities++;
+        this.numViewEntities.incrementAndGet();
         ModelViewEntity entity = new ModelViewEntity(this, entityElement, utilTimer, def);
         return entity;
     }
 
     public ModelRelation createRelation(ModelEntity entity, Element relationElement) {
-        this.numRelations++;
+        this.numRelations.incrementAndGet();
         ModelRelation relation = ModelRelation.create(entity, relationElement, false);
         return relation;
     }
 
     public void incrementFieldCount(int amount) {
-        this.numFields += amount;
+        this.numFields.addAndGet(amount);
     }
 }
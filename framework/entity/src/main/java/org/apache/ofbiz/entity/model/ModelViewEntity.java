@@ -1249,7 +1249,7 @@ public class ModelViewEntity extends ModelEntity {
         }
     }
 
-    public static final class ViewEntityCondition {
+    public static final class ViewEntityCondition implements Serializable {
         protected final ModelViewEntity modelViewEntity;
         protected final ModelViewLink modelViewLink;
         protected final boolean filterByDate;
@@ -18,14 +18,20 @@
  *******************************************************************************/
 package org.apache.ofbiz.entity.test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.ofbiz.base.util.UtilMisc;
 import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.config.model.DelegatorElement;
+import org.apache.ofbiz.entity.config.model.EntityConfig;
 import org.apache.ofbiz.entity.condition.EntityCondition;
 import org.apache.ofbiz.entity.condition.EntityConditionSubSelect;
 import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.model.ModelField;
 import org.apache.ofbiz.entity.testtools.EntityTestCase;
+import org.apache.ofbiz.entity.util.EntityCrypto;
+import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
 
 public class EntityCryptoTestSuite extends EntityTestCase {
@@ -110,6 +116,68 @@ public class EntityCryptoTestSuite extends EntityTestCase {
         assertFalse(initialSaltedValue.equals(updatedSaltedValue));
     }
 
+    public void testCryptoList() throws Exception {
+        String nanoTime = "" + System.nanoTime();
+        delegator.removeByAnd("TestingCrypto", UtilMisc.toMap("testingCryptoTypeId", "LIST"));
+        delegator.create("TestingCrypto", UtilMisc.toMap("testingCryptoId", "list-1", "testingCryptoTypeId", "LIST", "encryptedValue", nanoTime + "-1", "saltedEncryptedValue", nanoTime + "-1"));
+        delegator.create("TestingCrypto", UtilMisc.toMap("testingCryptoId", "list-2", "testingCryptoTypeId", "LIST"));
+        delegator.create("TestingCrypto", UtilMisc.toMap("testingCryptoId", "list-3", "testingCryptoTypeId", "LIST", "encryptedValue", nanoTime + "-3", "saltedEncryptedValue", nanoTime + "-3"));
+
+        // the encrypted fields of a list are decrypted for all the rows at once
+        List<GenericValue> values = EntityQuery.use(delegator).from("TestingCrypto").where("testingCryptoTypeId", "LIST").orderBy("testingCryptoId").queryList();
+        assertEquals(3, values.size());
+        assertEquals(nanoTime + "-1", values.get(0).getString("encryptedValue"));
+        assertNull(values.get(1).getString("encryptedValue"));
+        assertEquals(nanoTime + "-3", values.get(2).getString("saltedEncryptedValue"));
+        assertFalse(values.get(2).hasChanged());
+        assertEquals(nanoTime + "-3", values.get(2).getOriginalDbValue("encryptedValue"));
+
+        EntityListIterator eli = EntityQuery.use(delegator).from("TestingCrypto").where("testingCryptoTypeId", "LIST").orderBy("testingCryptoId").cursorScrollInsensitive().queryIterator();
+        try {
+            values = eli.getPartialList(2, 2);
+        } finally {
+            eli.close();
+        }
+        assertEquals(2, values.size());
+        assertNull(values.get(0).getString("saltedEncryptedValue"));
+        assertEquals(nanoTime + "-3", values.get(1).getString("encryptedValue"));
+
+        List<GenericValue> rawValues = EntityQuery.use(delegator).from("TestingCryptoRawView").where("testingCryptoTypeId", "LIST").orderBy("testingCryptoId").queryList();
+        List<String> encryptedStrings = new ArrayList<String>();
+        for (GenericValue rawValue: rawValues) {
+            encryptedStrings.add(rawValue.getString("rawEncryptedValue"));
+        }
+        List<Object> decryptedValues = delegator.decryptFieldValues("TestingCrypto", ModelField.EncryptMethod.TRUE, encryptedStrings);
+        assertEquals(UtilMisc.toList(nanoTime + "-1", null, nanoTime + "-3"), decryptedValues);
+    }
+
+    public void testCryptoDecryptedValueCache() throws Exception {
+        DelegatorElement delegatorInfo = EntityConfig.getInstance().getDelegator(delegator.getDelegatorBaseName());
+        String keyName = "TestingCryptoCache";
+        EntityCrypto crypto = new EntityCrypto(delegator, delegatorInfo.getKeyEncryptingKey(), 60000, 2);
+        List<String> encryptedStrings = crypto.encryptAll(keyName, ModelField.EncryptMethod.SALT, UtilMisc.toList("cache-1", "cache-2", "cache-3"));
+        assertEquals(0, crypto.getDecryptedValueCacheSize());
+
+        assertEquals("cache-1", crypto.decrypt(keyName, ModelField.EncryptMethod.SALT, encryptedStrings.get(0)));
+        assertEquals(1, crypto.getDecryptedValueCacheSize());
+        // the second time from the cache, the value read again from its own copy of the bytes
+        assertEquals("cache-1", crypto.decrypt(keyName, ModelField.EncryptMethod.SALT, encryptedStrings.get(0)));
+        assertEquals(1, crypto.getDecryptedValueCacheSize());
+
+        // bounded in size
+        assertEquals(UtilMisc.toList("cache-1", "cache-2", "cache-3"), crypto.decryptAll(keyName, ModelField.EncryptMethod.SALT, encryptedStrings));
+        assertEquals(2, crypto.getDecryptedValueCacheSize());
+
+        crypto.clearKeyCache();
+        assertEquals(0, crypto.getDecryptedValueCacheSize());
+        assertEquals("cache-3", crypto.decrypt(keyName, ModelField.EncryptMethod.SALT, encryptedStrings.get(2)));
+
+        // off by default
+        crypto = new EntityCrypto(delegator, delegatorInfo.getKeyEncryptingKey());
+        assertEquals("cache-2", crypto.decrypt(keyName, ModelField.EncryptMethod.SALT, encryptedStrings.get(1)));
+        assertEquals(0, crypto.getDecryptedValueCacheSize());
+    }
+
     public void testCryptoLookup() throws Exception {
         String nanoTime = "" + System.nanoTime();
 
@@ -18,25 +18,42 @@
  *******************************************************************************/
 package org.apache.ofbiz.entity.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.net.URL;
 import java.sql.Blob;
 import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import javax.sql.rowset.serial.SerialBlob;
 
 import org.apache.ofbiz.base.concurrent.ExecutionPool;
+import org.apache.ofbiz.base.config.ResourceHandler;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.Observable;
 import org.apache.ofbiz.base.util.Observer;
@@ -47,20 +64,35 @@ import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.DelegatorFactory;
 import org.apache.ofbiz.entity.GenericEntity;
 import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericEntityNotFoundException;
 import org.apache.ofbiz.entity.GenericPK;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityFieldValue;
 import org.apache.ofbiz.entity.condition.EntityOperator;
 import org.apache.ofbiz.entity.config.model.Datasource;
 import org.apache.ofbiz.entity.config.model.EntityConfig;
+import org.apache.ofbiz.entity.datasource.GenericDAO;
+import org.apache.ofbiz.entity.eca.EntityEcaHandler;
+import org.apache.ofbiz.entity.journal.EntityChangeJournal;
+import org.apache.ofbiz.entity.journal.EntityChangeRecord;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelReader;
+import org.apache.ofbiz.entity.model.ModelViewEntity;
 import org.apache.ofbiz.entity.testtools.EntityTestCase;
 import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionMonitor;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
+import org.apache.ofbiz.entity.util.EntityBinaryReader;
+import org.apache.ofbiz.entity.util.EntityBinaryWriter;
+import org.apache.ofbiz.entity.util.EntityDataExport;
+import org.apache.ofbiz.entity.util.EntityDataLoader;
 import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
 import org.apache.ofbiz.entity.util.EntitySaxReader;
+import org.apache.ofbiz.entity.util.EntityStoreOptions;
+import org.apache.ofbiz.entity.util.EntityUtil;
 import org.apache.ofbiz.entity.util.SequenceUtil;
 
 public class EntityTestSuite extends EntityTestCase {
@@ -307,6 +339,161 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals("View retrieved from cache has the correct member description", "New Testing Subtype #Cache-3", testValue.getString("subtypeDescription"));
     }
 
+    /*
+     * Tests that storing or removing a value only clears the cached lists the value was or is part of
+     */
+    public void testEntityListCacheInvalidation() throws Exception {
+        try {
+            delegator.create("TestingType", "testingTypeId", "TEST-LCACHE-1", "description", "Testing Type #List-Cache-1");
+            delegator.create("TestingType", "testingTypeId", "TEST-LCACHE-2", "description", "Testing Type #List-Cache-2");
+            delegator.create("Testing", "testingId", "T-LCACHE-1", "testingTypeId", "TEST-LCACHE-1", "testingName", "leaf-1");
+            delegator.create("Testing", "testingId", "T-LCACHE-2", "testingTypeId", "TEST-LCACHE-2", "testingName", "leaf-2");
+            List<GenericValue> typeOneList = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-1").cache(true).queryList();
+            List<GenericValue> typeTwoList = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-2").cache(true).queryList();
+            assertEquals("Type 1 list has one value", 1, typeOneList.size());
+            assertEquals("Type 2 list has one value", 1, typeTwoList.size());
+            // Update a value of type 1, the type 2 list is not part of the change
+            GenericValue testing = EntityQuery.use(delegator).from("Testing").where("testingId", "T-LCACHE-1").queryOne();
+            testing.set("testingName", "leaf-1-changed");
+            testing.store();
+            assertSame("Type 2 list stays cached", typeTwoList, EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-2").cache(true).queryList());
+            typeOneList = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-1").cache(true).queryList();
+            assertEquals("Type 1 list has the changed value", "leaf-1-changed", typeOneList.get(0).getString("testingName"));
+            // Move the value to type 2, both lists change
+            testing.set("testingTypeId", "TEST-LCACHE-2");
+            testing.store();
+            typeOneList = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-1").cache(true).queryList();
+            typeTwoList = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-2").cache(true).queryList();
+            assertEquals("Type 1 list is empty after the move", 0, typeOneList.size());
+            assertEquals("Type 2 list has two values after the move", 2, typeTwoList.size());
+            // Remove the value, only the type 2 list changes
+            testing.remove();
+            assertSame("Type 1 list stays cached", typeOneList, EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-1").cache(true).queryList());
+            typeTwoList = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "TEST-LCACHE-2").cache(true).queryList();
+            assertEquals("Type 2 list has one value after the remove", 1, typeTwoList.size());
+        } finally {
+            delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-LCACHE-%"));
+            delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-LCACHE-%"));
+        }
+    }
+
+    /*
+     * Tests that a cached list with a constant of another type than the field, and a cached list selected without the
+     * primary key, are cleared when a value they are about changes
+     */
+    public void testEntityListCacheInvalidationEdgeCases() throws Exception {
+        try {
+            delegator.create("TestingType", "testingTypeId", "TEST-LCACHE-3", "description", "Testing Type #List-Cache-3");
+            delegator.create("TestingType", "testingTypeId", "TEST-LCACHE-4", "description", "Testing Type #List-Cache-4");
+            delegator.create("Testing", "testingId", "T-LCACHE-3", "testingTypeId", "TEST-LCACHE-3", "testingName", "leaf-3", "testingSize", Long.valueOf(10));
+            delegator.create("Testing", "testingId", "T-LCACHE-4", "testingTypeId", "TEST-LCACHE-3", "testingName", "leaf-4", "testingSize", Long.valueOf(5));
+            // A String constant on a numeric field (put in the cache directly, a query needs a constant of the type
+            // of the field), a value changed to the Long 10 would be in the list
+            EntityCondition sizeCondition = EntityCondition.makeCondition(EntityCondition.makeCondition("testingSize", "10"), EntityCondition.makeCondition("testingTypeId", "TEST-LCACHE-3"));
+            List<GenericValue> sizeList = EntityQuery.use(delegator).from("Testing").where("testingSize", Long.valueOf(10), "testingTypeId", "TEST-LCACHE-3").queryList();
+            assertEquals("Size list has one value", 1, sizeList.size());
+            delegator.getCache().put("Testing", sizeCondition, (List<String>) null, sizeList);
+            assertNotNull("Size list is cached", delegator.getCache().get("Testing", sizeCondition, (List<String>) null));
+            GenericValue resized = EntityQuery.use(delegator).from("Testing").where("testingId", "T-LCACHE-4").queryOne();
+            resized.set("testingSize", Long.valueOf(10));
+            resized.store();
+            assertNull("Size list is cleared by the resized value", delegator.getCache().get("Testing", sizeCondition, (List<String>) null));
+            // A list without the primary key, the moved value is not in the list anymore
+            List<GenericValue> nameList = EntityQuery.use(delegator).select("testingName").from("Testing").where("testingTypeId", "TEST-LCACHE-3").orderBy("testingName").cache(true).queryList();
+            assertEquals("Name list has two values", 2, nameList.size());
+            GenericValue testing = EntityQuery.use(delegator).from("Testing").where("testingId", "T-LCACHE-3").queryOne();
+            testing.set("testingTypeId", "TEST-LCACHE-4");
+            testing.store();
+            nameList = EntityQuery.use(delegator).select("testingName").from("Testing").where("testingTypeId", "TEST-LCACHE-3").orderBy("testingName").cache(true).queryList();
+            assertEquals("Name list has one value after the move", 1, nameList.size());
+            assertEquals("Name list has the value not moved", "leaf-4", nameList.get(0).getString("testingName"));
+        } finally {
+            delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-LCACHE-%"));
+            delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-LCACHE-%"));
+        }
+    }
+
+    /*
+     * Tests that a query asking for a replica runs on the datasource of the group when the group has no read datasource
+     */
+    public void testUseReplica() throws Exception {
+        try {
+            delegator.create("TestingType", "testingTypeId", "TEST-REPLICA", "description", "Testing Type #Replica");
+            GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-REPLICA").useReplica().queryOne();
+            assertNotNull("Found the value with useReplica", testingType);
+            assertEquals("Value has the right description", "Testing Type #Replica", testingType.getString("description"));
+            assertEquals("Count with useReplica", 1, EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-REPLICA").useReplica().queryCount());
+        } finally {
+            delegator.removeByAnd("TestingType", "testingTypeId", "TEST-REPLICA");
+        }
+    }
+
+    /*
+     * Tests that the concurrent read of the entity model resources gives each entity the definition of the last resource
+     * that defines it, with its extend-entity fields and resolved view entity members
+     */
+    public void testModelReaderLoad() throws Exception {
+        ModelReader reader = delegator.getModelReader();
+        Set<String> entityNames = reader.getEntityNames();
+        Iterator<ResourceHandler> handlerIter = reader.getResourceHandlerEntitiesKeyIterator();
+        while (handlerIter.hasNext()) {
+            ResourceHandler handler = handlerIter.next();
+            for (String entityName : reader.getResourceHandlerEntities(handler)) {
+                assertTrue("Entity " + entityName + " of " + handler + " is loaded", entityNames.contains(entityName));
+            }
+        }
+        for (String entityName : entityNames) {
+            ModelEntity modelEntity = reader.getModelEntity(entityName);
+            ResourceHandler handler = reader.getEntityResourceHandler(entityName);
+            assertNotNull("Entity " + entityName + " has a resource", handler);
+            assertTrue("Entity " + entityName + " is recorded in its resource", reader.getResourceHandlerEntities(handler).contains(entityName));
+            if (modelEntity instanceof ModelViewEntity) {
+                ModelViewEntity modelViewEntity = (ModelViewEntity) modelEntity;
+                for (ModelViewEntity.ModelMemberEntity memberEntity : modelViewEntity.getAllModelMemberEntities()) {
+                    assertNotNull("Member " + memberEntity.getEntityAlias() + " of view " + entityName + " is resolved", modelViewEntity.getMemberModelEntity(memberEntity.getEntityAlias()));
+                }
+            }
+        }
+        // Visit is extended by the common component
+        assertNotNull("Visit has the field of its extend-entity", reader.getModelEntity("Visit").getField("clientIpCountryGeoId"));
+    }
+
+    /*
+     * Tests that the entity definitions are the same after a serialization round trip, as done for the entity model snapshot
+     */
+    public void testModelReaderSnapshotRoundTrip() throws Exception {
+        ModelReader reader = delegator.getModelReader();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(reader);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ModelReader copy = (ModelReader) in.readObject();
+        in.close();
+        assertEquals("Same entities after the round trip", reader.getEntityNames(), copy.getEntityNames());
+        for (String entityName : reader.getEntityNames()) {
+            ModelEntity modelEntity = reader.getModelEntity(entityName);
+            ModelEntity copyEntity = copy.getModelEntity(entityName);
+            assertEquals("Same kind of entity " + entityName, modelEntity.getClass(), copyEntity.getClass());
+            // in definition order, the order of the columns in SQL
+            assertEquals("Same fields of " + entityName, getFieldNames(modelEntity), getFieldNames(copyEntity));
+            assertEquals("Same primary key of " + entityName, modelEntity.getPkFieldNames(), copyEntity.getPkFieldNames());
+            assertEquals("Same relations of " + entityName, modelEntity.getRelationsSize(), copyEntity.getRelationsSize());
+            assertEquals("Same location of " + entityName, modelEntity.getLocation(), copyEntity.getLocation());
+        }
+        ModelEntity testing = copy.getModelEntity("Testing");
+        assertEquals("Field type after the round trip", "numeric", testing.getField("testingSize").getType());
+        assertEquals("Field index after the round trip", reader.getModelEntity("Testing").getFieldIndex().indexOf("testingSize"), testing.getFieldIndex().indexOf("testingSize"));
+    }
+
+    private static List<String> getFieldNames(ModelEntity modelEntity) {
+        List<String> fieldNames = new ArrayList<String>();
+        for (ModelField field : modelEntity.getFieldsUnmodifiable()) {
+            fieldNames.add(field.getName());
+        }
+        return fieldNames;
+    }
+
     /*
      * Tests XML serialization by serializing/deserializing a GenericValue
      */
@@ -518,6 +705,43 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * Tests the in memory evaluation of conditions, the compiled conditions must match the same values as the conditions
+     */
+    public void testFilterByCondition() throws Exception {
+        List<GenericValue> values = new LinkedList<GenericValue>();
+        for (int i = 0; i < 10; i++) {
+            values.add(delegator.makeValue("Testing", "testingId", "T-FILTER-" + i, "testingTypeId", i % 2 == 0 ? "EVEN" : "ODD", "testingName", "name-" + i, "testingSize", Long.valueOf(i)));
+        }
+        values.add(delegator.makeValue("Testing", "testingId", "T-FILTER-NULL"));
+        List<EntityCondition> conditions = new LinkedList<EntityCondition>();
+        conditions.add(EntityCondition.makeCondition("testingTypeId", "EVEN"));
+        conditions.add(EntityCondition.makeCondition("testingTypeId", EntityOperator.NOT_EQUAL, "EVEN"));
+        conditions.add(EntityCondition.makeCondition("testingTypeId", null));
+        conditions.add(EntityCondition.makeCondition("testingSize", EntityOperator.GREATER_THAN_EQUAL_TO, Long.valueOf(5)));
+        conditions.add(EntityCondition.makeCondition("testingSize", EntityOperator.IN, UtilMisc.toList(Long.valueOf(1), Long.valueOf(3), Long.valueOf(11))));
+        conditions.add(EntityCondition.makeCondition("testingSize", EntityOperator.NOT_IN, UtilMisc.toList(Long.valueOf(1), Long.valueOf(3))));
+        conditions.add(EntityCondition.makeCondition("testingName", EntityOperator.LIKE, "name-%"));
+        conditions.add(EntityCondition.makeCondition("testingName", EntityOperator.NOT_LIKE, "%-1"));
+        conditions.add(EntityCondition.makeCondition(UtilMisc.toMap("testingTypeId", "ODD", "testingName", "name-3")));
+        conditions.add(EntityCondition.makeCondition(EntityCondition.makeCondition("testingTypeId", "ODD"), EntityOperator.OR, EntityCondition.makeCondition("testingSize", EntityOperator.LESS_THAN, Long.valueOf(3))));
+        conditions.add(EntityCondition.makeCondition("testingName", EntityOperator.NOT_EQUAL, EntityFieldValue.makeFieldValue("testingId")));
+        for (EntityCondition condition : conditions) {
+            List<GenericValue> expected = new LinkedList<GenericValue>();
+            for (GenericValue value : values) {
+                if (condition.entityMatches(value)) {
+                    expected.add(value);
+                }
+            }
+            assertEquals("Filter by " + condition, expected, EntityUtil.filterByCondition(values, condition));
+        }
+        // The constants are converted to the type of the field
+        assertEquals("Integer constant matches a Long field", 1, EntityUtil.filterByCondition(values, EntityCondition.makeCondition("testingSize", Integer.valueOf(4))).size());
+        assertEquals("String constants in an IN list match a Long field", 2, EntityUtil.filterByCondition(values, EntityCondition.makeCondition("testingSize", EntityOperator.IN, UtilMisc.toList("2", "4"))).size());
+        assertEquals("Filter out by condition keeps the value without a size", 6, EntityUtil.filterOutByCondition(values, EntityCondition.makeCondition("testingSize", EntityOperator.LESS_THAN, Long.valueOf(5))).size());
+        assertEquals("Filter by OR", 2, EntityUtil.filterByOr(values, UtilMisc.toList(EntityCondition.makeCondition("testingSize", Long.valueOf(0)), EntityCondition.makeCondition("testingSize", Long.valueOf(9)))).size());
+    }
+
     /*
      * Tests foreign key integrity by trying to remove an entity which has foreign-key dependencies.  Should cause an exception.
      */
@@ -710,6 +934,93 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * This test will create and update a large number of items at once using the bulk upsert mode of storeAll
+     */
+    public void testCreateManyAndBulkUpsert() throws Exception {
+        try {
+            EntityStoreOptions storeOptions = new EntityStoreOptions(false, true);
+            storeOptions.setChunkSize(100);
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-UPSERT-", i), "description", "Bulk create"));
+            }
+            int created = delegator.storeAll(newValues, storeOptions);
+            assertEquals("Test to create " + TEST_COUNT + " with bulk upsert", TEST_COUNT, created);
+
+            // update every other value, store the others unchanged and repeat the last primary key in the same chunk
+            List<GenericValue> upsertValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                String description = i % 2 == 0 ? "Bulk update" : "Bulk create";
+                upsertValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-UPSERT-", i), "description", description));
+            }
+            upsertValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-UPSERT-", (int) TEST_COUNT), "description", "Bulk create"));
+            upsertValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-UPSERT-", (int) TEST_COUNT), "description", "Bulk update"));
+            int changed = delegator.storeAll(upsertValues, storeOptions);
+            assertEquals("Test to bulk upsert changed values only", TEST_COUNT / 2 + 2, changed);
+
+            long updatedCount = EntityQuery.use(delegator)
+                                           .from("Testing")
+                                           .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-UPSERT-%"),
+                                                   EntityCondition.makeCondition("description", "Bulk update"))
+                                           .queryCount();
+            assertEquals("Test bulk upsert updated values", TEST_COUNT / 2 + 1, updatedCount);
+        } finally {
+            List<GenericValue> newlyCreatedValues = EntityQuery.use(delegator)
+                                                               .from("Testing")
+                                                               .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-UPSERT-%"))
+                                                               .queryList();
+            delegator.removeAll(newlyCreatedValues);
+        }
+    }
+
+    /*
+     * Tests the order of the entity ECA rules in the bulk upsert mode of storeAll: the validate and run rules of a chunk
+     * are evaluated before its batch is written, the creates of a chunk before its updates
+     */
+    public void testBulkUpsertEcaOrder() throws Exception {
+        final List<String> evaluated = new LinkedList<String>();
+        EntityEcaHandler<String> ecaHandler = new EntityEcaHandler<String>() {
+            public void setDelegator(Delegator delegator) {
+            }
+
+            public Map<String, List<String>> getEntityEventMap(String entityName) {
+                if (!"Testing".equals(entityName)) {
+                    return null;
+                }
+                Map<String, List<String>> eventMap = new HashMap<String, List<String>>();
+                for (String event: UtilMisc.toList(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.EV_RUN, EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.EV_RETURN)) {
+                    eventMap.put(event, UtilMisc.toList(EntityEcaHandler.OP_CREATE, EntityEcaHandler.OP_STORE));
+                }
+                return eventMap;
+            }
+
+            public void evalRules(String currentOperation, Map<String, List<String>> eventMap, String event, GenericEntity value, boolean isError) {
+                evaluated.add(value.getString("testingId") + ":" + event + ":" + currentOperation);
+            }
+
+            public boolean hasRules(List<String> rules, String currentOperation) {
+                return rules.contains(currentOperation);
+            }
+        };
+        delegator.create("Testing", "testingId", "T-ECA-B", "description", "Bulk create");
+        EntityEcaHandler<Object> originalEcaHandler = delegator.getEntityEcaHandler();
+        delegator.setEntityEcaHandler(ecaHandler);
+        try {
+            List<GenericValue> values = UtilMisc.toList(delegator.makeValue("Testing", "testingId", "T-ECA-A", "description", "Bulk create"),
+                    delegator.makeValue("Testing", "testingId", "T-ECA-B", "description", "Bulk update"),
+                    delegator.makeValue("Testing", "testingId", "T-ECA-C", "description", "Bulk create"));
+            delegator.storeAll(values, new EntityStoreOptions(false, true));
+            assertEquals("ECA rules of a bulk upsert chunk", Arrays.asList(
+                    "T-ECA-A:validate:create", "T-ECA-A:run:create", "T-ECA-C:validate:create", "T-ECA-C:run:create",
+                    "T-ECA-A:cache-clear:create", "T-ECA-A:return:create", "T-ECA-C:cache-clear:create", "T-ECA-C:return:create",
+                    "T-ECA-B:validate:store", "T-ECA-B:run:store", "T-ECA-B:cache-clear:store", "T-ECA-B:return:store"), evaluated);
+        } finally {
+            delegator.setEntityEcaHandler(originalEcaHandler);
+            delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-ECA-%"));
+        }
+    }
+
     /*
      * This test will create a large number of unique items and add them to the delegator at once
      */
@@ -734,6 +1045,74 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * This test will insert, update and delete values with the JDBC batches of GenericDAO, across several batches, and
+     * check that a batch with a failing row is rolled back as a whole
+     */
+    public void testJdbcBatch() throws Exception {
+        GenericDAO genericDAO = GenericDAO.getGenericDAO(delegator.getGroupHelperInfo(delegator.getEntityGroupName("Testing")));
+        int count = 250;
+        try {
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < count; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-BATCH-", i), "description", "Batch insert"));
+            }
+            assertEquals("Test batch insert", count, genericDAO.insertBatch(newValues));
+            assertEquals("Test batch inserted values", count, EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-BATCH-%")).queryCount());
+
+            for (GenericValue value: newValues) {
+                value.set("description", "Batch update");
+            }
+            assertEquals("Test batch update", count, genericDAO.updateBatch(newValues));
+            assertEquals("Test batch updated values", count, EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-BATCH-%"),
+                            EntityCondition.makeCondition("description", "Batch update")).queryCount());
+
+            // a duplicate primary key in the middle of a batch fails the batch, nothing of it is kept
+            List<GenericValue> failingValues = new LinkedList<GenericValue>();
+            for (int i = count; i < count + 10; i++) {
+                failingValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-BATCH-", i), "description", "Batch insert"));
+            }
+            failingValues.add(5, delegator.makeValue("Testing", "testingId", getTestId("T-BATCH-", 0), "description", "Batch insert"));
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                genericDAO.insertBatch(failingValues);
+                fail("Test batch insert with a duplicate primary key");
+            } catch (GenericEntityException e) {
+                // expected
+            } finally {
+                TransactionUtil.rollback(beganTransaction, "Rolling back the failed batch insert", null);
+            }
+            assertEquals("Test failed batch insert is rolled back", count, EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-BATCH-%")).queryCount());
+
+            // a missing row in the middle of a batch fails the update
+            List<GenericValue> updateValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < 10; i++) {
+                updateValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-BATCH-", i), "description", "Batch failed update"));
+            }
+            updateValues.add(5, delegator.makeValue("Testing", "testingId", getTestId("T-BATCH-", count + 1), "description", "Batch failed update"));
+            beganTransaction = TransactionUtil.begin();
+            try {
+                genericDAO.updateBatch(updateValues);
+                fail("Test batch update with a missing row");
+            } catch (GenericEntityNotFoundException e) {
+                // expected
+            } finally {
+                TransactionUtil.rollback(beganTransaction, "Rolling back the failed batch update", null);
+            }
+            assertEquals("Test failed batch update is rolled back", 0, EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("description", "Batch failed update")).queryCount());
+
+            assertEquals("Test batch delete", count, genericDAO.deleteBatch(newValues));
+            assertEquals("Test batch deleted values", 0, EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-BATCH-%")).queryCount());
+        } finally {
+            delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-BATCH-%"));
+        }
+    }
+
     /*
      * This test will use the large number of unique items from above and test the EntityListIterator looping through the list
      */
@@ -785,6 +1164,180 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * Tests streaming the results of a query, with and without prefetch
+     */
+    public void testEntityQueryStream() throws Exception {
+        try {
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T3S-", i)));
+            }
+            delegator.storeAll(newValues);
+            for (boolean prefetch : new boolean[] {false, true}) {
+                boolean beganTransaction = false;
+                try {
+                    beganTransaction = TransactionUtil.begin();
+                    Stream<GenericValue> stream = EntityQuery.use(delegator)
+                                                             .from("Testing")
+                                                             .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T3S-%"))
+                                                             .orderBy("testingId")
+                                                             .fetchSize(7)
+                                                             .stream(prefetch);
+                    int i = 0;
+                    try {
+                        Iterator<GenericValue> iterator = stream.iterator();
+                        while (iterator.hasNext()) {
+                            assertEquals("Testing if streamed data matches test data (row " + i + ", prefetch " + prefetch + "): ", getTestId("T3S-", i), iterator.next().getString("testingId"));
+                            i++;
+                        }
+                    } finally {
+                        stream.close();
+                    }
+                    assertEquals("Test if the stream returns exactly " + TEST_COUNT + " values (prefetch " + prefetch + "): ", TEST_COUNT, i);
+                } catch (GenericEntityException e) {
+                    TransactionUtil.rollback(beganTransaction, "GenericEntityException occurred while streaming the results of a query", e);
+                    assertTrue("GenericEntityException:" + e.toString(), false);
+                    return;
+                } finally {
+                    TransactionUtil.commit(beganTransaction);
+                }
+            }
+        } finally {
+            List<GenericValue> entitiesToRemove = EntityQuery.use(delegator)
+                                                             .from("Testing")
+                                                             .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T3S-%"))
+                                                             .queryList();
+            delegator.removeAll(entitiesToRemove);
+        }
+    }
+
+    /*
+     * Tests keyset pagination, ordering on a non unique field
+     */
+    public void testKeysetPagination() throws Exception {
+        try {
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-KEYSET-", i), "testingSize", Long.valueOf(i % 10)));
+            }
+            delegator.storeAll(newValues);
+            int pageSize = 37;
+            Set<String> seenIds = new HashSet<String>();
+            GenericValue lastValue = null;
+            while (true) {
+                List<GenericValue> page = EntityQuery.use(delegator)
+                                                     .from("Testing")
+                                                     .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-KEYSET-%"))
+                                                     .orderBy("-testingSize")
+                                                     .after(lastValue)
+                                                     .maxRows(pageSize)
+                                                     .queryList();
+                assertTrue("Test if a keyset page is not larger than the page size", page.size() <= pageSize);
+                for (GenericValue value : page) {
+                    if (lastValue != null) {
+                        int compare = lastValue.getLong("testingSize").compareTo(value.getLong("testingSize"));
+                        assertTrue("Test if values are in keyset order", compare > 0 || (compare == 0 && lastValue.getString("testingId").compareTo(value.getString("testingId")) < 0));
+                    }
+                    assertTrue("Test if a value is returned only once: " + value.getString("testingId"), seenIds.add(value.getString("testingId")));
+                    lastValue = value;
+                }
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            assertEquals("Test if keyset pagination returns all values", TEST_COUNT, seenIds.size());
+        } finally {
+            List<GenericValue> entitiesToRemove = EntityQuery.use(delegator)
+                                                             .from("Testing")
+                                                             .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-KEYSET-%"))
+                                                             .queryList();
+            delegator.removeAll(entitiesToRemove);
+        }
+    }
+
+    /*
+     * Tests keyset pagination over a nullable order by field, in both directions
+     */
+    public void testKeysetPaginationNulls() throws Exception {
+        try {
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < 50; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T-KEYNULL-", i), "testingSize", i % 5 == 0 ? null : Long.valueOf(i % 3)));
+            }
+            delegator.storeAll(newValues);
+            for (String orderBy: UtilMisc.toList("testingSize", "-testingSize")) {
+                Set<String> seenIds = new HashSet<String>();
+                Map<String, Object> keysetAfter = null;
+                while (true) {
+                    List<GenericValue> page = EntityQuery.use(delegator)
+                                                         .from("Testing")
+                                                         .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-KEYNULL-%"))
+                                                         .orderBy(orderBy)
+                                                         .after(keysetAfter)
+                                                         .maxRows(7)
+                                                         .queryList();
+                    for (GenericValue value : page) {
+                        assertTrue("Test if a value is returned only once: " + value.getString("testingId") + " ordered by " + orderBy, seenIds.add(value.getString("testingId")));
+                    }
+                    if (page.size() < 7) {
+                        break;
+                    }
+                    // like the request parameters of a page link, the keyset values do not carry the null values
+                    keysetAfter = EntityUtil.getKeysetValues(page.get(page.size() - 1), UtilMisc.toList(orderBy));
+                    keysetAfter.values().removeAll(Collections.singleton(null));
+                }
+                assertEquals("Test if keyset pagination ordered by " + orderBy + " returns all values", 50, seenIds.size());
+            }
+        } finally {
+            List<GenericValue> entitiesToRemove = EntityQuery.use(delegator)
+                                                             .from("Testing")
+                                                             .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-KEYNULL-%"))
+                                                             .queryList();
+            delegator.removeAll(entitiesToRemove);
+        }
+    }
+
+    /*
+     * Tests loading the related values of a list of values with getRelatedForList and getRelatedOneForList
+     */
+    public void testRelatedForList() throws Exception {
+        try {
+            List<GenericValue> types = new LinkedList<GenericValue>();
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < 5; i++) {
+                GenericValue type = delegator.makeValue("TestingType", "testingTypeId", "TEST-REL-" + i, "description", "Testing Type #Rel-" + i);
+                types.add(type);
+                newValues.add(type);
+                for (int j = 0; j < i; j++) {
+                    newValues.add(delegator.makeValue("Testing", "testingId", "T-REL-" + i + "-" + j, "testingTypeId", "TEST-REL-" + i));
+                }
+            }
+            delegator.storeAll(newValues);
+            List<List<GenericValue>> relatedLists = delegator.getRelatedForList("Testing", null, UtilMisc.toList("testingId"), types, false);
+            assertEquals("Test if there is one related list per value", types.size(), relatedLists.size());
+            for (int i = 0; i < types.size(); i++) {
+                List<GenericValue> expected = types.get(i).getRelated("Testing", null, UtilMisc.toList("testingId"), false);
+                assertEquals("Test if related values match getRelated for " + types.get(i).getString("testingTypeId"), expected, relatedLists.get(i));
+                assertEquals("Test the number of related values", i, relatedLists.get(i).size());
+            }
+            List<List<GenericValue>> cachedLists = delegator.getRelatedForList("Testing", null, UtilMisc.toList("testingId"), types, true);
+            assertEquals("Test if cached related values match", relatedLists, cachedLists);
+            List<GenericValue> testings = EntityQuery.use(delegator)
+                                                     .from("Testing")
+                                                     .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-REL-%"))
+                                                     .queryList();
+            List<GenericValue> relatedTypes = delegator.getRelatedOneForList("TestingType", testings, true);
+            assertEquals("Test if there is one related value per value", testings.size(), relatedTypes.size());
+            for (int i = 0; i < testings.size(); i++) {
+                assertEquals("Test if the related value matches getRelatedOne", testings.get(i).getRelatedOne("TestingType", false), relatedTypes.get(i));
+            }
+        } finally {
+            delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T-REL-%"));
+            delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-REL-%"));
+        }
+    }
+
     /*
      * This test will verify transaction rollbacks using TransactionUtil.
      */
@@ -1172,7 +1725,423 @@ public class EntityTestSuite extends EntityTestCase {
         assertNull("Delete TestingType 2", testType);
     }
 
-    public void testSequenceValueItem() {
+    /*
+     * Tests the parallel data load: the files are split in levels by their entities and relations, then loaded by levels
+     */
+    public void testEntityDataLoaderParallel() throws Exception {
+        List<URL> urlList = new LinkedList<URL>();
+        urlList.add(createDataFile("<TestingType testingTypeId=\"parallel-load\" description=\"parallel load\"/>"));
+        urlList.add(createDataFile("<Testing testingId=\"parallel-load-T1\" testingTypeId=\"parallel-load\" testingName=\"parallel load\"/>"
+                + "<Testing testingId=\"parallel-load-T2\" testingTypeId=\"parallel-load\" testingName=\"parallel load\"/>"));
+        urlList.add(createDataFile("<TestFieldType testFieldTypeId=\"parallel-load\"/>"));
+        urlList.add(createDataFile("<TestingType testingTypeId=\"parallel-load\" description=\"parallel load updated\"/>"));
+        try {
+            List<List<URL>> levels = EntityDataLoader.getLoadLevels(urlList, delegator);
+            assertEquals("Number of levels", 3, levels.size());
+            assertEquals("First level", UtilMisc.toList(urlList.get(0), urlList.get(2)), levels.get(0));
+            assertEquals("Second level", UtilMisc.toList(urlList.get(1)), levels.get(1));
+            assertEquals("Third level", UtilMisc.toList(urlList.get(3)), levels.get(2));
+
+            List<Object> errorMessages = new LinkedList<Object>();
+            Map<URL, Integer> rowsChanged = EntityDataLoader.loadDataParallel(urlList, delegator.getGroupHelperName("org.apache.ofbiz"), delegator, errorMessages, -1, false, false, false, 2);
+            assertTrue("No load errors: " + errorMessages, errorMessages.isEmpty());
+            assertEquals("Rows loaded from the Testing file", Integer.valueOf(2), rowsChanged.get(urlList.get(1)));
+            assertEquals("Testing values loaded", 2, EntityQuery.use(delegator).from("Testing").where("testingTypeId", "parallel-load").queryCount());
+            GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "parallel-load").queryOne();
+            assertEquals("TestingType updated by the last file", "parallel load updated", testingType.getString("description"));
+
+            // with the mostly inserts option, the values that exist are stored after their insert failed
+            delegator.removeByAnd("Testing", "testingId", "parallel-load-T2");
+            testingType.set("description", "parallel load changed");
+            testingType.store();
+            errorMessages.clear();
+            rowsChanged = EntityDataLoader.loadDataParallel(urlList, delegator.getGroupHelperName("org.apache.ofbiz"), delegator, errorMessages, -1, false, false, true, 2);
+            assertTrue("No load errors with inserts: " + errorMessages, errorMessages.isEmpty());
+            assertEquals("Rows loaded from the Testing file with inserts", Integer.valueOf(2), rowsChanged.get(urlList.get(1)));
+            assertEquals("Testing values loaded with inserts", 2, EntityQuery.use(delegator).from("Testing").where("testingTypeId", "parallel-load").queryCount());
+            testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "parallel-load").queryOne();
+            assertEquals("TestingType updated by the last file with inserts", "parallel load updated", testingType.getString("description"));
+        } finally {
+            delegator.removeByAnd("Testing", "testingTypeId", "parallel-load");
+            delegator.removeByAnd("TestingType", "testingTypeId", "parallel-load");
+            delegator.removeByAnd("TestFieldType", "testFieldTypeId", "parallel-load");
+            for (URL dataUrl : urlList) {
+                new File(dataUrl.toURI()).delete();
+            }
+        }
+    }
+
+    /*
+     * Tests the binary format of the entity export and the export and import of a compressed binary file
+     */
+    public void testEntityBinaryExport() throws Exception {
+        byte[] b = new byte[1000];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) i;
+        }
+        Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+        timestamp.setNanos(123456789);
+        GenericValue testValue = delegator.makeValue("TestFieldType", "testFieldTypeId", "binary-export");
+        testValue.set("blobField", new SerialBlob(b));
+        testValue.set("objectField", UtilMisc.toList("binary", "export"));
+        testValue.set("dateField", new Date(timestamp.getTime()));
+        testValue.set("dateTimeField", timestamp);
+        testValue.set("fixedPointField", new BigDecimal("-999999999999.999999"));
+        testValue.set("floatingPointField", Double.valueOf(1.0123456789));
+        testValue.set("clobField", "\u00e9t\u00e9 \u4e2d\u6587");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        EntityBinaryWriter writer = new EntityBinaryWriter(delegator, testValue.getModelEntity(), bos);
+        writer.write(testValue);
+        writer.write(delegator.makeValue("TestFieldType", "testFieldTypeId", "binary-export-2"));
+        writer.close();
+        EntityBinaryReader reader = new EntityBinaryReader(delegator, new ByteArrayInputStream(bos.toByteArray()));
+        GenericValue readValue = reader.next();
+        assertEquals("blobField", b.length, ((byte[]) readValue.get("blobField")).length);
+        assertEquals("blobField data[999]", b[999], ((byte[]) readValue.get("blobField"))[999]);
+        assertNull("byteArrayField", readValue.get("byteArrayField"));
+        for (String fieldName : new String[] {"testFieldTypeId", "objectField", "dateField", "dateTimeField", "fixedPointField", "floatingPointField", "clobField"}) {
+            assertEquals(fieldName, testValue.get(fieldName), readValue.get(fieldName));
+        }
+        assertEquals("Second value", "binary-export-2", reader.next().get("testFieldTypeId"));
+        assertNull("End of the stream", reader.next());
+        reader.close();
+
+        delegator.create("TestingType", "testingTypeId", "binary-export", "description", "binary export");
+        for (int i = 1; i <= 3; i++) {
+            delegator.create("Testing", "testingId", "binary-export-" + i, "testingTypeId", "binary-export", "testingSize", Long.valueOf(i));
+        }
+        File outdir = new File(System.getProperty("java.io.tmpdir"));
+        File exportFile = new File(outdir, EntityDataExport.getFileName("Testing", true, true));
+        try {
+            List<GenericValue> exported = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "binary-export").orderBy("testingId").queryList();
+            long numberWritten = EntityDataExport.exportEntity(delegator, "Testing", EntityCondition.makeCondition("testingTypeId", "binary-export"), outdir, true, true, 2, 0);
+            assertEquals("Values exported", 3, numberWritten);
+            assertTrue("Export file is a binary file", EntityDataExport.isBinaryFile(exportFile.getName()));
+            Thread.sleep(20);
+            delegator.removeByAnd("Testing", "testingTypeId", "binary-export");
+            long numberRead = EntityDataExport.importBinary(delegator, exportFile.toURI().toURL(), false, false, false, 2, 0);
+            assertEquals("Values imported", 3, numberRead);
+            List<GenericValue> values = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "binary-export").orderBy("testingId").queryList();
+            assertEquals("Values after the import", 3, values.size());
+            assertEquals("testingSize of the last value", Long.valueOf(3), values.get(2).getLong("testingSize"));
+            assertFalse("Stamps set by the import", exported.get(0).get("lastUpdatedStamp").equals(values.get(0).get("lastUpdatedStamp")));
+
+            // the stamps of the file are kept with maintainTimeStamps, for created and for updated values
+            delegator.removeByAnd("Testing", "testingId", "binary-export-1");
+            delegator.storeByCondition("Testing", UtilMisc.toMap("testingSize", Long.valueOf(99)), EntityCondition.makeCondition("testingId", "binary-export-2"));
+            numberRead = EntityDataExport.importBinary(delegator, exportFile.toURI().toURL(), false, true, false, 2, 0);
+            assertEquals("Values imported with the stamps", 3, numberRead);
+            values = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "binary-export").orderBy("testingId").queryList();
+            for (int i = 0; i < 2; i++) {
+                assertEquals("Stamp of the file kept for " + values.get(i).get("testingId"), exported.get(i).get("lastUpdatedStamp"), values.get(i).get("lastUpdatedStamp"));
+            }
+            assertEquals("Updated testingSize", Long.valueOf(2), values.get(1).getLong("testingSize"));
+
+            // with mostlyInserts the values are inserted, or stored when they exist
+            delegator.removeByAnd("Testing", "testingId", "binary-export-1");
+            delegator.storeByCondition("Testing", UtilMisc.toMap("testingSize", Long.valueOf(99)), EntityCondition.makeCondition("testingId", "binary-export-3"));
+            numberRead = EntityDataExport.importBinary(delegator, exportFile.toURI().toURL(), false, false, true, 2, 0);
+            assertEquals("Values imported with inserts", 3, numberRead);
+            values = EntityQuery.use(delegator).from("Testing").where("testingTypeId", "binary-export").orderBy("testingId").queryList();
+            assertEquals("Values after the import with inserts", 3, values.size());
+            assertEquals("testingSize stored after the failed insert", Long.valueOf(3), values.get(2).getLong("testingSize"));
+        } finally {
+            exportFile.delete();
+            delegator.removeByAnd("Testing", "testingTypeId", "binary-export");
+            delegator.removeByAnd("TestingType", "testingTypeId", "binary-export");
+        }
+    }
+
+    /*
+     * Tests the change journal: only the committed changes are written, in order, and they can be read again after reopening it
+     */
+    public void testEntityChangeJournal() throws Exception {
+        File journalDir = new File(System.getProperty("java.io.tmpdir"), "entity-change-journal-" + UUID.randomUUID());
+        EntityChangeJournal journal = new EntityChangeJournal(journalDir, 2);
+        EntityChangeJournal delegatorJournal = delegator.getChangeJournal();
+        delegator.setChangeJournal(journal);
+        try {
+            EntityChangeJournal.Subscription subscription = journal.subscribe(journal.getNextOffset());
+            delegator.create("TestingType", "testingTypeId", "change-journal", "description", "change journal");
+            delegator.create("Testing", "testingId", "change-journal-1", "testingTypeId", "change-journal", "testingSize", Long.valueOf(1));
+            GenericValue testing = EntityQuery.use(delegator).from("Testing").where("testingId", "change-journal-1").queryOne();
+            testing.set("testingSize", Long.valueOf(2));
+            testing.store();
+            // a rolled back change is not journaled
+            boolean beganTransaction = TransactionUtil.begin();
+            delegator.create("Testing", "testingId", "change-journal-2", "testingTypeId", "change-journal");
+            TransactionUtil.rollback(beganTransaction, "Testing the change journal", null);
+            testing.remove();
+            delegator.removeByAnd("TestingType", "testingTypeId", "change-journal");
+
+            // the remove also journals the EntitySyncRemove value it creates
+            List<EntityChangeRecord> records = new LinkedList<EntityChangeRecord>();
+            for (EntityChangeRecord record: subscription.poll(100, 1000)) {
+                if (record.getEntityName().startsWith("Testing")) {
+                    records.add(record);
+                }
+            }
+            assertEquals("Changes journaled", 5, records.size());
+            assertEquals("First change", "create", records.get(0).getOperation());
+            assertEquals("First change entity", "TestingType", records.get(0).getEntityName());
+            assertEquals("Changed fields of the create", UtilMisc.toList("testingTypeId", "testingSize"), records.get(1).getChangedFields());
+            assertEquals("Third change", "store", records.get(2).getOperation());
+            assertEquals("Changed fields of the store", UtilMisc.toList("testingSize"), records.get(2).getChangedFields());
+            assertEquals("Primary key of the store", "change-journal-1", records.get(2).getPrimaryKeyStrings().get("testingId"));
+            assertEquals("Fourth change", "remove", records.get(3).getOperation());
+            assertTrue("Remove by condition", records.get(4).isByCondition());
+            for (int i = 1; i < records.size(); i++) {
+                assertTrue("Offset of change " + i, records.get(i).getOffset() > records.get(i - 1).getOffset());
+            }
+            assertEquals("Subscription offset", journal.getNextOffset(), subscription.getOffset());
+            assertTrue("Nothing more to read", subscription.poll(100).isEmpty());
+
+            long nextOffset = journal.getNextOffset();
+            journal.close();
+            journal = new EntityChangeJournal(journalDir, 2);
+            assertEquals("Next offset after reopening", nextOffset, journal.getNextOffset());
+            List<EntityChangeRecord> reread = journal.read(records.get(1).getOffset(), 2);
+            assertEquals("Changes read", 2, reread.size());
+            assertEquals("Offset read", records.get(1).getOffset(), reread.get(0).getOffset());
+            GenericPK primaryKey = reread.get(1).getPrimaryKey(delegator);
+            assertEquals("Primary key read", "change-journal-1", primaryKey.getString("testingId"));
+            assertEquals("Transaction stamp read", records.get(2).getTxStamp(), reread.get(1).getTxStamp());
+
+            assertTrue("Segments removed", journal.removeSegmentsBefore(nextOffset) > 0);
+            assertTrue("First offset after removing segments", journal.getFirstOffset() > records.get(0).getOffset());
+
+            // the changes of a transaction are held until the commit
+            delegator.setChangeJournal(journal);
+            long offsetBefore = journal.getNextOffset();
+            beganTransaction = TransactionUtil.begin();
+            delegator.create("TestingType", "testingTypeId", "change-journal", "description", "change journal");
+            delegator.removeByAnd("TestingType", "testingTypeId", "change-journal");
+            assertEquals("Changes held until the commit", offsetBefore, journal.getNextOffset());
+            TransactionUtil.commit(beganTransaction);
+            List<EntityChangeRecord> committed = journal.read(offsetBefore, 100);
+            assertTrue("Changes of the transaction", committed.size() >= 2);
+            assertEquals("First change of the transaction", "TestingType", committed.get(0).getEntityName());
+            assertEquals("Offset of the first change of the transaction", offsetBefore, committed.get(0).getOffset());
+
+            // a closed journal set on the delegator is ignored; the journals of the other delegators are left open
+            journal.close();
+            assertTrue("Journal closed", journal.isClosed());
+            offsetBefore = journal.getNextOffset();
+            delegator.create("TestingType", "testingTypeId", "change-journal", "description", "change journal");
+            delegator.removeByAnd("TestingType", "testingTypeId", "change-journal");
+            assertEquals("Nothing journaled after the close", offsetBefore, journal.getNextOffset());
+        } finally {
+            delegator.setChangeJournal(delegatorJournal);
+            journal.close();
+            File[] files = journalDir.listFiles();
+            if (files != null) {
+                for (File file: files) {
+                    file.delete();
+                }
+            }
+            journalDir.delete();
+            delegator.removeByAnd("Testing", "testingTypeId", "change-journal");
+            delegator.removeByAnd("TestingType", "testingTypeId", "change-journal");
+        }
+    }
+
+    /*
+     * Tests that the delegator only calls the ECA handler for the events and operations that have rules
+     */
+    public void testEntityEcaRuleMask() throws Exception {
+        final List<String> evaluated = new LinkedList<String>();
+        EntityEcaHandler<String> ecaHandler = new EntityEcaHandler<String>() {
+            public void setDelegator(Delegator delegator) {
+            }
+
+            public Map<String, List<String>> getEntityEventMap(String entityName) {
+                if (!"TestingType".equals(entityName)) {
+                    return null;
+                }
+                // the rules are the names of the operations they run on
+                Map<String, List<String>> eventMap = new HashMap<String, List<String>>();
+                eventMap.put(EntityEcaHandler.EV_RUN, UtilMisc.toList(EntityEcaHandler.OP_STORE));
+                return eventMap;
+            }
+
+            public void evalRules(String currentOperation, Map<String, List<String>> eventMap, String event, GenericEntity value, boolean isError) {
+                evaluated.add(value.getEntityName() + ":" + event + ":" + currentOperation);
+            }
+
+            public boolean hasRules(List<String> rules, String currentOperation) {
+                return rules.contains(currentOperation);
+            }
+        };
+        EntityEcaHandler<Object> originalEcaHandler = delegator.getEntityEcaHandler();
+        delegator.setEntityEcaHandler(ecaHandler);
+        try {
+            GenericValue testingType = delegator.create("TestingType", "testingTypeId", "eca-mask", "description", "ECA rule mask");
+            GenericValue testing = delegator.create("Testing", "testingId", "eca-mask", "testingTypeId", "eca-mask");
+            testingType.set("description", "ECA rule mask stored");
+            testingType.store();
+            testing.set("testingSize", Long.valueOf(1));
+            testing.store();
+            EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "eca-mask").cache(true).queryOne();
+            testing.remove();
+            testingType.remove();
+            assertEquals("ECA handler calls", UtilMisc.toList("TestingType:run:store"), evaluated);
+        } finally {
+            delegator.setEntityEcaHandler(originalEcaHandler);
+            delegator.removeByAnd("Testing", "testingTypeId", "eca-mask");
+            delegator.removeByAnd("TestingType", "testingTypeId", "eca-mask");
+        }
+    }
+
+    /*
+     * Tests that the delegator drops the rules indexed by entity when the ECA handler sets itself again after its rules
+     * changed, and that a handler without hasRules is called for every event and operation
+     */
+    public void testEntityEcaRulesChanged() throws Exception {
+        final List<String> evaluated = new LinkedList<String>();
+        final List<String> ruleOperations = new LinkedList<String>();
+        ruleOperations.add(EntityEcaHandler.OP_STORE);
+        EntityEcaHandler<String> ecaHandler = new EntityEcaHandler<String>() {
+            public void setDelegator(Delegator delegator) {
+            }
+
+            public Map<String, List<String>> getEntityEventMap(String entityName) {
+                if (!"TestingType".equals(entityName)) {
+                    return null;
+                }
+                Map<String, List<String>> eventMap = new HashMap<String, List<String>>();
+                eventMap.put(EntityEcaHandler.EV_RUN, new LinkedList<String>(ruleOperations));
+                return eventMap;
+            }
+
+            public void evalRules(String currentOperation, Map<String, List<String>> eventMap, String event, GenericEntity value, boolean isError) {
+                evaluated.add(event + ":" + currentOperation);
+            }
+
+            public boolean hasRules(List<String> rules, String currentOperation) {
+                return rules.contains(currentOperation);
+            }
+        };
+        EntityEcaHandler<Object> originalEcaHandler = delegator.getEntityEcaHandler();
+        delegator.setEntityEcaHandler(ecaHandler);
+        try {
+            GenericValue testingType = delegator.create("TestingType", "testingTypeId", "eca-changed", "description", "ECA rules changed");
+            testingType.store();
+            assertEquals("ECA handler calls before the change", UtilMisc.toList("run:store"), evaluated);
+            // the rules now run on remove, as the handler does when its rules are reloaded
+            ruleOperations.set(0, EntityEcaHandler.OP_REMOVE);
+            delegator.setEntityEcaHandler(ecaHandler);
+            evaluated.clear();
+            testingType.store();
+            testingType.remove();
+            assertEquals("ECA handler calls after the change", UtilMisc.toList("run:remove"), evaluated);
+
+            // without hasRules the handler gets all the events of the entities it has rules for
+            evaluated.clear();
+            delegator.setEntityEcaHandler(new EntityEcaHandler<String>() {
+                public void setDelegator(Delegator delegator) {
+                }
+
+                public Map<String, List<String>> getEntityEventMap(String entityName) {
+                    return "TestingType".equals(entityName) ? UtilMisc.<String, List<String>>toMap(EntityEcaHandler.EV_RUN, UtilMisc.toList("any")) : null;
+                }
+
+                public void evalRules(String currentOperation, Map<String, List<String>> eventMap, String event, GenericEntity value, boolean isError) {
+                    evaluated.add(event + ":" + currentOperation);
+                }
+            });
+            delegator.create("TestingType", "testingTypeId", "eca-changed", "description", "ECA rules changed").remove();
+            assertEquals("ECA handler calls with the default hasRules", UtilMisc.toList("run:create", "run:remove"), evaluated);
+        } finally {
+            delegator.setEntityEcaHandler(originalEcaHandler);
+            delegator.removeByAnd("TestingType", "testingTypeId", "eca-changed");
+        }
+    }
+
+    /*
+     * Tests that the transaction monitor follows the transactions, their origin and their statements
+     */
+    public void testTransactionMonitor() throws Exception {
+        TransactionMonitor monitor = TransactionMonitor.getInstance();
+        if (!monitor.isEnabled()) {
+            return;
+        }
+        long committedCount = monitor.getCommittedCount();
+        long rolledBackCount = monitor.getRolledBackCount();
+        String previousOrigin = TransactionMonitor.setOrigin("test:testTransactionMonitor");
+        try {
+            boolean beganTransaction = TransactionUtil.begin();
+            assertTrue("Transaction begun", beganTransaction);
+            try {
+                EntityQuery.use(delegator).from("TestingType").queryList();
+                EntityQuery.use(delegator).from("Testing").queryList();
+                Map<String, Object> open = null;
+                for (Map<String, Object> transaction: monitor.getOpenTransactionList()) {
+                    if ("test:testTransactionMonitor".equals(transaction.get("origin")) && Thread.currentThread().getName().equals(transaction.get("threadName"))) {
+                        open = transaction;
+                    }
+                }
+                assertNotNull("Open transaction found", open);
+                assertEquals("SQL statements", Integer.valueOf(2), open.get("statementCount"));
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+            assertEquals("Committed count", committedCount + 1, monitor.getCommittedCount());
+
+            beganTransaction = TransactionUtil.begin();
+            TransactionUtil.rollback(beganTransaction, "Testing the transaction monitor", null);
+            assertEquals("Rolled back count", rolledBackCount + 1, monitor.getRolledBackCount());
+        } finally {
+            TransactionMonitor.setOrigin(previousOrigin);
+        }
+        boolean found = false;
+        for (Map<String, Object> statistic: monitor.getOriginStatisticList()) {
+            if ("test:testTransactionMonitor".equals(statistic.get("origin"))) {
+                assertTrue("Origin count", ((Long) statistic.get("count")).longValue() >= 2);
+                found = true;
+            }
+        }
+        assertTrue("Origin statistics found", found);
+    }
+
+    /*
+     * Tests the skipLocked find option, the rows are read with or without locking depending on the datasource
+     */
+    public void testSkipLocked() throws Exception {
+        delegator.removeByAnd("TestingType", "description", "skip locked");
+        try {
+            for (int i = 1; i <= 3; i++) {
+                delegator.create("TestingType", "testingTypeId", "skip-locked-" + i, "description", "skip locked");
+            }
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                List<GenericValue> testingTypes = EntityQuery.use(delegator).from("TestingType").where("description", "skip locked").orderBy("testingTypeId").maxRows(2).skipLocked().queryList();
+                assertEquals("Rows selected", 2, testingTypes.size());
+                assertEquals("First row", "skip-locked-1", testingTypes.get(0).getString("testingTypeId"));
+                int rowsUpdated = delegator.storeByCondition("TestingType", UtilMisc.toMap("description", "skip locked claimed"),
+                        EntityCondition.makeCondition("testingTypeId", EntityOperator.IN, EntityUtil.getFieldListFromEntityList(testingTypes, "testingTypeId", false)));
+                assertEquals("Rows claimed", 2, rowsUpdated);
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+            assertEquals("Rows left", 1, EntityQuery.use(delegator).from("TestingType").where("description", "skip locked").queryCount());
+        } finally {
+            delegator.removeByAnd("TestingType", "description", "skip locked");
+            delegator.removeByAnd("TestingType", "description", "skip locked claimed");
+        }
+    }
+
+    private static URL createDataFile(String content) throws Exception {
+        File file = File.createTempFile("entity-data-load", ".xml");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<entity-engine-xml>" + content + "</entity-engine-xml>");
+        } finally {
+            writer.close();
+        }
+        return file.toURI().toURL();
+    }
+
+    public void testSequenceValueItem() throws Exception {
         SequenceUtil sequencer = new SequenceUtil(delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")),
                                                   delegator.getModelEntity("SequenceValueItem"),
                                                   "seqName", "seqId");
@@ -1182,9 +2151,59 @@ public class EntityTestSuite extends EntityTestCase {
             Long seqId = sequencer.getNextSeqId(sequenceName, 1, null);
             assertEquals(i, seqId.longValue());
         }
+        // the refresh drops the bank reserved in the background, so the next id is the one stored in the database
+        long waitUntil = System.currentTimeMillis() + 10000;
+        while (((Long) sequencer.getBankStatistics().get(sequenceName).get("prefetchedIds")).longValue() == 0 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        GenericValue sequenceValue = EntityQuery.use(delegator).from("SequenceValueItem").where("seqName", sequenceName).queryOne();
         sequencer.forceBankRefresh(sequenceName, 1);
         Long seqId = sequencer.getNextSeqId(sequenceName, 1, null);
-        assertEquals(10020, seqId.longValue());
+        assertEquals(sequenceValue.getLong("seqId").longValue(), seqId.longValue());
+    }
+
+    public void testSequenceBankPrefetch() {
+        SequenceUtil sequencer = new SequenceUtil(delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")),
+                                                  delegator.getModelEntity("SequenceValueItem"),
+                                                  "seqName", "seqId");
+        UUID id = UUID.randomUUID();
+        String sequenceName = "BogusSequence" + id.toString();
+        // the banks are reserved one after the other, so the ids stay contiguous while the bank size grows
+        for (int i = 10000; i < 10500; i++) {
+            Long seqId = sequencer.getNextSeqId(sequenceName, 1, null);
+            assertEquals(i, seqId.longValue());
+        }
+        Map<String, Object> statistics = sequencer.getBankStatistics().get(sequenceName);
+        assertNotNull("Sequence bank statistics", statistics);
+        assertTrue("Banks reserved in the background", (Long) statistics.get("prefetchCount") > 0);
+        assertTrue("Bank size adapted to the allocation rate", (Long) statistics.get("bankSize") > 10);
+    }
+
+    public void testSequenceBankStallCount() throws Exception {
+        SequenceUtil sequencer = new SequenceUtil(delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")),
+                                                  delegator.getModelEntity("SequenceValueItem"),
+                                                  "seqName", "seqId");
+        UUID id = UUID.randomUUID();
+        String sequenceName = "BogusSequence" + id.toString();
+        // the first bank is reserved by the caller
+        assertEquals(10000, sequencer.getNextSeqId(sequenceName, 1, null).longValue());
+        Map<String, Object> statistics = sequencer.getBankStatistics().get(sequenceName);
+        assertEquals("The first bank is a stall", 1L, statistics.get("stallCount"));
+        // use half of the bank of 10 so that the next bank is reserved in the background, and wait for it
+        for (int i = 10001; i < 10006; i++) {
+            assertEquals(i, sequencer.getNextSeqId(sequenceName, 1, null).longValue());
+        }
+        long waitUntil = System.currentTimeMillis() + 10000;
+        while (((Long) sequencer.getBankStatistics().get(sequenceName).get("prefetchedIds")).longValue() == 0 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        // the rest of the bank and the next bank, which is ready
+        for (int i = 10006; i < 10012; i++) {
+            assertEquals(i, sequencer.getNextSeqId(sequenceName, 1, null).longValue());
+        }
+        statistics = sequencer.getBankStatistics().get(sequenceName);
+        assertEquals("Moving to a bank reserved in the background is not a stall", 1L, statistics.get("stallCount"));
+        assertEquals("One bank reserved in the background", 1L, statistics.get("prefetchCount"));
     }
 
     public void testSequenceValueItemWithConcurrentThreads() {
@@ -0,0 +1,511 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.transaction;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.entity.GenericEntityConfException;
+import org.apache.ofbiz.entity.config.model.EntityConfig;
+import org.apache.ofbiz.entity.config.model.TransactionMonitorElement;
+import org.apache.ofbiz.entity.connection.DBCPConnectionFactory;
+
+/**
+ * Keeps figures on the transactions begun through {@link TransactionUtil}: how long they stay open, how many are
+ * suspended, how many SQL statements they run and which service or request began them.
+ * <p>A transaction open for longer than the long-transaction-threshold of the <code>&lt;transaction-monitor&gt;</code>
+ * element is logged once, with the stack where it began and the current stack of its thread. The figures are shown in
+ * the webtools and through the <code>org.apache.ofbiz:type=TransactionMonitor</code> MBean, together with the
+ * figures of the DBCP connection pools.</p>
+ */
+public final class TransactionMonitor implements TransactionMonitorMBean {
+
+    public static final String module = TransactionMonitor.class.getName();
+
+    private static final int maxOrigins = 500;
+    private static final int maxLongTransactionReports = 20;
+
+    private static final TransactionMonitor instance = new TransactionMonitor();
+
+    private static final ThreadLocal<String> currentOrigin = new ThreadLocal<String>();
+    private static final ThreadLocal<TransactionInfo> currentTransaction = new ThreadLocal<TransactionInfo>();
+
+    private final boolean enabled;
+    private final long longTransactionThreshold;
+    private final Map<Transaction, TransactionInfo> openTransactions = new ConcurrentHashMap<Transaction, TransactionInfo>();
+    private final ConcurrentMap<String, OriginStatistics> originStatistics = new ConcurrentHashMap<String, OriginStatistics>();
+    private final Histogram durations = new Histogram();
+    private final AtomicLong committedCount = new AtomicLong();
+    private final AtomicLong rolledBackCount = new AtomicLong();
+    private final AtomicLong longTransactionCount = new AtomicLong();
+    // the latest reports first; guarded by itself
+    private final LinkedList<String> longTransactionReports = new LinkedList<String>();
+
+    private TransactionMonitor() {
+        TransactionMonitorElement config = null;
+        try {
+            config = EntityConfig.getInstance().getTransactionMonitor();
+        } catch (GenericEntityConfException e) {
+            Debug.logWarning(e, "Could not read the transaction-monitor settings, using the defaults", module);
+        }
+        this.enabled = config == null || config.getEnabled();
+        this.longTransactionThreshold = config != null ? config.getLongTransactionThreshold() : 60000;
+        long checkInterval = config != null ? config.getCheckInterval() : 10000;
+        if (this.enabled && this.longTransactionThreshold > 0 && checkInterval > 0) {
+            ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-tx-monitor", 1, 0, false);
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkLongTransactions();
+                }
+            }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
+        if (this.enabled) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("org.apache.ofbiz:type=TransactionMonitor");
+                if (!mbeanServer.isRegistered(name)) {
+                    mbeanServer.registerMBean(this, name);
+                }
+            } catch (Exception e) {
+                Debug.logWarning(e, "Could not register the TransactionMonitor MBean", module);
+            }
+        }
+    }
+
+    public static TransactionMonitor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the name recorded with the transactions begun from now on in the current thread, eg the name of the
+     * service or of the request being run.
+     * @return the previous name, to be set back when done
+     */
+    public static String setOrigin(String origin) {
+        String previous = currentOrigin.get();
+        if (origin != null) {
+            currentOrigin.set(origin);
+        } else {
+            currentOrigin.remove();
+        }
+        return previous;
+    }
+
+    /** Counts a SQL statement run in the current transaction */
+    public static void noteStatement() {
+        TransactionInfo info = currentTransaction.get();
+        if (info != null) {
+            info.statementCount++;
+        }
+    }
+
+    static void transactionBegun(TransactionManager txMgr, Exception beginStack) {
+        if (!instance.enabled) {
+            return;
+        }
+        try {
+            Transaction transaction = txMgr.getTransaction();
+            if (transaction == null) {
+                return;
+            }
+            TransactionInfo info = new TransactionInfo(transaction, currentOrigin.get(), Thread.currentThread(), beginStack);
+            transaction.registerSynchronization(new MonitorSynchronization(info));
+            instance.openTransactions.put(transaction, info);
+            currentTransaction.set(info);
+        } catch (RollbackException e) {
+            // already marked for rollback, nothing to follow
+            if (Debug.verboseOn()) Debug.logVerbose("Not monitoring a transaction marked for rollback", module);
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not monitor the transaction", module);
+        } catch (IllegalStateException e) {
+            Debug.logWarning(e, "Could not monitor the transaction", module);
+        }
+    }
+
+    static void transactionSuspended(Transaction transaction) {
+        TransactionInfo info = transaction != null ? instance.openTransactions.get(transaction) : null;
+        if (info != null) {
+            info.suspended = true;
+        }
+        currentTransaction.remove();
+    }
+
+    static void transactionResumed(Transaction transaction) {
+        TransactionInfo info = instance.openTransactions.get(transaction);
+        if (info != null) {
+            info.suspended = false;
+            info.thread = Thread.currentThread();
+            currentTransaction.set(info);
+        }
+    }
+
+    private void transactionCompleted(TransactionInfo info, int status) {
+        openTransactions.remove(info.transaction);
+        if (currentTransaction.get() == info) {
+            currentTransaction.remove();
+        }
+        long duration = info.getAge();
+        durations.record(duration);
+        boolean committed = status == Status.STATUS_COMMITTED;
+        if (committed) {
+            committedCount.incrementAndGet();
+        } else {
+            rolledBackCount.incrementAndGet();
+        }
+        String origin = info.origin != null ? info.origin : "(none)";
+        OriginStatistics stats = originStatistics.get(origin);
+        if (stats == null) {
+            if (originStatistics.size() >= maxOrigins) {
+                origin = "(other)";
+            }
+            stats = new OriginStatistics();
+            OriginStatistics existing = originStatistics.putIfAbsent(origin, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(duration, committed);
+        if (info.reported && Debug.infoOn()) {
+            Debug.logInfo("Long transaction " + info + " completed after " + duration + " ms, " + (committed ? "committed" : "rolled back"), module);
+        }
+    }
+
+    private void checkLongTransactions() {
+        try {
+            for (TransactionInfo info: openTransactions.values()) {
+                if (!info.reported && info.getAge() > longTransactionThreshold) {
+                    info.reported = true;
+                    longTransactionCount.incrementAndGet();
+                    reportLongTransaction(info);
+                }
+            }
+        } catch (RuntimeException e) {
+            Debug.logError(e, "Error checking the long transactions", module);
+        }
+    }
+
+    private void reportLongTransaction(TransactionInfo info) {
+        String message = "Long transaction " + info;
+        Debug.logWarning(info.beginStack, message + "; it began here:", module);
+        StringBuilder report = new StringBuilder(message);
+        if (info.beginStack != null) {
+            report.append("\nBegun at:");
+            appendStack(report, info.beginStack.getStackTrace());
+        }
+        Thread thread = info.thread;
+        if (!info.suspended && thread != null) {
+            StackTraceElement[] currentStack = thread.getStackTrace();
+            Exception current = new Exception("Current stack of thread " + thread.getName());
+            current.setStackTrace(currentStack);
+            Debug.logWarning(current, message + "; its thread is now here:", module);
+            report.append("\nNow at:");
+            appendStack(report, currentStack);
+        }
+        synchronized (longTransactionReports) {
+            longTransactionReports.addFirst(report.toString());
+            if (longTransactionReports.size() > maxLongTransactionReports) {
+                longTransactionReports.removeLast();
+            }
+        }
+    }
+
+    private static void appendStack(StringBuilder report, StackTraceElement[] stack) {
+        for (StackTraceElement element: stack) {
+            report.append("\n    at ").append(element);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getLongTransactionThreshold() {
+        return longTransactionThreshold;
+    }
+
+    @Override
+    public int getOpenTransactionCount() {
+        return openTransactions.size();
+    }
+
+    @Override
+    public int getSuspendedTransactionCount() {
+        int count = 0;
+        for (TransactionInfo info: openTransactions.values()) {
+            if (info.suspended) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getCommittedCount() {
+        return committedCount.get();
+    }
+
+    @Override
+    public long getRolledBackCount() {
+        return rolledBackCount.get();
+    }
+
+    @Override
+    public long getLongTransactionCount() {
+        return longTransactionCount.get();
+    }
+
+    @Override
+    public long[] getHistogramBounds() {
+        return Histogram.getBounds();
+    }
+
+    @Override
+    public long[] getDurationHistogram() {
+        return durations.getCounts();
+    }
+
+    public Histogram getDurations() {
+        return durations;
+    }
+
+    /** Returns the open transactions, the oldest first, as maps of origin, threadName, age (ms), statementCount, suspended and longRunning */
+    public List<Map<String, Object>> getOpenTransactionList() {
+        List<TransactionInfo> infos = new ArrayList<TransactionInfo>(openTransactions.values());
+        Collections.sort(infos, new Comparator<TransactionInfo>() {
+            public int compare(TransactionInfo info1, TransactionInfo info2) {
+                return Long.compare(info1.beginTime, info2.beginTime);
+            }
+        });
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(infos.size());
+        for (TransactionInfo info: infos) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("origin", info.origin);
+            map.put("threadName", info.thread != null ? info.thread.getName() : null);
+            map.put("age", info.getAge());
+            map.put("statementCount", info.statementCount);
+            map.put("suspended", info.suspended);
+            map.put("longRunning", info.reported);
+            list.add(map);
+        }
+        return list;
+    }
+
+    /** Returns the statistics by origin, the longest total time first, as maps of origin, count, rolledBackCount, totalTime and maxTime (ms) */
+    public List<Map<String, Object>> getOriginStatisticList() {
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(originStatistics.size());
+        for (Map.Entry<String, OriginStatistics> entry: originStatistics.entrySet()) {
+            OriginStatistics stats = entry.getValue();
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("origin", entry.getKey());
+            map.put("count", stats.count.get());
+            map.put("rolledBackCount", stats.rolledBackCount.get());
+            map.put("totalTime", stats.totalTime.get());
+            map.put("maxTime", stats.maxTime.get());
+            list.add(map);
+        }
+        Collections.sort(list, new Comparator<Map<String, Object>>() {
+            public int compare(Map<String, Object> map1, Map<String, Object> map2) {
+                return Long.compare((Long) map2.get("totalTime"), (Long) map1.get("totalTime"));
+            }
+        });
+        return list;
+    }
+
+    public List<String> getLongTransactionReportList() {
+        synchronized (longTransactionReports) {
+            return new ArrayList<String>(longTransactionReports);
+        }
+    }
+
+    @Override
+    public String[] getOpenTransactions() {
+        List<String> lines = new LinkedList<String>();
+        for (Map<String, Object> map: getOpenTransactionList()) {
+            lines.add(map.get("origin") + " [" + map.get("threadName") + "] " + map.get("age") + " ms, " + map.get("statementCount") + " SQL statements" + (Boolean.TRUE.equals(map.get("suspended")) ? ", suspended" : ""));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getOriginStatistics() {
+        List<String> lines = new LinkedList<String>();
+        for (Map<String, Object> map: getOriginStatisticList()) {
+            lines.add(map.get("origin") + ": " + map.get("count") + " transactions, " + map.get("rolledBackCount") + " rolled back, " + map.get("totalTime") + " ms total, " + map.get("maxTime") + " ms max");
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getLongTransactionReports() {
+        List<String> reports = getLongTransactionReportList();
+        return reports.toArray(new String[reports.size()]);
+    }
+
+    @Override
+    public String[] getDataSourceStatistics() {
+        List<String> lines = new LinkedList<String>();
+        for (Map.Entry<String, Map<String, Object>> entry: DBCPConnectionFactory.getAllDataSourceInfo().entrySet()) {
+            Map<String, Object> info = entry.getValue();
+            lines.add(entry.getKey() + ": " + info.get("poolNumActive") + " active, " + info.get("poolNumIdle") + " idle, " + info.get("poolNumWaiters") + " waiting, "
+                    + info.get("poolMeanBorrowWait") + " ms mean and " + info.get("poolMaxBorrowWait") + " ms max borrow wait, " + info.get("poolBorrowFailures") + " borrow failures, borrow wait histogram "
+                    + Arrays.toString((long[]) info.get("poolBorrowWaitHistogram")));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * A histogram of durations in milliseconds, with buckets up to 1 ms, 10 ms, 100 ms, 1 s, 10 s, 1 min and above.
+     */
+    public static final class Histogram {
+        private static final long[] bounds = new long[] {1, 10, 100, 1000, 10000, 60000};
+
+        private final AtomicLongArray counts = new AtomicLongArray(bounds.length + 1);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public static long[] getBounds() {
+            return bounds.clone();
+        }
+
+        public void record(long millis) {
+            int bucket = 0;
+            while (bucket < bounds.length && millis > bounds[bucket]) {
+                bucket++;
+            }
+            counts.incrementAndGet(bucket);
+            total.addAndGet(millis);
+            long currentMax = max.get();
+            while (millis > currentMax && !max.compareAndSet(currentMax, millis)) {
+                currentMax = max.get();
+            }
+        }
+
+        public long[] getCounts() {
+            long[] result = new long[counts.length()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = counts.get(i);
+            }
+            return result;
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+    }
+
+    private static final class TransactionInfo {
+        private final Transaction transaction;
+        private final String origin;
+        private final Exception beginStack;
+        private final long beginTime = System.currentTimeMillis();
+        // the thread running the transaction, the last one that resumed it
+        private volatile Thread thread;
+        private volatile boolean suspended = false;
+        private volatile boolean reported = false;
+        // only incremented by the thread running the transaction
+        private volatile int statementCount = 0;
+
+        private TransactionInfo(Transaction transaction, String origin, Thread thread, Exception beginStack) {
+            this.transaction = transaction;
+            this.origin = origin;
+            this.thread = thread;
+            this.beginStack = beginStack;
+        }
+
+        private long getAge() {
+            return System.currentTimeMillis() - beginTime;
+        }
+
+        @Override
+        public String toString() {
+            Thread thread = this.thread;
+            return "[" + origin + "] in thread [" + (thread != null ? thread.getName() : null) + "] open for " + getAge() + " ms, " + statementCount + " SQL statements" + (suspended ? ", suspended" : "");
+        }
+    }
+
+    private static final class OriginStatistics {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong rolledBackCount = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+
+        private void record(long duration, boolean committed) {
+            count.incrementAndGet();
+            if (!committed) {
+                rolledBackCount.incrementAndGet();
+            }
+            totalTime.addAndGet(duration);
+            long currentMax = maxTime.get();
+            while (duration > currentMax && !maxTime.compareAndSet(currentMax, duration)) {
+                currentMax = maxTime.get();
+            }
+        }
+    }
+
+    private static final class MonitorSynchronization implements Synchronization {
+        private final TransactionInfo info;
+
+        private MonitorSynchronization(TransactionInfo info) {
+            this.info = info;
+        }
+
+        public void beforeCompletion() {
+        }
+
+        public void afterCompletion(int status) {
+            instance.transactionCompleted(info, status);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.transaction;
+
+/**
+ * The JMX view of the {@link TransactionMonitor}, registered as <code>org.apache.ofbiz:type=TransactionMonitor</code>.
+ */
+public interface TransactionMonitorMBean {
+
+    /** Returns the number of transactions begun through TransactionUtil and not completed yet, suspended or not */
+    int getOpenTransactionCount();
+
+    int getSuspendedTransactionCount();
+
+    long getCommittedCount();
+
+    long getRolledBackCount();
+
+    /** Returns the number of transactions found open for longer than the long transaction threshold */
+    long getLongTransactionCount();
+
+    /** Returns the upper bounds in milliseconds of the buckets of the histograms, the last bucket has no bound */
+    long[] getHistogramBounds();
+
+    /** Returns the number of completed transactions in each bucket of the histogram of their durations */
+    long[] getDurationHistogram();
+
+    /** Returns one line per open transaction: origin, thread, age, number of SQL statements */
+    String[] getOpenTransactions();
+
+    /** Returns one line per origin (service or request): transactions, rolled back, total and maximum time */
+    String[] getOriginStatistics();
+
+    /** Returns the latest long transaction reports, with the stack where they began */
+    String[] getLongTransactionReports();
+
+    /** Returns one line per connection pool: active, idle, waiters and borrow wait times */
+    String[] getDataSourceStatistics();
+}
@@ -154,6 +154,8 @@ public final class TransactionUtil implements Status {
                 getTransactionStartStamp();
                 // set the tx begin stack placeholder
                 setTransactionBeginStack();
+                // follow the transaction until it completes
+                TransactionMonitor.transactionBegun(TransactionFactoryLoader.getInstance().getTransactionManager(), transactionBeginStack.get());
 
                 // initialize the debug resource
                 if (debugResources()) {
@@ -213,6 +215,20 @@ public final class TransactionUtil implements Status {
         }
     }
 
+    /** Gets the transaction of the current thread IF transactions are available, otherwise returns null */
+    public static Transaction getTransaction() throws GenericTransactionException {
+        TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+        if (tm != null) {
+            try {
+                return tm.getTransaction();
+            } catch (SystemException e) {
+                throw new GenericTransactionException("System error, could not get the transaction", e);
+            }
+        } else {
+            return null;
+        }
+    }
+
     public static String getStatusString() throws GenericTransactionException {
         return getTransactionStateString(getStatus());
     }
@@ -389,6 +405,7 @@ public final class TransactionUtil implements Status {
                     pushSetRollbackOnlyCauseSave(clearSetRollbackOnlyCause());
                     Transaction trans = txMgr.suspend();
                     pushSuspendedTransaction(trans);
+                    TransactionMonitor.transactionSuspended(trans);
                     return trans;
                 } else {
                     return null;
@@ -413,6 +430,7 @@ public final class TransactionUtil implements Status {
                 setSetRollbackOnlyCause(popSetRollbackOnlyCauseSave());
                 txMgr.resume(parentTx);
                 removeSuspendedTransaction(parentTx);
+                TransactionMonitor.transactionResumed(parentTx);
             }
         } catch (InvalidTransactionException e) {
             throw new GenericTransactionException("System error, could not resume transaction", e);
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralException;
+import org.apache.ofbiz.base.util.ObjectType;
+import org.apache.ofbiz.base.util.UtilObject;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.jdbc.SqlJdbcUtil;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+
+/**
+ * Reads the values written by {@link EntityBinaryWriter}.
+ * <p>The fields are matched by name with the current definition of the entity: the fields that no longer exist are
+ * skipped and a value whose field changed of type is converted to the new type.</p>
+ *
+ */
+public class EntityBinaryReader {
+
+    public static final String module = EntityBinaryReader.class.getName();
+
+    private final DataInputStream in;
+    private final Delegator delegator;
+    private final ModelEntity modelEntity;
+    /** The fields of the stream in the current entity definition, null for the fields that no longer exist */
+    private final ModelField[] fields;
+    private final int[] fieldTypes;
+    /** The Java types of the fields that changed of type since the stream was written, else null */
+    private final String[] convertTypes;
+    private final byte[] nullBitmap;
+    private boolean finished = false;
+
+    public EntityBinaryReader(Delegator delegator, InputStream in) throws GenericEntityException, IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+        this.delegator = delegator;
+        if (this.in.readInt() != EntityBinaryWriter.MAGIC) {
+            throw new IOException("Not a binary entity stream");
+        }
+        int version = this.in.readUnsignedShort();
+        if (version != EntityBinaryWriter.VERSION) {
+            throw new IOException("Unsupported binary entity stream version " + version);
+        }
+        String entityName = this.in.readUTF();
+        this.modelEntity = delegator.getModelEntity(entityName);
+        if (this.modelEntity == null) {
+            throw new GenericEntityException("Entity [" + entityName + "] of the binary entity stream not found");
+        }
+        int fieldCount = this.in.readInt();
+        this.fields = new ModelField[fieldCount];
+        this.fieldTypes = new int[fieldCount];
+        this.convertTypes = new String[fieldCount];
+        this.nullBitmap = new byte[(fieldCount + 7) / 8];
+        for (int i = 0; i < fieldCount; i++) {
+            String fieldName = this.in.readUTF();
+            fieldTypes[i] = this.in.readUnsignedByte();
+            fields[i] = modelEntity.getField(fieldName);
+            if (fields[i] == null) {
+                Debug.logWarning("Field [" + entityName + "." + fieldName + "] of the binary entity stream not found, skipping it", module);
+                continue;
+            }
+            String javaType = delegator.getEntityFieldType(modelEntity, fields[i].getType()).getJavaType();
+            if (SqlJdbcUtil.getType(javaType) != fieldTypes[i]) {
+                convertTypes[i] = javaType;
+            }
+        }
+    }
+
+    public ModelEntity getModelEntity() {
+        return modelEntity;
+    }
+
+    /** Returns the next value, or null at the end of the stream */
+    public GenericValue next() throws GenericEntityException, IOException {
+        if (finished) {
+            return null;
+        }
+        int marker = in.readUnsignedByte();
+        if (marker == EntityBinaryWriter.END) {
+            finished = true;
+            return null;
+        }
+        if (marker != EntityBinaryWriter.ROW) {
+            throw new IOException("Corrupted binary entity stream of entity [" + modelEntity.getEntityName() + "]");
+        }
+        in.readFully(nullBitmap);
+        GenericValue value = GenericValue.create(modelEntity);
+        value.setDelegator(delegator);
+        for (int i = 0; i < fields.length; i++) {
+            if ((nullBitmap[i / 8] & (1 << (i % 8))) != 0) {
+                continue;
+            }
+            Object fieldValue = readValue(fieldTypes[i]);
+            if (fields[i] == null) {
+                continue;
+            }
+            if (convertTypes[i] != null) {
+                try {
+                    fieldValue = ObjectType.simpleTypeConvert(fieldValue, convertTypes[i], null, null);
+                } catch (GeneralException e) {
+                    throw new GenericEntityException("Could not convert the value of field [" + modelEntity.getEntityName() + "." + fields[i].getName() + "] to " + convertTypes[i], e);
+                }
+            }
+            value.dangerousSetNoCheckButFast(fields[i], fieldValue);
+        }
+        return value;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Object readValue(int fieldType) throws IOException {
+        switch (fieldType) {
+        case 1:
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        case 2:
+            long time = in.readLong();
+            int nanos = in.readInt();
+            Timestamp timestamp = new Timestamp(time);
+            if (nanos >= 0) {
+                timestamp.setNanos(nanos);
+            }
+            return timestamp;
+        case 3:
+            return new java.sql.Time(in.readLong());
+        case 4:
+            return new java.sql.Date(in.readLong());
+        case 5:
+            return Integer.valueOf(in.readInt());
+        case 6:
+            return Long.valueOf(in.readLong());
+        case 7:
+            return Float.valueOf(in.readFloat());
+        case 8:
+            return Double.valueOf(in.readDouble());
+        case 9:
+            BigInteger unscaled = new BigInteger(readBytes());
+            return new BigDecimal(unscaled, in.readInt());
+        case 10:
+            return Boolean.valueOf(in.readBoolean());
+        case 12:
+            if (in.readUnsignedByte() == EntityBinaryWriter.BYTES) {
+                return readBytes();
+            }
+            return deserialize(readBytes());
+        default:
+            return deserialize(readBytes());
+        }
+    }
+
+    private byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        try {
+            return UtilObject.getObjectException(bytes);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Could not deserialize a field value", e);
+        }
+    }
+}
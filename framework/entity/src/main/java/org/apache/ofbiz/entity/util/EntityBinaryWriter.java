@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.jdbc.SqlJdbcUtil;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+
+/**
+ * Writes the values of an entity in a compact binary format, read back by {@link EntityBinaryReader}.
+ * <p>The stream starts with the entity name and the name and type of each field, the type being the
+ * {@link SqlJdbcUtil#getType(String)} code of the Java type of the field. Each row is a bitmap of the null fields
+ * followed by the values of the other fields: numbers and dates as fixed size binary values, strings and byte
+ * arrays prefixed by their length, other objects serialized. The stream ends with an end of rows marker.</p>
+ *
+ */
+public class EntityBinaryWriter {
+
+    public static final String module = EntityBinaryWriter.class.getName();
+
+    /** The first bytes of a binary entity stream, "OFBE" */
+    public static final int MAGIC = 0x4F464245;
+    public static final int VERSION = 1;
+    static final int ROW = 1;
+    static final int END = 0;
+    /** Tags of a byte array field value, the value of a blob can also be a serialized object */
+    static final int BYTES = 0;
+    static final int SERIALIZED = 1;
+
+    private final DataOutputStream out;
+    private final ModelEntity modelEntity;
+    private final List<ModelField> fields;
+    private final int[] fieldTypes;
+    private final byte[] nullBitmap;
+    private long numberWritten = 0;
+
+    public EntityBinaryWriter(Delegator delegator, ModelEntity modelEntity, OutputStream out) throws GenericEntityException, IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+        this.modelEntity = modelEntity;
+        this.fields = modelEntity.getFieldsUnmodifiable();
+        this.fieldTypes = new int[fields.size()];
+        this.nullBitmap = new byte[(fields.size() + 7) / 8];
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeUTF(modelEntity.getEntityName());
+        this.out.writeInt(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            ModelField modelField = fields.get(i);
+            fieldTypes[i] = SqlJdbcUtil.getType(delegator.getEntityFieldType(modelEntity, modelField.getType()).getJavaType());
+            this.out.writeUTF(modelField.getName());
+            this.out.writeByte(fieldTypes[i]);
+        }
+    }
+
+    public long getNumberWritten() {
+        return numberWritten;
+    }
+
+    public void write(GenericValue value) throws IOException {
+        if (!modelEntity.getEntityName().equals(value.getEntityName())) {
+            throw new IllegalArgumentException("Value of entity [" + value.getEntityName() + "] written to a stream of entity [" + modelEntity.getEntityName() + "]");
+        }
+        Object[] fieldValues = new Object[fields.size()];
+        for (int i = 0; i < nullBitmap.length; i++) {
+            nullBitmap[i] = 0;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            fieldValues[i] = value.dangerousGetNoCheckButFast(fields.get(i));
+            if (fieldValues[i] == null) {
+                nullBitmap[i / 8] |= 1 << (i % 8);
+            }
+        }
+        out.writeByte(ROW);
+        out.write(nullBitmap);
+        for (int i = 0; i < fields.size(); i++) {
+            if (fieldValues[i] != null) {
+                try {
+                    writeValue(fieldTypes[i], fieldValues[i]);
+                } catch (ClassCastException e) {
+                    throw new IOException("Field [" + modelEntity.getEntityName() + "." + fields.get(i).getName() + "] has a value of type " + fieldValues[i].getClass().getName() + " that does not match its field type", e);
+                }
+            }
+        }
+        numberWritten++;
+    }
+
+    /** Writes the end of rows marker and closes the underlying stream */
+    public void close() throws IOException {
+        try {
+            out.writeByte(END);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeValue(int fieldType, Object value) throws IOException {
+        switch (fieldType) {
+        case 1:
+            writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+            break;
+        case 2:
+            java.util.Date timestamp = (java.util.Date) value;
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp instanceof Timestamp ? ((Timestamp) timestamp).getNanos() : -1);
+            break;
+        case 3:
+        case 4:
+            out.writeLong(((java.util.Date) value).getTime());
+            break;
+        case 5:
+            out.writeInt(((Number) value).intValue());
+            break;
+        case 6:
+            out.writeLong(((Number) value).longValue());
+            break;
+        case 7:
+            out.writeFloat(((Number) value).floatValue());
+            break;
+        case 8:
+            out.writeDouble(((Number) value).doubleValue());
+            break;
+        case 9:
+            BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+            writeBytes(decimal.unscaledValue().toByteArray());
+            out.writeInt(decimal.scale());
+            break;
+        case 10:
+            out.writeBoolean(((Boolean) value).booleanValue());
+            break;
+        case 12:
+            byte[] bytes = toBytes(value);
+            if (bytes != null) {
+                out.writeByte(BYTES);
+                writeBytes(bytes);
+            } else {
+                // an object serialized in a blob field, see SqlJdbcUtil.getValue
+                out.writeByte(SERIALIZED);
+                writeBytes(serialize(value));
+            }
+            break;
+        default:
+            writeBytes(serialize(value));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] toBytes(Object value) throws IOException {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        if (value instanceof Blob) {
+            try {
+                Blob blob = (Blob) value;
+                return blob.getBytes(1, (int) blob.length());
+            } catch (SQLException e) {
+                throw new IOException("Could not read the blob value", e);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(value);
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+}
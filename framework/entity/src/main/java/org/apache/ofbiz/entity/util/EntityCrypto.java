@@ -22,6 +22,11 @@ import java.io.IOException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -47,16 +52,35 @@ import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.model.ModelField.EncryptMethod;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
 
+/**
+ * Encrypts and decrypts the values of the encrypted fields, with a key per entity kept in the EntityKeyStore entity.
+ * <p>The decoded keys are kept in memory for an hour at most, the decrypted values only when a time to live is given.
+ * Neither is put in a UtilCache, those can be looked at from the webtools; the bytes are wiped when they are evicted
+ * and the callers only get copies.</p>
+ */
 public final class EntityCrypto {
 
     public static final String module = EntityCrypto.class.getName();
 
+    private static final int keyCacheMaxSize = 500;
+    private static final long keyCacheTtl = 60 * 60 * 1000;
+
     protected final Delegator delegator;
-    protected final ConcurrentMap<String, byte[]> keyMap = new ConcurrentHashMap<String, byte[]>();
+    protected final WipingCache keyMap = new WipingCache(keyCacheMaxSize, keyCacheTtl);
+    protected final WipingCache decryptedValueMap;
     protected final StorageHandler[] handlers;
 
     public EntityCrypto(Delegator delegator, String kekText) throws EntityCryptoException {
+        this(delegator, kekText, 0, 0);
+    }
+
+    /**
+     * @param decryptedValueCacheTtl milliseconds the decrypted values are kept in memory, 0 to not keep them
+     * @param decryptedValueCacheSize the maximum number of decrypted values kept in memory
+     */
+    public EntityCrypto(Delegator delegator, String kekText, long decryptedValueCacheTtl, int decryptedValueCacheSize) throws EntityCryptoException {
         this.delegator = delegator;
+        this.decryptedValueMap = decryptedValueCacheTtl > 0 && decryptedValueCacheSize > 0 ? new WipingCache(decryptedValueCacheSize, decryptedValueCacheTtl) : null;
         byte[] kek;
         kek = UtilValidate.isNotEmpty(kekText) ? Base64.decodeBase64(kekText) : null;
         handlers = new StorageHandler[] {
@@ -69,6 +93,14 @@ public final class EntityCrypto {
 
     public void clearKeyCache() {
         keyMap.clear();
+        if (decryptedValueMap != null) {
+            decryptedValueMap.clear();
+        }
+    }
+
+    /** Returns the number of decrypted values kept in memory, 0 when they are not kept */
+    public int getDecryptedValueCacheSize() {
+        return decryptedValueMap != null ? decryptedValueMap.size() : 0;
     }
 
     /** Encrypts an Object into an encrypted hex encoded String */
@@ -79,35 +111,61 @@ public final class EntityCrypto {
 
     /** Encrypts an Object into an encrypted hex encoded String */
     public String encrypt(String keyName, EncryptMethod encryptMethod, Object obj) throws EntityCryptoException {
+        byte[] key = this.findOrCreateKey(keyName, encryptMethod);
+        try {
+            return handlers[0].encryptValue(encryptMethod, key, UtilObject.getBytes(obj));
+        } catch (GeneralException e) {
+            throw new EntityCryptoException(e);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /** Encrypts a list of Objects with the same key, the key is looked up only once */
+    public List<String> encryptAll(String keyName, EncryptMethod encryptMethod, List<? extends Object> objs) throws EntityCryptoException {
+        List<String> results = new ArrayList<String>(objs.size());
+        if (objs.isEmpty()) {
+            return results;
+        }
+        byte[] key = this.findOrCreateKey(keyName, encryptMethod);
         try {
-            byte[] key = this.findKey(keyName, handlers[0]);
-            if (key == null) {
-                EntityCryptoException caught = null;
+            for (Object obj: objs) {
+                results.add(obj != null ? handlers[0].encryptValue(encryptMethod, key, UtilObject.getBytes(obj)) : null);
+            }
+        } catch (GeneralException e) {
+            throw new EntityCryptoException(e);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+        return results;
+    }
+
+    protected byte[] findOrCreateKey(String keyName, EncryptMethod encryptMethod) throws EntityCryptoException {
+        byte[] key = this.findKey(keyName, handlers[0]);
+        if (key == null) {
+            EntityCryptoException caught = null;
+            try {
+                this.createKey(keyName, handlers[0], encryptMethod);
+            } catch (EntityCryptoException e) {
+                // either a database read error, or a duplicate key insert
+                // if the latter, try to fetch the value created by the
+                // other thread.
+                caught = e;
+            } finally {
                 try {
-                    this.createKey(keyName, handlers[0], encryptMethod);
+                    key = this.findKey(keyName, handlers[0]);
                 } catch (EntityCryptoException e) {
-                    // either a database read error, or a duplicate key insert
-                    // if the latter, try to fetch the value created by the
-                    // other thread.
-                    caught = e;
-                } finally {
-                    try {
-                        key = this.findKey(keyName, handlers[0]);
-                    } catch (EntityCryptoException e) {
-                        // this is bad, couldn't lookup the value, some bad juju
-                        // is occurring; rethrow the original exception if available
-                        throw caught != null ? caught : e;
-                    }
-                    if (key == null) {
-                        // this is also bad, couldn't find any key
-                        throw caught != null ? caught : new EntityCryptoException("could not lookup key (" + keyName + ") after creation");
-                    }
+                    // this is bad, couldn't lookup the value, some bad juju
+                    // is occurring; rethrow the original exception if available
+                    throw caught != null ? caught : e;
+                }
+                if (key == null) {
+                    // this is also bad, couldn't find any key
+                    throw caught != null ? caught : new EntityCryptoException("could not lookup key (" + keyName + ") after creation");
                 }
             }
-            return handlers[0].encryptValue(encryptMethod, key, UtilObject.getBytes(obj));
-        } catch (GeneralException e) {
-            throw new EntityCryptoException(e);
         }
+        return key;
     }
 
     // NOTE: this is definitely for debugging purposes only, do not uncomment in production server for security reasons:
@@ -122,14 +180,51 @@ public final class EntityCrypto {
 
     /** Decrypts a hex encoded String into an Object */
     public Object decrypt(String keyName, EncryptMethod encryptMethod, String encryptedString) throws EntityCryptoException {
+        return decrypt(keyName, encryptMethod, encryptedString, null);
+    }
+
+    /** Decrypts a list of hex encoded Strings with the same key, the key is looked up only once; the null and empty Strings decrypt to null */
+    public List<Object> decryptAll(String keyName, EncryptMethod encryptMethod, List<String> encryptedStrings) throws EntityCryptoException {
+        List<Object> results = new ArrayList<Object>(encryptedStrings.size());
+        if (encryptedStrings.isEmpty()) {
+            return results;
+        }
+        byte[] key = this.findKey(keyName, handlers[0]);
+        try {
+            for (String encryptedString: encryptedStrings) {
+                results.add(UtilValidate.isNotEmpty(encryptedString) ? decrypt(keyName, encryptMethod, encryptedString, key) : null);
+            }
+        } finally {
+            if (key != null) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+        return results;
+    }
+
+    private Object decrypt(String keyName, EncryptMethod encryptMethod, String encryptedString, byte[] key) throws EntityCryptoException {
+        String decryptedValueName = null;
+        if (decryptedValueMap != null) {
+            decryptedValueName = keyName + ":" + encryptMethod + ":" + encryptedString;
+            byte[] decryptedBytes = decryptedValueMap.get(decryptedValueName);
+            if (decryptedBytes != null) {
+                try {
+                    return readDecryptedBytes(decryptedBytes, null);
+                } catch (GeneralException e) {
+                    throw new EntityCryptoException(e);
+                }
+            }
+        }
         try {
-            return doDecrypt(keyName, encryptMethod, encryptedString, handlers[0]);
+            byte[] decryptedBytes = key != null ? handlers[0].decryptValue(key, encryptMethod, encryptedString) : doDecrypt(keyName, encryptMethod, encryptedString, handlers[0]);
+            return readDecryptedBytes(decryptedBytes, decryptedValueName);
         } catch (GeneralException e) {
+            // a value of an old key may also decrypt with the current one and give bytes that are not an object
             Debug.logInfo("Decrypt with DES key from standard key name hash failed, trying old/funny variety of key name hash", module);
             for (int i = 1; i < handlers.length; i++) {
                 try {
                     // try using the old/bad hex encoding approach; this is another path the code may take, ie if there is an exception thrown in decrypt
-                    return doDecrypt(keyName, encryptMethod, encryptedString, handlers[i]);
+                    return readDecryptedBytes(doDecrypt(keyName, encryptMethod, encryptedString, handlers[i]), decryptedValueName);
                 } catch (GeneralException e1) {
                     // NOTE: this throws the original exception back, not the new one if it fails using the other approach
                     //throw new EntityCryptoException(e);
@@ -139,26 +234,42 @@ public final class EntityCrypto {
         }
     }
 
-    protected Object doDecrypt(String keyName, EncryptMethod encryptMethod, String encryptedString, StorageHandler handler) throws GeneralException {
-        byte[] key = this.findKey(keyName, handler);
-        if (key == null) {
-            throw new EntityCryptoException("key(" + keyName + ") not found in database");
-        }
-        byte[] decryptedBytes = handler.decryptValue(key, encryptMethod, encryptedString);
+    /** Reads the object from the decrypted bytes and wipes them; they are kept in the decrypted-value cache under the name if it is not null and the object could be read */
+    private Object readDecryptedBytes(byte[] decryptedBytes, String decryptedValueName) throws GeneralException {
         try {
-            return UtilObject.getObjectException(decryptedBytes);
+            Object value = UtilObject.getObjectException(decryptedBytes);
+            if (decryptedValueName != null) {
+                decryptedValueMap.put(decryptedValueName, decryptedBytes);
+            }
+            return value;
         } catch (ClassNotFoundException e) {
             throw new GeneralException(e);
         } catch (IOException e) {
             throw new GeneralException(e);
+        } finally {
+            Arrays.fill(decryptedBytes, (byte) 0);
+        }
+    }
+
+    protected byte[] doDecrypt(String keyName, EncryptMethod encryptMethod, String encryptedString, StorageHandler handler) throws GeneralException {
+        byte[] key = this.findKey(keyName, handler);
+        if (key == null) {
+            throw new EntityCryptoException("key(" + keyName + ") not found in database");
+        }
+        try {
+            return handler.decryptValue(key, encryptMethod, encryptedString);
+        } finally {
+            Arrays.fill(key, (byte) 0);
         }
     }
 
+    /** Returns a copy of the decoded key, the caller wipes it when done; null if the key does not exist yet */
     protected byte[] findKey(String originalKeyName, StorageHandler handler) throws EntityCryptoException {
-        String hashedKeyName = handler.getHashedKeyName(originalKeyName);
+        String hashedKeyName = handler.getCachedHashedKeyName(originalKeyName);
         String keyMapName = handler.getKeyMapPrefix(hashedKeyName) + hashedKeyName;
-        if (keyMap.containsKey(keyMapName)) {
-            return keyMap.get(keyMapName);
+        byte[] cachedKey = keyMap.get(keyMapName);
+        if (cachedKey != null) {
+            return cachedKey;
         }
         // it's ok to run the bulk of this method unlocked or
         // unprotected; since the same result will occur even if
@@ -176,20 +287,16 @@ public final class EntityCrypto {
         }
         try {
             byte[] keyBytes = handler.decodeKeyBytes(keyValue.getString("keyText"));
-            keyMap.putIfAbsent(keyMapName, keyBytes);
-            // Do not remove the next line, it's there to handle the
-            // case of multiple threads trying to find the same key
-            // both threads will do the findOne call, only one will
-            // succeed at the putIfAbsent, but both will then fetch
-            // the same value with the following get().
-            return keyMap.get(keyMapName);
+            // if another thread found the same key at the same time, both put the same bytes
+            keyMap.put(keyMapName, keyBytes);
+            return keyBytes;
         } catch (GeneralException e) {
             throw new EntityCryptoException(e);
         }
     }
 
     protected void createKey(String originalKeyName, StorageHandler handler, EncryptMethod encryptMethod) throws EntityCryptoException {
-        String hashedKeyName = handler.getHashedKeyName(originalKeyName);
+        String hashedKeyName = handler.getCachedHashedKeyName(originalKeyName);
         Key key = handler.generateNewKey();
         final GenericValue newValue = delegator.makeValue("EntityKeyStore");
         try {
@@ -212,8 +319,24 @@ public final class EntityCrypto {
     }
 
     protected abstract static class StorageHandler {
+        // the key names are entity names, there are not many of them
+        private final ConcurrentMap<String, String> hashedKeyNames = new ConcurrentHashMap<String, String>();
+
         protected abstract Key generateNewKey() throws EntityCryptoException;
 
+        /** The hashing is not cheap, it is done once per key name */
+        protected final String getCachedHashedKeyName(String originalKeyName) {
+            String hashedKeyName = hashedKeyNames.get(originalKeyName);
+            if (hashedKeyName == null) {
+                hashedKeyName = getHashedKeyName(originalKeyName);
+                if (hashedKeyNames.size() >= keyCacheMaxSize) {
+                    hashedKeyNames.clear();
+                }
+                hashedKeyNames.put(originalKeyName, hashedKeyName);
+            }
+            return hashedKeyName;
+        }
+
         protected abstract String getHashedKeyName(String originalKeyName);
         protected abstract String getKeyMapPrefix(String hashedKeyName);
 
@@ -430,4 +553,67 @@ public final class EntityCrypto {
             return result;
         }
     };
+
+    /**
+     * A small map of byte arrays bounded in size and in time, the least recently used entries are evicted first. It
+     * keeps its own copies of the bytes and wipes them when they are evicted, replaced or cleared.
+     */
+    protected static final class WipingCache {
+        private final int maxSize;
+        private final long ttl;
+        private final LinkedHashMap<String, WipingCacheEntry> entries = new LinkedHashMap<String, WipingCacheEntry>(16, 0.75f, true);
+
+        protected WipingCache(int maxSize, long ttl) {
+            this.maxSize = maxSize;
+            this.ttl = ttl;
+        }
+
+        /** Returns a copy of the bytes, or null if there are none or they expired */
+        protected synchronized byte[] get(String name) {
+            WipingCacheEntry entry = entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireTime < System.currentTimeMillis()) {
+                entries.remove(name);
+                Arrays.fill(entry.bytes, (byte) 0);
+                return null;
+            }
+            return entry.bytes.clone();
+        }
+
+        /** Keeps a copy of the bytes */
+        protected synchronized void put(String name, byte[] bytes) {
+            WipingCacheEntry previous = entries.put(name, new WipingCacheEntry(bytes.clone(), System.currentTimeMillis() + ttl));
+            if (previous != null) {
+                Arrays.fill(previous.bytes, (byte) 0);
+            }
+            Iterator<WipingCacheEntry> it = entries.values().iterator();
+            while (entries.size() > maxSize && it.hasNext()) {
+                Arrays.fill(it.next().bytes, (byte) 0);
+                it.remove();
+            }
+        }
+
+        protected synchronized int size() {
+            return entries.size();
+        }
+
+        protected synchronized void clear() {
+            for (WipingCacheEntry entry: entries.values()) {
+                Arrays.fill(entry.bytes, (byte) 0);
+            }
+            entries.clear();
+        }
+    }
+
+    private static final class WipingCacheEntry {
+        private final byte[] bytes;
+        private final long expireTime;
+
+        private WipingCacheEntry(byte[] bytes, long expireTime) {
+            this.bytes = bytes;
+            this.expireTime = expireTime;
+        }
+    }
 }
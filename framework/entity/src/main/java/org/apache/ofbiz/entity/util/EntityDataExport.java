@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Streaming export of the values of an entity to a file, as entity engine XML or in the binary format of
+ * {@link EntityBinaryWriter}, optionally gzip compressed, and the matching import of the binary files.
+ * <p>The values are read through an EntityListIterator with the given fetch size and written as they are read, so
+ * the memory used does not depend on the number of values. The XML files can be imported with
+ * {@link EntitySaxReader}, which reads the gzip compressed files as well.</p>
+ *
+ */
+public class EntityDataExport {
+
+    public static final String module = EntityDataExport.class.getName();
+
+    public static final String XML_EXTENSION = ".xml";
+    public static final String BINARY_EXTENSION = ".edb";
+    public static final String GZIP_EXTENSION = ".gz";
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /** Returns the name of the export file of an entity */
+    public static String getFileName(String entityName, boolean binary, boolean compress) {
+        return entityName + (binary ? BINARY_EXTENSION : XML_EXTENSION) + (compress ? GZIP_EXTENSION : "");
+    }
+
+    /** Returns true if the file name is the name of an export file in the binary format */
+    public static boolean isBinaryFile(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(GZIP_EXTENSION)) {
+            name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+        }
+        return name.endsWith(BINARY_EXTENSION);
+    }
+
+    /** Opens a data file, decompressing it if its name ends with the gzip extension */
+    public static InputStream openStream(URL location) throws IOException {
+        InputStream is = location.openStream();
+        if (location.getPath().toLowerCase().endsWith(GZIP_EXTENSION)) {
+            try {
+                return new GZIPInputStream(is, 65536);
+            } catch (IOException e) {
+                is.close();
+                throw e;
+            }
+        }
+        return is;
+    }
+
+    /**
+     * Exports the values of an entity matching a condition to a file of the output directory named by
+     * {@link #getFileName(String, boolean, boolean)}. No file is written when there are no values.
+     *
+     * @param condition the condition of the values to export, or null for all the values
+     * @param fetchSize the fetch size of the result set, 0 for {@link #DEFAULT_FETCH_SIZE}
+     * @param txTimeout the timeout of the transaction the values are read in, 0 or less for the default timeout
+     * @return the number of values exported
+     */
+    public static long exportEntity(Delegator delegator, String entityName, EntityCondition condition, File outdir, boolean binary, boolean compress,
+            int fetchSize, int txTimeout) throws GenericEntityException, IOException {
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity == null) {
+            throw new GenericEntityException("Entity [" + entityName + "] not found");
+        }
+        File outFile = new File(outdir, getFileName(entityName, binary, compress));
+        long numberWritten = 0;
+        boolean beganTransaction = txTimeout > 0 ? TransactionUtil.begin(txTimeout) : TransactionUtil.begin();
+        try {
+            EntityListIterator values = EntityQuery.use(delegator).from(entityName).where(condition).orderBy(modelEntity.getPkFieldNames())
+                    .fetchSize(fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE).queryIterator();
+            try {
+                GenericValue value = values.next();
+                // don't bother writing the file if there's nothing to put into it
+                if (value != null) {
+                    OutputStream out = openOutputStream(outFile, compress);
+                    try {
+                        if (binary) {
+                            EntityBinaryWriter writer = new EntityBinaryWriter(delegator, modelEntity, out);
+                            out = null;
+                            try {
+                                do {
+                                    writer.write(value);
+                                } while ((value = values.next()) != null);
+                            } finally {
+                                writer.close();
+                            }
+                            numberWritten = writer.getNumberWritten();
+                        } else {
+                            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 65536));
+                            out = null;
+                            try {
+                                writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                                writer.println("<entity-engine-xml>");
+                                do {
+                                    value.writeXmlText(writer, "");
+                                    numberWritten++;
+                                } while ((value = values.next()) != null);
+                                writer.println("</entity-engine-xml>");
+                            } finally {
+                                writer.close();
+                            }
+                            if (writer.checkError()) {
+                                throw new IOException("Error writing " + outFile);
+                            }
+                        }
+                    } finally {
+                        if (out != null) {
+                            out.close();
+                        }
+                    }
+                }
+            } finally {
+                values.close();
+            }
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTransaction, "Error exporting entity " + entityName, e);
+            throw e;
+        } catch (IOException e) {
+            TransactionUtil.rollback(beganTransaction, "Error exporting entity " + entityName, e);
+            throw e;
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Exported " + numberWritten + " values of " + entityName + " to " + outFile, module);
+        return numberWritten;
+    }
+
+    /**
+     * Imports a file written in the binary format. The values are stored by chunks with the bulk upsert of the
+     * delegator, each chunk in its own transaction.
+     * <p>The options are those of the XML import: with <code>maintainTimeStamps</code> the stamp fields of the file are
+     * kept instead of being set to the time of the import, with <code>mostlyInserts</code> the values of a chunk are
+     * inserted without looking for the existing values first, and the chunk is stored when an insert fails.</p>
+     *
+     * @param chunkSize the number of values stored together, 0 for {@link #DEFAULT_CHUNK_SIZE}
+     * @param txTimeout the timeout of the transaction of each chunk, 0 or less for the default timeout
+     * @return the number of values imported
+     */
+    public static long importBinary(Delegator delegator, URL location, boolean createDummyFks, boolean maintainTimeStamps, boolean mostlyInserts,
+            int chunkSize, int txTimeout) throws GenericEntityException, IOException {
+        if (chunkSize <= 0) {
+            chunkSize = DEFAULT_CHUNK_SIZE;
+        }
+        EntityStoreOptions storeOptions = new EntityStoreOptions(createDummyFks, true);
+        storeOptions.setChunkSize(chunkSize);
+        long numberRead = 0;
+        EntityBinaryReader reader = new EntityBinaryReader(delegator, openStream(location));
+        try {
+            List<GenericValue> chunk = new ArrayList<GenericValue>(chunkSize);
+            GenericValue value;
+            while ((value = reader.next()) != null) {
+                if (maintainTimeStamps) {
+                    value.setIsFromEntitySync(true);
+                }
+                chunk.add(value);
+                if (chunk.size() == chunkSize) {
+                    storeChunk(delegator, chunk, storeOptions, mostlyInserts, txTimeout);
+                    numberRead += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                storeChunk(delegator, chunk, storeOptions, mostlyInserts, txTimeout);
+                numberRead += chunk.size();
+            }
+        } finally {
+            reader.close();
+        }
+        Debug.logImportant("Finished " + numberRead + " values from " + location, module);
+        return numberRead;
+    }
+
+    private static void storeChunk(Delegator delegator, List<GenericValue> chunk, EntityStoreOptions storeOptions, boolean mostlyInserts, int txTimeout) throws GenericEntityException {
+        if (mostlyInserts && insertChunk(delegator, chunk, storeOptions, txTimeout)) {
+            return;
+        }
+        boolean beganTransaction = txTimeout > 0 ? TransactionUtil.begin(txTimeout) : TransactionUtil.begin();
+        try {
+            delegator.storeAll(chunk, storeOptions);
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTransaction, "Error storing a chunk of " + chunk.size() + " values", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts the values of a chunk without looking for the existing values, in a transaction of its own. A failed
+     * insert leaves the transaction unusable on most databases, so the whole chunk is rolled back and false is returned
+     * to have it stored with the bulk upsert. Returns false too when a transaction is already in place, since the
+     * failure could not be rolled back without the work of the caller.
+     */
+    private static boolean insertChunk(Delegator delegator, List<GenericValue> chunk, EntityStoreOptions storeOptions, int txTimeout) throws GenericEntityException {
+        if (TransactionUtil.isTransactionInPlace()) {
+            return false;
+        }
+        boolean beganTransaction = txTimeout > 0 ? TransactionUtil.begin(txTimeout) : TransactionUtil.begin();
+        try {
+            for (GenericValue value : chunk) {
+                if (storeOptions.isCreateDummyFks()) {
+                    value.checkFks(true);
+                }
+                delegator.create(value);
+            }
+            TransactionUtil.commit(beganTransaction);
+            return true;
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTransaction, "Inserting a chunk of " + chunk.size() + " values failed, storing it", e);
+            if (Debug.verboseOn()) Debug.logVerbose("Inserting a chunk of " + chunk.size() + " values failed, storing it: " + e.getMessage(), module);
+            return false;
+        }
+    }
+
+    private static OutputStream openOutputStream(File outFile, boolean compress) throws IOException {
+        OutputStream out = new FileOutputStream(outFile);
+        if (compress) {
+            try {
+                // favour speed over ratio, the export is bound by the compression with the default level
+                return new GZIPOutputStream(out, 65536) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            } catch (IOException e) {
+                out.close();
+                throw e;
+            }
+        }
+        return out;
+    }
+}
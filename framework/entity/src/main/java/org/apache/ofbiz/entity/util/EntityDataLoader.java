@@ -19,16 +19,29 @@
 package org.apache.ofbiz.entity.util;
 
 import java.io.File;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.ofbiz.base.component.ComponentConfig;
 import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.config.MainResourceHandler;
 import org.apache.ofbiz.base.config.ResourceHandler;
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilProperties;
 import org.apache.ofbiz.base.util.UtilValidate;
@@ -44,9 +57,13 @@ import org.apache.ofbiz.entity.config.model.Resource;
 import org.apache.ofbiz.entity.config.model.SqlLoadPath;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelReader;
+import org.apache.ofbiz.entity.model.ModelRelation;
 import org.apache.ofbiz.entity.model.ModelUtil;
 import org.apache.ofbiz.entity.model.ModelViewEntity;
 import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Some utility routines for loading seed data.
@@ -228,6 +245,14 @@ public class EntityDataLoader {
     }
 
     public static int loadData(URL dataUrl, String helperName, Delegator delegator, List<Object> errorMessages, int txTimeout, boolean dummyFks, boolean maintainTxs, boolean tryInsert) throws GenericEntityException {
+        return loadData(dataUrl, helperName, delegator, errorMessages, txTimeout, dummyFks, maintainTxs, tryInsert, false);
+    }
+
+    /**
+     * Loads a data file. With <code>chunked</code> each chunk of values is written in its own transaction with the
+     * bulk upsert of the delegator (lookups and writes as JDBC batches) instead of the whole file in one transaction.
+     */
+    public static int loadData(URL dataUrl, String helperName, Delegator delegator, List<Object> errorMessages, int txTimeout, boolean dummyFks, boolean maintainTxs, boolean tryInsert, boolean chunked) throws GenericEntityException {
         int rowsChanged = 0;
 
         if (dataUrl == null) {
@@ -254,6 +279,9 @@ public class EntityDataLoader {
             }
             reader.setCreateDummyFks(dummyFks);
             reader.setMaintainTxStamps(maintainTxs);
+            reader.setUseTryInsertMethod(tryInsert);
+            reader.setTransactionPerChunk(chunked);
+            reader.setBulkUpsert(chunked);
             rowsChanged += reader.parse(dataUrl);
         } catch (Exception e) {
             String xmlError = "[loadData]: Error loading XML Resource \"" + dataUrl.toExternalForm() + "\"; Error was: " + e.getMessage();
@@ -264,6 +292,142 @@ public class EntityDataLoader {
         return rowsChanged;
     }
 
+    /**
+     * Loads data files concurrently on a pool of <code>threadCount</code> threads, each chunk of values being written
+     * in its own transaction with the bulk upsert of the delegator.
+     * <p>The files are loaded by the levels of {@link #getLoadLevels(List, Delegator)}: the files of a level are loaded
+     * at the same time, a level starts once the previous one is finished. A file is thus never loaded at the same time
+     * as an earlier file of the list that it depends on, and the outcome is the same as loading the files one by one as
+     * long as the entity ECAs of the delegator (if any) only write the entities of the data files.</p>
+     *
+     * @return the number of values loaded from each file, in the order of the list
+     */
+    public static Map<URL, Integer> loadDataParallel(List<URL> urlList, final String helperName, final Delegator delegator, List<Object> errorMessages, final int txTimeout, final boolean dummyFks, final boolean maintainTxs, final boolean tryInsert, int threadCount) throws GenericEntityException {
+        Map<URL, Integer> rowsChanged = new LinkedHashMap<URL, Integer>();
+        for (URL dataUrl: urlList) {
+            rowsChanged.put(dataUrl, 0);
+        }
+        List<List<URL>> levels = getLoadLevels(urlList, delegator);
+        Debug.logImportant("Loading " + urlList.size() + " files in " + levels.size() + " levels with " + threadCount + " threads", module);
+        ExecutorService executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-data-load", threadCount, 0, false);
+        try {
+            for (List<URL> level: levels) {
+                List<Future<Integer>> futures = new ArrayList<Future<Integer>>(level.size());
+                List<List<Object>> levelMessages = new ArrayList<List<Object>>(level.size());
+                for (final URL dataUrl: level) {
+                    final List<Object> fileMessages = new LinkedList<Object>();
+                    levelMessages.add(fileMessages);
+                    futures.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() throws GenericEntityException {
+                            return loadData(dataUrl, helperName, delegator, fileMessages, txTimeout, dummyFks, maintainTxs, tryInsert, true);
+                        }
+                    }));
+                }
+                for (int i = 0; i < level.size(); i++) {
+                    URL dataUrl = level.get(i);
+                    try {
+                        rowsChanged.put(dataUrl, rowsChanged.get(dataUrl) + futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        String errMsg = "[loadDataParallel]: Error loading XML Resource \"" + dataUrl.toExternalForm() + "\"; Error was: " + e.getCause();
+                        errorMessages.add(errMsg);
+                        Debug.logError(e.getCause(), errMsg, module);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new GenericEntityException("Interrupted while loading " + dataUrl.toExternalForm(), e);
+                    }
+                    errorMessages.addAll(levelMessages.get(i));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return rowsChanged;
+    }
+
+    /**
+     * Splits a list of data files into levels of files that can be loaded at the same time.
+     * <p>Two files depend on each other when one contains values of an entity that the other contains or refers to
+     * with a type one relation (eg a file of <code>Product</code> values and one of <code>ProductType</code> values).
+     * A file goes in the level after the last level holding an earlier file of the list it depends on. A file whose
+     * entities are not known before it is loaded (a transform file or a file that can not be read) depends on all the
+     * others. The files keep the order of the list in their level.</p>
+     */
+    public static List<List<URL>> getLoadLevels(List<URL> urlList, Delegator delegator) throws GenericEntityException {
+        Set<String> entityNames = delegator.getModelReader().getEntityNames();
+        List<Set<String>> fileEntities = new ArrayList<Set<String>>(urlList.size());
+        List<Set<String>> fileReferences = new ArrayList<Set<String>>(urlList.size());
+        for (URL dataUrl: urlList) {
+            Set<String> entities = readEntityNames(dataUrl, entityNames);
+            Set<String> references = null;
+            if (entities != null) {
+                references = new HashSet<String>(entities);
+                for (String entityName: entities) {
+                    ModelEntity modelEntity = delegator.getModelEntity(entityName);
+                    for (ModelRelation modelRelation: modelEntity.getRelationsList(true, true, false)) {
+                        references.add(modelRelation.getRelEntityName());
+                    }
+                }
+            }
+            fileEntities.add(entities);
+            fileReferences.add(references);
+        }
+
+        List<List<URL>> levels = new ArrayList<List<URL>>();
+        int[] fileLevels = new int[urlList.size()];
+        for (int i = 0; i < urlList.size(); i++) {
+            int level = 0;
+            for (int j = 0; j < i; j++) {
+                if (fileLevels[j] >= level && dependsOn(fileEntities.get(i), fileReferences.get(i), fileEntities.get(j), fileReferences.get(j))) {
+                    level = fileLevels[j] + 1;
+                }
+            }
+            fileLevels[i] = level;
+            if (level == levels.size()) {
+                levels.add(new LinkedList<URL>());
+            }
+            levels.get(level).add(urlList.get(i));
+        }
+        return levels;
+    }
+
+    private static boolean dependsOn(Set<String> entities, Set<String> references, Set<String> otherEntities, Set<String> otherReferences) {
+        if (entities == null || otherEntities == null) {
+            return true;
+        }
+        return !Collections.disjoint(entities, otherReferences) || !Collections.disjoint(otherEntities, references);
+    }
+
+    /** Returns the names of the entities a data file has values of, or null if they can not be known without loading it */
+    private static Set<String> readEntityNames(URL dataUrl, final Set<String> entityNames) {
+        final Set<String> entities = new HashSet<String>();
+        InputStream is = null;
+        try {
+            is = dataUrl.openStream();
+            SAXParserFactory.newInstance().newSAXParser().parse(is, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                    if ("entity-engine-transform-xml".equals(qName)) {
+                        throw new SAXException("The entities of a transform file are only known once it is transformed");
+                    }
+                    // the fields set as elements are named after the fields, which start with a lower case letter
+                    if (entityNames.contains(qName)) {
+                        entities.add(qName);
+                    }
+                }
+            });
+            return entities;
+        } catch (Exception e) {
+            if (Debug.verboseOn()) Debug.logVerbose("Could not read the entities of " + dataUrl.toExternalForm() + ", loading it on its own: " + e.toString(), module);
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (Exception e) {}
+            }
+        }
+    }
+
     public static int generateData(Delegator delegator, List<Object> errorMessages) throws GenericEntityException {
         int rowsChanged = 0;
         ModelReader reader = delegator.getModelReader();
@@ -54,6 +54,12 @@ public class EntityFindOptions implements java.io.Serializable {
     /** OFFSET option */
     protected int offset = -1;
 
+    /** Read from a replica of the datasource even in a transaction */
+    protected boolean useReplica = false;
+
+    /** Lock the rows selected, skipping the rows locked by other transactions */
+    protected boolean skipLocked = false;
+
     /** Default constructor. Defaults are as follows:
      *      specifyTypeAndConcur = true
      *      resultSetType = TYPE_FORWARD_ONLY
@@ -172,4 +178,26 @@ public class EntityFindOptions implements java.io.Serializable {
     public void setOffset(int offset) {
         this.offset = offset;
     }
+
+    /** Specifies whether the query is run on a read datasource of the entity group, even when in a transaction. */
+    public boolean getUseReplica() {
+        return useReplica;
+    }
+
+    /** Specifies whether the query is run on a read datasource of the entity group, even when in a transaction.
+     * Queries that are not part of a transaction use the read datasources anyway. */
+    public void setUseReplica(boolean useReplica) {
+        this.useReplica = useReplica;
+    }
+
+    /** Specifies whether the query locks the rows it selects until the end of the transaction, skipping the rows locked by other transactions. */
+    public boolean getSkipLocked() {
+        return skipLocked;
+    }
+
+    /** Specifies whether the query locks the rows it selects until the end of the transaction, skipping the rows locked by other transactions.
+     * Only used on the datasources with use-skip-locked="true", on the others the query reads the rows without locking them. */
+    public void setSkipLocked(boolean skipLocked) {
+        this.skipLocked = skipLocked;
+    }
 }
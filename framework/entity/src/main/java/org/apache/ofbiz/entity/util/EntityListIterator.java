@@ -22,9 +22,12 @@ package org.apache.ofbiz.entity.util;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.GeneralRuntimeException;
@@ -64,6 +67,8 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
 
     private boolean haveShowHasNextWarning = false;
     private Integer resultSize = null;
+    // set while reading a list, the encrypted fields are then decrypted for all the rows at once
+    private boolean deferDecryption = false;
 
     public EntityListIterator(SQLProcessor sqlp, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) {
         this(sqlp, modelEntity, selectFields, modelFieldTypeReader, null, null, null, false);
@@ -176,14 +181,59 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
         for (int j = 0; j < selectFields.size(); j++) {
             ModelField curField = selectFields.get(j);
 
-            SqlJdbcUtil.getValue(resultSet, j + 1, curField, value, modelFieldTypeReader);
+            SqlJdbcUtil.getValue(resultSet, j + 1, curField, value, modelFieldTypeReader, !deferDecryption);
         }
 
-        value.synchronizedWithDatasource();
+        if (!deferDecryption) {
+            value.synchronizedWithDatasource();
+        }
         this.haveMadeValue = true;
         return value;
     }
 
+    private List<ModelField> getEncryptedSelectFields() {
+        List<ModelField> encryptedFields = null;
+        for (ModelField curField: selectFields) {
+            if (curField.getEncryptMethod().isEncrypted()) {
+                if (encryptedFields == null) {
+                    encryptedFields = new ArrayList<ModelField>();
+                }
+                encryptedFields.add(curField);
+            }
+        }
+        return encryptedFields;
+    }
+
+    /** Decrypts the encrypted fields of values read with deferDecryption, a field of all the values at once */
+    private void decryptValues(List<GenericValue> values, List<ModelField> encryptedFields) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return;
+        }
+        for (ModelField curField: encryptedFields) {
+            List<GenericValue> encryptedValues = new ArrayList<GenericValue>(values.size());
+            List<String> encryptedStrings = new ArrayList<String>(values.size());
+            for (GenericValue value: values) {
+                Object fieldValue = value.dangerousGetNoCheckButFast(curField);
+                if (fieldValue instanceof String) {
+                    encryptedValues.add(value);
+                    encryptedStrings.add((String) fieldValue);
+                }
+            }
+            if (encryptedValues.isEmpty()) {
+                continue;
+            }
+            GenericValue firstValue = encryptedValues.get(0);
+            String encryptionKeyName = SqlJdbcUtil.getEncryptionKeyName(curField, firstValue);
+            List<Object> decryptedValues = firstValue.getDelegator().decryptFieldValues(encryptionKeyName, curField.getEncryptMethod(), encryptedStrings);
+            for (int i = 0; i < encryptedValues.size(); i++) {
+                encryptedValues.get(i).dangerousSetNoCheckButFast(curField, decryptedValues.get(i));
+            }
+        }
+        for (GenericValue value: values) {
+            value.synchronizedWithDatasource();
+        }
+    }
+
     public int currentIndex() throws GenericEntityException {
         if (closed) throw new GenericResultSetClosedException("This EntityListIterator has been closed, this operation cannot be performed");
 
@@ -433,8 +483,17 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
             List<GenericValue> list = new LinkedList<GenericValue>();
             GenericValue nextValue = null;
 
-            while ((nextValue = this.next()) != null) {
-                list.add(nextValue);
+            List<ModelField> encryptedFields = getEncryptedSelectFields();
+            deferDecryption = encryptedFields != null;
+            try {
+                while ((nextValue = this.next()) != null) {
+                    list.add(nextValue);
+                }
+            } finally {
+                deferDecryption = false;
+            }
+            if (encryptedFields != null) {
+                decryptValues(list, encryptedFields);
             }
             return list;
         } catch (SQLException e) {
@@ -452,6 +511,26 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
         }
     }
 
+    /** Returns a sequential Stream of the remaining results, read from the database as the stream is consumed.
+     * The rows are read in chunks of the fetch size; with prefetch the next chunk is read in the background
+     * while the current one is processed, at most one chunk ahead.
+     *
+     * NOTE: THE STREAM MUST BE CLOSED (preferably with a try-with-resources statement), closing it closes
+     *       this EntityListIterator.
+     */
+    public Stream<GenericValue> stream(boolean prefetch) {
+        final EntityListSpliterator spliterator = new EntityListSpliterator(this, prefetch);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            public void run() {
+                try {
+                    spliterator.close();
+                } catch (GenericEntityException e) {
+                    throw new GeneralRuntimeException("Error closing the EntityListIterator", e);
+                }
+            }
+        });
+    }
+
     /** Gets a partial list of results starting at start and containing at most number elements.
      * Start is a one based value, ie 1 is the first element.
      */
@@ -472,10 +551,19 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
 
             GenericValue nextValue = null;
 
-            //number > 0 comparison goes first to avoid the unwanted call to next
-            while (number > 0 && (nextValue = this.next()) != null) {
-                list.add(nextValue);
-                number--;
+            List<ModelField> encryptedFields = getEncryptedSelectFields();
+            deferDecryption = encryptedFields != null;
+            try {
+                //number > 0 comparison goes first to avoid the unwanted call to next
+                while (number > 0 && (nextValue = this.next()) != null) {
+                    list.add(nextValue);
+                    number--;
+                }
+            } finally {
+                deferDecryption = false;
+            }
+            if (encryptedFields != null) {
+                decryptValues(list, encryptedFields);
             }
             return list;
         } catch (GeneralRuntimeException e) {
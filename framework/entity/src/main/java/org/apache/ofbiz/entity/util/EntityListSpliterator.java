@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralRuntimeException;
+import org.apache.ofbiz.base.util.UtilGenerics;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+
+/**
+ * Spliterator over the remaining results of an EntityListIterator, used by {@link EntityListIterator#stream(boolean)}.
+ * <p>The rows are read in chunks of the result set fetch size, a split hands out the next chunk. With prefetch a
+ * background task reads and makes the values of the next chunk while the current one is consumed; at most one chunk
+ * is read ahead so the memory used does not depend on the size of the result.</p>
+ *
+ */
+final class EntityListSpliterator implements Spliterator<GenericValue> {
+
+    public static final String module = EntityListSpliterator.class.getName();
+
+    /** The chunk size used when the result set has no fetch size */
+    static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+    /** Marks the end of the results in the prefetch queue */
+    private static final List<GenericValue> END = new ArrayList<GenericValue>(0);
+
+    private final EntityListIterator iterator;
+    private final int chunkSize;
+    /** The chunks read ahead, or the exception or error that stopped the prefetch; null without prefetch */
+    private final BlockingQueue<Object> prefetched;
+    private Future<?> prefetchTask = null;
+    private volatile boolean closed = false;
+
+    private List<GenericValue> chunk = null;
+    private int chunkIndex = 0;
+    private boolean finished = false;
+
+    EntityListSpliterator(EntityListIterator iterator, boolean prefetch) {
+        this.iterator = iterator;
+        int fetchSize = 0;
+        try {
+            fetchSize = iterator.resultSet.getFetchSize();
+        } catch (SQLException e) {
+            Debug.logWarning("Could not get the fetch size of the result set, using chunks of " + DEFAULT_CHUNK_SIZE + ": " + e.toString(), module);
+        }
+        this.chunkSize = fetchSize > 0 ? fetchSize : DEFAULT_CHUNK_SIZE;
+        this.prefetched = prefetch ? new ArrayBlockingQueue<Object>(1) : null;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super GenericValue> action) {
+        if (chunk == null || chunkIndex >= chunk.size()) {
+            if (!nextChunk()) {
+                return false;
+            }
+        }
+        action.accept(chunk.get(chunkIndex++));
+        return true;
+    }
+
+    @Override
+    public Spliterator<GenericValue> trySplit() {
+        if (chunk == null || chunkIndex >= chunk.size()) {
+            if (!nextChunk()) {
+                return null;
+            }
+        }
+        Object[] values = chunk.subList(chunkIndex, chunk.size()).toArray();
+        chunk = null;
+        return Spliterators.spliterator(values, CHARACTERISTICS);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    /** Stops the prefetch and closes the iterator */
+    void close() throws GenericEntityException {
+        closed = true;
+        if (prefetchTask != null) {
+            // unblock the prefetch task, then wait for it to stop reading before closing the result set
+            prefetched.clear();
+            try {
+                prefetchTask.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Debug.logError(e, "Error in the prefetch of the EntityListIterator", module);
+            }
+        }
+        iterator.close();
+    }
+
+    /** Moves to the next chunk of values, returns false at the end of the results */
+    private boolean nextChunk() {
+        if (finished) {
+            return false;
+        }
+        List<GenericValue> next;
+        if (prefetched == null) {
+            next = readChunk();
+            if (next.size() < chunkSize) {
+                finished = true;
+            }
+        } else {
+            next = takeChunk();
+            if (next == END) {
+                finished = true;
+            }
+        }
+        chunk = next;
+        chunkIndex = 0;
+        return !next.isEmpty();
+    }
+
+    private List<GenericValue> readChunk() {
+        List<GenericValue> values = new ArrayList<GenericValue>(chunkSize);
+        GenericValue value;
+        while (values.size() < chunkSize && (value = iterator.next()) != null) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    private List<GenericValue> takeChunk() {
+        if (prefetchTask == null) {
+            prefetchTask = ExecutionPool.GLOBAL_BATCH.submit(new Runnable() {
+                public void run() {
+                    prefetch();
+                }
+            });
+        }
+        Object next;
+        try {
+            next = prefetched.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralRuntimeException("Interrupted while waiting for the next results", e);
+        }
+        if (next instanceof Throwable) {
+            finished = true;
+            if (next instanceof RuntimeException) {
+                throw (RuntimeException) next;
+            }
+            if (next instanceof Error) {
+                throw (Error) next;
+            }
+            throw new GeneralRuntimeException("Error in the prefetch of the EntityListIterator", (Throwable) next);
+        }
+        return UtilGenerics.cast(next);
+    }
+
+    /** Reads the chunks into the prefetch queue until the end of the results or the spliterator is closed */
+    private void prefetch() {
+        try {
+            List<GenericValue> values;
+            do {
+                values = readChunk();
+                if (!values.isEmpty() && !offer(values)) {
+                    return;
+                }
+            } while (values.size() == chunkSize);
+            offer(END);
+        } catch (Throwable t) {
+            // an error too ends the results, else the consumer would wait for them forever
+            offer(t);
+        }
+    }
+
+    private boolean offer(Object item) {
+        try {
+            while (!closed) {
+                if (prefetched.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
@@ -27,6 +27,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilGenerics;
@@ -67,6 +68,10 @@ public class EntityQuery {
     private boolean filterByDate = false;
     private Timestamp filterByDateMoment;
     private List<String> filterByFieldNames = null;
+    private boolean keysetPaging = false;
+    private Map<String, ? extends Object> keysetAfter = null;
+    private boolean useReplica = false;
+    private boolean skipLocked = false;
 
 
 
@@ -220,6 +225,57 @@ public class EntityQuery {
         return this;
     }
 
+    /** Use keyset (seek) pagination: only return the records that sort after the given value in the orderBy ordering,
+     * usually the last value of the previous page. Combine with maxRows(...) to set the page size.
+     * 
+     * Unlike an offset, the cost of reading a page does not depend on how deep the page is. The primary key fields
+     * are appended to the orderBy fields when not already there so that the ordering is unique. Only plain fields
+     * are supported in the orderBy list; a field missing from the last value is taken as null.
+     * 
+     * NOTE: Each successive call to after(...) will replace the current last value; pass null to get the first page.
+     * @param lastValue - The last value of the previous page, or a Map of its orderBy and primary key field values (see EntityUtil.getKeysetValues)
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery after(Map<String, ? extends Object> lastValue) {
+        this.keysetPaging = true;
+        this.keysetAfter = lastValue;
+        return this;
+    }
+
+    /** Run the query on a read replica of the datasource of the entity group (see the read-datasource element of the
+     * group-map in entityengine.xml), even when the query is part of a transaction. Use it for reports and searches
+     * that can live with data that is slightly behind. Without read datasources the query runs on the datasource
+     * of the group.
+     * 
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery useReplica() {
+        this.useReplica = true;
+        return this;
+    }
+
+    /** Specifies whether to run the query on a read replica of the datasource of the entity group, even when the query is part of a transaction.
+     * 
+     * @param useReplica - boolean indicating whether to run the query on a read replica
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery useReplica(boolean useReplica) {
+        this.useReplica = useReplica;
+        return this;
+    }
+
+    /** Lock the rows selected until the end of the transaction, skipping the rows already locked by another transaction
+     * (SELECT ... FOR UPDATE SKIP LOCKED). Use it in a transaction to share out a queue of records between several
+     * servers. It only applies to the datasources with use-skip-locked="true" in entityengine.xml, on the others the
+     * rows are read without being locked, the caller must be ready for that.
+     * 
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery skipLocked() {
+        this.skipLocked = true;
+        return this;
+    }
+
     /** Indicate that the ResultSet object's cursor may move only forward (this is the default behavior)
      * 
      * @return this EntityQuery object, to enable chaining
@@ -391,12 +447,34 @@ public class EntityQuery {
             Debug.logWarning("Call to iterator() with cache, ignoring cache", module);
         }
         if (dynamicViewEntity == null) {
-            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, makeOrderBy(), makeEntityFindOptions());
         } else {
-            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, makeOrderBy(), makeEntityFindOptions());
         }
     }
 
+    /** Executes the EntityQuery and returns a Stream of the results, read from the database in chunks of the
+     * fetch size as the stream is consumed so that large results can be processed without loading them in memory.
+     *
+     * NOTE:  THE STREAM MUST BE CLOSED (preferably with a try-with-resources statement) WHEN YOU
+     *        ARE DONE WITH IT, AND DON'T LEAVE IT OPEN TOO LONG BECAUSE IT
+     *        WILL MAINTAIN A DATABASE CONNECTION.
+     *
+     * @return Returns a Stream of the GenericValues representing the results of the query
+     */
+    public Stream<GenericValue> stream() throws GenericEntityException {
+        return stream(false);
+    }
+
+    /** Executes the EntityQuery and returns a Stream of the results, see {@link #stream()}.
+     *
+     * @param prefetch - boolean indicating whether to read the next chunk of results in the background while the current one is consumed
+     * @return Returns a Stream of the GenericValues representing the results of the query
+     */
+    public Stream<GenericValue> stream(boolean prefetch) throws GenericEntityException {
+        return queryIterator().stream(prefetch);
+    }
+
     /** Executes the EntityQuery and returns the first result
      * 
      * @return GenericValue representing the first result record from the query
@@ -450,7 +528,7 @@ public class EntityQuery {
         }
         List<GenericValue> result = null;
         if (dynamicViewEntity == null) {
-            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, orderBy, findOptions, useCache);
+            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, makeOrderBy(), findOptions, useCache);
         } else {
             EntityListIterator it = queryIterator();
             result = it.getCompleteList();
@@ -472,23 +550,46 @@ public class EntityQuery {
         }
         if (maxRows != null) {
             findOptions.setMaxRows(maxRows);
+            if (keysetPaging && maxRows > 0) {
+                // a keyset page starts at the first row returned, so the limit can be pushed down to the database
+                findOptions.setLimit(maxRows);
+            }
         }
         if (distinct != null) {
             findOptions.setDistinct(distinct);
         }
+        findOptions.setUseReplica(useReplica);
+        findOptions.setSkipLocked(skipLocked);
         return findOptions;
     }
 
     private EntityCondition makeWhereCondition(boolean usingCache) {
+        EntityCondition whereCondition = whereEntityCondition;
         // we don't use the useCache field here because not all queries will actually use the cache, e.g. findCountByCondition never uses the cache
         if (filterByDate && !usingCache) {
-            if (whereEntityCondition != null) {
-                return EntityCondition.makeCondition(whereEntityCondition, this.makeDateCondition());
+            if (whereCondition != null) {
+                whereCondition = EntityCondition.makeCondition(whereCondition, this.makeDateCondition());
             } else {
-                return this.makeDateCondition();
+                whereCondition = this.makeDateCondition();
             }
         }
-        return whereEntityCondition;
+        if (keysetPaging && keysetAfter != null) {
+            EntityCondition keysetCondition = EntityUtil.getKeysetCondition(makeOrderBy(), keysetAfter);
+            if (whereCondition != null) {
+                whereCondition = EntityCondition.makeCondition(whereCondition, keysetCondition);
+            } else {
+                whereCondition = keysetCondition;
+            }
+        }
+        return whereCondition;
+    }
+
+    private List<String> makeOrderBy() {
+        if (!keysetPaging) {
+            return orderBy;
+        }
+        // the primary key of a dynamic view entity is not known here, its orderBy fields must already be unique
+        return EntityUtil.getKeysetOrderBy(dynamicViewEntity == null ? delegator.getModelEntity(entityName) : null, orderBy);
     }
 
     private EntityCondition makeDateCondition() {
@@ -94,6 +94,8 @@ public class EntitySaxReader extends DefaultHandler {
     private boolean maintainTxStamps = false;
     private boolean createDummyFks = false;
     private boolean checkDataOnly = false;
+    private boolean transactionPerChunk = false;
+    private boolean bulkUpsert = false;
     private enum Action {CREATE, CREATE_UPDATE, CREATE_REPLACE, DELETE};
     private List<String> actionTags = UtilMisc.toList("create", "create-update", "create-replace", "delete");
     private Action currentAction = Action.CREATE_UPDATE;
@@ -147,6 +149,23 @@ public class EntitySaxReader extends DefaultHandler {
     public void setCheckDataOnly(boolean checkDataOnly) {
         this.checkDataOnly = checkDataOnly;
     }
+
+    /**
+     * If true each chunk of values is written in its own transaction instead of the whole document in one
+     * transaction, so a large document does not hold its locks and undo log until the end. A failure only rolls
+     * back the current chunk, the chunks already written stay committed.
+     */
+    public void setTransactionPerChunk(boolean transactionPerChunk) {
+        this.transactionPerChunk = transactionPerChunk;
+    }
+
+    /**
+     * If true the chunks of values are written with the bulk upsert of {@link EntityStoreOptions}: the existing
+     * values are looked up with one query per chunk and the creates and updates are sent as JDBC batches.
+     */
+    public void setBulkUpsert(boolean bulkUpsert) {
+        this.bulkUpsert = bulkUpsert;
+    }
     
     public void setPlaceholderValues(Map<String,Object> placeholderValues) {
         this.placeholderValues = placeholderValues;
@@ -195,7 +214,7 @@ public class EntitySaxReader extends DefaultHandler {
         InputStream is = null;
         long numberRead = 0;
         try {
-            is = location.openStream();
+            is = EntityDataExport.openStream(location);
             numberRead = this.parse(is, location.toString());
         } finally {
             if (is != null) {
@@ -217,7 +236,7 @@ public class EntitySaxReader extends DefaultHandler {
         numberRead = 0;
         try {
             boolean beganTransaction = false;
-            if (transactionTimeout > -1) {
+            if (transactionTimeout > -1 && !transactionPerChunk) {
                 beganTransaction = TransactionUtil.begin(transactionTimeout);
                 Debug.logImportant("Transaction Timeout set to " + transactionTimeout / 3600 + " hours (" + transactionTimeout + " seconds)", module);
             }
@@ -229,7 +248,7 @@ public class EntitySaxReader extends DefaultHandler {
                     valuesToWrite.clear();
                 }
                 if (! valuesToDelete.isEmpty()) {
-                    delegator.removeAll(valuesToDelete);
+                    removeValues(valuesToDelete);
                     valuesToDelete.clear();
                 }
                 TransactionUtil.commit(beganTransaction);
@@ -255,7 +274,39 @@ public class EntitySaxReader extends DefaultHandler {
         if (this.checkDataOnly) {
             EntityDataAssert.checkValueList(valuesToWrite, delegator, this.getMessageList());
         } else {
-            delegator.storeAll(valuesToWrite, new EntityStoreOptions(createDummyFks));
+            boolean beganTransaction = beginChunkTransaction();
+            try {
+                delegator.storeAll(valuesToWrite, new EntityStoreOptions(createDummyFks, bulkUpsert));
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericEntityException e) {
+                rollbackChunkTransaction(beganTransaction, "Error writing a chunk of " + valuesToWrite.size() + " values", e);
+                throw e;
+            }
+        }
+    }
+
+    private void removeValues(List<GenericValue> valuesToDelete) throws GenericEntityException {
+        boolean beganTransaction = beginChunkTransaction();
+        try {
+            delegator.removeAll(valuesToDelete);
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            rollbackChunkTransaction(beganTransaction, "Error removing a chunk of " + valuesToDelete.size() + " values", e);
+            throw e;
+        }
+    }
+
+    private boolean beginChunkTransaction() throws GenericTransactionException {
+        if (!transactionPerChunk) {
+            return false;
+        }
+        return transactionTimeout > -1 ? TransactionUtil.begin(transactionTimeout) : TransactionUtil.begin();
+    }
+
+    private void rollbackChunkTransaction(boolean beganTransaction, String errMsg, Throwable t) throws GenericTransactionException {
+        // without a transaction per chunk the transaction of the document is rolled back by parse
+        if (transactionPerChunk) {
+            TransactionUtil.rollback(beganTransaction, errMsg, t);
         }
     }
 
@@ -431,7 +482,7 @@ public class EntitySaxReader extends DefaultHandler {
                             if (Action.DELETE == currentAction) {
                                 valuesToDelete.add(currentValue);
                                 if (valuesToDelete.size() >= valuesPerWrite) {
-                                    delegator.removeAll(valuesToDelete);
+                                    removeValues(valuesToDelete);
                                     valuesToDelete.clear();
                                 }
                             } else {
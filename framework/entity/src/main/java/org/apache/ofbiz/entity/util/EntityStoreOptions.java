@@ -27,8 +27,14 @@ public class EntityStoreOptions implements java.io.Serializable {
     /** Option for creating missing referenced values as dummy (pk-only) entries */
     protected boolean createDummyFks = false;
 
+    /** Option for looking up existing values per chunk and writing the creates and updates as JDBC batches */
+    protected boolean bulkUpsert = false;
+
+    /** Maximum number of values of the same entity looked up and written together when bulkUpsert is true */
+    protected int chunkSize = 500;
+
     /**
-     * Default constructor. Defaults are as follows: createDummyFks = false
+     * Default constructor. Defaults are as follows: createDummyFks = false, bulkUpsert = false, chunkSize = 500
      */
     public EntityStoreOptions() {
     }
@@ -42,6 +48,17 @@ public class EntityStoreOptions implements java.io.Serializable {
         this.createDummyFks = createDummyFks;
     }
 
+    /**
+     * Optional constructor with options to specify.
+     * 
+     * @param createDummyFks
+     * @param bulkUpsert
+     */
+    public EntityStoreOptions(boolean createDummyFks, boolean bulkUpsert) {
+        this.createDummyFks = createDummyFks;
+        this.bulkUpsert = bulkUpsert;
+    }
+
     /**
      * If true, missing entries in FK referenced entities will be created while storing the given GenericValues.
      * 
@@ -59,4 +76,46 @@ public class EntityStoreOptions implements java.io.Serializable {
     public void setCreateDummyFks(boolean createDummyFks) {
         this.createDummyFks = createDummyFks;
     }
+
+    /**
+     * If true, the existing values are fetched with one query per chunk of values of the same entity
+     * instead of one query per value, and the resulting creates and updates are sent as JDBC batches.
+     * The validate and run entity ECA rules of a chunk are then all evaluated before its batch is written,
+     * see {@link org.apache.ofbiz.entity.Delegator#storeAll(java.util.List, EntityStoreOptions)}.
+     * 
+     * @return boolean
+     */
+    public boolean isBulkUpsert() {
+        return bulkUpsert;
+    }
+
+    /**
+     * If true, the existing values are fetched with one query per chunk of values of the same entity
+     * instead of one query per value, and the resulting creates and updates are sent as JDBC batches.
+     * The validate and run entity ECA rules of a chunk are then all evaluated before its batch is written,
+     * see {@link org.apache.ofbiz.entity.Delegator#storeAll(java.util.List, EntityStoreOptions)}.
+     * 
+     * @param bulkUpsert
+     */
+    public void setBulkUpsert(boolean bulkUpsert) {
+        this.bulkUpsert = bulkUpsert;
+    }
+
+    /**
+     * Maximum number of values of the same entity looked up and written together in bulk upsert mode.
+     * 
+     * @return int
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Maximum number of values of the same entity looked up and written together in bulk upsert mode.
+     * 
+     * @param chunkSize
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
 }
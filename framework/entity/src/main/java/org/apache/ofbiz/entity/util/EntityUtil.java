@@ -44,9 +44,15 @@ import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntity;
 import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityComparisonOperator;
 import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityConditionPredicate;
 import org.apache.ofbiz.entity.condition.EntityDateFilterCondition;
+import org.apache.ofbiz.entity.condition.EntityFieldValue;
+import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.condition.OrderByItem;
 import org.apache.ofbiz.entity.condition.OrderByList;
+import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelField;
 
 /**
@@ -296,19 +302,7 @@ public final class EntityUtil {
             return values;
         }
 
-        List<T> result = new LinkedList<T>();
-        for (T value: values) {
-            boolean include = true;
-
-            for (EntityCondition condition: exprs) {
-                include = condition.entityMatches(value);
-                if (!include) break;
-            }
-            if (include) {
-                result.add(value);
-            }
-        }
-        return result;
+        return filterByCondition(values, EntityCondition.makeCondition(exprs, EntityOperator.AND));
     }
 
     /**
@@ -324,19 +318,7 @@ public final class EntityUtil {
             return values;
         }
 
-        List<T> result = new LinkedList<T>();
-        for (T value: values) {
-            boolean include = false;
-
-            for (EntityCondition condition: exprs) {
-                include = condition.entityMatches(value);
-                if (include) break;
-            }
-            if (include) {
-                result.add(value);
-            }
-        }
-        return result;
+        return filterByCondition(values, EntityCondition.makeCondition(exprs, EntityOperator.OR));
     }
     
     /**
@@ -408,30 +390,36 @@ public final class EntityUtil {
         if (values == null) return null;
 
         List<GenericValue> result = new LinkedList<GenericValue>();
-        for (GenericValue value: values) {
-            result.addAll(value.getRelated(relationName, fields, null, useCache));
+        if (values.isEmpty()) return result;
+        for (List<GenericValue> relatedValues: values.get(0).getDelegator().getRelatedForList(relationName, fields, null, values, useCache)) {
+            result.addAll(relatedValues);
         }
         return result;
     }
 
     public static <T extends GenericEntity> List<T> filterByCondition(List<T> values, EntityCondition condition) {
-        if (values == null) return null;
-
-        List<T> result = new LinkedList<T>();
-        for (T value: values) {
-            if (condition.entityMatches(value)) {
-                result.add(value);
-            }
-        }
-        return result;
+        return filterByCondition(values, condition, true);
     }
 
     public static <T extends GenericEntity> List<T> filterOutByCondition(List<T> values, EntityCondition condition) {
+        return filterByCondition(values, condition, false);
+    }
+
+    /**
+     * Returns the values that match (or do not match) the condition. The condition is compiled once for the
+     * entity of the values, and compiled again only if the list contains values of another entity.
+     */
+    private static <T extends GenericEntity> List<T> filterByCondition(List<T> values, EntityCondition condition, boolean include) {
         if (values == null) return null;
 
         List<T> result = new LinkedList<T>();
+        EntityConditionPredicate predicate = null;
         for (T value: values) {
-            if (!condition.entityMatches(value)) {
+            ModelEntity modelEntity = value.getModelEntity();
+            if (predicate == null || predicate.getModelEntity() != modelEntity) {
+                predicate = EntityConditionPredicate.compile(value.getDelegator(), modelEntity, condition);
+            }
+            if (predicate.matches(value) == include) {
                 result.add(value);
             }
         }
@@ -603,4 +591,134 @@ public final class EntityUtil {
         return new PagedList<GenericValue>(startIndex, endIndex, size, viewIndex, viewSize, dataItems);
     }
 
+
+    /**
+     * Returns the order by list to use for keyset (seek) pagination: the given order by list followed by the
+     * primary key fields of the entity that are not already part of it, so that every row has a unique position
+     * in the ordering and no row is skipped or repeated between pages.
+     * <p>The order by fields that are not primary key fields and have no explicit NULLS FIRST/LAST get the null ordering
+     * of the in-memory sort (null is the largest value), so that the database ordering of null values matches the
+     * condition returned by {@link #getKeysetCondition}.</p>
+     * @param modelEntity the entity being queried; if null no primary key fields are added
+     * @param orderBy the order by list of the query; only plain field names (with an optional direction) are supported
+     * @return the order by list to use for keyset pagination
+     * @see #getKeysetCondition
+     */
+    public static List<String> getKeysetOrderBy(ModelEntity modelEntity, List<String> orderBy) {
+        List<String> keysetOrderBy = new LinkedList<String>();
+        Set<String> fieldNames = new HashSet<String>();
+        if (orderBy != null) {
+            for (String orderByString: orderBy) {
+                OrderByItem orderByItem = OrderByItem.parse(orderByString);
+                String fieldName = getKeysetFieldName(orderByItem);
+                if (orderByItem.getNullsFirst() == null && (modelEntity == null || !modelEntity.getPkFieldNames().contains(fieldName))) {
+                    orderByString = orderByString.trim() + (orderByItem.getDescending() ? " NULLS FIRST" : " NULLS LAST");
+                }
+                keysetOrderBy.add(orderByString);
+                fieldNames.add(fieldName);
+            }
+        }
+        if (modelEntity != null) {
+            for (String pkFieldName: modelEntity.getPkFieldNames()) {
+                if (!fieldNames.contains(pkFieldName)) {
+                    keysetOrderBy.add(pkFieldName);
+                }
+            }
+        }
+        return keysetOrderBy;
+    }
+
+    /**
+     * Returns the condition that selects the rows sorting after the given last row of the previous page,
+     * ie the tuple comparison <code>(a, b, c) &gt; (:a, :b, :c)</code> on the order by fields.
+     * <p>The comparison is expanded to <code>a &gt;= :a AND (a &gt; :a OR (a = :a AND b &gt; :b) OR (a = :a AND b = :b AND c &gt; :c))</code>
+     * instead of using a row value constructor: that form is not supported by all databases, cannot express a mix of
+     * ascending and descending fields, and the leading range predicate still lets the database seek on an index.</p>
+     * <p>Null values are compared with IS NULL / IS NOT NULL following the NULLS FIRST/LAST of each order by item
+     * (by default null is the largest value). A field missing from the last value is treated as null, as the
+     * request parameters of a page link do not carry null values.</p>
+     * @param keysetOrderBy the order by list as returned by {@link #getKeysetOrderBy}
+     * @param lastValue the last value of the previous page, or a Map containing at least the order by fields
+     * @return the condition to add to the where clause of the query
+     */
+    public static EntityCondition getKeysetCondition(List<String> keysetOrderBy, Map<String, ? extends Object> lastValue) {
+        if (UtilValidate.isEmpty(keysetOrderBy)) {
+            throw new IllegalArgumentException("Keyset pagination requires an order by list");
+        }
+        List<EntityCondition> orConditions = new LinkedList<EntityCondition>();
+        List<EntityCondition> equalConditions = new LinkedList<EntityCondition>();
+        EntityCondition leadingCondition = null;
+        boolean first = true;
+        for (String orderByString: keysetOrderBy) {
+            OrderByItem orderByItem = OrderByItem.parse(orderByString);
+            String fieldName = getKeysetFieldName(orderByItem);
+            Object value = lastValue.get(fieldName);
+            boolean descending = orderByItem.getDescending();
+            boolean nullsFirst = orderByItem.getNullsFirst() != null ? orderByItem.getNullsFirst().booleanValue() : descending;
+            EntityCondition isNull = EntityCondition.makeCondition(fieldName, EntityOperator.EQUALS, null);
+            EntityCondition afterCondition;
+            if (value == null) {
+                // only the non null values sort after a null value, and only when nulls come first
+                afterCondition = nullsFirst ? EntityCondition.makeCondition(fieldName, EntityOperator.NOT_EQUAL, null) : null;
+            } else {
+                EntityComparisonOperator<?, ?> afterOperator = descending ? EntityOperator.LESS_THAN : EntityOperator.GREATER_THAN;
+                afterCondition = EntityCondition.makeCondition(fieldName, afterOperator, value);
+                if (!nullsFirst) {
+                    afterCondition = EntityCondition.makeCondition(afterCondition, EntityOperator.OR, isNull);
+                }
+            }
+            if (afterCondition != null) {
+                List<EntityCondition> andConditions = new LinkedList<EntityCondition>(equalConditions);
+                andConditions.add(afterCondition);
+                orConditions.add(andConditions.size() == 1 ? andConditions.get(0) : EntityCondition.makeCondition(andConditions));
+            }
+            if (first) {
+                if (value == null) {
+                    // after a null value that sorts last only null values remain
+                    leadingCondition = nullsFirst ? null : isNull;
+                } else {
+                    EntityComparisonOperator<?, ?> rangeOperator = descending ? EntityOperator.LESS_THAN_EQUAL_TO : EntityOperator.GREATER_THAN_EQUAL_TO;
+                    leadingCondition = EntityCondition.makeCondition(fieldName, rangeOperator, value);
+                    if (!nullsFirst) {
+                        leadingCondition = EntityCondition.makeCondition(leadingCondition, EntityOperator.OR, isNull);
+                    }
+                }
+                first = false;
+            }
+            equalConditions.add(value == null ? isNull : EntityCondition.makeCondition(fieldName, EntityOperator.EQUALS, value));
+        }
+        if (orConditions.isEmpty()) {
+            // the last value sorts last on every field: there is no row after it
+            String fieldName = getKeysetFieldName(OrderByItem.parse(keysetOrderBy.get(0)));
+            return EntityCondition.makeCondition(EntityCondition.makeCondition(fieldName, EntityOperator.EQUALS, null), EntityOperator.AND, EntityCondition.makeCondition(fieldName, EntityOperator.NOT_EQUAL, null));
+        }
+        EntityCondition afterConditions = orConditions.size() == 1 ? orConditions.get(0) : EntityCondition.makeCondition(orConditions, EntityOperator.OR);
+        if (leadingCondition == null || orConditions.size() == 1) {
+            return afterConditions;
+        }
+        return EntityCondition.makeCondition(leadingCondition, EntityOperator.AND, afterConditions);
+    }
+
+    /**
+     * Returns the values of the keyset order by fields of a value, to be passed to the query for the next page.
+     * @param value the last value of a page
+     * @param orderBy the order by list of the query
+     * @return a Map with the values of the order by fields and of the primary key fields
+     * @see EntityQuery#after
+     */
+    public static Map<String, Object> getKeysetValues(GenericEntity value, List<String> orderBy) {
+        Map<String, Object> keysetValues = new HashMap<String, Object>();
+        for (String orderByString: getKeysetOrderBy(value.getModelEntity(), orderBy)) {
+            String fieldName = getKeysetFieldName(OrderByItem.parse(orderByString));
+            keysetValues.put(fieldName, value.get(fieldName));
+        }
+        return keysetValues;
+    }
+
+    private static String getKeysetFieldName(OrderByItem orderByItem) {
+        if (!(orderByItem.getValue() instanceof EntityFieldValue)) {
+            throw new IllegalArgumentException("Keyset pagination only supports order by plain fields, found [" + orderByItem + "]");
+        }
+        return ((EntityFieldValue) orderByItem.getValue()).getFieldName();
+    }
 }
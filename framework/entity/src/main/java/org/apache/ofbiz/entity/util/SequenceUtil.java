@@ -22,11 +22,16 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.transaction.Transaction;
 
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
@@ -86,6 +91,15 @@ public class SequenceUtil {
         bank.refresh(staggerMax);
     }
 
+    /** Returns the state and the counters of each sequence bank, by sequence name */
+    public Map<String, Map<String, Object>> getBankStatistics() {
+        Map<String, Map<String, Object>> statistics = new TreeMap<String, Map<String, Object>>();
+        for (SequenceBank bank : sequences.values()) {
+            statistics.put(bank.seqName, bank.getStatistics());
+        }
+        return statistics;
+    }
+
     private SequenceBank getBank(String seqName, ModelEntity seqModelEntity) {
         SequenceBank bank = sequences.get(seqName);
 
@@ -103,24 +117,49 @@ public class SequenceUtil {
         return bank;
     }
 
+    /**
+     * The sequence ids reserved for one sequence.
+     * <p>When half of the current bank is used the next bank is reserved in the background, so the threads asking
+     * for ids do not wait for the database when the current bank runs out. The size of the banks adapts to the rate
+     * the ids are used: it doubles when a bank lasted less than half of {@link #targetBankMillis} and halves when it
+     * lasted more than twice that time, between the configured bank size and {@link #maxBankSize}.</p>
+     */
     private class SequenceBank {
         public static final long defaultBankSize = 10;
         public static final long maxBankSize = 5000;
         public static final long startSeqId = 10000;
+        /** The time a bank should last, used to adapt the bank size */
+        public static final long targetBankMillis = 10000;
 
         private final String seqName;
-        private final long bankSize;
+        private final long minBankSize;
         private final String updateForLockStatement;
         private final String selectSequenceStatement;
 
+        // all the fields below are guarded by this bank
+        private long bankSize;
         private long curSeqId;
         private long maxSeqId;
+        private long bankSeqId;
+        private long bankStartTime;
+        /** The bank reserved in the background, empty when nextMaxSeqId is not greater than nextSeqId */
+        private long nextSeqId;
+        private long nextMaxSeqId;
+        private boolean prefetching = false;
+
+        private long refreshCount = 0;
+        private long refreshNanos = 0;
+        private long maxRefreshNanos = 0;
+        private long prefetchCount = 0;
+        private long stallCount = 0;
+        private long stallNanos = 0;
 
         private SequenceBank(String seqName, long bankSize) {
             this.seqName = seqName;
             curSeqId = 0;
             maxSeqId = 0;
             this.bankSize = bankSize;
+            this.minBankSize = bankSize;
             updateForLockStatement = "UPDATE " + SequenceUtil.this.tableName + " SET " + SequenceUtil.this.idColName + "=" + SequenceUtil.this.idColName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
             selectSequenceStatement = "SELECT " + SequenceUtil.this.idColName + " FROM " + SequenceUtil.this.tableName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
         }
@@ -132,37 +171,148 @@ public class SequenceUtil {
                 if (stagger == 0) stagger = 1;
             }
             synchronized (this) {
-                if ((curSeqId + stagger) <= maxSeqId) {
-                    long retSeqId = curSeqId;
-                    curSeqId += stagger;
-                    return retSeqId;
-                } else {
-                    fillBank(stagger);
-                    if ((curSeqId + stagger) <= maxSeqId) {
-                        long retSeqId = curSeqId;
-                        curSeqId += stagger;
-                        return retSeqId;
-                    } else {
+                if ((curSeqId + stagger) > maxSeqId) {
+                    long startNanos = System.nanoTime();
+                    if (nextBank(stagger)) {
+                        stallCount++;
+                        stallNanos += System.nanoTime() - startNanos;
+                    }
+                    if ((curSeqId + stagger) > maxSeqId) {
                         Debug.logError("Fill bank failed, returning null", module);
                         return null;
                     }
                 }
+                long retSeqId = curSeqId;
+                curSeqId += stagger;
+                // low-water mark: reserve the next bank once half of the current one is used
+                if ((maxSeqId - curSeqId) * 2 <= maxSeqId - bankSeqId) {
+                    prefetch();
+                }
+                return retSeqId;
             }
         }
 
         private synchronized void refresh(long staggerMax) {
+            // drop the bank reserved in the background too, once it is reserved, so the next ids come from the database
+            awaitPrefetch();
+            this.nextSeqId = 0;
+            this.nextMaxSeqId = 0;
             this.curSeqId = this.maxSeqId;
             this.fillBank(staggerMax);
         }
 
-        /*
-           The algorithm to get the new sequence id in a thread safe way is the following:
-           1 - run an update with no changes to get a lock on the record
-               1bis - if no record is found, try to create and update it to get the lock
-           2 - select the record (now locked) to get the curSeqId
-           3 - increment the sequence
-           The three steps are executed in one dedicated database transaction.
+        private synchronized Map<String, Object> getStatistics() {
+            Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+            statistics.put("seqName", seqName);
+            statistics.put("bankSize", bankSize);
+            statistics.put("curSeqId", curSeqId);
+            statistics.put("maxSeqId", maxSeqId);
+            statistics.put("prefetchedIds", nextMaxSeqId > nextSeqId ? nextMaxSeqId - nextSeqId : 0);
+            statistics.put("refreshCount", refreshCount);
+            statistics.put("refreshTotalMillis", refreshNanos / 1000000);
+            statistics.put("refreshMaxMillis", maxRefreshNanos / 1000000);
+            statistics.put("prefetchCount", prefetchCount);
+            statistics.put("stallCount", stallCount);
+            statistics.put("stallTotalMillis", stallNanos / 1000000);
+            return statistics;
+        }
+
+        /**
+         * Moves to the bank reserved in the background, waiting for it if it is being reserved, or else reserves a new bank.
+         * @return true if the caller had to wait, for the bank reserved in the background or to reserve a bank
          */
+        private boolean nextBank(long stagger) {
+            boolean stalled = awaitPrefetch();
+            if ((curSeqId + stagger) <= maxSeqId) {
+                // another thread moved to the next bank while this one was waiting
+                return stalled;
+            }
+            if (bankStartTime > 0) {
+                adaptBankSize(System.currentTimeMillis() - bankStartTime);
+            }
+            if ((nextSeqId + stagger) <= nextMaxSeqId) {
+                setBank(nextSeqId, nextMaxSeqId);
+                nextSeqId = 0;
+                nextMaxSeqId = 0;
+            } else {
+                // no bank was reserved in the background, or it is too small for the stagger: a bank that is too
+                // small stays reserved for the next call and a bank large enough for the stagger is reserved now
+                stalled = true;
+                fillBank(stagger);
+            }
+            return stalled;
+        }
+
+        /**
+         * Waits for the bank being reserved in the background, if any.
+         * @return true if the caller had to wait
+         */
+        private boolean awaitPrefetch() {
+            boolean waited = false;
+            while (prefetching) {
+                waited = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return waited;
+        }
+
+        private void setBank(long seqId, long maxSeqId) {
+            this.curSeqId = seqId;
+            this.maxSeqId = maxSeqId;
+            this.bankSeqId = seqId;
+            this.bankStartTime = System.currentTimeMillis();
+        }
+
+        private void adaptBankSize(long bankMillis) {
+            long newBankSize = bankSize;
+            if (bankMillis < targetBankMillis / 2) {
+                newBankSize = Math.min(bankSize * 2, maxBankSize);
+            } else if (bankMillis > targetBankMillis * 2) {
+                newBankSize = Math.max(bankSize / 2, minBankSize);
+            }
+            if (newBankSize != bankSize) {
+                if (Debug.verboseOn()) Debug.logVerbose("Bank of sequenced IDs for [" + this.seqName + "] lasted " + bankMillis + " ms, changing the bank size from " + bankSize + " to " + newBankSize, module);
+                bankSize = newBankSize;
+            }
+        }
+
+        /** Starts reserving the next bank in the background, unless it is already reserved or being reserved */
+        private void prefetch() {
+            if (prefetching || nextMaxSeqId > nextSeqId) {
+                return;
+            }
+            prefetching = true;
+            final long prefetchBankSize = bankSize;
+            try {
+                ExecutionPool.GLOBAL_BATCH.submit(new Runnable() {
+                    public void run() {
+                        long seqId = -1;
+                        try {
+                            seqId = reserveBank(prefetchBankSize);
+                        } finally {
+                            synchronized (SequenceBank.this) {
+                                if (seqId >= 0) {
+                                    nextSeqId = seqId;
+                                    nextMaxSeqId = seqId + prefetchBankSize;
+                                    prefetchCount++;
+                                }
+                                prefetching = false;
+                                SequenceBank.this.notifyAll();
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Debug.logWarning("Could not reserve the next bank of sequenced IDs for [" + this.seqName + "] in the background: " + e.toString(), module);
+                prefetching = false;
+            }
+        }
+
         private void fillBank(long stagger) {
             // no need to get a new bank, SeqIds available
             if ((curSeqId + stagger) <= maxSeqId) {
@@ -179,6 +329,28 @@ public class SequenceUtil {
                 bankSize = maxBankSize;
             }
 
+            long seqId = reserveBank(bankSize);
+            if (seqId < 0) {
+                // reset the sequence fields and return (note: it would be better to throw an exception)
+                curSeqId = 0;
+                maxSeqId = 0;
+                return;
+            }
+            setBank(seqId, seqId + bankSize);
+        }
+
+        /*
+           Reserves a bank of ids in the database and returns the first one, or -1 if the bank could not be reserved.
+           The algorithm to get the new sequence id in a thread safe way is the following:
+           1 - run an update with no changes to get a lock on the record
+               1bis - if no record is found, try to create and update it to get the lock
+           2 - select the record (now locked) to get the curSeqId
+           3 - increment the sequence
+           The three steps are executed in one dedicated database transaction.
+         */
+        private long reserveBank(long bankSize) {
+            long startNanos = System.nanoTime();
+            long seqId = -1;
             Transaction suspendedTransaction = null;
             try {
                 suspendedTransaction = TransactionUtil.suspend();
@@ -226,7 +398,7 @@ public class SequenceUtil {
                         rs = stmt.executeQuery(selectSequenceStatement);
                         boolean sequenceFound = rs.next();
                         if (sequenceFound) {
-                            curSeqId = rs.getLong(SequenceUtil.this.idColName);
+                            seqId = rs.getLong(SequenceUtil.this.idColName);
                         }
                         rs.close();
                         if (!sequenceFound) {
@@ -256,9 +428,6 @@ public class SequenceUtil {
                         }
                     }
                 } catch (Exception e) {
-                    // reset the sequence fields and return (note: it would be better to throw an exception)
-                    curSeqId = 0;
-                    maxSeqId = 0;
                     String errMsg = "General error in getting a sequenced ID";
                     Debug.logError(e, errMsg, module);
                     try {
@@ -266,31 +435,35 @@ public class SequenceUtil {
                     } catch (GenericTransactionException gte2) {
                         Debug.logError(gte2, "Unable to rollback transaction", module);
                     }
-                    return;
+                    return -1;
                 }
             } catch (GenericTransactionException e) {
                 Debug.logError(e, "System Error suspending transaction in sequence util", module);
-                // reset the sequence fields and return (note: it would be better to throw an exception)
-                curSeqId = 0;
-                maxSeqId = 0;
-                return;
+                return -1;
             } finally {
                 if (suspendedTransaction != null) {
                     try {
                         TransactionUtil.resume(suspendedTransaction);
                     } catch (GenericTransactionException e) {
                         Debug.logError(e, "Error resuming suspended transaction in sequence util", module);
-                        // reset the sequence fields and return (note: it would be better to throw an exception)
-                        curSeqId = 0;
-                        maxSeqId = 0;
-                        return;
+                        seqId = -1;
+                    }
+                }
+                long refreshTime = System.nanoTime() - startNanos;
+                synchronized (this) {
+                    refreshCount++;
+                    refreshNanos += refreshTime;
+                    if (refreshTime > maxRefreshNanos) {
+                        maxRefreshNanos = refreshTime;
                     }
                 }
             }
 
-            maxSeqId = curSeqId + bankSize;
-            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + curSeqId + ", maxSeqId=" + maxSeqId + ", bankSize=" + bankSize, module);
+            if (seqId < 0) {
+                return -1;
+            }
+            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + seqId + ", maxSeqId=" + (seqId + bankSize) + ", bankSize=" + bankSize, module);
+            return seqId;
         }
     }
 }
-
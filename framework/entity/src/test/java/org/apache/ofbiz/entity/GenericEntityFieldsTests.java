@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelFieldIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GenericEntityFieldsTests {
+    private ModelFieldIndex index;
+
+    @Before
+    public void initialize() {
+        ModelEntity modelEntity = new ModelEntity();
+        modelEntity.addField(ModelField.create(modelEntity, "fieldA", "id", true));
+        modelEntity.addField(ModelField.create(modelEntity, "fieldB", "description", false));
+        index = modelEntity.getFieldIndex();
+    }
+
+    private GenericEntityFields makeFields() {
+        GenericEntityFields fields = new GenericEntityFields(index);
+        fields.put("fieldA", "a1");
+        fields.put("fieldB", "b1");
+        // not in the index, kept in the overflow map
+        fields.put("fieldC", "c1");
+        return fields;
+    }
+
+    @Test
+    public void nullValueIsSet() {
+        GenericEntityFields fields = new GenericEntityFields(index);
+        fields.put("fieldB", null);
+        assertTrue(fields.containsKey("fieldB"));
+        assertFalse(fields.containsKey("fieldA"));
+        assertNull(fields.get("fieldB"));
+        assertEquals(1, fields.size());
+    }
+
+    @Test
+    public void snapshotKeepsOriginalValues() {
+        GenericEntityFields fields = makeFields();
+        fields.takeSnapshot();
+        fields.put("fieldA", "a2");
+        fields.put("fieldA", "a3");
+        fields.remove("fieldB");
+        fields.put("fieldC", "c2");
+        assertEquals("a3", fields.get("fieldA"));
+        assertFalse(fields.containsKey("fieldB"));
+        assertEquals("c2", fields.get("fieldC"));
+        assertEquals("a1", fields.getOriginal("fieldA"));
+        assertEquals("b1", fields.getOriginal("fieldB"));
+        assertEquals("c1", fields.getOriginal("fieldC"));
+
+        fields.takeSnapshot();
+        assertEquals("a3", fields.getOriginal("fieldA"));
+        assertNull(fields.getOriginal("fieldB"));
+    }
+
+    @Test
+    public void entrySetValueKeepsOriginalValue() {
+        GenericEntityFields fields = makeFields();
+        fields.takeSnapshot();
+        for (Map.Entry<String, Object> entry: fields.entrySet()) {
+            if ("fieldA".equals(entry.getKey())) {
+                assertEquals("a1", entry.setValue("a2"));
+            }
+        }
+        assertEquals("a2", fields.get("fieldA"));
+        assertEquals("a1", fields.getOriginal("fieldA"));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        GenericEntityFields fields = makeFields();
+        fields.takeSnapshot();
+        GenericEntityFields copy = new GenericEntityFields(fields);
+        assertEquals(fields, copy);
+        assertEquals(fields.hashCode(), copy.hashCode());
+        assertFalse(copy.hasSnapshot());
+        copy.put("fieldA", "a2");
+        copy.put("fieldC", "c2");
+        assertEquals("a1", fields.get("fieldA"));
+        assertEquals("c1", fields.get("fieldC"));
+        assertEquals("a1", fields.getOriginal("fieldA"));
+    }
+
+    @Test
+    public void immutableFieldsCannotBeChanged() {
+        GenericEntityFields fields = makeFields();
+        fields.takeSnapshot();
+        fields.setImmutable();
+        try {
+            fields.put("fieldA", "a2");
+            fail("put on immutable fields");
+        } catch (UnsupportedOperationException e) {
+        }
+        int entries = 0;
+        for (Map.Entry<String, Object> entry: fields.entrySet()) {
+            entries++;
+            try {
+                entry.setValue("changed");
+                fail("setValue on an entry of immutable fields: " + entry.getKey());
+            } catch (UnsupportedOperationException e) {
+            }
+        }
+        assertEquals(3, entries);
+        Iterator<Map.Entry<String, Object>> iterator = fields.entrySet().iterator();
+        iterator.next();
+        try {
+            iterator.remove();
+            fail("remove on an iterator of immutable fields");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals("a1", fields.get("fieldA"));
+        assertEquals("b1", fields.get("fieldB"));
+        assertEquals("c1", fields.get("fieldC"));
+    }
+
+    @Test
+    public void overflowEntriesAreImmutable() {
+        GenericEntityFields fields = makeFields();
+        for (Map.Entry<String, Object> entry: fields.entrySet()) {
+            if ("fieldC".equals(entry.getKey())) {
+                try {
+                    entry.setValue("c2");
+                    fail("setValue on an overflow entry");
+                } catch (UnsupportedOperationException e) {
+                }
+            }
+        }
+        assertEquals("c1", fields.get("fieldC"));
+    }
+
+    @Test
+    public void emptyFieldsTakeTheIndex() {
+        GenericEntityFields fields = new GenericEntityFields((ModelFieldIndex) null);
+        fields.setIndex(index);
+        assertSame(index, fields.getIndex());
+        fields.put("fieldA", "a1");
+        assertEquals("a1", fields.get("fieldA"));
+        assertEquals(1, fields.size());
+    }
+
+    @Test
+    public void setIndexKeepsOriginalValues() {
+        GenericEntityFields fields = new GenericEntityFields((ModelFieldIndex) null);
+        fields.put("fieldA", "a1");
+        fields.put("fieldC", "c1");
+        fields.takeSnapshot();
+        fields.put("fieldA", "a2");
+        fields.setIndex(index);
+        assertSame(index, fields.getIndex());
+        assertEquals("a2", fields.get("fieldA"));
+        assertEquals("c1", fields.get("fieldC"));
+        assertTrue(fields.hasSnapshot());
+        assertEquals("a1", fields.getOriginal("fieldA"));
+        assertNull(fields.getOriginal("fieldB"));
+        fields.put("fieldB", "b1");
+        assertNull(fields.getOriginal("fieldB"));
+    }
+
+    @Test
+    public void fieldsAreSerializedByName() throws Exception {
+        GenericEntityFields fields = makeFields();
+        fields.takeSnapshot();
+        fields.put("fieldA", "a2");
+        fields.put("fieldB", null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(fields);
+        out.close();
+        assertFalse("Field index not serialized", new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1).contains("ModelFieldIndex"));
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        GenericEntityFields copy = (GenericEntityFields) in.readObject();
+        assertNull(copy.getIndex());
+        assertEquals(fields, copy);
+        assertTrue(copy.containsKey("fieldB"));
+        assertEquals("a1", copy.getOriginal("fieldA"));
+        assertEquals("b1", copy.getOriginal("fieldB"));
+
+        // back on the shared index of the model
+        copy.setIndex(index);
+        assertSame(index, copy.getIndex());
+        assertEquals(fields, copy);
+        assertEquals(fields.hashCode(), copy.hashCode());
+        assertEquals("a1", copy.getOriginal("fieldA"));
+        assertEquals("c1", copy.getOriginal("fieldC"));
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.datasource;
+
+import java.sql.SQLNonTransientConnectionException;
+import java.util.Arrays;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericDataSourceException;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.util.EntityFindOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ReadReplicaHelperTests {
+    private static final String REPLICA1 = "readReplicaHelperTests1";
+    private static final String REPLICA2 = "readReplicaHelperTests2";
+
+    private boolean logWarningOn;
+    private GenericHelper primary;
+    private GenericHelper replica1;
+    private GenericHelper replica2;
+
+    @Before
+    public void initialize() {
+        logWarningOn = Debug.isOn(Debug.WARNING);
+        Debug.set(Debug.WARNING, false); // the failing replicas are logged
+        primary = mock(GenericHelper.class);
+        replica1 = mock(GenericHelper.class);
+        replica2 = mock(GenericHelper.class);
+        GenericHelperFactory.helperCache.put(REPLICA1, replica1);
+        GenericHelperFactory.helperCache.put(REPLICA2, replica2);
+    }
+
+    @After
+    public void restore() {
+        GenericHelperFactory.helperCache.remove(REPLICA1);
+        GenericHelperFactory.helperCache.remove(REPLICA2);
+        Debug.set(Debug.WARNING, logWarningOn);
+    }
+
+    private ReadReplicaHelper makeHelper(long retryInterval) {
+        return new ReadReplicaHelper(primary, Arrays.asList(new GenericHelperInfo("test", REPLICA1), new GenericHelperInfo("test", REPLICA2)), retryInterval);
+    }
+
+    private static long count(GenericHelper helper) throws GenericEntityException {
+        return helper.findCountByCondition(null, null, null, null, null);
+    }
+
+    private static void answerCount(GenericHelper helper, long count) throws GenericEntityException {
+        when(helper.findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class)))
+                .thenReturn(Long.valueOf(count));
+    }
+
+    private static void failCount(GenericHelper helper, GenericEntityException e) throws GenericEntityException {
+        when(helper.findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class)))
+                .thenThrow(e);
+    }
+
+    private static GenericEntityException connectionError() {
+        return new GenericDataSourceException("Unable to establish a connection with the database", new SQLNonTransientConnectionException("Connection refused", "08001"));
+    }
+
+    @Test
+    public void readsAreSpreadOverReplicas() throws GenericEntityException {
+        ReadReplicaHelper helper = makeHelper(ReadReplicaHelper.RETRY_INTERVAL);
+        answerCount(primary, 0);
+        answerCount(replica1, 1);
+        answerCount(replica2, 2);
+        long sum = 0;
+        for (int i = 0; i < 4; i++) {
+            sum += count(helper);
+        }
+        assertEquals(6, sum);
+        verify(primary, never()).findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class));
+    }
+
+    @Test
+    public void failingReplicaIsSkipped() throws GenericEntityException {
+        ReadReplicaHelper helper = makeHelper(ReadReplicaHelper.RETRY_INTERVAL);
+        answerCount(primary, 0);
+        failCount(replica1, connectionError());
+        answerCount(replica2, 2);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(2, count(helper));
+        }
+        assertEquals(1, helper.getAvailableReplicaCount());
+        // tried once, then skipped until the retry interval is over
+        verify(replica1, times(1)).findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class));
+    }
+
+    @Test
+    public void allReplicasFailingFallsBackToPrimary() throws GenericEntityException {
+        ReadReplicaHelper helper = makeHelper(ReadReplicaHelper.RETRY_INTERVAL);
+        answerCount(primary, 7);
+        failCount(replica1, connectionError());
+        failCount(replica2, connectionError());
+        assertEquals(7, count(helper));
+        assertEquals(0, helper.getAvailableReplicaCount());
+        assertEquals(7, count(helper));
+        verify(replica1, times(1)).findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class));
+        verify(replica2, times(1)).findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class));
+    }
+
+    @Test
+    public void failingReplicaIsRetriedAfterInterval() throws Exception {
+        ReadReplicaHelper helper = makeHelper(50);
+        answerCount(primary, 0);
+        failCount(replica1, connectionError());
+        failCount(replica2, connectionError());
+        assertEquals(0, count(helper));
+        assertEquals(0, helper.getAvailableReplicaCount());
+        Thread.sleep(100);
+        assertEquals(2, helper.getAvailableReplicaCount());
+        reset(replica1, replica2);
+        answerCount(replica1, 1);
+        answerCount(replica2, 1);
+        assertEquals(1, count(helper));
+        assertEquals(1, count(helper));
+    }
+
+    @Test
+    public void otherErrorsAreThrown() throws GenericEntityException {
+        ReadReplicaHelper helper = makeHelper(ReadReplicaHelper.RETRY_INTERVAL);
+        answerCount(primary, 0);
+        failCount(replica1, new GenericDataSourceException("Syntax error"));
+        failCount(replica2, new GenericDataSourceException("Syntax error"));
+        try {
+            count(helper);
+            fail("A query error is not a connection error");
+        } catch (GenericDataSourceException e) {
+            assertEquals("Syntax error", e.getMessage());
+        }
+        assertEquals(2, helper.getAvailableReplicaCount());
+        verify(primary, never()).findCountByCondition(any(Delegator.class), any(ModelEntity.class), any(EntityCondition.class), any(EntityCondition.class), any(EntityFindOptions.class));
+    }
+
+    @Test
+    public void writesGoToPrimary() throws GenericEntityException {
+        ReadReplicaHelper helper = makeHelper(ReadReplicaHelper.RETRY_INTERVAL);
+        GenericValue value = mock(GenericValue.class);
+        helper.create(value);
+        helper.store(value);
+        verify(primary).create(value);
+        verify(primary).store(value);
+        verifyZeroInteractions(replica1, replica2);
+    }
+}
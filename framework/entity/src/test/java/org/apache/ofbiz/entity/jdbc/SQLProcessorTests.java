@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+
+public class SQLProcessorTests {
+    private static final String SQL = "SELECT * FROM TESTING WHERE TESTING_ID = ?";
+
+    private Connection connection;
+    private PreparedStatement statement;
+    private SQLProcessor sqlP;
+
+    @Before
+    public void initialize() throws Exception {
+        connection = mock(Connection.class);
+        statement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(SQL)).thenReturn(statement);
+        // the local Derby datasource has no result-fetch-size
+        sqlP = new SQLProcessor(null, new GenericHelperInfo("org.apache.ofbiz", "localderby"), connection);
+    }
+
+    @Test
+    public void requestedFetchSizeIsSet() throws Exception {
+        sqlP.prepareStatement(SQL, false, 0, 0, 100, -1);
+        verify(statement).setFetchSize(100);
+    }
+
+    @Test
+    public void pooledFetchSizeIsReset() throws Exception {
+        // a pooled statement with the fetch size of a previous query
+        when(statement.getFetchSize()).thenReturn(100);
+        when(statement.getMaxRows()).thenReturn(10);
+        sqlP.prepareStatement(SQL, false, 0, 0, -1, -1);
+        verify(statement).setFetchSize(0);
+        verify(statement).setMaxRows(0);
+    }
+
+    @Test
+    public void defaultFetchSizeIsKept() throws Exception {
+        sqlP.prepareStatement(SQL, false, 0, 0, -1, -1);
+        verify(statement, never()).setFetchSize(anyInt());
+        verify(statement, never()).setMaxRows(anyInt());
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entity.util;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.ofbiz.entity.GenericValue;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class EntityListSpliteratorTests {
+    private EntityListIterator iterator;
+    private GenericValue value1;
+    private GenericValue value2;
+    private GenericValue value3;
+
+    @Before
+    public void initialize() throws Exception {
+        iterator = mock(EntityListIterator.class);
+        iterator.resultSet = mock(ResultSet.class);
+        when(iterator.resultSet.getFetchSize()).thenReturn(2);
+        value1 = mock(GenericValue.class);
+        value2 = mock(GenericValue.class);
+        value3 = mock(GenericValue.class);
+    }
+
+    private static List<GenericValue> readAll(EntityListSpliterator spliterator) {
+        final List<GenericValue> values = new ArrayList<GenericValue>();
+        Consumer<GenericValue> collector = new Consumer<GenericValue>() {
+            public void accept(GenericValue value) {
+                values.add(value);
+            }
+        };
+        while (spliterator.tryAdvance(collector)) {
+        }
+        return values;
+    }
+
+    @Test
+    public void valuesAreReadInChunks() {
+        when(iterator.next()).thenReturn(value1, value2, value3, null);
+        List<GenericValue> values = readAll(new EntityListSpliterator(iterator, false));
+        assertEquals(3, values.size());
+        assertSame(value3, values.get(2));
+    }
+
+    @Test(timeout = 10000)
+    public void prefetchedValuesKeepTheirOrder() {
+        when(iterator.next()).thenReturn(value1, value2, value3, null);
+        List<GenericValue> values = readAll(new EntityListSpliterator(iterator, true));
+        assertEquals(3, values.size());
+        assertSame(value1, values.get(0));
+        assertSame(value2, values.get(1));
+        assertSame(value3, values.get(2));
+    }
+
+    @Test(timeout = 10000)
+    public void prefetchExceptionIsThrown() {
+        when(iterator.next()).thenReturn(value1).thenThrow(new IllegalStateException("read failed"));
+        try {
+            readAll(new EntityListSpliterator(iterator, true));
+            fail("The exception of the prefetch is thrown to the consumer");
+        } catch (IllegalStateException e) {
+            assertEquals("read failed", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void prefetchErrorIsThrown() {
+        when(iterator.next()).thenReturn(value1, value2).thenThrow(new NoClassDefFoundError("missing"));
+        EntityListSpliterator spliterator = new EntityListSpliterator(iterator, true);
+        try {
+            readAll(spliterator);
+            fail("The error of the prefetch is thrown to the consumer");
+        } catch (NoClassDefFoundError e) {
+            assertEquals("missing", e.getMessage());
+        }
+        // the results are over
+        assertFalse(spliterator.tryAdvance(new Consumer<GenericValue>() {
+            public void accept(GenericValue value) {
+            }
+        }));
+    }
+}
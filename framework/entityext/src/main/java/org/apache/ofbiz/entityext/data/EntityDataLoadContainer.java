@@ -77,6 +77,7 @@ public class EntityDataLoadContainer implements Container {
     protected boolean dropConstraints = false;
     protected boolean createConstraints = false;
     protected int txTimeout = -1;
+    protected int loadThreads = 1;
 
     private String name;
 
@@ -105,6 +106,7 @@ public class EntityDataLoadContainer implements Container {
            group (overrides the entity group name configured for the container)
            dir (imports all XML files in a directory)
            file (import a specific XML file)
+           parallel (load independent files concurrently, a transaction per chunk of values)
 
            Example:
            $ java -jar build/libs/ofbiz.jar --load-data -readers=seed,demo,ext -timeout=7200 -delegator=default -group=org.apache.ofbiz
@@ -179,6 +181,19 @@ public class EntityDataLoadContainer implements Container {
                     if (UtilValidate.isEmpty(argumentVal) || "true".equalsIgnoreCase(argumentVal)) {
                         createConstraints = true;
                     }
+                } else if ("parallel".equalsIgnoreCase(argumentName)) {
+                    if (UtilValidate.isEmpty(argumentVal)) {
+                        this.loadThreads = Runtime.getRuntime().availableProcessors();
+                    } else {
+                        try {
+                            this.loadThreads = Integer.parseInt(argumentVal);
+                        } catch (NumberFormatException e) {
+                            this.loadThreads = 0;
+                        }
+                        if (this.loadThreads < 1) {
+                            throw new ContainerException("Invalid value [" + argumentVal + "] of the parallel argument, expected a number of threads greater than 0");
+                        }
+                    }
                 } else if ("help".equalsIgnoreCase(argumentName)) {
                     //"java -jar build/libs/ofbiz.jar --load-data [options]\n" +
                     String helpStr = "\n--------------------------------------\n" +
@@ -195,6 +210,7 @@ public class EntityDataLoadContainer implements Container {
                     "-create-pks .......... create primary keys\n" +
                     "-drop-constraints..... drop indexes and foreign keys before loading\n" +
                     "-create-constraints... create indexes and foreign keys after loading (default is true w/ drop-constraints)\n" +
+                    "-parallel=[threads] .. load independent files concurrently, a transaction per chunk (default is the number of processors)\n" +
                     "-help ................ display this information\n";
                     throw new ContainerException(helpStr);
                 }
@@ -487,13 +503,25 @@ public class EntityDataLoadContainer implements Container {
 
             Debug.logImportant("=-=-=-=-=-=-= Starting the data load...", module);
 
-            for (URL dataUrl: urlList) {
+            if (loadThreads > 1) {
                 try {
-                    int rowsChanged = EntityDataLoader.loadData(dataUrl, helperInfo.getHelperBaseName(), delegator, errorMessages, txTimeout, useDummyFks, maintainTxs, tryInserts);
-                    totalRowsChanged += rowsChanged;
-                    infoMessages.add(changedFormat.format(rowsChanged) + " of " + changedFormat.format(totalRowsChanged) + " from " + dataUrl.toExternalForm());
+                    Map<URL, Integer> rowsChangedByUrl = EntityDataLoader.loadDataParallel(urlList, helperInfo.getHelperBaseName(), delegator, errorMessages, txTimeout, useDummyFks, maintainTxs, tryInserts, loadThreads);
+                    for (Map.Entry<URL, Integer> rowsChangedEntry: rowsChangedByUrl.entrySet()) {
+                        totalRowsChanged += rowsChangedEntry.getValue();
+                        infoMessages.add(changedFormat.format(rowsChangedEntry.getValue()) + " of " + changedFormat.format(totalRowsChanged) + " from " + rowsChangedEntry.getKey().toExternalForm());
+                    }
                 } catch (GenericEntityException e) {
-                    Debug.logError(e, "Error loading data file: " + dataUrl.toExternalForm(), module);
+                    Debug.logError(e, "Error loading the data files", module);
+                }
+            } else {
+                for (URL dataUrl: urlList) {
+                    try {
+                        int rowsChanged = EntityDataLoader.loadData(dataUrl, helperInfo.getHelperBaseName(), delegator, errorMessages, txTimeout, useDummyFks, maintainTxs, tryInserts);
+                        totalRowsChanged += rowsChanged;
+                        infoMessages.add(changedFormat.format(rowsChanged) + " of " + changedFormat.format(totalRowsChanged) + " from " + dataUrl.toExternalForm());
+                    } catch (GenericEntityException e) {
+                        Debug.logError(e, "Error loading data file: " + dataUrl.toExternalForm(), module);
+                    }
                 }
             }
         } else {
@@ -26,13 +26,21 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.shiro.crypto.AesCipherService;
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
 import org.apache.ofbiz.base.crypto.DesCrypt;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.FileUtil;
@@ -48,6 +56,8 @@ import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
 import org.apache.ofbiz.entity.jdbc.DatabaseUtil;
 import org.apache.ofbiz.entity.model.ModelEntity;
 import org.apache.ofbiz.entity.model.ModelField;
+import org.apache.ofbiz.entity.model.ModelViewEntity;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
 import org.apache.ofbiz.security.Security;
@@ -502,7 +512,7 @@ public class EntityDataServices {
     }
 
     public static Map<String, Object> reencryptFields(DispatchContext dctx, Map<String, Object> context) {
-        Delegator delegator = dctx.getDelegator();
+        final Delegator delegator = dctx.getDelegator();
         Security security = dctx.getSecurity();
         Locale locale = (Locale) context.get("locale");
 
@@ -513,6 +523,8 @@ public class EntityDataServices {
         }
 
         String groupName = (String) context.get("groupName");
+        int batchSize = (Integer) context.get("batchSize");
+        int threads = (Integer) context.get("threads");
 
         Map<String, ModelEntity> modelEntities;
         try {
@@ -522,22 +534,97 @@ public class EntityDataServices {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityExtErrorGettingListOfEntityInGroup", UtilMisc.toMap("errorString", e.toString()), locale));
         }
 
-        for (ModelEntity modelEntity: modelEntities.values()) {
-            List<ModelField> fields = modelEntity.getFieldsUnmodifiable();
-            for (ModelField field: fields) {
-                if (field.getEncryptMethod().isEncrypted()) {
-                    try {
-                        List<GenericValue> rows = EntityQuery.use(delegator).from(modelEntity.getEntityName()).select(field.getName()).queryList();
-                        for (GenericValue row: rows) {
-                            row.setString(field.getName(), row.getString(field.getName()));
-                            row.store();
+        // with more than one thread the rows are stored in batches, each batch in its own transaction
+        ExecutorService executor = threads > 1 ? ExecutionPool.getScheduledExecutor(null, "OFBiz-reencrypt", threads, 0, false) : null;
+        try {
+            for (ModelEntity modelEntity: modelEntities.values()) {
+                if (modelEntity instanceof ModelViewEntity) {
+                    continue;
+                }
+                final List<String> encryptedFieldNames = new LinkedList<String>();
+                for (ModelField field: modelEntity.getFieldsUnmodifiable()) {
+                    if (field.getEncryptMethod().isEncrypted()) {
+                        encryptedFieldNames.add(field.getName());
+                    }
+                }
+                if (encryptedFieldNames.isEmpty()) {
+                    continue;
+                }
+                Set<String> selectFields = new LinkedHashSet<String>(modelEntity.getPkFieldNames());
+                selectFields.addAll(encryptedFieldNames);
+                List<Future<Void>> futures = new LinkedList<Future<Void>>();
+                try (EntityListIterator rows = EntityQuery.use(delegator).from(modelEntity.getEntityName()).select(selectFields).queryIterator()) {
+                    List<GenericValue> batch = new ArrayList<GenericValue>(batchSize);
+                    GenericValue row;
+                    while ((row = rows.next()) != null) {
+                        if (executor == null) {
+                            reencryptRow(row, encryptedFieldNames);
+                            continue;
+                        }
+                        // the batch is handed over only once the cursor has moved off its last row, so that row is not locked
+                        if (batch.size() >= batchSize) {
+                            futures.add(executor.submit(createReencryptCallable(delegator, batch, encryptedFieldNames)));
+                            batch = new ArrayList<GenericValue>(batchSize);
+                            // do not read much further than the threads store
+                            if (futures.size() > threads * 2) {
+                                getReencryptResult(futures.remove(0));
+                            }
                         }
-                    } catch(GenericEntityException gee) {
-                        return ServiceUtil.returnError(gee.getMessage());
+                        batch.add(row);
                     }
+                    if (!batch.isEmpty()) {
+                        futures.add(executor.submit(createReencryptCallable(delegator, batch, encryptedFieldNames)));
+                    }
+                }
+                for (Future<Void> future: futures) {
+                    getReencryptResult(future);
                 }
             }
+        } catch (GenericEntityException gee) {
+            Debug.logError(gee, module);
+            return ServiceUtil.returnError(gee.getMessage());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
         return ServiceUtil.returnSuccess();
     }
+
+    private static void reencryptRow(GenericValue row, List<String> encryptedFieldNames) throws GenericEntityException {
+        for (String fieldName: encryptedFieldNames) {
+            row.setString(fieldName, row.getString(fieldName));
+        }
+        row.store();
+    }
+
+    private static Callable<Void> createReencryptCallable(final Delegator delegator, final List<GenericValue> batch, final List<String> encryptedFieldNames) {
+        return new Callable<Void>() {
+            public Void call() throws GenericEntityException {
+                return TransactionUtil.doNewTransaction(new Callable<Void>() {
+                    public Void call() throws GenericEntityException {
+                        for (GenericValue row: batch) {
+                            reencryptRow(row, encryptedFieldNames);
+                        }
+                        return null;
+                    }
+                }, "re-encrypting a batch of " + batch.size() + " rows", 0, true);
+            }
+        };
+    }
+
+    private static void getReencryptResult(Future<Void> future) throws GenericEntityException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GenericEntityException) {
+                throw (GenericEntityException) cause;
+            }
+            throw new GenericEntityException("Error re-encrypting a batch of rows", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericEntityException("Interrupted while re-encrypting the fields", e);
+        }
+    }
 }
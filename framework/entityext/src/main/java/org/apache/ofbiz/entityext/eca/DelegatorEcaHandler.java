@@ -18,10 +18,13 @@
  *******************************************************************************/
 package org.apache.ofbiz.entityext.eca;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -31,6 +34,8 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.apache.ofbiz.base.concurrent.ExecutionPool;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.base.util.cache.CacheListener;
+import org.apache.ofbiz.base.util.cache.UtilCache;
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntity;
 import org.apache.ofbiz.entity.GenericEntityException;
@@ -50,6 +55,26 @@ public class DelegatorEcaHandler implements EntityEcaHandler<EntityEcaRule> {
     protected String entityEcaReaderName = null;
     protected AtomicReference<Future<DispatchContext>> dctx = new AtomicReference<Future<DispatchContext>>();
 
+    /** The handlers told when the rules are loaded again; weak, a handler replaced on its delegator is not kept here */
+    private static final Set<DelegatorEcaHandler> handlers = Collections.newSetFromMap(new WeakHashMap<DelegatorEcaHandler, Boolean>());
+
+    static {
+        // a single listener for all the handlers
+        EntityEcaUtil.addEntityEcaCacheListener(new CacheListener<String, Map<String, Map<String, List<EntityEcaRule>>>>() {
+            public void noteKeyRemoval(UtilCache<String, Map<String, Map<String, List<EntityEcaRule>>>> cache, String key, Map<String, Map<String, List<EntityEcaRule>>> oldValue) {
+                notifyRulesChanged(key);
+            }
+
+            public void noteKeyAddition(UtilCache<String, Map<String, Map<String, List<EntityEcaRule>>>> cache, String key, Map<String, Map<String, List<EntityEcaRule>>> newValue) {
+                // the rules are loaded on demand after a removal, nothing indexed before can be stale
+            }
+
+            public void noteKeyUpdate(UtilCache<String, Map<String, Map<String, List<EntityEcaRule>>>> cache, String key, Map<String, Map<String, List<EntityEcaRule>>> newValue, Map<String, Map<String, List<EntityEcaRule>>> oldValue) {
+                notifyRulesChanged(key);
+            }
+        });
+    }
+
     public DelegatorEcaHandler() { }
 
     public void setDelegator(Delegator delegator) {
@@ -69,6 +94,27 @@ public class DelegatorEcaHandler implements EntityEcaHandler<EntityEcaRule> {
 
         //preload the cache
         EntityEcaUtil.getEntityEcaCache(this.entityEcaReaderName);
+
+        // the delegator indexes the rules by entity, have it drop them when the rules are loaded again
+        synchronized (handlers) {
+            handlers.add(this);
+        }
+    }
+
+    private static void notifyRulesChanged(String entityEcaReaderName) {
+        List<DelegatorEcaHandler> toNotify;
+        synchronized (handlers) {
+            toNotify = new ArrayList<DelegatorEcaHandler>(handlers);
+        }
+        for (DelegatorEcaHandler handler: toNotify) {
+            handler.rulesChanged(entityEcaReaderName);
+        }
+    }
+
+    protected void rulesChanged(String entityEcaReaderName) {
+        if (entityEcaReaderName.equals(this.entityEcaReaderName) && this.delegator.<EntityEcaRule>getEntityEcaHandler() == this) {
+            this.delegator.setEntityEcaHandler(this);
+        }
     }
 
     protected DispatchContext getDispatchContext() throws GenericEntityException {
@@ -104,9 +150,25 @@ public class DelegatorEcaHandler implements EntityEcaHandler<EntityEcaRule> {
         }
 
         if (!rules.isEmpty() && Debug.verboseOn()) Debug.logVerbose("Running ECA (" + event + ").", module);
-        Set<String> actionsRun = new TreeSet<String>();
+        // only allocated when a rule applies to the operation
+        Set<String> actionsRun = null;
         for (EntityEcaRule eca: rules) {
+            if (!eca.appliesTo(currentOperation, isError)) {
+                continue;
+            }
+            if (actionsRun == null) {
+                actionsRun = new TreeSet<String>();
+            }
             eca.eval(currentOperation, this.getDispatchContext(), value, isError, actionsRun);
         }
     }
+
+    public boolean hasRules(List<EntityEcaRule> rules, String currentOperation) {
+        for (EntityEcaRule eca: rules) {
+            if (eca.appliesTo(currentOperation, false) || eca.appliesTo(currentOperation, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -99,6 +99,12 @@ public final class EntityEcaAction implements java.io.Serializable {
                 }
             } else if ("async".equals(this.serviceMode)) {
                 dispatcher.runAsync(serviceName, actionContext, persist);
+            } else if ("async-after-commit".equals(this.serviceMode)) {
+                // the value may still change before the commit, the service gets a copy of it as it was when the rule ran
+                if (!valueAttr.isEmpty() && newValue instanceof GenericValue) {
+                    actionContext.put(valueAttr, GenericValue.create((GenericValue) newValue));
+                }
+                EntityEcaAsyncExecutor.addAction(dctx, serviceName, actionContext, serviceName + ":" + newValue.getPrimaryKey(), persist);
             }
         } catch (GenericServiceException e) {
             // check abortOnError and rollbackOnError
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entityext.eca;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+import org.apache.ofbiz.service.DispatchContext;
+import org.apache.ofbiz.service.GenericServiceException;
+import org.apache.ofbiz.service.ServiceUtil;
+
+/**
+ * Runs the entity ECA actions with mode="async-after-commit".
+ * <p>The actions are held until the transaction that triggered them commits, they are dropped if it rolls back. They
+ * then wait for the coalescing window in a bounded in-memory queue: the same service triggered again for the same
+ * primary key during that time runs only once, with the latest context. When the queue is full the actions are handed
+ * to the job manager like the async mode. Nothing is persisted, the queued actions are lost if the server stops.</p>
+ * <p>The settings are in service.properties: eeca.async.threads, eeca.async.queue.max and eeca.async.coalesce.window.</p>
+ */
+public final class EntityEcaAsyncExecutor {
+
+    public static final String module = EntityEcaAsyncExecutor.class.getName();
+
+    private static final int threadCount = UtilProperties.getPropertyAsInteger("service", "eeca.async.threads", 2);
+    private static final int maxQueued = UtilProperties.getPropertyAsInteger("service", "eeca.async.queue.max", 10000);
+    private static final long coalesceWindow = UtilProperties.getPropertyAsLong("service", "eeca.async.coalesce.window", 500);
+    private static final ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-eeca-async", threadCount, 60, false);
+
+    // the actions waiting to run, by coalescing key; guarded by itself
+    private static final Map<String, AsyncAction> queued = new HashMap<String, AsyncAction>();
+    // the actions held by each transaction; the synchronizations do not reference their transaction, so an entry goes away with it
+    private static final Map<Transaction, CommitSynchronization> synchronizations = new WeakHashMap<Transaction, CommitSynchronization>();
+    private static long coalescedCount = 0;
+
+    private EntityEcaAsyncExecutor() {}
+
+    /**
+     * Queues the service to run after the current transaction commits, or now when there is no transaction.
+     * @param coalesceKey the actions with the same key queued within the coalescing window run once, usually the
+     *            service name and the primary key of the value
+     */
+    public static void addAction(DispatchContext dctx, String serviceName, Map<String, Object> context, String coalesceKey, boolean persist) throws GenericServiceException {
+        AsyncAction action = new AsyncAction(dctx, serviceName, context, coalesceKey, persist);
+        try {
+            int status = TransactionUtil.getStatus();
+            if (status == Status.STATUS_MARKED_ROLLBACK) {
+                // the transaction will not commit
+                if (Debug.verboseOn()) Debug.logVerbose("Not queuing the Entity ECA service " + serviceName + ", the transaction is marked for rollback", module);
+                return;
+            }
+            if (status == Status.STATUS_ACTIVE) {
+                Transaction transaction = TransactionUtil.getTransaction();
+                synchronized (synchronizations) {
+                    CommitSynchronization sync = synchronizations.get(transaction);
+                    if (sync == null) {
+                        sync = new CommitSynchronization();
+                        TransactionUtil.registerSynchronization(sync);
+                        synchronizations.put(transaction, sync);
+                    }
+                    sync.actions.add(action);
+                }
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not hold the Entity ECA service " + serviceName + " until the commit, queuing it now", module);
+        } catch (IllegalStateException e) {
+            // the transaction is completing, it no longer takes synchronizations
+            if (Debug.verboseOn()) Debug.logVerbose("The transaction is completing, queuing the Entity ECA service " + serviceName + " now", module);
+        }
+        enqueue(action);
+    }
+
+    private static void enqueue(AsyncAction action) {
+        synchronized (queued) {
+            AsyncAction waiting = queued.get(action.coalesceKey);
+            if (waiting != null) {
+                // it has not started yet, it will run with the latest context
+                waiting.context = action.context;
+                coalescedCount++;
+                return;
+            }
+            if (queued.size() < maxQueued) {
+                queued.put(action.coalesceKey, action);
+                executor.schedule(action, coalesceWindow, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        Debug.logWarning("The queue of the async-after-commit Entity ECA actions is full (" + maxQueued + "), running " + action.serviceName + " through the job manager", module);
+        try {
+            action.dctx.getDispatcher().runAsync(action.serviceName, action.context, action.persist);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error running Entity ECA action service " + action.serviceName + " after commit", module);
+        }
+    }
+
+    /** Returns the number of actions waiting to run */
+    public static int getQueuedCount() {
+        synchronized (queued) {
+            return queued.size();
+        }
+    }
+
+    /** Returns the number of actions that did not run because the same action was already waiting */
+    public static long getCoalescedCount() {
+        synchronized (queued) {
+            return coalescedCount;
+        }
+    }
+
+    private static final class AsyncAction implements Runnable {
+        private final DispatchContext dctx;
+        private final String serviceName;
+        private final String coalesceKey;
+        private final boolean persist;
+        // replaced by the latest context while waiting, guarded by queued
+        private Map<String, Object> context;
+
+        private AsyncAction(DispatchContext dctx, String serviceName, Map<String, Object> context, String coalesceKey, boolean persist) {
+            this.dctx = dctx;
+            this.serviceName = serviceName;
+            this.context = context;
+            this.coalesceKey = coalesceKey;
+            this.persist = persist;
+        }
+
+        public void run() {
+            Map<String, Object> runContext;
+            synchronized (queued) {
+                // from now on the same action queued again runs again
+                queued.remove(coalesceKey);
+                runContext = this.context;
+            }
+            try {
+                Map<String, Object> result = dctx.getDispatcher().runSync(serviceName, runContext);
+                if (ServiceUtil.isError(result)) {
+                    Debug.logError("Error running Entity ECA action service " + serviceName + " after commit: " + ServiceUtil.getErrorMessage(result), module);
+                }
+            } catch (GenericServiceException e) {
+                Debug.logError(e, "Error running Entity ECA action service " + serviceName + " after commit", module);
+            } catch (RuntimeException e) {
+                Debug.logError(e, "Error running Entity ECA action service " + serviceName + " after commit", module);
+            }
+        }
+    }
+
+    /** Holds the actions of a transaction until it completes */
+    private static final class CommitSynchronization implements Synchronization {
+        // guarded by synchronizations
+        private final List<AsyncAction> actions = new ArrayList<AsyncAction>();
+
+        public void beforeCompletion() {
+        }
+
+        public void afterCompletion(int status) {
+            List<AsyncAction> committed;
+            synchronized (synchronizations) {
+                committed = new ArrayList<AsyncAction>(actions);
+                actions.clear();
+            }
+            if (status != Status.STATUS_COMMITTED) {
+                return;
+            }
+            for (AsyncAction action: committed) {
+                enqueue(action);
+            }
+        }
+    }
+}
@@ -43,6 +43,8 @@ public final class EntityEcaCondition implements java.io.Serializable {
     private final String compareType;
     private final String format;
     private final boolean constant;
+    // true when the condition is a plain String comparison that is evaluated without ObjectType.doRealCompare
+    private final boolean stringCompare;
 
     public EntityEcaCondition(Element condition, boolean constant) {
         this.lhsValueName = condition.getAttribute("field-name");
@@ -55,6 +57,10 @@ public final class EntityEcaCondition implements java.io.Serializable {
         this.operator = condition.getAttribute("operator");
         this.compareType = condition.getAttribute("type");
         this.format = condition.getAttribute("format");
+        boolean stringType = compareType.isEmpty() || "String".equals(compareType) || "java.lang.String".equals(compareType) || "PlainString".equals(compareType);
+        boolean emptyOperator = "is-empty".equals(operator) || "is-not-empty".equals(operator);
+        boolean equalsOperator = "equals".equals(operator) || "not-equals".equals(operator);
+        this.stringCompare = stringType && (emptyOperator || (constant && equalsOperator && !rhsValueName.isEmpty()));
     }
 
     public boolean eval(DispatchContext dctx, GenericEntity value) throws GenericEntityException {
@@ -65,6 +71,9 @@ public final class EntityEcaCondition implements java.io.Serializable {
         if (Debug.verboseOn()) Debug.logVerbose(this.toString(), module);
 
         Object lhsValue = value.get(lhsValueName);
+        if (stringCompare && (lhsValue == null || lhsValue instanceof String)) {
+            return compareString((String) lhsValue);
+        }
 
         Object rhsValue;
         if (constant) {
@@ -92,6 +101,19 @@ public final class EntityEcaCondition implements java.io.Serializable {
         }
     }
 
+    /** Same result as ObjectType.doRealCompare for the operators and types of a stringCompare condition */
+    private boolean compareString(String lhsValue) {
+        if ("is-empty".equals(operator)) {
+            return lhsValue == null || lhsValue.isEmpty();
+        } else if ("is-not-empty".equals(operator)) {
+            return lhsValue != null && !lhsValue.isEmpty();
+        } else if ("equals".equals(operator)) {
+            return rhsValueName.equals(lhsValue);
+        } else {
+            return !rhsValueName.equals(lhsValue);
+        }
+    }
+
     public String getLValue() {
         return this.lhsValueName;
     }
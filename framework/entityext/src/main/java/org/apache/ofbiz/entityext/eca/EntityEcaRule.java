@@ -32,6 +32,7 @@ import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntity;
 import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.eca.EntityEcaHandler;
 import org.apache.ofbiz.service.DispatchContext;
 import org.w3c.dom.Element;
 
@@ -42,6 +43,7 @@ import org.w3c.dom.Element;
 public final class EntityEcaRule implements java.io.Serializable {
 
     public static final String module = EntityEcaRule.class.getName();
+    private static final String[] operations = {EntityEcaHandler.OP_CREATE, EntityEcaHandler.OP_STORE, EntityEcaHandler.OP_REMOVE, EntityEcaHandler.OP_FIND};
 
     private final String entityName;
     private final String operationName;
@@ -51,12 +53,21 @@ public final class EntityEcaRule implements java.io.Serializable {
     private final List<Object> actionsAndSets;
     private boolean enabled = true;
     private final List<String> conditionFieldNames  = new ArrayList<String>();
+    // one bit per entry of operations the rule runs on
+    private final int operationMask;
 
     public EntityEcaRule(Element eca) {
         this.entityName = eca.getAttribute("entity");
         this.operationName = eca.getAttribute("operation");
         this.eventName = eca.getAttribute("event");
         this.runOnError = "true".equals(eca.getAttribute("run-on-error"));
+        int operationMask = 0;
+        for (int i = 0; i < operations.length; i++) {
+            if ("any".equals(this.operationName) || this.operationName.indexOf(operations[i]) != -1) {
+                operationMask |= 1 << i;
+            }
+        }
+        this.operationMask = operationMask;
         ArrayList<EntityEcaCondition> conditions = new ArrayList<EntityEcaCondition>();
         ArrayList<Object> actionsAndSets = new ArrayList<Object>();
         for (Element element: UtilXml.childElementList(eca)) {
@@ -110,6 +121,19 @@ public final class EntityEcaRule implements java.io.Serializable {
         return this.conditions;
     }
 
+    /** Returns true if the rule runs for the operation, when there is an error or not; the conditions are not evaluated */
+    public boolean appliesTo(String currentOperation, boolean isError) {
+        if (isError && !this.runOnError) {
+            return false;
+        }
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i].equals(currentOperation)) {
+                return (this.operationMask & (1 << i)) != 0;
+            }
+        }
+        return "any".equals(this.operationName) || this.operationName.indexOf(currentOperation) != -1;
+    }
+
     public void eval(String currentOperation, DispatchContext dctx, GenericEntity value, boolean isError, Set<String> actionsRun) throws GenericEntityException {
         if (!enabled) {
             Debug.logInfo("Entity ECA [" + this.entityName + "] on [" + this.eventName + "] is disabled; not running.", module);
@@ -117,22 +141,21 @@ public final class EntityEcaRule implements java.io.Serializable {
         }
 
         //Debug.logInfo("eval eeca rule: operation=" + currentOperation + ", in event=" + this.eventName + ", on entity=" + this.entityName + ", for value=" + value, module);
-        if (isError && !this.runOnError) {
-            return;
-        }
-
-        if (!"any".equals(this.operationName) && this.operationName.indexOf(currentOperation) == -1) {
+        if (!appliesTo(currentOperation, isError)) {
             return;
         }
         // Are fields tested in a condition missing? If so, we need to load them
-        List<String> fieldsToLoad = new ArrayList<String>();
+        List<String> fieldsToLoad = null;
         for( String conditionFieldName : conditionFieldNames) {
             if( value.get(conditionFieldName) == null) {
+                if (fieldsToLoad == null) {
+                    fieldsToLoad = new ArrayList<String>(conditionFieldNames.size());
+                }
                 fieldsToLoad.add(conditionFieldName);
             }
         }
 
-        if(!fieldsToLoad.isEmpty()) {
+        if(fieldsToLoad != null) {
             Delegator delegator = dctx.getDelegator();
             GenericValue oldValue =  delegator.findOne(entityName, value.getPrimaryKey(), false);
             if(UtilValidate.isNotEmpty(oldValue)) {
@@ -143,9 +166,6 @@ public final class EntityEcaRule implements java.io.Serializable {
         }
 
 
-        Map<String, Object> context = new HashMap<String, Object>();
-        context.putAll(value);
-
         boolean allCondTrue = true;
         for (EntityEcaCondition ec: conditions) {
             if (!ec.eval(dctx, value)) {
@@ -155,6 +175,8 @@ public final class EntityEcaRule implements java.io.Serializable {
         }
 
         if (allCondTrue) {
+            Map<String, Object> context = new HashMap<String, Object>();
+            context.putAll(value);
             for (Object actionOrSet: actionsAndSets) {
                 if (actionOrSet instanceof EntityEcaAction) {
                     EntityEcaAction ea = (EntityEcaAction) actionOrSet;
@@ -33,6 +33,7 @@ import org.apache.ofbiz.base.config.MainResourceHandler;
 import org.apache.ofbiz.base.config.ResourceHandler;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilXml;
+import org.apache.ofbiz.base.util.cache.CacheListener;
 import org.apache.ofbiz.base.util.cache.UtilCache;
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntityConfException;
@@ -64,6 +65,11 @@ public final class EntityEcaUtil {
         return ecaCache;
     }
 
+    /** Adds a listener notified when the rules of an entity-eca-reader are loaded or dropped from the cache */
+    public static void addEntityEcaCacheListener(CacheListener<String, Map<String, Map<String, List<EntityEcaRule>>>> listener) {
+        entityEcaReaders.addListener(listener);
+    }
+
     public static String getEntityEcaReaderName(String delegatorName) {
         DelegatorElement delegatorInfo = null;
         try {
@@ -18,7 +18,13 @@
  *******************************************************************************/
 package org.apache.ofbiz.entityext.synchronization;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -26,14 +32,19 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilDateTime;
+import org.apache.ofbiz.base.util.UtilGenerics;
 import org.apache.ofbiz.base.util.UtilMisc;
 import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.base.util.UtilXml;
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.DelegatorFactory;
 import org.apache.ofbiz.entity.GenericEntity;
@@ -48,6 +59,7 @@ import org.apache.ofbiz.entity.transaction.GenericTransactionException;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
+import org.apache.ofbiz.entity.util.EntityUtil;
 import org.apache.ofbiz.entityext.EntityGroupUtil;
 import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.GeneralServiceException;
@@ -77,6 +89,12 @@ public class EntitySyncContext {
     // default to 2 hours, 120m, 7200s
     public static final long defaultMaxRunningNoUpdateMillis = 7200000;
 
+    /** The phases of a chunked split, in the order their data is sent */
+    public static final String CHUNK_PHASE_CREATE = "CREATE";
+    public static final String CHUNK_PHASE_STORE = "STORE";
+    public static final String CHUNK_PHASE_REMOVE = "REMOVE";
+    protected static final List<String> chunkPhases = UtilMisc.toList(CHUNK_PHASE_CREATE, CHUNK_PHASE_STORE, CHUNK_PHASE_REMOVE);
+
     public Delegator delegator;
     public LocalDispatcher dispatcher;
     public Map<String, ? extends Object> context;
@@ -95,6 +113,8 @@ public class EntitySyncContext {
     public long syncSplitMillis = defaultSyncSplitMillis;
     public long syncEndBufferMillis = defaultSyncEndBufferMillis;
     public long maxRunningNoUpdateMillis = defaultMaxRunningNoUpdateMillis;
+    /** the maximum number of rows sent to the target service in one call; 0 to send each split in one call */
+    public int syncChunkSize = 0;
 
     public Timestamp lastSuccessfulSynchTime;
     public List<ModelEntity> entityModelToUseList;
@@ -138,6 +158,11 @@ public class EntitySyncContext {
     long perSplitMaxItems = 0;
     long splitStartTime = 0;
 
+    // the chunk to resume from in the first split, set by restoreChunkProgress
+    String resumeChunkPhase = null;
+    Timestamp resumeChunkTxStamp = null;
+    long totalChunks = 0;
+
     public EntitySyncContext(DispatchContext dctx, Map<String, ? extends Object> context) throws SyncDataErrorException, SyncAbortException {
         this.context = context;
         this.dispatcher = dctx.getDispatcher();
@@ -179,6 +204,7 @@ public class EntitySyncContext {
             this.syncSplitMillis = getSyncSplitMillis(entitySync);
             this.syncEndBufferMillis = getSyncEndBufferMillis(entitySync);
             this.maxRunningNoUpdateMillis = getMaxRunningNoUpdateMillis(entitySync);
+            this.syncChunkSize = getSyncChunkSize(entitySync);
 
             this.lastSuccessfulSynchTime = entitySync.getTimestamp("lastSuccessfulSynchTime");
             this.entityModelToUseList = this.makeEntityModelToUseList();
@@ -298,6 +324,15 @@ public class EntitySyncContext {
         return maxRunningNoUpdateMillis;
     }
 
+    protected static int getSyncChunkSize(GenericValue entitySync) {
+        int syncChunkSize = 0;
+        Long syncChunkSizeLong = entitySync.getLong("syncChunkSize");
+        if (syncChunkSizeLong != null && syncChunkSizeLong.longValue() > 0) {
+            syncChunkSize = syncChunkSizeLong.intValue();
+        }
+        return syncChunkSize;
+    }
+
     /** create history record, target service should run in own tx */
     public void createInitialHistory() throws SyncDataErrorException, SyncServiceErrorException {
         String errorMsg = "Not running EntitySync [" + entitySyncId + "], could not create EntitySyncHistory";
@@ -641,35 +676,7 @@ public class EntitySyncContext {
                                                       .queryIterator();
             GenericValue entitySyncRemove = null;
             while ((entitySyncRemove = removeEli.next()) != null) {
-                // pull the PK from the EntitySyncRemove in the primaryKeyRemoved field, de-XML-serialize it
-                String primaryKeyRemoved = entitySyncRemove.getString("primaryKeyRemoved");
-                GenericEntity pkToRemove = null;
-                try {
-                    pkToRemove = (GenericEntity) XmlSerializer.deserialize(primaryKeyRemoved, delegator);
-                } catch (IOException e) {
-                    String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
-                    Debug.logError(e, errorMsg, module);
-                    throw new SyncDataErrorException(errorMsg, e);
-                } catch (SAXException e) {
-                    String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
-                    Debug.logError(e, errorMsg, module);
-                    throw new SyncDataErrorException(errorMsg, e);
-                } catch (ParserConfigurationException e) {
-                    String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
-                    Debug.logError(e, errorMsg, module);
-                    throw new SyncDataErrorException(errorMsg, e);
-                } catch (SerializeException e) {
-                    String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
-                    Debug.logError(e, errorMsg, module);
-                    throw new SyncDataErrorException(errorMsg, e);
-                }
-
-                // set the stamp fields for future reference
-                pkToRemove.set(ModelEntity.STAMP_TX_FIELD, entitySyncRemove.get(ModelEntity.STAMP_TX_FIELD));
-                pkToRemove.set(ModelEntity.STAMP_FIELD, entitySyncRemove.get(ModelEntity.STAMP_FIELD));
-                pkToRemove.set(ModelEntity.CREATE_STAMP_TX_FIELD, entitySyncRemove.get(ModelEntity.CREATE_STAMP_TX_FIELD));
-                pkToRemove.set(ModelEntity.CREATE_STAMP_FIELD, entitySyncRemove.get(ModelEntity.CREATE_STAMP_FIELD));
-
+                GenericEntity pkToRemove = makePkToRemove(entitySyncRemove);
                 if (this.entityNameToUseSet.contains(pkToRemove.getEntityName())) {
                     keysToRemove.add(pkToRemove);
                 }
@@ -740,6 +747,39 @@ public class EntitySyncContext {
         return keysToRemove;
     }
 
+    /** Deserializes the primary key removed of an EntitySyncRemove value and sets the stamp fields of the removal on it */
+    protected GenericEntity makePkToRemove(GenericValue entitySyncRemove) throws SyncDataErrorException {
+        // pull the PK from the EntitySyncRemove in the primaryKeyRemoved field, de-XML-serialize it
+        String primaryKeyRemoved = entitySyncRemove.getString("primaryKeyRemoved");
+        GenericEntity pkToRemove = null;
+        try {
+            pkToRemove = (GenericEntity) XmlSerializer.deserialize(primaryKeyRemoved, delegator);
+        } catch (IOException e) {
+            String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
+            Debug.logError(e, errorMsg, module);
+            throw new SyncDataErrorException(errorMsg, e);
+        } catch (SAXException e) {
+            String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
+            Debug.logError(e, errorMsg, module);
+            throw new SyncDataErrorException(errorMsg, e);
+        } catch (ParserConfigurationException e) {
+            String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
+            Debug.logError(e, errorMsg, module);
+            throw new SyncDataErrorException(errorMsg, e);
+        } catch (SerializeException e) {
+            String errorMsg = "Error deserializing GenericPK to remove in Entity Sync Data for entitySyncId [" + entitySyncId + "] and entitySyncRemoveId [" + entitySyncRemove.getString("entitySyncRemoveId") + "]: " + e.toString();
+            Debug.logError(e, errorMsg, module);
+            throw new SyncDataErrorException(errorMsg, e);
+        }
+
+        // set the stamp fields for future reference
+        pkToRemove.set(ModelEntity.STAMP_TX_FIELD, entitySyncRemove.get(ModelEntity.STAMP_TX_FIELD));
+        pkToRemove.set(ModelEntity.STAMP_FIELD, entitySyncRemove.get(ModelEntity.STAMP_FIELD));
+        pkToRemove.set(ModelEntity.CREATE_STAMP_TX_FIELD, entitySyncRemove.get(ModelEntity.CREATE_STAMP_TX_FIELD));
+        pkToRemove.set(ModelEntity.CREATE_STAMP_FIELD, entitySyncRemove.get(ModelEntity.CREATE_STAMP_FIELD));
+        return pkToRemove;
+    }
+
     public void saveResultsReportedFromDataStore() throws SyncDataErrorException, SyncServiceErrorException {
         try {
             long runningTimeMillis = System.currentTimeMillis() - startDate.getTime();
@@ -788,6 +828,7 @@ public class EntitySyncContext {
             updateHistoryMap.put("runningTimeMillis", Long.valueOf(runningTimeMillis));
             updateHistoryMap.put("totalStoreCalls", Long.valueOf(totalStoreCalls));
             updateHistoryMap.put("totalSplits", Long.valueOf(totalSplits));
+            updateHistoryMap.put("totalChunks", Long.valueOf(totalChunks));
             updateHistoryMap.put("totalRowsExported", Long.valueOf(totalRowsExported));
             updateHistoryMap.put("totalRowsToCreate", Long.valueOf(totalRowsToCreate));
             updateHistoryMap.put("totalRowsToStore", Long.valueOf(totalRowsToStore));
@@ -976,39 +1017,296 @@ public class EntitySyncContext {
 
         // call service named on EntitySync, IFF there is actually data to send over
         if (this.totalRowsPerSplit > 0) {
-            Map<String, Object> targetServiceMap = UtilMisc.toMap("entitySyncId", entitySyncId, "valuesToCreate", valuesToCreate, "valuesToStore", valuesToStore, "keysToRemove", keysToRemove, "userLogin", userLogin);
-            if (UtilValidate.isNotEmpty(targetDelegatorName)) {
-                targetServiceMap.put("delegatorName", targetDelegatorName);
+            Map<String, Object> targetServiceMap = UtilMisc.toMap("valuesToCreate", valuesToCreate, "valuesToStore", valuesToStore, "keysToRemove", keysToRemove);
+            this.callTargetService(targetServiceMap);
+        }
+    }
+
+    /** Calls the target service with the data to store and adds the results it reports to the totals of the split */
+    protected void callTargetService(Map<String, Object> targetServiceMap) throws SyncOtherErrorException, SyncServiceErrorException {
+        targetServiceMap.put("entitySyncId", entitySyncId);
+        targetServiceMap.put("userLogin", userLogin);
+        if (UtilValidate.isNotEmpty(targetDelegatorName)) {
+            targetServiceMap.put("delegatorName", targetDelegatorName);
+        }
+        String serviceErrorMsg = "Error running EntitySync [" + entitySyncId + "], call to store service [" + targetServiceName + "] failed.";
+        try {
+            Map<String, Object> remoteStoreResult = dispatcher.runSync(targetServiceName, targetServiceMap);
+            if (ServiceUtil.isError(remoteStoreResult)) {
+                throw new SyncOtherErrorException(serviceErrorMsg, null, null, remoteStoreResult, null);
+            }
+
+            this.totalStoreCalls++;
+
+            long toCreateInsertedCur = remoteStoreResult.get("toCreateInserted") == null ? 0 : ((Long) remoteStoreResult.get("toCreateInserted")).longValue();
+            long toCreateUpdatedCur = remoteStoreResult.get("toCreateUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toCreateUpdated")).longValue();
+            long toCreateNotUpdatedCur = remoteStoreResult.get("toCreateNotUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toCreateNotUpdated")).longValue();
+            long toStoreInsertedCur = remoteStoreResult.get("toStoreInserted") == null ? 0 : ((Long) remoteStoreResult.get("toStoreInserted")).longValue();
+            long toStoreUpdatedCur = remoteStoreResult.get("toStoreUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toStoreUpdated")).longValue();
+            long toStoreNotUpdatedCur = remoteStoreResult.get("toStoreNotUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toStoreNotUpdated")).longValue();
+            long toRemoveDeletedCur = remoteStoreResult.get("toRemoveDeleted") == null ? 0 : ((Long) remoteStoreResult.get("toRemoveDeleted")).longValue();
+            long toRemoveAlreadyDeletedCur = remoteStoreResult.get("toRemoveAlreadyDeleted") == null ? 0 : ((Long) remoteStoreResult.get("toRemoveAlreadyDeleted")).longValue();
+
+            this.toCreateInserted += toCreateInsertedCur;
+            this.toCreateUpdated += toCreateUpdatedCur;
+            this.toCreateNotUpdated += toCreateNotUpdatedCur;
+            this.toStoreInserted += toStoreInsertedCur;
+            this.toStoreUpdated += toStoreUpdatedCur;
+            this.toStoreNotUpdated += toStoreNotUpdatedCur;
+            this.toRemoveDeleted += toRemoveDeletedCur;
+            this.toRemoveAlreadyDeleted += toRemoveAlreadyDeletedCur;
+        } catch (GenericServiceException e) {
+            throw new SyncServiceErrorException(serviceErrorMsg, e);
+        }
+    }
+
+    // ======================== Chunked PUSH Methods ========================
+    public boolean isChunkedSync() {
+        return this.syncChunkSize > 0;
+    }
+
+    /**
+     * Resumes from the progress saved on the last EntitySyncHistory when that run did not complete and its last chunk
+     * was sent in the split starting at the current run start time: the first split then ends where that split ended
+     * and its data is sent from the transaction stamp of the last chunk. The data of that transaction stamp is sent
+     * again, the target service stores it again without harm.
+     */
+    public void restoreChunkProgress() throws SyncDataErrorException {
+        Timestamp lastHistoryStartDate = entitySync.getTimestamp("lastHistoryStartDate");
+        if (lastHistoryStartDate == null || this.currentRunStartTime == null) {
+            return;
+        }
+        GenericValue lastHistory = null;
+        try {
+            lastHistory = EntityQuery.use(delegator).from("EntitySyncHistory").where("entitySyncId", entitySyncId, "startDate", lastHistoryStartDate).queryOne();
+        } catch (GenericEntityException e) {
+            throw new SyncDataErrorException("Error getting the last EntitySyncHistory for EntitySync [" + entitySyncId + "]", e);
+        }
+        if (lastHistory == null || "ESR_COMPLETE".equals(lastHistory.getString("runStatusId"))) {
+            return;
+        }
+        String lastChunkPhase = lastHistory.getString("lastChunkPhase");
+        Timestamp lastChunkTxStamp = lastHistory.getTimestamp("lastChunkTxStamp");
+        Timestamp splitStartTime = lastHistory.getTimestamp("lastSuccessfulSynchTime");
+        if (splitStartTime == null) {
+            splitStartTime = lastHistory.getTimestamp("beginningSynchTime");
+        }
+        Timestamp splitEndTime = lastHistory.getTimestamp("lastCandidateEndTime");
+        if (!chunkPhases.contains(lastChunkPhase) || lastChunkTxStamp == null || splitEndTime == null || !this.currentRunStartTime.equals(splitStartTime)
+                || lastChunkTxStamp.before(splitStartTime) || !lastChunkTxStamp.before(splitEndTime)) {
+            // no chunk sent in the split to run now
+            return;
+        }
+        this.currentRunEndTime = splitEndTime;
+        this.resumeChunkPhase = lastChunkPhase;
+        this.resumeChunkTxStamp = lastChunkTxStamp;
+        if (Debug.infoOn()) Debug.logInfo("EntitySync [" + entitySyncId + "] resuming the split [" + currentRunStartTime + " - " + currentRunEndTime + "] at the " + lastChunkPhase + " data from [" + lastChunkTxStamp + "]", module);
+    }
+
+    /**
+     * Sends the data of the current split to the target service in chunks of at most syncChunkSize rows, compressed with
+     * {@link #makeSyncDataChunk(Map)}. The rows of each entity are read a page at a time with keyset queries and merged
+     * in transaction stamp order, so the memory used depends on the chunk size and on the number of entities with data
+     * in the split, not on the number of rows. The progress is saved on the history after each chunk.
+     */
+    public void runPushSendDataChunked() throws SyncDataErrorException, SyncOtherErrorException, SyncServiceErrorException {
+        for (String chunkPhase: chunkPhases) {
+            Timestamp fromTxStamp = null;
+            if (this.resumeChunkPhase != null) {
+                if (chunkPhases.indexOf(chunkPhase) < chunkPhases.indexOf(this.resumeChunkPhase)) {
+                    continue;
+                }
+                if (chunkPhase.equals(this.resumeChunkPhase)) {
+                    fromTxStamp = this.resumeChunkTxStamp;
+                }
             }
-            String serviceErrorMsg = "Error running EntitySync [" + entitySyncId + "], call to store service [" + targetServiceName + "] failed.";
+
             try {
-                Map<String, Object> remoteStoreResult = dispatcher.runSync(targetServiceName, targetServiceMap);
-                if (ServiceUtil.isError(remoteStoreResult)) {
-                    throw new SyncOtherErrorException(serviceErrorMsg, null, null, remoteStoreResult, null);
+                PriorityQueue<SyncCursor> cursors = new PriorityQueue<SyncCursor>();
+                for (SyncCursor cursor: this.makeSyncCursors(chunkPhase, fromTxStamp)) {
+                    if (cursor.hasNext()) {
+                        cursors.add(cursor);
+                    }
+                }
+                List<GenericEntity> chunk = new ArrayList<GenericEntity>(syncChunkSize);
+                while (!cursors.isEmpty()) {
+                    SyncCursor cursor = cursors.poll();
+                    GenericValue nextValue = cursor.next();
+                    if (CHUNK_PHASE_REMOVE.equals(chunkPhase)) {
+                        GenericEntity pkToRemove = this.makePkToRemove(nextValue);
+                        if (this.entityNameToUseSet.contains(pkToRemove.getEntityName())) {
+                            chunk.add(pkToRemove);
+                        }
+                    } else {
+                        chunk.add(nextValue);
+                    }
+                    if (cursor.hasNext()) {
+                        cursors.add(cursor);
+                    }
+                    if (chunk.size() >= syncChunkSize) {
+                        this.sendChunk(chunkPhase, chunk);
+                        chunk = new ArrayList<GenericEntity>(syncChunkSize);
+                    }
+                }
+                if (chunk.size() > 0) {
+                    this.sendChunk(chunkPhase, chunk);
                 }
+            } catch (GenericEntityException e) {
+                throw new SyncDataErrorException("Error getting the " + chunkPhase + " data of the split from the datasource", e);
+            }
+        }
 
-                this.totalStoreCalls++;
-
-                long toCreateInsertedCur = remoteStoreResult.get("toCreateInserted") == null ? 0 : ((Long) remoteStoreResult.get("toCreateInserted")).longValue();
-                long toCreateUpdatedCur = remoteStoreResult.get("toCreateUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toCreateUpdated")).longValue();
-                long toCreateNotUpdatedCur = remoteStoreResult.get("toCreateNotUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toCreateNotUpdated")).longValue();
-                long toStoreInsertedCur = remoteStoreResult.get("toStoreInserted") == null ? 0 : ((Long) remoteStoreResult.get("toStoreInserted")).longValue();
-                long toStoreUpdatedCur = remoteStoreResult.get("toStoreUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toStoreUpdated")).longValue();
-                long toStoreNotUpdatedCur = remoteStoreResult.get("toStoreNotUpdated") == null ? 0 : ((Long) remoteStoreResult.get("toStoreNotUpdated")).longValue();
-                long toRemoveDeletedCur = remoteStoreResult.get("toRemoveDeleted") == null ? 0 : ((Long) remoteStoreResult.get("toRemoveDeleted")).longValue();
-                long toRemoveAlreadyDeletedCur = remoteStoreResult.get("toRemoveAlreadyDeleted") == null ? 0 : ((Long) remoteStoreResult.get("toRemoveAlreadyDeleted")).longValue();
-
-                this.toCreateInserted += toCreateInsertedCur;
-                this.toCreateUpdated += toCreateUpdatedCur;
-                this.toCreateNotUpdated += toCreateNotUpdatedCur;
-                this.toStoreInserted += toStoreInsertedCur;
-                this.toStoreUpdated += toStoreUpdatedCur;
-                this.toStoreNotUpdated += toStoreNotUpdatedCur;
-                this.toRemoveDeleted += toRemoveDeletedCur;
-                this.toRemoveAlreadyDeleted += toRemoveAlreadyDeletedCur;
-            } catch (GenericServiceException e) {
-                throw new SyncServiceErrorException(serviceErrorMsg, e);
+        // only the first split resumes
+        this.resumeChunkPhase = null;
+        this.resumeChunkTxStamp = null;
+    }
+
+    protected List<SyncCursor> makeSyncCursors(String chunkPhase, Timestamp fromTxStamp) {
+        String txField = CHUNK_PHASE_CREATE.equals(chunkPhase) ? ModelEntity.CREATE_STAMP_TX_FIELD : ModelEntity.STAMP_TX_FIELD;
+        String stampField = CHUNK_PHASE_CREATE.equals(chunkPhase) ? ModelEntity.CREATE_STAMP_FIELD : ModelEntity.STAMP_FIELD;
+        EntityCondition findValCondition = EntityCondition.makeCondition(
+                EntityCondition.makeCondition(txField, EntityOperator.GREATER_THAN_EQUAL_TO, fromTxStamp != null ? fromTxStamp : currentRunStartTime),
+                EntityCondition.makeCondition(txField, EntityOperator.LESS_THAN, currentRunEndTime));
+        List<SyncCursor> cursors = new LinkedList<SyncCursor>();
+        if (CHUNK_PHASE_REMOVE.equals(chunkPhase)) {
+            cursors.add(new SyncCursor(delegator, "EntitySyncRemove", findValCondition, txField, stampField, syncChunkSize));
+            return cursors;
+        }
+        if (CHUNK_PHASE_STORE.equals(chunkPhase)) {
+            // the values updated but NOT created in the current time range, like in assembleValuesToStore
+            EntityCondition createdBeforeStartCond = EntityCondition.makeCondition(
+                    EntityCondition.makeCondition(ModelEntity.CREATE_STAMP_TX_FIELD, EntityOperator.EQUALS, null),
+                    EntityOperator.OR,
+                    EntityCondition.makeCondition(ModelEntity.CREATE_STAMP_TX_FIELD, EntityOperator.LESS_THAN, currentRunStartTime));
+            findValCondition = EntityCondition.makeCondition(findValCondition, createdBeforeStartCond);
+        }
+        for (ModelEntity modelEntity: entityModelToUseList) {
+            cursors.add(new SyncCursor(delegator, modelEntity.getEntityName(), findValCondition, txField, stampField, syncChunkSize));
+        }
+        return cursors;
+    }
+
+    protected void sendChunk(String chunkPhase, List<GenericEntity> chunk) throws SyncDataErrorException, SyncOtherErrorException, SyncServiceErrorException {
+        String listName = CHUNK_PHASE_CREATE.equals(chunkPhase) ? "valuesToCreate" : CHUNK_PHASE_STORE.equals(chunkPhase) ? "valuesToStore" : "keysToRemove";
+        Map<String, Object> syncData = new HashMap<String, Object>();
+        syncData.put(listName, chunk);
+        Map<String, Object> targetServiceMap = new HashMap<String, Object>();
+        try {
+            targetServiceMap.put("syncDataChunk", makeSyncDataChunk(syncData));
+        } catch (SerializeException e) {
+            throw new SyncDataErrorException("Error serializing a chunk of " + chunk.size() + " rows for EntitySync [" + entitySyncId + "]", e);
+        } catch (IOException e) {
+            throw new SyncDataErrorException("Error serializing a chunk of " + chunk.size() + " rows for EntitySync [" + entitySyncId + "]", e);
+        }
+        this.callTargetService(targetServiceMap);
+        this.totalChunks++;
+
+        // everything before the transaction stamp of the last row sent is stored, the restart point if the run stops here
+        GenericEntity lastSent = chunk.get(chunk.size() - 1);
+        Timestamp lastChunkTxStamp = lastSent.getTimestamp(CHUNK_PHASE_CREATE.equals(chunkPhase) ? ModelEntity.CREATE_STAMP_TX_FIELD : ModelEntity.STAMP_TX_FIELD);
+        Map<String, Object> updateHistoryMap = UtilMisc.toMap("entitySyncId", entitySyncId, "startDate", startDate,
+                "lastChunkPhase", chunkPhase, "lastChunkTxStamp", lastChunkTxStamp, "lastCandidateEndTime", this.currentRunEndTime);
+        updateHistoryMap.put("totalChunks", Long.valueOf(totalChunks));
+        updateHistoryMap.put("totalStoreCalls", Long.valueOf(totalStoreCalls));
+        updateHistoryMap.put("userLogin", userLogin);
+        String errorMsg = "Error running EntitySync [" + entitySyncId + "], update of EntitySyncHistory (startDate:[" + startDate + "]) record with the chunk progress failed.";
+        try {
+            Map<String, Object> updateEsHistRunResult = dispatcher.runSync("updateEntitySyncHistory", updateHistoryMap);
+            if (ServiceUtil.isError(updateEsHistRunResult)) {
+                throw new SyncDataErrorException(errorMsg, null, null, updateEsHistRunResult, null);
+            }
+        } catch (GenericServiceException e) {
+            throw new SyncServiceErrorException(errorMsg, e);
+        }
+    }
+
+    /** Serializes the lists of sync data (valuesToCreate, valuesToStore, keysToRemove) of a chunk with XmlSerializer and compresses them */
+    public static byte[] makeSyncDataChunk(Map<String, Object> syncData) throws SerializeException, IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(bos), StandardCharsets.UTF_8);
+        try {
+            writer.write(XmlSerializer.serialize(syncData));
+        } finally {
+            writer.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /** Reads the lists of sync data of a chunk made by {@link #makeSyncDataChunk(Map)} */
+    public static Map<String, Object> readSyncDataChunk(byte[] syncDataChunk, Delegator delegator) throws SerializeException, SAXException, ParserConfigurationException, IOException {
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(syncDataChunk));
+        try {
+            return UtilGenerics.checkMap(XmlSerializer.deserialize(UtilXml.readXmlDocument(is, false, "EntitySync data chunk"), delegator));
+        } finally {
+            is.close();
+        }
+    }
+
+    /** Reads the values of an entity in the sync time range a page at a time with keyset queries, in transaction stamp order */
+    protected static class SyncCursor implements Comparable<SyncCursor> {
+        protected final Delegator delegator;
+        protected final String entityName;
+        protected final EntityCondition condition;
+        protected final String txField;
+        protected final String stampField;
+        protected final int pageSize;
+        protected List<GenericValue> page = null;
+        protected int pageIndex = 0;
+
+        public SyncCursor(Delegator delegator, String entityName, EntityCondition condition, String txField, String stampField, int pageSize) {
+            this.delegator = delegator;
+            this.entityName = entityName;
+            this.condition = condition;
+            this.txField = txField;
+            this.stampField = stampField;
+            this.pageSize = pageSize;
+        }
+
+        public boolean hasNext() throws GenericEntityException {
+            if (page != null && pageIndex < page.size()) {
+                return true;
+            }
+            if (page != null && page.size() < pageSize) {
+                return false;
+            }
+            Map<String, Object> lastKeys = null;
+            if (page != null) {
+                lastKeys = EntityUtil.getKeysetValues(page.get(page.size() - 1), UtilMisc.toList(txField));
+            }
+            // release the values of the last page before reading the next one
+            page = null;
+            boolean beganTransaction = TransactionUtil.begin(7200);
+            try {
+                page = EntityQuery.use(delegator).from(entityName).where(condition).orderBy(txField).after(lastKeys).maxRows(pageSize).queryList();
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericEntityException e) {
+                TransactionUtil.rollback(beganTransaction, "Error reading the EntitySync data of entity [" + entityName + "]", e);
+                throw e;
+            }
+            pageIndex = 0;
+            return page.size() > 0;
+        }
+
+        public GenericValue next() {
+            return page.get(pageIndex++);
+        }
+
+        /** Orders the cursors by the transaction stamp, then the stamp, of their next value */
+        public int compareTo(SyncCursor other) {
+            GenericValue value = page.get(pageIndex);
+            GenericValue otherValue = other.page.get(other.pageIndex);
+            int result = compareStamps(value.getTimestamp(txField), otherValue.getTimestamp(other.txField));
+            if (result == 0) {
+                result = compareStamps(value.getTimestamp(stampField), otherValue.getTimestamp(other.stampField));
+            }
+            return result;
+        }
+
+        private static int compareStamps(Timestamp stamp, Timestamp otherStamp) {
+            if (stamp == null) {
+                return otherStamp == null ? 0 : -1;
             }
+            return otherStamp == null ? 1 : stamp.compareTo(otherStamp);
         }
     }
 
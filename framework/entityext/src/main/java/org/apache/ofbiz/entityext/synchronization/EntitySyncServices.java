@@ -87,6 +87,9 @@ public class EntitySyncServices {
                 return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityExtCannotDoEntitySyncPush", locale));
             }
 
+            if (esc.isChunkedSync()) {
+                esc.restoreChunkProgress();
+            }
             esc.runPushStartRunning();
 
             // increment starting time to run until now
@@ -102,14 +105,19 @@ public class EntitySyncServices {
                 // keep track of how long these sync runs take and store that info on the history table
                 // saves info about removed, all entities that don't have no-auto-stamp set, this will be done in the GenericDAO like the stamp sets
 
-                // ===== INSERTS =====
-                ArrayList<GenericValue> valuesToCreate = esc.assembleValuesToCreate();
-                // ===== UPDATES =====
-                ArrayList<GenericValue> valuesToStore = esc.assembleValuesToStore();
-                // ===== DELETES =====
-                List<GenericEntity> keysToRemove = esc.assembleKeysToRemove();
-
-                esc.runPushSendData(valuesToCreate, valuesToStore, keysToRemove);
+                if (esc.isChunkedSync()) {
+                    // inserts, updates and deletes are read and sent a chunk at a time
+                    esc.runPushSendDataChunked();
+                } else {
+                    // ===== INSERTS =====
+                    ArrayList<GenericValue> valuesToCreate = esc.assembleValuesToCreate();
+                    // ===== UPDATES =====
+                    ArrayList<GenericValue> valuesToStore = esc.assembleValuesToStore();
+                    // ===== DELETES =====
+                    List<GenericEntity> keysToRemove = esc.assembleKeysToRemove();
+
+                    esc.runPushSendData(valuesToCreate, valuesToStore, keysToRemove);
+                }
 
                 esc.saveResultsReportedFromDataStore();
                 esc.advanceRunTimes();
@@ -146,10 +154,24 @@ public class EntitySyncServices {
         //LocalDispatcher dispatcher = dctx.getDispatcher();
 
         String entitySyncId = (String) context.get("entitySyncId");
+        Map<String, ? extends Object> syncData = context;
+        byte[] syncDataChunk = (byte[]) context.get("syncDataChunk");
+        if (syncDataChunk != null) {
+            // the lists come compressed in a chunk, see EntitySyncContext.runPushSendDataChunked
+            try {
+                syncData = EntitySyncContext.readSyncDataChunk(syncDataChunk, delegator);
+            } catch (Exception e) {
+                Debug.logError(e, "Exception reading the Entity Sync Data chunk for entitySyncId [" + entitySyncId + "]: " + e.toString(), module);
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityExtExceptionSavingEntitySyncData", UtilMisc.toMap("entitySyncId", entitySyncId, "errorString", e.toString()), locale));
+            }
+        }
         // incoming lists will already be sorted by lastUpdatedStamp (or lastCreatedStamp)
-        List<GenericValue> valuesToCreate = UtilGenerics.cast(context.get("valuesToCreate"));
-        List<GenericValue> valuesToStore = UtilGenerics.cast(context.get("valuesToStore"));
-        List<GenericEntity> keysToRemove = UtilGenerics.cast(context.get("keysToRemove"));
+        List<GenericValue> valuesToCreate = UtilGenerics.cast(syncData.get("valuesToCreate"));
+        if (valuesToCreate == null) valuesToCreate = Collections.emptyList();
+        List<GenericValue> valuesToStore = UtilGenerics.cast(syncData.get("valuesToStore"));
+        if (valuesToStore == null) valuesToStore = Collections.emptyList();
+        List<GenericEntity> keysToRemove = UtilGenerics.cast(syncData.get("keysToRemove"));
+        if (keysToRemove == null) keysToRemove = Collections.emptyList();
 
         if (Debug.infoOn()) Debug.logInfo("Running storeEntitySyncData (" + entitySyncId + ") - [" + valuesToCreate.size() + "] to create; [" + valuesToStore.size() + "] to store; [" + keysToRemove.size() + "] to remove.", module);
         try {
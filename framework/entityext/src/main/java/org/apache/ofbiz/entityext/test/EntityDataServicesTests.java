@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entityext.test;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.util.EntityQuery;
+import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+public class EntityDataServicesTests extends OFBizTestCase {
+
+    public static final String module = EntityDataServicesTests.class.getName();
+
+    private static final int rowCount = 7;
+
+    protected GenericValue userLogin = null;
+
+    public EntityDataServicesTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = delegator.findOne("UserLogin", true, "userLoginId", "system");
+        delegator.removeByAnd("TestingCrypto", "testingCryptoTypeId", "REENCRYPT");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByAnd("TestingCrypto", "testingCryptoTypeId", "REENCRYPT");
+    }
+
+    public void testReencryptFieldsParallel() throws Exception {
+        for (int i = 0; i < rowCount; i++) {
+            delegator.create("TestingCrypto", "testingCryptoId", "reencrypt-" + i, "testingCryptoTypeId", "REENCRYPT",
+                    "encryptedValue", "value-" + i, "saltedEncryptedValue", "salted-" + i);
+        }
+        List<GenericValue> rawBefore = EntityQuery.use(delegator).from("TestingCryptoRawView").where("testingCryptoTypeId", "REENCRYPT").orderBy("testingCryptoId").queryList();
+        assertEquals(rowCount, rawBefore.size());
+
+        // several batches stored by several threads, the last batch not full
+        Map<String, Object> result = dispatcher.runSync("reencryptFields", UtilMisc.toMap("batchSize", Integer.valueOf(2), "threads", Integer.valueOf(3), "userLogin", userLogin));
+        assertEquals("reencryptFields with threads", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
+
+        List<GenericValue> rawAfter = EntityQuery.use(delegator).from("TestingCryptoRawView").where("testingCryptoTypeId", "REENCRYPT").orderBy("testingCryptoId").queryList();
+        assertEquals(rowCount, rawAfter.size());
+        for (int i = 0; i < rowCount; i++) {
+            // a salted value is encrypted with a new salt, so all the rows were stored again
+            assertFalse("Salted value of row " + i + " encrypted again", rawBefore.get(i).getString("rawSaltedEncryptedValue").equals(rawAfter.get(i).getString("rawSaltedEncryptedValue")));
+            assertEquals("Value of row " + i + " encrypted with the same key", rawBefore.get(i).getString("rawEncryptedValue"), rawAfter.get(i).getString("rawEncryptedValue"));
+        }
+        List<GenericValue> values = EntityQuery.use(delegator).from("TestingCrypto").where("testingCryptoTypeId", "REENCRYPT").orderBy("testingCryptoId").queryList();
+        for (int i = 0; i < rowCount; i++) {
+            assertEquals("value-" + i, values.get(i).getString("encryptedValue"));
+            assertEquals("salted-" + i, values.get(i).getString("saltedEncryptedValue"));
+        }
+    }
+}
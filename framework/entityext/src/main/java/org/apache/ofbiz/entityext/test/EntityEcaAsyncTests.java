@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entityext.test;
+
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+import org.apache.ofbiz.entity.util.EntityQuery;
+import org.apache.ofbiz.entityext.eca.EntityEcaAsyncExecutor;
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+public class EntityEcaAsyncTests extends OFBizTestCase {
+
+    public static final String module = EntityEcaAsyncTests.class.getName();
+
+    // longer than the coalescing window and the time to run the action
+    private static final long waitMillis = 10000;
+
+    protected GenericValue userLogin = null;
+
+    public EntityEcaAsyncTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = delegator.findOne("UserLogin", true, "userLoginId", "system");
+        removeTestingTypes();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        removeTestingTypes();
+    }
+
+    private void removeTestingTypes() throws Exception {
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "eeca-async-%"));
+    }
+
+    private Map<String, Object> createContext(String testingTypeId, String description) {
+        return UtilMisc.<String, Object>toMap("testingTypeId", testingTypeId, "description", description, "userLogin", userLogin);
+    }
+
+    private GenericValue waitForTestingType(String testingTypeId) throws Exception {
+        long end = System.currentTimeMillis() + waitMillis;
+        do {
+            GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", testingTypeId).queryOne();
+            if (testingType != null) {
+                return testingType;
+            }
+            Thread.sleep(50);
+        } while (System.currentTimeMillis() < end);
+        return null;
+    }
+
+    public void testRunAfterCommit() throws Exception {
+        boolean beganTransaction = TransactionUtil.begin();
+        assertTrue("Transaction begun", beganTransaction);
+        int queuedCount;
+        try {
+            queuedCount = EntityEcaAsyncExecutor.getQueuedCount();
+            EntityEcaAsyncExecutor.addAction(dispatcher.getDispatchContext(), "createTestingType", createContext("eeca-async-commit", "After commit"), "createTestingType:eeca-async-commit", false);
+            assertEquals("Action held until the commit", queuedCount, EntityEcaAsyncExecutor.getQueuedCount());
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+        assertNotNull("Action run after the commit", waitForTestingType("eeca-async-commit"));
+    }
+
+    public void testDiscardOnRollback() throws Exception {
+        boolean beganTransaction = TransactionUtil.begin();
+        assertTrue("Transaction begun", beganTransaction);
+        int queuedCount = EntityEcaAsyncExecutor.getQueuedCount();
+        EntityEcaAsyncExecutor.addAction(dispatcher.getDispatchContext(), "createTestingType", createContext("eeca-async-rollbk", "Rolled back"), "createTestingType:eeca-async-rollbk", false);
+        TransactionUtil.rollback(beganTransaction, "Testing the async-after-commit Entity ECA actions", null);
+        assertEquals("Action not queued after the rollback", queuedCount, EntityEcaAsyncExecutor.getQueuedCount());
+
+        // an action queued after the rolled back one runs, the rolled back one still has not
+        EntityEcaAsyncExecutor.addAction(dispatcher.getDispatchContext(), "createTestingType", createContext("eeca-async-no-tx", "Committed"), "createTestingType:eeca-async-no-tx", false);
+        assertNotNull("Action without a transaction run", waitForTestingType("eeca-async-no-tx"));
+        assertNull("Action of the rolled back transaction not run", EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "eeca-async-rollbk").queryOne());
+    }
+
+    public void testCoalescing() throws Exception {
+        long coalescedCount = EntityEcaAsyncExecutor.getCoalescedCount();
+        boolean beganTransaction = TransactionUtil.begin();
+        assertTrue("Transaction begun", beganTransaction);
+        try {
+            EntityEcaAsyncExecutor.addAction(dispatcher.getDispatchContext(), "createTestingType", createContext("eeca-async-coalsc", "First"), "createTestingType:eeca-async-coalsc", false);
+            EntityEcaAsyncExecutor.addAction(dispatcher.getDispatchContext(), "createTestingType", createContext("eeca-async-coalsc", "Latest"), "createTestingType:eeca-async-coalsc", false);
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+        assertEquals("Actions coalesced", coalescedCount + 1, EntityEcaAsyncExecutor.getCoalescedCount());
+        GenericValue testingType = waitForTestingType("eeca-async-coalsc");
+        assertNotNull("Coalesced action run", testingType);
+        assertEquals("Coalesced action run with the latest context", "Latest", testingType.getString("description"));
+    }
+}
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.entityext.test;
+
+import java.sql.Timestamp;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.UtilGenerics;
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.entity.GenericEntity;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.serialize.XmlSerializer;
+import org.apache.ofbiz.entity.util.EntityQuery;
+import org.apache.ofbiz.entityext.synchronization.EntitySyncContext;
+import org.apache.ofbiz.entityext.synchronization.EntitySyncContext.SyncOtherErrorException;
+import org.apache.ofbiz.entityext.synchronization.EntitySyncContext.SyncServiceErrorException;
+import org.apache.ofbiz.service.DispatchContext;
+import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+public class EntitySyncTests extends OFBizTestCase {
+
+    public static final String module = EntitySyncTests.class.getName();
+
+    private static final String entitySyncId = "TEST_CHUNKED_SYNC";
+    // far in the past, so the data of the other tests is not in the split synced
+    private static final long syncStartMillis = Timestamp.valueOf("2001-02-03 04:05:06.0").getTime();
+    private static final long syncSplitMillis = 3600000;
+
+    protected GenericValue userLogin = null;
+
+    public EntitySyncTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = delegator.findOne("UserLogin", true, "userLoginId", "system");
+        removeSyncData();
+        if (delegator.findOne("TestingType", false, "testingTypeId", "entity-sync") == null) {
+            delegator.create("TestingType", "testingTypeId", "entity-sync", "description", "Entity sync test values");
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        removeSyncData();
+        delegator.removeByAnd("TestingType", "testingTypeId", "entity-sync");
+    }
+
+    private void removeSyncData() throws Exception {
+        delegator.removeByAnd("EntitySyncHistory", "entitySyncId", entitySyncId);
+        delegator.removeByAnd("EntitySyncInclude", "entitySyncId", entitySyncId);
+        delegator.removeByAnd("EntitySync", "entitySyncId", entitySyncId);
+        delegator.removeByAnd("Testing", "testingTypeId", "entity-sync");
+        delegator.removeByCondition("EntitySyncRemove", EntityCondition.makeCondition(ModelEntity.STAMP_TX_FIELD, EntityOperator.BETWEEN,
+                UtilMisc.toList(new Timestamp(syncStartMillis), new Timestamp(syncStartMillis + syncSplitMillis))));
+    }
+
+    public void testStoreSyncDataChunk() throws Exception {
+        makeTesting("entity-sync-removed", 1, 1);
+        GenericValue created = delegator.makeValue("Testing", "testingId", "entity-sync-created", "testingTypeId", "entity-sync", "testingSize", Long.valueOf(1));
+        setStamps(created, 2, 2);
+        GenericEntity removed = delegator.makePK("Testing", "testingId", "entity-sync-removed");
+        setStamps(removed, 3, 3);
+
+        byte[] syncDataChunk = EntitySyncContext.makeSyncDataChunk(UtilMisc.<String, Object>toMap("valuesToCreate", UtilMisc.toList(created), "keysToRemove", UtilMisc.toList(removed)));
+        Map<String, Object> syncData = EntitySyncContext.readSyncDataChunk(syncDataChunk, delegator);
+        List<GenericValue> valuesToCreate = UtilGenerics.checkList(syncData.get("valuesToCreate"));
+        assertEquals("Values to create read from the chunk", UtilMisc.toList(created), valuesToCreate);
+        assertNull("No values to store in the chunk", syncData.get("valuesToStore"));
+
+        Map<String, Object> result = dispatcher.runSync("storeEntitySyncData", UtilMisc.toMap("entitySyncId", entitySyncId, "syncDataChunk", syncDataChunk, "userLogin", userLogin));
+        assertEquals("storeEntitySyncData with a chunk", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
+        assertEquals("Values inserted", Long.valueOf(1), result.get("toCreateInserted"));
+        assertEquals("Values removed", Long.valueOf(1), result.get("toRemoveDeleted"));
+        GenericValue stored = EntityQuery.use(delegator).from("Testing").where("testingId", "entity-sync-created").queryOne();
+        assertNotNull("Value of the chunk created", stored);
+        assertEquals("Stamp of the value of the chunk kept", created.get(ModelEntity.STAMP_FIELD), stored.get(ModelEntity.STAMP_FIELD));
+        assertNull("Key of the chunk removed", EntityQuery.use(delegator).from("Testing").where("testingId", "entity-sync-removed").queryOne());
+    }
+
+    public void testChunkedPushSync() throws Exception {
+        makeChunkedSyncData();
+        RecordingEntitySyncContext esc = new RecordingEntitySyncContext(dispatcher.getDispatchContext(), userLogin, 0);
+        assertTrue("EntitySync with a syncChunkSize", esc.isChunkedSync());
+        esc.restoreChunkProgress();
+        esc.runPushStartRunning();
+        esc.runPushSendDataChunked();
+
+        // the rows sharing a transaction stamp come in primary key order
+        assertEquals("Chunks sent", UtilMisc.toList(
+                "valuesToCreate:entity-sync-c1,entity-sync-c2", "valuesToCreate:entity-sync-c3,entity-sync-c4",
+                "valuesToStore:entity-sync-u1", "keysToRemove:entity-sync-r1"), esc.sentChunks);
+        GenericValue history = EntityQuery.use(delegator).from("EntitySyncHistory").where("entitySyncId", entitySyncId).queryFirst();
+        assertEquals("Chunks on the history", Long.valueOf(4), history.getLong("totalChunks"));
+        assertEquals("Phase of the last chunk", EntitySyncContext.CHUNK_PHASE_REMOVE, history.getString("lastChunkPhase"));
+        assertEquals("Transaction stamp of the last chunk", stamp(6), history.getTimestamp("lastChunkTxStamp"));
+        assertEquals("End of the split of the last chunk", stamp(syncSplitMillis / 1000), history.getTimestamp("lastCandidateEndTime"));
+    }
+
+    public void testChunkedPushSyncResume() throws Exception {
+        makeChunkedSyncData();
+        RecordingEntitySyncContext esc = new RecordingEntitySyncContext(dispatcher.getDispatchContext(), userLogin, 2);
+        esc.restoreChunkProgress();
+        esc.runPushStartRunning();
+        try {
+            esc.runPushSendDataChunked();
+            fail("Failure of the target service not reported");
+        } catch (SyncServiceErrorException e) {
+            esc.saveSyncErrorInfo("ESR_SERVICE_ERROR", new LinkedList<Object>());
+        }
+        assertEquals("Chunks sent before the failure", UtilMisc.toList("valuesToCreate:entity-sync-c1,entity-sync-c2"), esc.sentChunks);
+        GenericValue history = EntityQuery.use(delegator).from("EntitySyncHistory").where("entitySyncId", entitySyncId).queryFirst();
+        assertEquals("Phase of the last chunk", EntitySyncContext.CHUNK_PHASE_CREATE, history.getString("lastChunkPhase"));
+        assertEquals("Transaction stamp of the last chunk", stamp(2), history.getTimestamp("lastChunkTxStamp"));
+
+        // the next run resumes at the transaction stamp of the last chunk, its rows are sent again
+        RecordingEntitySyncContext resumed = new RecordingEntitySyncContext(dispatcher.getDispatchContext(), userLogin, 0);
+        resumed.restoreChunkProgress();
+        assertEquals("End of the resumed split", stamp(syncSplitMillis / 1000), resumed.currentRunEndTime);
+        resumed.runPushStartRunning();
+        resumed.runPushSendDataChunked();
+        assertEquals("Chunks sent when resuming", UtilMisc.toList(
+                "valuesToCreate:entity-sync-c2,entity-sync-c3", "valuesToCreate:entity-sync-c4",
+                "valuesToStore:entity-sync-u1", "keysToRemove:entity-sync-r1"), resumed.sentChunks);
+
+        // a complete run does not resume
+        delegator.storeByCondition("EntitySyncHistory", UtilMisc.toMap("runStatusId", "ESR_COMPLETE"), EntityCondition.makeCondition("entitySyncId", entitySyncId));
+        delegator.storeByCondition("EntitySync", UtilMisc.toMap("runStatusId", "ESR_COMPLETE"), EntityCondition.makeCondition("entitySyncId", entitySyncId));
+        RecordingEntitySyncContext next = new RecordingEntitySyncContext(dispatcher.getDispatchContext(), userLogin, 0);
+        next.restoreChunkProgress();
+        next.runPushStartRunning();
+        next.runPushSendDataChunked();
+        assertEquals("Chunks sent after a complete run", 4, next.sentChunks.size());
+        assertEquals("First chunk sent after a complete run", "valuesToCreate:entity-sync-c1,entity-sync-c2", next.sentChunks.get(0));
+    }
+
+    /**
+     * Makes an EntitySync of the Testing entity with chunks of 2 rows, and the Testing rows of one split: 4 created,
+     * 2 of them in the same transaction, 1 updated, and 1 removed.
+     */
+    private void makeChunkedSyncData() throws Exception {
+        GenericValue entitySync = delegator.makeValue("EntitySync", "entitySyncId", entitySyncId, "targetServiceName", "storeEntitySyncData");
+        entitySync.set("lastSuccessfulSynchTime", stamp(0));
+        entitySync.set("syncSplitMillis", Long.valueOf(syncSplitMillis));
+        entitySync.set("syncChunkSize", Long.valueOf(2));
+        entitySync.create();
+        delegator.create("EntitySyncInclude", "entitySyncId", entitySyncId, "entityOrPackage", "Testing", "applEnumId", "ESIA_INCLUDE");
+
+        makeTesting("entity-sync-c1", 1, 1);
+        makeTesting("entity-sync-c3", 2, 2);
+        makeTesting("entity-sync-c2", 2, 3);
+        makeTesting("entity-sync-c4", 4, 4);
+        makeTesting("entity-sync-u1", -60, 5);
+        GenericValue entitySyncRemove = delegator.makeValue("EntitySyncRemove", "entitySyncRemoveId", delegator.getNextSeqId("EntitySyncRemove"));
+        entitySyncRemove.set("primaryKeyRemoved", XmlSerializer.serialize(delegator.makePK("Testing", "testingId", "entity-sync-r1")));
+        setStamps(entitySyncRemove, 6, 6);
+        entitySyncRemove.setIsFromEntitySync(true);
+        entitySyncRemove.create();
+    }
+
+    private void makeTesting(String testingId, long createdSeconds, long updatedSeconds) throws Exception {
+        GenericValue testing = delegator.makeValue("Testing", "testingId", testingId, "testingTypeId", "entity-sync");
+        setStamps(testing, createdSeconds, updatedSeconds);
+        testing.setIsFromEntitySync(true);
+        testing.create();
+    }
+
+    private static void setStamps(GenericEntity value, long createdSeconds, long updatedSeconds) {
+        value.set(ModelEntity.CREATE_STAMP_TX_FIELD, stamp(createdSeconds));
+        value.set(ModelEntity.CREATE_STAMP_FIELD, stamp(createdSeconds));
+        value.set(ModelEntity.STAMP_TX_FIELD, stamp(updatedSeconds));
+        value.set(ModelEntity.STAMP_FIELD, stamp(updatedSeconds));
+    }
+
+    /** Returns the time a number of seconds after the start of the synced split */
+    private static Timestamp stamp(long seconds) {
+        return new Timestamp(syncStartMillis + seconds * 1000);
+    }
+
+    /** An EntitySyncContext that records the chunks instead of sending them, and fails a call to the target service */
+    private static class RecordingEntitySyncContext extends EntitySyncContext {
+        private final List<String> sentChunks = new LinkedList<String>();
+        private final int failingCall;
+
+        private RecordingEntitySyncContext(DispatchContext dctx, GenericValue userLogin, int failingCall) throws Exception {
+            super(dctx, UtilMisc.toMap("entitySyncId", EntitySyncTests.entitySyncId, "userLogin", userLogin));
+            this.failingCall = failingCall;
+        }
+
+        @Override
+        protected void callTargetService(Map<String, Object> targetServiceMap) throws SyncOtherErrorException, SyncServiceErrorException {
+            if (sentChunks.size() + 1 == failingCall) {
+                throw new SyncServiceErrorException("Call " + failingCall + " to the target service failed");
+            }
+            try {
+                Map<String, Object> syncData = readSyncDataChunk((byte[]) targetServiceMap.get("syncDataChunk"), delegator);
+                for (Map.Entry<String, Object> entry : syncData.entrySet()) {
+                    StringBuilder sentChunk = new StringBuilder(entry.getKey()).append(':');
+                    for (GenericEntity value : UtilGenerics.<GenericEntity>checkList(entry.getValue())) {
+                        if (sentChunk.charAt(sentChunk.length() - 1) != ':') {
+                            sentChunk.append(',');
+                        }
+                        sentChunk.append(value.getString("testingId"));
+                    }
+                    sentChunks.add(sentChunk.toString());
+                }
+            } catch (Exception e) {
+                throw new SyncOtherErrorException(e);
+            }
+        }
+    }
+}
@@ -179,6 +179,18 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Semaphore sleep time (in milliseconds) */
     public int semaphoreSleep;
 
+    /** Size of the in-memory queue of the async calls that are not persisted, 0 to run them through the job manager */
+    public int asyncQueueSize = 0;
+
+    /** What to do with an async call when the queue is full (caller-runs, block) */
+    public String asyncQueuePolicy;
+
+    /** Time to wait for room in the queue with the block policy (in milliseconds) */
+    public int asyncQueueTimeout;
+
+    /** Run only once the identical async calls waiting in the queue */
+    public boolean asyncCoalesce = false;
+
     /** Require a new transaction for this service */
     public boolean hideResultInLog;
     
@@ -211,6 +223,13 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      */
     public Metrics metrics = null;
 
+    /** The steps runSync goes through for this service, made on the first call */
+    private transient volatile ServiceExecutionPlan executionPlan = null;
+
+    /** The validators of the IN and OUT parameters, made on the first validation */
+    private transient volatile ModelServiceValidator inValidator = null;
+    private transient volatile ModelServiceValidator outValidator = null;
+
     public ModelService() {}
 
     public ModelService(ModelService model) {
@@ -220,6 +239,10 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         this.debug = model.debug;
         this.semaphoreWait = model.semaphoreWait;
         this.semaphoreSleep = model.semaphoreSleep;
+        this.asyncQueueSize = model.asyncQueueSize;
+        this.asyncQueuePolicy = model.asyncQueuePolicy;
+        this.asyncQueueTimeout = model.asyncQueueTimeout;
+        this.asyncCoalesce = model.asyncCoalesce;
         this.contextInfo = model.contextInfo;
         this.definitionLocation = model.definitionLocation;
         this.description = model.description;
@@ -399,9 +422,15 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (param != null) {
             contextInfo.put(param.name, param);
             contextParamList.add(param);
+            resetValidators();
         }
     }
 
+    private void resetValidators() {
+        this.inValidator = null;
+        this.outValidator = null;
+    }
+
     /* DEJ20060125 This is private but not used locally, so just commenting it out for now... may remove later
     private void copyParams(Collection params) {
         if (params != null) {
@@ -496,8 +525,6 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param locale the actual locale to use
      */
     public void validate(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
-        Map<String, String> requiredInfo = new HashMap<String, String>();
-        Map<String, String> optionalInfo = new HashMap<String, String>();
         boolean verboseOn = Debug.verboseOn();
 
         if (verboseOn) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : Validating context - " + context, module);
@@ -510,93 +537,27 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             }
         }
 
-        // get the info values
-        for (ModelParam modelParam: this.contextParamList) {
-            // Debug.logInfo("In ModelService.validate preparing parameter [" + modelParam.name + (modelParam.optional?"(optional):":"(required):") + modelParam.mode + "] for service [" + this.name + "]", module);
-            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
-                if (modelParam.optional) {
-                    optionalInfo.put(modelParam.name, modelParam.type);
-                } else {
-                    requiredInfo.put(modelParam.name, modelParam.type);
-                }
-            }
-        }
-
-        // get the test values
-        Map<String, Object> requiredTest = new HashMap<String, Object>();
-        Map<String, Object> optionalTest = new HashMap<String, Object>();
-
-        if (context == null) context = new HashMap<String, Object>();
-        requiredTest.putAll(context);
-
-        List<String> requiredButNull = new LinkedList<String>();
-        List<String> keyList = new LinkedList<String>();
-        keyList.addAll(requiredTest.keySet());
-        for (String key: keyList) {
-            Object value = requiredTest.get(key);
-
-            if (!requiredInfo.containsKey(key)) {
-                requiredTest.remove(key);
-                optionalTest.put(key, value);
-            } else if (value == null) {
-                requiredButNull.add(key);
-            }
-        }
-
-        // check for requiredButNull fields and return an error since null values are not allowed for required fields
-        if (requiredButNull.size() > 0) {
-            List<String> missingMsg = new LinkedList<String>();
-            for (String missingKey: requiredButNull) {
-                String message = this.getParam(missingKey).getPrimaryFailMessage(locale);
-                if (message == null) {
-                    String errMsg = UtilProperties.getMessage(ServiceUtil.getResource(), "ModelService.following_required_parameter_missing", locale);
-                    message = errMsg + " [" + this.name + "." + missingKey + "]";
-                }
-                missingMsg.add(message);
-            }
-            throw new ServiceValidationException(missingMsg, this, requiredButNull, null, mode);
-        }
-
-        if (verboseOn) {
-            StringBuilder requiredNames = new StringBuilder();
-
-            for (String key: requiredInfo.keySet()) {
-                if (requiredNames.length() > 0) {
-                    requiredNames.append(", ");
-                }
-                requiredNames.append(key);
-            }
-            Debug.logVerbose("[ModelService.validate] : required fields - " + requiredNames, module);
-
-            Debug.logVerbose("[ModelService.validate] : {" + name + "} : (" + mode + ") Required - " +
-                requiredTest.size() + " / " + requiredInfo.size(), module);
-            Debug.logVerbose("[ModelService.validate] : {" + name + "} : (" + mode + ") Optional - " +
-                optionalTest.size() + " / " + optionalInfo.size(), module);
-        }
-
-        try {
-            validate(requiredInfo, requiredTest, true, this, mode, locale);
-            validate(optionalInfo, optionalTest, false, this, mode, locale);
-        } catch (ServiceValidationException e) {
-            Debug.logError("[ModelService.validate] : {" + name + "} : (" + mode + ") Required test error: " + e.toString(), module);
-            throw e;
-        }
+        getValidator(mode).validate(context, locale);
+    }
 
-        // required and type validation complete, do allow-html validation
-        if ("IN".equals(mode)) {
-            List<String> errorMessageList = new LinkedList<String>();
-            for (ModelParam modelParam : this.contextInfo.values()) {
-                // the param is a String, allow-html is not any, and we are looking at an IN parameter during input parameter validation
-                if (context.get(modelParam.name) != null && ("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type)) 
-                        && !"any".equals(modelParam.allowHtml) && ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
-                    String value = (String) context.get(modelParam.name);
-                    UtilCodec.checkStringForHtmlStrictNone(modelParam.name, value, errorMessageList);
-                }
+    private ModelServiceValidator getValidator(String mode) {
+        ModelServiceValidator validator;
+        if (IN_PARAM.equals(mode)) {
+            validator = this.inValidator;
+            if (validator == null) {
+                validator = new ModelServiceValidator(this, mode);
+                this.inValidator = validator;
             }
-            if (errorMessageList.size() > 0) {
-                throw new ServiceValidationException(errorMessageList, this, mode);
+        } else if (OUT_PARAM.equals(mode)) {
+            validator = this.outValidator;
+            if (validator == null) {
+                validator = new ModelServiceValidator(this, mode);
+                this.outValidator = validator;
             }
+        } else {
+            validator = new ModelServiceValidator(this, mode);
         }
+        return validator;
     }
 
     /**
@@ -727,6 +688,13 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     }
 
     public static boolean typeValidate(ModelParam.ModelParamValidator vali, Object testValue) throws GeneralException {
+        return typeValidate(vali, findValidatorMethod(vali), testValue);
+    }
+
+    /**
+     * Finds the validation method of a validator, taking an Object or else a String.
+     */
+    static Method findValidatorMethod(ModelParam.ModelParamValidator vali) throws GeneralException {
         // find the validator class
         Class<?> validatorClass = null;
         try {
@@ -739,14 +707,11 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             throw new GeneralException("Unable to load validation class [" + vali.getClassName() + "]");
         }
 
-        boolean foundObjectParam = true;
-
         Method validatorMethod = null;
         try {
             // try object type first
             validatorMethod = validatorClass.getMethod(vali.getMethodName(), Object.class);
         } catch (NoSuchMethodException e) {
-            foundObjectParam = false;
             // next try string type
             try {
                 validatorMethod = validatorClass.getMethod(vali.getMethodName(), String.class);
@@ -758,9 +723,15 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (validatorMethod == null) {
             throw new GeneralException("Unable to find validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "]");
         }
+        return validatorMethod;
+    }
 
+    /**
+     * Runs a validation method found by findValidatorMethod.
+     */
+    static boolean typeValidate(ModelParam.ModelParamValidator vali, Method validatorMethod, Object testValue) throws GeneralException {
         Object param;
-        if (!foundObjectParam) {
+        if (validatorMethod.getParameterTypes()[0] != Object.class) {
             // convert to string
             String converted;
             try {
@@ -963,6 +934,18 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         return paramList;
     }
 
+    /**
+     * Returns the steps runSync goes through for this service, made again when the Service ECA rules change.
+     */
+    ServiceExecutionPlan getExecutionPlan() {
+        ServiceExecutionPlan plan = this.executionPlan;
+        if (plan == null || !plan.isCurrent()) {
+            plan = new ServiceExecutionPlan(this);
+            this.executionPlan = plan;
+        }
+        return plan;
+    }
+
     public boolean containsPermissions() {
         return (UtilValidate.isNotEmpty(this.permissionGroups));
     }
@@ -1211,6 +1194,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
 
             // set the flag so we don't do this again
             this.inheritedParameters = true;
+            // the inherited parameters may have changed the existing ones
+            resetValidators();
         }
     }
 
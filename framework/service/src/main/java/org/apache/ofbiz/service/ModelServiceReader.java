@@ -243,6 +243,32 @@ public class ModelServiceReader implements Serializable {
         }
         service.semaphoreSleep = semaphoreSleep;
 
+        // set the in-memory async queue
+        String asyncQueueSizeStr = UtilXml.checkEmpty(serviceElement.getAttribute("async-queue-size"));
+        int asyncQueueSize = 0;
+        if (UtilValidate.isNotEmpty(asyncQueueSizeStr)) {
+            try {
+                asyncQueueSize = Integer.parseInt(asyncQueueSizeStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Not using an async queue for service [" + service.name + "], the async-queue-size is invalid", module);
+                asyncQueueSize = 0;
+            }
+        }
+        service.asyncQueueSize = asyncQueueSize;
+        service.asyncQueuePolicy = "block".equals(serviceElement.getAttribute("async-queue-policy")) ? "block" : "caller-runs";
+        String asyncQueueTimeoutStr = UtilXml.checkEmpty(serviceElement.getAttribute("async-queue-timeout"));
+        int asyncQueueTimeout = 1000;
+        if (UtilValidate.isNotEmpty(asyncQueueTimeoutStr)) {
+            try {
+                asyncQueueTimeout = Integer.parseInt(asyncQueueTimeoutStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Setting async-queue-timeout to 1 second (default)", module);
+                asyncQueueTimeout = 1000;
+            }
+        }
+        service.asyncQueueTimeout = asyncQueueTimeout;
+        service.asyncCoalesce = "true".equalsIgnoreCase(serviceElement.getAttribute("async-coalesce"));
+
         // set the max retry field
         String maxRetryStr = UtilXml.checkEmpty(serviceElement.getAttribute("max-retry"));
         int maxRetry = -1;
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralException;
+import org.apache.ofbiz.base.util.ObjectType;
+import org.apache.ofbiz.base.util.UtilCodec;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.base.util.UtilValidate;
+
+/**
+ * Validates a context against the IN or OUT parameters of a service, see {@link ModelService#validate(Map, String, Locale)}.
+ * <p>The parameters of the mode are looked at once: the type classes and the validation methods are loaded when the
+ * validator is made, a context is then checked in one pass over its entries. The errors are reported as by the
+ * original validation: null required fields first, then missing required fields, then wrong types of the required
+ * fields, then unknown fields, then wrong types of the optional fields, then HTML in the IN strings.</p>
+ */
+final class ModelServiceValidator {
+
+    public static final String module = ModelServiceValidator.class.getName();
+
+    private final ModelService model;
+    private final String mode;
+    private final Map<String, CompiledParam> params;
+    // sorted, as the missing fields are reported
+    private final String[] requiredNames;
+    private final ModelParam[] htmlParams;
+
+    ModelServiceValidator(ModelService model, String mode) {
+        this.model = model;
+        this.mode = mode;
+        Map<String, String> requiredInfo = new HashMap<String, String>();
+        Map<String, String> optionalInfo = new HashMap<String, String>();
+        for (ModelParam modelParam: model.contextParamList) {
+            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
+                if (modelParam.optional) {
+                    optionalInfo.put(modelParam.name, modelParam.type);
+                } else {
+                    requiredInfo.put(modelParam.name, modelParam.type);
+                }
+            }
+        }
+        this.params = new HashMap<String, CompiledParam>();
+        for (Map.Entry<String, String> entry: optionalInfo.entrySet()) {
+            params.put(entry.getKey(), new CompiledParam(model, entry.getKey(), entry.getValue(), false));
+        }
+        // a field both optional and required is required
+        for (Map.Entry<String, String> entry: requiredInfo.entrySet()) {
+            params.put(entry.getKey(), new CompiledParam(model, entry.getKey(), entry.getValue(), true));
+        }
+        this.requiredNames = new TreeSet<String>(requiredInfo.keySet()).toArray(new String[requiredInfo.size()]);
+
+        List<ModelParam> htmlParams = new LinkedList<ModelParam>();
+        if ("IN".equals(mode)) {
+            for (ModelParam modelParam: model.contextInfo.values()) {
+                // the param is a String, allow-html is not any, and it is an IN parameter
+                if (("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type))
+                        && !"any".equals(modelParam.allowHtml) && ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
+                    htmlParams.add(modelParam);
+                }
+            }
+        }
+        this.htmlParams = htmlParams.toArray(new ModelParam[htmlParams.size()]);
+    }
+
+    void validate(Map<String, ? extends Object> context, Locale locale) throws ServiceValidationException {
+        int requiredFound = 0;
+        List<String> requiredButNull = null;
+        List<String> unknown = null;
+        List<String> requiredTypeFailMsgs = null;
+        List<String> optionalTypeFailMsgs = null;
+        if (context != null) {
+            for (Map.Entry<String, ? extends Object> entry: context.entrySet()) {
+                CompiledParam param = params.get(entry.getKey());
+                Object value = entry.getValue();
+                if (param == null) {
+                    if (unknown == null) unknown = new LinkedList<String>();
+                    unknown.add(entry.getKey());
+                } else if (param.required) {
+                    if (value == null) {
+                        if (requiredButNull == null) requiredButNull = new LinkedList<String>();
+                        requiredButNull.add(entry.getKey());
+                    } else {
+                        requiredFound++;
+                        requiredTypeFailMsgs = param.check(value, locale, requiredTypeFailMsgs);
+                    }
+                } else {
+                    optionalTypeFailMsgs = param.check(value, locale, optionalTypeFailMsgs);
+                }
+            }
+        }
+
+        // null values are not allowed for required fields
+        if (requiredButNull != null) {
+            List<String> missingMsg = new LinkedList<String>();
+            for (String missingKey: requiredButNull) {
+                String message = params.get(missingKey).getPrimaryFailMessage(locale);
+                if (message == null) {
+                    String errMsg = UtilProperties.getMessage(ServiceUtil.getResource(), "ModelService.following_required_parameter_missing", locale);
+                    message = errMsg + " [" + model.name + "." + missingKey + "]";
+                }
+                missingMsg.add(message);
+            }
+            throw new ServiceValidationException(missingMsg, model, requiredButNull, null, mode);
+        }
+
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("[ModelService.validate] : {" + model.name + "} : (" + mode + ") Required - " + requiredFound + " / " + requiredNames.length, module);
+        }
+
+        if (requiredFound < requiredNames.length) {
+            List<String> missing = new LinkedList<String>();
+            List<String> missingMsgs = new LinkedList<String>();
+            for (String key: requiredNames) {
+                if (context != null && context.containsKey(key)) {
+                    continue;
+                }
+                missing.add(key);
+                String msg = params.get(key).getPrimaryFailMessage(locale);
+                if (msg == null) {
+                    String errMsg = UtilProperties.getMessage(ServiceUtil.getResource(), "ModelService.following_required_parameter_missing", locale) ;
+                    msg = errMsg + " [" + mode + "] [" + model.name + "." + key + "]";
+                }
+                missingMsgs.add(msg);
+            }
+            throw logError(new ServiceValidationException(missingMsgs, model, missing, null, mode));
+        }
+        if (requiredTypeFailMsgs != null) {
+            throw logError(new ServiceValidationException(requiredTypeFailMsgs, model, mode));
+        }
+
+        if (unknown != null) {
+            Set<String> extra = new TreeSet<String>(unknown);
+            List<String> extraMsgs = new LinkedList<String>();
+            for (String key: extra) {
+                ModelParam param = model.getParam(key);
+                String msg = null;
+                if (param != null) {
+                    msg = param.getPrimaryFailMessage(locale);
+                }
+                if (msg == null) {
+                    msg = "Unknown parameter found: [" + model.name + "." + key + "]";
+                }
+                extraMsgs.add(msg);
+            }
+            throw logError(new ServiceValidationException(extraMsgs, model, null, new LinkedList<String>(extra), mode));
+        }
+        if (optionalTypeFailMsgs != null) {
+            throw logError(new ServiceValidationException(optionalTypeFailMsgs, model, mode));
+        }
+
+        // required and type validation complete, do allow-html validation
+        if (htmlParams.length > 0 && context != null) {
+            List<String> errorMessageList = null;
+            for (ModelParam modelParam: htmlParams) {
+                Object value = context.get(modelParam.name);
+                if (value != null) {
+                    if (errorMessageList == null) errorMessageList = new LinkedList<String>();
+                    UtilCodec.checkStringForHtmlStrictNone(modelParam.name, (String) value, errorMessageList);
+                }
+            }
+            if (errorMessageList != null && errorMessageList.size() > 0) {
+                throw new ServiceValidationException(errorMessageList, model, mode);
+            }
+        }
+    }
+
+    private ServiceValidationException logError(ServiceValidationException e) {
+        Debug.logError("[ModelService.validate] : {" + model.name + "} : (" + mode + ") Required test error: " + e.toString(), module);
+        return e;
+    }
+
+    /** A parameter of the mode, with its type class and validation methods loaded */
+    private static final class CompiledParam {
+        private final ModelService model;
+        private final String name;
+        private final String type;
+        private final boolean required;
+        private final ModelParam param;
+        // null if the class could not be loaded, the check then fails as before on each call
+        private final Class<?> typeClass;
+        private final ModelParam.ModelParamValidator[] validators;
+        // by validator, null if the validator has no method or it could not be found
+        private final Method[] validatorMethods;
+
+        private CompiledParam(ModelService model, String name, String type, boolean required) {
+            this.model = model;
+            this.name = name;
+            this.type = type;
+            this.required = required;
+            this.param = model.getParam(name);
+            Class<?> typeClass = null;
+            try {
+                typeClass = ObjectType.loadInfoClass(type, null);
+            } catch (IllegalArgumentException e) {
+                Debug.logWarning("Could not load the type [" + type + "] of parameter [" + model.name + "." + name + "]: " + e.getMessage(), module);
+            }
+            this.typeClass = typeClass;
+            if (param != null && UtilValidate.isNotEmpty(param.validators)) {
+                this.validators = param.validators.toArray(new ModelParam.ModelParamValidator[param.validators.size()]);
+                this.validatorMethods = new Method[validators.length];
+                for (int i = 0; i < validators.length; i++) {
+                    if (UtilValidate.isNotEmpty(validators[i].getMethodName())) {
+                        try {
+                            validatorMethods[i] = ModelService.findValidatorMethod(validators[i]);
+                        } catch (GeneralException e) {
+                            Debug.logWarning("Could not find the validator of parameter [" + model.name + "." + name + "]: " + e.getMessage(), module);
+                        }
+                    }
+                }
+            } else {
+                this.validators = null;
+                this.validatorMethods = null;
+            }
+        }
+
+        private String getPrimaryFailMessage(Locale locale) {
+            return param != null ? param.getPrimaryFailMessage(locale) : null;
+        }
+
+        private boolean isInstance(Object value) {
+            return typeClass != null ? ObjectType.instanceOf(value, typeClass) : ObjectType.instanceOf(value, type, null);
+        }
+
+        /** Checks the type of the value, returns the list of messages with the failures added, created if needed */
+        private List<String> check(Object value, Locale locale, List<String> failMsgs) {
+            if (validators == null) {
+                if (!isInstance(value)) {
+                    String testType = value == null ? "null" : value.getClass().getName();
+                    if (failMsgs == null) failMsgs = new LinkedList<String>();
+                    failMsgs.add("Type check failed for field [" + model.name + "." + name + "]; expected type is [" + type + "]; actual type is [" + testType + "]");
+                }
+                return failMsgs;
+            }
+            for (int i = 0; i < validators.length; i++) {
+                ModelParam.ModelParamValidator val = validators[i];
+                String msg = null;
+                if (UtilValidate.isNotEmpty(val.getMethodName())) {
+                    try {
+                        boolean valid = validatorMethods[i] != null ? ModelService.typeValidate(val, validatorMethods[i], value) : ModelService.typeValidate(val, value);
+                        if (!valid) {
+                            msg = val.getFailMessage(locale);
+                            if (msg == null) {
+                                msg = "The following parameter failed validation: [" + model.name + "." + name + "]";
+                            }
+                        }
+                    } catch (GeneralException e) {
+                        Debug.logError(e, module);
+                        msg = getPrimaryFailMessage(locale);
+                        if (msg == null) {
+                            msg = "The following parameter failed validation: [" + model.name + "." + name + "]";
+                        }
+                    }
+                } else if (!isInstance(value)) {
+                    msg = val.getFailMessage(locale);
+                    if (msg == null) {
+                        msg = "The following parameter failed validation: [" + model.name + "." + name + "]";
+                    }
+                }
+                if (msg != null) {
+                    if (failMsgs == null) failMsgs = new LinkedList<String>();
+                    failMsgs.add(msg);
+                }
+            }
+            return failMsgs;
+        }
+    }
+}
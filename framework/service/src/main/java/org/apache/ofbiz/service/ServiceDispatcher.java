@@ -41,10 +41,12 @@ import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.transaction.DebugXaResource;
 import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionMonitor;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.security.Security;
 import org.apache.ofbiz.security.SecurityConfigurationException;
 import org.apache.ofbiz.security.SecurityFactory;
+import org.apache.ofbiz.service.async.AsyncServiceQueue;
 import org.apache.ofbiz.service.config.ServiceConfigUtil;
 import org.apache.ofbiz.service.config.model.StartupService;
 import org.apache.ofbiz.service.eca.ServiceEcaRule;
@@ -69,6 +71,10 @@ public class ServiceDispatcher {
     public static final int lruLogSize = 200;
     public static final int LOCK_RETRIES = 3;
 
+    // read once, looking up the properties resource on each call costs more than running a small service
+    private static final long showServiceDurationThreshold = UtilProperties.getPropertyAsLong("service", "showServiceDurationThreshold", 0);
+    private static final long showSlowServiceThreshold = UtilProperties.getPropertyAsLong("service", "showSlowServiceThreshold", 1000);
+
     protected static final Map<RunningService, ServiceDispatcher> runLog = new ConcurrentLinkedHashMap.Builder<RunningService, ServiceDispatcher>().maximumWeightedCapacity(lruLogSize).build();
     protected static ConcurrentHashMap<String, ServiceDispatcher> dispatchers = new ConcurrentHashMap<String, ServiceDispatcher>();
     // FIXME: These fields are not thread-safe. They are modified by EntityDataLoadContainer.
@@ -264,9 +270,12 @@ public class ServiceDispatcher {
         boolean isFailure = false;
         boolean isError = false;
         boolean beganTrans = false;
+        // the steps this service needs, the others are skipped
+        ServiceExecutionPlan plan = modelService.getExecutionPlan();
+        String parentTransactionOrigin = TransactionMonitor.setOrigin("service:" + modelService.name);
         try {
             // check for semaphore and acquire a lock
-            if ("wait".equals(modelService.semaphore) || "fail".equals(modelService.semaphore)) {
+            if (plan.semaphore) {
                 lock = new ServiceSemaphore(delegator, modelService);
                 lock.acquire();
             }
@@ -276,28 +285,27 @@ public class ServiceDispatcher {
                     "/" + modelService.invoke + "] (" + modelService.engineName + ")", module);
             }
 
-            Map<String, Object> context = new HashMap<String, Object>();
-            if (params != null) {
-                context.putAll(params);
-            }
+            Map<String, Object> context = params != null ? new HashMap<String, Object>(params) : new HashMap<String, Object>();
             // check the locale
             Locale locale = this.checkLocale(context);
 
             // set up the running service log
             rs = this.logService(localName, modelService, GenericEngine.SYNC_MODE);
 
-            // get eventMap once for all calls for speed, don't do event calls if it is null
-            eventMap = ServiceEcaUtil.getServiceEventMap(modelService.name);
+            // the eventMap of the plan is null when the service has no ECA rules
+            eventMap = plan.eventMap;
             engine = this.getGenericEngine(modelService.engineName);
 
 
             // set IN attributes with default-value as applicable
-            modelService.updateDefaultValues(context, ModelService.IN_PARAM);
+            if (plan.inDefaultValues) {
+                modelService.updateDefaultValues(context, ModelService.IN_PARAM);
+            }
             //Debug.logInfo("=========================== " + modelService.name + " 1 tx status =" + TransactionUtil.getStatusString() + ", modelService.requireNewTransaction=" + modelService.requireNewTransaction + ", modelService.useTransaction=" + modelService.useTransaction + ", TransactionUtil.isTransactionInPlace()=" + TransactionUtil.isTransactionInPlace(), module);
-            if (modelService.useTransaction) {
+            if (plan.transactionMode != ServiceExecutionPlan.NO_TRANSACTION) {
                 if (TransactionUtil.isTransactionInPlace()) {
                     // if a new transaction is needed, do it here; if not do nothing, just use current tx
-                    if (modelService.requireNewTransaction) {
+                    if (plan.transactionMode == ServiceExecutionPlan.NEW_TRANSACTION) {
                         parentTransaction = TransactionUtil.suspend();
                         if (TransactionUtil.isTransactionInPlace()) {
                             throw new GenericTransactionException("In service " + modelService.name + " transaction is still in place after suspend, status is " + TransactionUtil.getStatusString());
@@ -337,19 +345,26 @@ public class ServiceDispatcher {
 
 
                     // setup global transaction ECA listeners to execute later
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-rollback", ctx, context, result, isError, isFailure);
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit", ctx, context, result, isError, isFailure);
+                    if (plan.globalEcas) {
+                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-rollback", ctx, context, result, isError, isFailure);
+                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit", ctx, context, result, isError, isFailure);
+                    }
 
                     // pre-auth ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "auth", ctx, context, result, isError, isFailure);
+                    if (plan.authEcas) {
+                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "auth", ctx, context, result, isError, isFailure);
 
-                    // check for pre-auth failure/errors
-                    isFailure = ServiceUtil.isFailure(result);
-                    isError = ServiceUtil.isError(result);
+                        // check for pre-auth failure/errors
+                        isFailure = ServiceUtil.isFailure(result);
+                        isError = ServiceUtil.isError(result);
+                    }
 
                     //Debug.logInfo("After [" + modelService.name + "] pre-auth ECA, before auth; isFailure=" + isFailure + ", isError=" + isError, module);
 
-                    context = checkAuth(localName, context, modelService);
+                    // without permissions there is nothing to check when no user is given
+                    if (plan.permissions || context.get("userLogin") != null || context.get("login.username") != null) {
+                        context = checkAuth(localName, context, modelService);
+                    }
                     GenericValue userLogin = (GenericValue) context.get("userLogin");
 
                     if (modelService.auth && userLogin == null) {
@@ -362,11 +377,13 @@ public class ServiceDispatcher {
                     }
 
                     // pre-validate ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "in-validate", ctx, context, result, isError, isFailure);
+                    if (plan.inValidateEcas) {
+                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "in-validate", ctx, context, result, isError, isFailure);
 
-                    // check for pre-validate failure/errors
-                    isFailure = ServiceUtil.isFailure(result);
-                    isError = ServiceUtil.isError(result);
+                        // check for pre-validate failure/errors
+                        isFailure = ServiceUtil.isFailure(result);
+                        isError = ServiceUtil.isError(result);
+                    }
 
                     //Debug.logInfo("After [" + modelService.name + "] pre-in-validate ECA, before in-validate; isFailure=" + isFailure + ", isError=" + isError, module);
 
@@ -381,11 +398,13 @@ public class ServiceDispatcher {
                     }
 
                     // pre-invoke ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "invoke", ctx, context, result, isError, isFailure);
+                    if (plan.invokeEcas) {
+                        ServiceEcaUtil.evalRules(modelService.name, eventMap, "invoke", ctx, context, result, isError, isFailure);
 
-                    // check for pre-invoke failure/errors
-                    isFailure = ServiceUtil.isFailure(result);
-                    isError = ServiceUtil.isError(result);
+                        // check for pre-invoke failure/errors
+                        isFailure = ServiceUtil.isFailure(result);
+                        isError = ServiceUtil.isError(result);
+                    }
 
                     //Debug.logInfo("After [" + modelService.name + "] pre-invoke ECA, before invoke; isFailure=" + isFailure + ", isError=" + isError, module);
 
@@ -469,18 +488,21 @@ public class ServiceDispatcher {
                 } while (needsLockRetry && lockRetriesRemaining > 0);
 
                 // create a new context with the results to pass to ECA services; necessary because caller may reuse this context
-                ecaContext = new HashMap<String, Object>();
-                ecaContext.putAll(context);
-                // copy all results: don't worry parameters that aren't allowed won't be passed to the ECA services
-                ecaContext.putAll(result);
+                if (plan.ecaContext) {
+                    ecaContext = new HashMap<String, Object>(context);
+                    // copy all results: don't worry parameters that aren't allowed won't be passed to the ECA services
+                    ecaContext.putAll(result);
+                }
 
                 // setup default OUT values
-                modelService.updateDefaultValues(context, ModelService.OUT_PARAM);
+                if (plan.outDefaultValues) {
+                    modelService.updateDefaultValues(context, ModelService.OUT_PARAM);
+                }
 
                 // validate the result
                 if (modelService.validate && validateOut) {
                     // pre-out-validate ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "out-validate", ctx, ecaContext, result, isError, isFailure);
+                    if (plan.outValidateEcas) ServiceEcaUtil.evalRules(modelService.name, eventMap, "out-validate", ctx, ecaContext, result, isError, isFailure);
                     try {
                         modelService.validate(result, ModelService.OUT_PARAM, locale);
                     } catch (ServiceValidationException e) {
@@ -489,14 +511,14 @@ public class ServiceDispatcher {
                 }
 
                 // pre-commit ECA
-                if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "commit", ctx, ecaContext, result, isError, isFailure);
+                if (plan.commitEcas) ServiceEcaUtil.evalRules(modelService.name, eventMap, "commit", ctx, ecaContext, result, isError, isFailure);
 
                 // check for pre-commit failure/errors
                 isFailure = ServiceUtil.isFailure(result);
                 isError = ServiceUtil.isError(result);
 
                 // global-commit-post-run ECA, like global-commit but gets the context after the service is run
-                if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit-post-run", ctx, ecaContext, result, isError, isFailure);
+                if (plan.globalCommitPostRunEcas) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit-post-run", ctx, ecaContext, result, isError, isFailure);
 
                 // check for failure and log on info level; this is used for debugging
                 if (isFailure) {
@@ -551,7 +573,9 @@ public class ServiceDispatcher {
                 }
 
                 // call notifications -- event is determined from the result (success, error, fail)
-                modelService.evalNotifications(this.getLocalContext(localName), context, result);
+                if (plan.notifications) {
+                    modelService.evalNotifications(this.getLocalContext(localName), context, result);
+                }
 
                 // clear out the EE userIdentifier
                 GenericDelegator.popUserIdentifier();
@@ -560,6 +584,8 @@ public class ServiceDispatcher {
             Debug.logError(te, "Problems with the transaction", module);
             throw new GenericServiceException("Problems with the transaction.", te.getNested());
         } finally {
+            TransactionMonitor.setOrigin(parentTransactionOrigin);
+
             if (lock != null) {
                 // release the semaphore lock
                 try {
@@ -581,13 +607,11 @@ public class ServiceDispatcher {
         }
 
         // pre-return ECA
-        if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "return", ctx, ecaContext, result, isError, isFailure);
+        if (plan.returnEcas) ServiceEcaUtil.evalRules(modelService.name, eventMap, "return", ctx, ecaContext, result, isError, isFailure);
 
         rs.setEndStamp();
 
         long timeToRun = System.currentTimeMillis() - serviceStartTime;
-        long showServiceDurationThreshold = UtilProperties.getPropertyAsLong("service", "showServiceDurationThreshold", 0);
-        long showSlowServiceThreshold = UtilProperties.getPropertyAsLong("service", "showSlowServiceThreshold", 1000);
                 
         if (Debug.timingOn() && timeToRun > showServiceDurationThreshold) {
             Debug.logTiming("Sync service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds", module);
@@ -708,7 +732,9 @@ public class ServiceDispatcher {
 
                 // run the service
                 if (!isError && !isFailure) {
-                    if (requester != null) {
+                    if (!persist && service.asyncQueueSize > 0) {
+                        AsyncServiceQueue.submit(this, localName, service, context, requester);
+                    } else if (requester != null) {
                         engine.runAsync(localName, service, context, requester, persist);
                     } else {
                         engine.runAsync(localName, service, context, persist);
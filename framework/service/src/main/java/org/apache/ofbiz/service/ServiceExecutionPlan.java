@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.service.eca.ServiceEcaRule;
+import org.apache.ofbiz.service.eca.ServiceEcaUtil;
+
+/**
+ * The steps ServiceDispatcher.runSync has to go through for a service: the ECA events with rules, the semaphore, the
+ * permission checks, the default values and the transaction mode.
+ * <p>A plan is worked out from the service definition and the Service ECA rules of the service, it is replaced when
+ * the rules change (see {@link ServiceEcaUtil#getEcaVersion()}).</p>
+ */
+final class ServiceExecutionPlan {
+
+    /** The service does not use a transaction */
+    static final int NO_TRANSACTION = 0;
+    /** The service joins the transaction in place, or begins one */
+    static final int CURRENT_TRANSACTION = 1;
+    /** The service suspends the transaction in place and begins its own */
+    static final int NEW_TRANSACTION = 2;
+
+    private final int ecaVersion;
+    final Map<String, List<ServiceEcaRule>> eventMap;
+    final boolean globalEcas;
+    final boolean authEcas;
+    final boolean inValidateEcas;
+    final boolean invokeEcas;
+    final boolean outValidateEcas;
+    final boolean commitEcas;
+    final boolean globalCommitPostRunEcas;
+    final boolean returnEcas;
+    /** True if one of the ECA events after the invoke needs the context with the results */
+    final boolean ecaContext;
+    final boolean semaphore;
+    /** True if the service has a permission service or permissions, the auth check then always runs */
+    final boolean permissions;
+    final boolean inDefaultValues;
+    final boolean outDefaultValues;
+    final boolean notifications;
+    final int transactionMode;
+
+    ServiceExecutionPlan(ModelService model) {
+        // read the version first, rules added meanwhile will make a new plan
+        this.ecaVersion = ServiceEcaUtil.getEcaVersion();
+        Map<String, List<ServiceEcaRule>> eventMap = ServiceEcaUtil.getServiceEventMap(model.name);
+        this.eventMap = UtilValidate.isEmpty(eventMap) ? null : eventMap;
+        this.globalEcas = hasRules("global-rollback") || hasRules("global-commit");
+        this.authEcas = hasRules("auth");
+        this.inValidateEcas = hasRules("in-validate");
+        this.invokeEcas = hasRules("invoke");
+        this.outValidateEcas = hasRules("out-validate");
+        this.commitEcas = hasRules("commit");
+        this.globalCommitPostRunEcas = hasRules("global-commit-post-run");
+        this.returnEcas = hasRules("return");
+        this.ecaContext = outValidateEcas || commitEcas || globalCommitPostRunEcas || returnEcas;
+        this.semaphore = "wait".equals(model.semaphore) || "fail".equals(model.semaphore);
+        this.permissions = UtilValidate.isNotEmpty(model.permissionServiceName) || model.containsPermissions();
+        boolean inDefaultValues = false;
+        boolean outDefaultValues = false;
+        for (ModelParam param: model.getModelParamList()) {
+            if (param.getDefaultValue() != null) {
+                inDefaultValues |= param.isIn();
+                outDefaultValues |= param.isOut();
+            }
+        }
+        this.inDefaultValues = inDefaultValues;
+        this.outDefaultValues = outDefaultValues;
+        this.notifications = UtilValidate.isNotEmpty(model.notifications);
+        if (!model.useTransaction) {
+            this.transactionMode = NO_TRANSACTION;
+        } else if (model.requireNewTransaction) {
+            this.transactionMode = NEW_TRANSACTION;
+        } else {
+            this.transactionMode = CURRENT_TRANSACTION;
+        }
+    }
+
+    private boolean hasRules(String event) {
+        return eventMap != null && UtilValidate.isNotEmpty(eventMap.get(event));
+    }
+
+    /** Returns true if the plan was made with the current Service ECA rules */
+    boolean isCurrent() {
+        return ecaVersion == ServiceEcaUtil.getEcaVersion();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("[");
+        buf.append("ecas=").append(eventMap != null ? eventMap.keySet().toString() : "[]");
+        buf.append(", semaphore=").append(semaphore);
+        buf.append(", permissions=").append(permissions);
+        buf.append(", inDefaultValues=").append(inDefaultValues);
+        buf.append(", outDefaultValues=").append(outDefaultValues);
+        buf.append(", notifications=").append(notifications);
+        buf.append(", transactionMode=").append(transactionMode);
+        return buf.append("]").toString();
+    }
+}
@@ -683,6 +683,7 @@ public final class ServiceUtil {
             job.set("finishDateTime", null);
             job.set("cancelDateTime", null);
             job.set("runByInstanceId", null);
+            job.set("claimToken", null);
 
             // save the job
             try {
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.async;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.transaction.Transaction;
+
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+import org.apache.ofbiz.service.GenericRequester;
+import org.apache.ofbiz.service.GenericServiceException;
+import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.ServiceDispatcher;
+import org.apache.ofbiz.service.ServiceUtil;
+
+/**
+ * Runs the async calls that are not persisted of the services with an async-queue-size, without the job manager.
+ * <p>Each service has its own bounded in-memory queue, the calls are run by a pool of threads shared by all the queues
+ * (async.queue.threads in service.properties). When the queue of a service is full the call runs in the thread of the
+ * caller (async-queue-policy="caller-runs"), or the caller waits for room up to async-queue-timeout milliseconds
+ * (async-queue-policy="block"). With async-coalesce="true" a call with the same IN parameters as a call still waiting
+ * in the queue is dropped, the other fields of the context are ignored. Nothing is written to the database, the queued calls are lost if the server stops.</p>
+ */
+public final class AsyncServiceQueue {
+
+    public static final String module = AsyncServiceQueue.class.getName();
+
+    private static final int threadCount = UtilProperties.getPropertyAsInteger("service", "async.queue.threads", 4);
+    private static final ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-async-queue", threadCount, 60, false);
+    private static final ConcurrentMap<String, AsyncServiceQueue> queues = new ConcurrentHashMap<String, AsyncServiceQueue>();
+
+    private final String serviceName;
+    // the statistics and the coalescing keys are guarded by this
+    private final Set<List<Object>> waiting = new HashSet<List<Object>>();
+    private int queueSize = 0;
+    private int pending = 0;
+    private int maxPending = 0;
+    private long submitted = 0;
+    private long coalesced = 0;
+    private long callerRuns = 0;
+    private long rejected = 0;
+    private long completed = 0;
+    private long failed = 0;
+
+    private AsyncServiceQueue(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Queues an async call of the service, the service must have an async-queue-size.
+     * @param requester receives the result of the call, may be null
+     * @throws GenericServiceException if the queue is full and stays full for the block timeout
+     */
+    public static void submit(ServiceDispatcher dispatcher, String localName, ModelService service, Map<String, Object> context, GenericRequester requester) throws GenericServiceException {
+        AsyncServiceQueue queue = queues.get(service.name);
+        if (queue == null) {
+            queues.putIfAbsent(service.name, new AsyncServiceQueue(service.name));
+            queue = queues.get(service.name);
+        }
+        queue.add(new QueuedCall(queue, dispatcher, localName, service, context, requester));
+    }
+
+    private void add(QueuedCall call) throws GenericServiceException {
+        ModelService service = call.service;
+        boolean runHere = false;
+        synchronized (this) {
+            // the size of the last definition, the services can be reloaded
+            queueSize = service.asyncQueueSize;
+            submitted++;
+            if (call.coalesceKey != null && waiting.contains(call.coalesceKey)) {
+                coalesced++;
+                if (Debug.verboseOn()) Debug.logVerbose("Dropping async call of " + serviceName + ", the same call is waiting in the queue", module);
+                return;
+            }
+            if (pending >= service.asyncQueueSize && "block".equals(service.asyncQueuePolicy)) {
+                long deadline = System.currentTimeMillis() + service.asyncQueueTimeout;
+                long wait = service.asyncQueueTimeout;
+                while (pending >= service.asyncQueueSize && wait > 0) {
+                    try {
+                        this.wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    wait = deadline - System.currentTimeMillis();
+                }
+                if (pending >= service.asyncQueueSize) {
+                    rejected++;
+                    throw new GenericServiceException("The async queue of service [" + serviceName + "] is full (" + service.asyncQueueSize + "), waited " + service.asyncQueueTimeout + " milliseconds");
+                }
+            }
+            if (pending >= service.asyncQueueSize) {
+                callerRuns++;
+                runHere = true;
+            } else {
+                pending++;
+                if (pending > maxPending) {
+                    maxPending = pending;
+                }
+                if (call.coalesceKey != null) {
+                    waiting.add(call.coalesceKey);
+                }
+            }
+        }
+        if (runHere) {
+            runInCaller(call);
+            return;
+        }
+        try {
+            executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            started(call);
+            synchronized (this) {
+                rejected++;
+            }
+            throw new GenericServiceException("Could not queue the async call of service [" + serviceName + "]", e);
+        }
+    }
+
+    private void runInCaller(QueuedCall call) throws GenericServiceException {
+        // like a queued call the service must not join the transaction of the caller
+        Transaction parentTx = null;
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                parentTx = TransactionUtil.suspend();
+            }
+            call.execute();
+        } catch (GenericTransactionException e) {
+            throw new GenericServiceException("Could not suspend the transaction to run service [" + serviceName + "]", e);
+        } finally {
+            if (parentTx != null) {
+                try {
+                    TransactionUtil.resume(parentTx);
+                } catch (GenericTransactionException e) {
+                    Debug.logError(e, "Could not resume the transaction after running service [" + serviceName + "]", module);
+                }
+            }
+        }
+    }
+
+    /** Takes the call out of the queue, from now on the same call queued again runs again */
+    private synchronized void started(QueuedCall call) {
+        pending--;
+        if (call.coalesceKey != null) {
+            waiting.remove(call.coalesceKey);
+        }
+        this.notifyAll();
+    }
+
+    private synchronized void finished(boolean success) {
+        if (success) {
+            completed++;
+        } else {
+            failed++;
+        }
+    }
+
+    private synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("serviceName", serviceName);
+        stats.put("queueSize", queueSize);
+        stats.put("pending", pending);
+        stats.put("maxPending", maxPending);
+        stats.put("submitted", submitted);
+        stats.put("coalesced", coalesced);
+        stats.put("callerRuns", callerRuns);
+        stats.put("rejected", rejected);
+        stats.put("completed", completed);
+        stats.put("failed", failed);
+        return stats;
+    }
+
+    /** Returns the statistics of the queues by service name: queueSize, pending, maxPending, submitted, coalesced, callerRuns, rejected, completed and failed */
+    public static List<Map<String, Object>> getQueueStatistics() {
+        Map<String, AsyncServiceQueue> sorted = new TreeMap<String, AsyncServiceQueue>(queues);
+        List<Map<String, Object>> statistics = new ArrayList<Map<String, Object>>(sorted.size());
+        for (AsyncServiceQueue queue: sorted.values()) {
+            statistics.add(queue.getStatistics());
+        }
+        return statistics;
+    }
+
+    private static final class QueuedCall implements Runnable {
+        private final AsyncServiceQueue queue;
+        private final ServiceDispatcher dispatcher;
+        private final String localName;
+        private final ModelService service;
+        private final Map<String, Object> context;
+        private final GenericRequester requester;
+        private final List<Object> coalesceKey;
+
+        private QueuedCall(AsyncServiceQueue queue, ServiceDispatcher dispatcher, String localName, ModelService service, Map<String, Object> context, GenericRequester requester) {
+            this.queue = queue;
+            this.dispatcher = dispatcher;
+            this.localName = localName;
+            this.service = service;
+            this.context = context;
+            this.requester = requester;
+            // a requester expects its own result
+            this.coalesceKey = service.asyncCoalesce && requester == null ? makeCoalesceKey(service, context) : null;
+        }
+
+        // the service name and the values of the IN parameters of the service definition
+        private static List<Object> makeCoalesceKey(ModelService service, Map<String, Object> context) {
+            Map<String, Object> inParams = new HashMap<String, Object>();
+            for (String paramName : service.getInParamNames()) {
+                if (context.containsKey(paramName)) {
+                    inParams.put(paramName, context.get(paramName));
+                }
+            }
+            return UtilMisc.<Object>toList(service.name, inParams);
+        }
+
+        public void run() {
+            queue.started(this);
+            execute();
+        }
+
+        private void execute() {
+            boolean success = false;
+            try {
+                Map<String, Object> result = dispatcher.runSync(localName, service, context);
+                success = !ServiceUtil.isError(result);
+                if (!success) {
+                    Debug.logError("Error running async service [" + service.name + "]: " + ServiceUtil.getErrorMessage(result), module);
+                }
+                if (requester != null) {
+                    requester.receiveResult(result);
+                }
+            } catch (GenericServiceException e) {
+                Debug.logError(e, "Error running async service [" + service.name + "]", module);
+                if (requester != null) {
+                    requester.receiveThrowable(e);
+                }
+            } catch (RuntimeException e) {
+                Debug.logError(e, "Error running async service [" + service.name + "]", module);
+                if (requester != null) {
+                    requester.receiveThrowable(e);
+                }
+            } finally {
+                queue.finished(success);
+            }
+        }
+    }
+}
@@ -29,6 +29,9 @@ import org.w3c.dom.Element;
 public final class RunFromPool {
 
     private final String name;
+    private final int jobs;
+    private final int maxThreads;
+    private final int minThreads;
 
     RunFromPool(Element runFromPoolElement) throws ServiceConfigException {
         String name = runFromPoolElement.getAttribute("name").intern();
@@ -36,9 +39,68 @@ public final class RunFromPool {
             throw new ServiceConfigException("<run-from-pool> element name attribute is empty");
         }
         this.name = name;
+        String maxThreads = runFromPoolElement.getAttribute("max-threads").intern();
+        if (maxThreads.isEmpty()) {
+            this.maxThreads = 0;
+        } else {
+            try {
+                this.maxThreads = Integer.parseInt(maxThreads);
+                if (this.maxThreads < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element max-threads attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element max-threads attribute value is invalid");
+            }
+        }
+        String minThreads = runFromPoolElement.getAttribute("min-threads").intern();
+        if (minThreads.isEmpty()) {
+            this.minThreads = Math.min(ThreadPool.MIN_THREADS, this.maxThreads);
+        } else {
+            try {
+                this.minThreads = Integer.parseInt(minThreads);
+                if (this.minThreads < 1 || this.minThreads > this.maxThreads) {
+                    throw new ServiceConfigException("<run-from-pool> element min-threads attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element min-threads attribute value is invalid");
+            }
+        }
+        String jobs = runFromPoolElement.getAttribute("jobs").intern();
+        if (jobs.isEmpty()) {
+            this.jobs = this.maxThreads > 0 ? ThreadPool.QUEUE_SIZE : 0;
+        } else {
+            try {
+                this.jobs = Integer.parseInt(jobs);
+                if (this.jobs < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element jobs attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element jobs attribute value is invalid");
+            }
+        }
     }
 
     public String getName() {
         return name;
     }
+
+    /** Returns true if the jobs of this pool run in their own threads, false if they share the threads of the <code>&lt;thread-pool&gt;</code>. */
+    public boolean hasOwnThreads() {
+        return maxThreads > 0;
+    }
+
+    /** Returns the size of the job queue of the pool, zero when the pool shares the threads of the <code>&lt;thread-pool&gt;</code>. */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /** Returns the maximum number of threads of the pool, zero when the pool shares the threads of the <code>&lt;thread-pool&gt;</code>. */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /** Returns the minimum number of threads of the pool, zero when the pool shares the threads of the <code>&lt;thread-pool&gt;</code>. */
+    public int getMinThreads() {
+        return minThreads;
+    }
 }
@@ -52,11 +52,14 @@ public final class ServiceEcaUtil {
 
     // using a cache is dangerous here because if someone clears it the ECAs won't run: public static UtilCache ecaCache = new UtilCache("service.ServiceECAs", 0, 0, false);
     private static Map<String, Map<String, List<ServiceEcaRule>>> ecaCache = new ConcurrentHashMap<String, Map<String, List<ServiceEcaRule>>>();
+    // changed each time the rules change, the services keep what they know of their rules until then
+    private static volatile int ecaVersion = 0;
 
     private ServiceEcaUtil() {}
 
     public static void reloadConfig() {
         ecaCache.clear();
+        ecaVersion++;
         readConfig();
     }
 
@@ -149,6 +152,12 @@ public final class ServiceEcaUtil {
             }
             rules.add(rule);
         }
+        ecaVersion++;
+    }
+
+    /** Returns a number that changes each time the Service ECA rules are loaded or added */
+    public static int getEcaVersion() {
+        return ecaVersion;
     }
 
     public static Map<String, List<ServiceEcaRule>> getServiceEventMap(String serviceName) {
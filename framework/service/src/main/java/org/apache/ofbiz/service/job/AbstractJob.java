@@ -115,4 +115,14 @@ public abstract class AbstractJob implements Job {
     public Date getStartTime() {
         return startTime;
     }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+
+    @Override
+    public String getPoolId() {
+        return null;
+    }
 }
@@ -72,5 +72,15 @@ public interface Job extends Runnable {
      * Returns the time this job is scheduled to start.
      */
     Date getStartTime();
+
+    /**
+     * Returns the priority of this job. Queued jobs with a higher priority are run first.
+     */
+    int getPriority();
+
+    /**
+     * Returns the job pool this job belongs to, or null when it is not persisted.
+     */
+    String getPoolId();
 }
 
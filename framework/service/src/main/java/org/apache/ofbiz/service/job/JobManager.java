@@ -21,6 +21,7 @@ package org.apache.ofbiz.service.job;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -42,18 +43,21 @@ import org.apache.ofbiz.entity.condition.EntityCondition;
 import org.apache.ofbiz.entity.condition.EntityExpr;
 import org.apache.ofbiz.entity.condition.EntityJoinOperator;
 import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.config.model.Datasource;
+import org.apache.ofbiz.entity.config.model.EntityConfig;
+import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
 import org.apache.ofbiz.entity.serialize.SerializeException;
 import org.apache.ofbiz.entity.serialize.XmlSerializer;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
+import org.apache.ofbiz.entity.util.EntityUtil;
 import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.LocalDispatcher;
 import org.apache.ofbiz.service.ServiceContainer;
 import org.apache.ofbiz.service.calendar.RecurrenceInfo;
 import org.apache.ofbiz.service.calendar.RecurrenceInfoException;
 import org.apache.ofbiz.service.config.ServiceConfigUtil;
-import org.apache.ofbiz.service.config.model.RunFromPool;
 
 import com.ibm.icu.util.Calendar;
 
@@ -158,21 +162,15 @@ public final class JobManager {
         }
     }
 
-    private static List<String> getRunPools() throws GenericConfigException {
-        List<RunFromPool> runFromPools = ServiceConfigUtil.getServiceEngine().getThreadPool().getRunFromPools();
-        List<String> readPools = new ArrayList<String>(runFromPools.size());
-        for (RunFromPool runFromPool : runFromPools) {
-            readPools.add(runFromPool.getName());
-        }
-        return readPools;
-    }
-
     /**
-     * Scans the JobSandbox entity and returns a list of jobs that are due to run.
-     * Returns an empty list if there are no jobs due to run.
-     * This method is called by the {@link JobPoller} polling thread.
+     * Scans the JobSandbox entity and returns a list of jobs of the given pools that are due to run, the highest
+     * priority first. Returns an empty list if there are no jobs due to run.
+     * This method is called by the {@link JobPoller} polling thread, once for each of its job queues.
+     * @param poolIds The pools to take the jobs from
+     * @param sharedQueue True for the queue of the &lt;thread-pool&gt; element, which also takes the jobs without
+     *            a pool and, when there are no jobs due to run, the jobs to purge
      */
-    protected List<Job> poll(int limit) {
+    protected List<Job> poll(int limit, Collection<String> poolIds, boolean sharedQueue) {
         assertIsRunning();
         // The rest of this method logs exceptions and does not throw them.
         // The idea is to keep the JobPoller working even when a database
@@ -187,26 +185,22 @@ public final class JobManager {
                 EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null),
                 EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
                 EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-        // limit to just defined pools
-        List<String> pools = null;
-        try {
-            pools = getRunPools();
-        } catch (GenericConfigException e) {
-            Debug.logWarning(e, "Unable to get run pools - not running job: ", module);
-            return Collections.emptyList();
+        // limit to just the given pools
+        List<EntityExpr> poolsExpr = new ArrayList<EntityExpr>(poolIds.size() + 1);
+        if (sharedQueue) {
+            poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, null));
         }
-        List<EntityExpr> poolsExpr = UtilMisc.toList(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, null));
-        if (!pools.isEmpty()) {
-            for (String poolName : pools) {
-                poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolName));
-            }
+        for (String poolName : poolIds) {
+            poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolName));
+        }
+        if (poolsExpr.isEmpty()) {
+            return Collections.emptyList();
         }
         List<Job> poll = new ArrayList<Job>(limit);
         // make the conditions
         EntityCondition baseCondition = EntityCondition.makeCondition(expressions);
         EntityCondition poolCondition = EntityCondition.makeCondition(poolsExpr, EntityOperator.OR);
         EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(baseCondition, poolCondition));
-        EntityListIterator jobsIterator = null;
         boolean beganTransaction = false;
         try {
             beganTransaction = TransactionUtil.begin();
@@ -214,19 +208,8 @@ public final class JobManager {
                 Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
                 return poll;
             }
-            jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("runTime").queryIterator();
-            GenericValue jobValue = jobsIterator.next();
-            while (jobValue != null) {
-                // Claim ownership of this value. Using storeByCondition to avoid a race condition.
-                List<EntityExpr> updateExpression = UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.EQUALS, jobValue.get("jobId")), EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-                int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), EntityCondition.makeCondition(updateExpression));
-                if (rowsUpdated == 1) {
-                    poll.add(new PersistedServiceJob(dctx, jobValue, null));
-                    if (poll.size() == limit) {
-                        break;
-                    }
-                }
-                jobValue = jobsIterator.next();
+            for (GenericValue jobValue : claimJobs(mainCondition, limit)) {
+                poll.add(new PersistedServiceJob(dctx, jobValue, null));
             }
             TransactionUtil.commit(beganTransaction);
         } catch (Throwable t) {
@@ -238,16 +221,9 @@ public final class JobManager {
             }
             Debug.logWarning(t, errMsg, module);
             return Collections.emptyList();
-        } finally {
-            if (jobsIterator != null) {
-                try {
-                    jobsIterator.close();
-                } catch (GenericEntityException e) {
-                    Debug.logWarning(e, module);
-                }
-            }
         }
-        if (poll.isEmpty()) {
+        EntityListIterator jobsIterator = null;
+        if (poll.isEmpty() && sharedQueue) {
             // No jobs to run, see if there are any jobs to purge
             Calendar cal = Calendar.getInstance();
             try {
@@ -302,6 +278,53 @@ public final class JobManager {
         return poll;
     }
 
+    /**
+     * Claims up to <code>limit</code> of the jobs matching the condition for this instance and returns them, the
+     * highest priority first then the earliest runTime. Must be called in a transaction.
+     * <p>The candidates are selected with SKIP LOCKED on the databases that support it (see the use-skip-locked
+     * attribute of the datasource element), so that the other instances polling at the same time pass over them,
+     * then they are all claimed with one update. Elsewhere the candidates are claimed with a token of this poll, set
+     * by one update on the candidates that no other instance claimed in the meantime, and the jobs won are read back
+     * by that token.</p>
+     */
+    private List<GenericValue> claimJobs(EntityCondition condition, int limit) throws GenericEntityException {
+        List<String> claimOrder = UtilMisc.toList("-priority NULLS LAST", "runTime");
+        if (!useSkipLocked()) {
+            List<GenericValue> candidates = EntityQuery.use(delegator).from("JobSandbox").select("jobId").where(condition).orderBy(claimOrder).maxRows(limit).queryList();
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            String claimToken = delegator.getNextSeqId("JobSandboxClaim");
+            EntityCondition claimCondition = EntityCondition.makeCondition(UtilMisc.toList(
+                    EntityCondition.makeCondition("jobId", EntityOperator.IN, EntityUtil.getFieldListFromEntityList(candidates, "jobId", false)),
+                    EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null)));
+            int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId, "claimToken", claimToken), claimCondition);
+            if (rowsUpdated < candidates.size() && Debug.verboseOn()) Debug.logVerbose("Claimed " + rowsUpdated + " of " + candidates.size() + " jobs, the others were claimed by another instance", module);
+            if (rowsUpdated == 0) {
+                return Collections.emptyList();
+            }
+            return EntityQuery.use(delegator).from("JobSandbox").where("claimToken", claimToken).orderBy(claimOrder).queryList();
+        }
+        List<GenericValue> candidates = EntityQuery.use(delegator).from("JobSandbox").where(condition).orderBy(claimOrder).maxRows(limit).skipLocked().queryList();
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        EntityCondition claimCondition = EntityCondition.makeCondition("jobId", EntityOperator.IN, EntityUtil.getFieldListFromEntityList(candidates, "jobId", false));
+        delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), claimCondition);
+        for (GenericValue jobValue : candidates) {
+            jobValue.set("runByInstanceId", instanceId);
+            jobValue.synchronizedWithDatasource();
+        }
+        return candidates;
+    }
+
+    /** Returns true if the datasource of the JobSandbox entity selects with SKIP LOCKED */
+    private boolean useSkipLocked() throws GenericEntityException {
+        GenericHelperInfo helperInfo = delegator.getGroupHelperInfo(delegator.getEntityGroupName("JobSandbox"));
+        Datasource datasource = helperInfo != null ? EntityConfig.getDatasource(helperInfo.getHelperBaseName()) : null;
+        return datasource != null && datasource.getUseSkipLocked();
+    }
+
     public synchronized void reloadCrashedJobs() {
         assertIsRunning();
         if (crashedJobsReloaded) {
@@ -335,6 +358,7 @@ public final class JobManager {
                     newJob.set("parentJobId", pJobId);
                     newJob.set("startDateTime", null);
                     newJob.set("runByInstanceId", null);
+                    newJob.set("claimToken", null);
                     //don't set a recurrent schedule on the new job, run it just one time
                     newJob.set("tempExprId", null);
                     newJob.set("recurrenceInfoId", null);
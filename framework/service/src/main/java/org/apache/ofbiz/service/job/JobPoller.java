@@ -20,18 +20,15 @@ package org.apache.ofbiz.service.job;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.start.Start;
@@ -39,18 +36,24 @@ import org.apache.ofbiz.base.util.Assert;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.service.config.ServiceConfigUtil;
 import org.apache.ofbiz.service.config.ServiceConfigListener;
+import org.apache.ofbiz.service.config.model.RunFromPool;
 import org.apache.ofbiz.service.config.model.ServiceConfig;
 import org.apache.ofbiz.service.config.model.ThreadPool;
+import org.apache.ofbiz.service.job.JobPoolExecutor.QueuedJob;
 
 /**
  * Job poller. Queues and runs jobs.
+ * <p>The jobs run in the threads of the &lt;thread-pool&gt; element, except the jobs of the &lt;run-from-pool&gt;
+ * elements with a max-threads attribute: each of those pools has its own job queue and threads, and is polled for as
+ * many jobs as its own queue can take. The job queues are ordered by job priority.</p>
  */
 public final class JobPoller implements ServiceConfigListener {
 
     public static final String module = JobPoller.class.getName();
-    private static final AtomicInteger created = new AtomicInteger();
     private static final ConcurrentHashMap<String, JobManager> jobManagers = new ConcurrentHashMap<String, JobManager>();
-    private static final ThreadPoolExecutor executor = createThreadPoolExecutor();
+    private static final JobPoolExecutor executor = createThreadPoolExecutor();
+    // the executors of the pools with their own threads, by pool name
+    private static final Map<String, JobPoolExecutor> poolExecutors = createPoolExecutors();
     private static final JobPoller instance = new JobPoller();
 
     /**
@@ -60,18 +63,32 @@ public final class JobPoller implements ServiceConfigListener {
         return instance;
     }
 
-    private static ThreadPoolExecutor createThreadPoolExecutor() {
+    private static JobPoolExecutor createThreadPoolExecutor() {
         try {
             ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
-            return new ThreadPoolExecutor(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(),
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(threadPool.getJobs()), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            return new JobPoolExecutor(null, threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(), threadPool.getJobs());
         } catch (GenericConfigException e) {
             Debug.logError(e, "Exception thrown while getting <thread-pool> model, using default <thread-pool> values: ", module);
-            return new ThreadPoolExecutor(ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            return new JobPoolExecutor(null, ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL, ThreadPool.QUEUE_SIZE);
         }
     }
 
+    private static Map<String, JobPoolExecutor> createPoolExecutors() {
+        Map<String, JobPoolExecutor> poolExecutors = new LinkedHashMap<String, JobPoolExecutor>();
+        try {
+            ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                if (runFromPool.hasOwnThreads()) {
+                    poolExecutors.put(runFromPool.getName(), new JobPoolExecutor(runFromPool.getName(), runFromPool.getMinThreads(), runFromPool.getMaxThreads(),
+                            threadPool.getTtl(), runFromPool.getJobs()));
+                }
+            }
+        } catch (GenericConfigException e) {
+            Debug.logError(e, "Exception thrown while getting <thread-pool> model, running all the pools in the <thread-pool> threads: ", module);
+        }
+        return Collections.unmodifiableMap(poolExecutors);
+    }
+
     private static int pollWaitTime() {
         try {
             ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
@@ -82,6 +99,30 @@ public final class JobPoller implements ServiceConfigListener {
         }
     }
 
+    /**
+     * Returns the names of the pools to poll for each executor. The pools without their own threads, or added to the
+     * configuration after the start, are run in the &lt;thread-pool&gt; threads.
+     */
+    private static Map<JobPoolExecutor, List<String>> getRunPools() throws GenericConfigException {
+        Map<JobPoolExecutor, List<String>> runPools = new LinkedHashMap<JobPoolExecutor, List<String>>();
+        runPools.put(executor, new ArrayList<String>());
+        for (RunFromPool runFromPool : ServiceConfigUtil.getServiceEngine().getThreadPool().getRunFromPools()) {
+            JobPoolExecutor poolExecutor = getExecutor(runFromPool.getName());
+            List<String> poolNames = runPools.get(poolExecutor);
+            if (poolNames == null) {
+                poolNames = new ArrayList<String>();
+                runPools.put(poolExecutor, poolNames);
+            }
+            poolNames.add(runFromPool.getName());
+        }
+        return runPools;
+    }
+
+    private static JobPoolExecutor getExecutor(String poolId) {
+        JobPoolExecutor poolExecutor = poolId != null ? poolExecutors.get(poolId) : null;
+        return poolExecutor != null ? poolExecutor : executor;
+    }
+
     /**
      * Register a {@link JobManager} with the job poller.
      * 
@@ -110,44 +151,77 @@ public final class JobPoller implements ServiceConfigListener {
 
     /**
      * Returns a <code>Map</code> containing <code>JobPoller</code> statistics.
+     * <p>The top level statistics are the ones of the &lt;thread-pool&gt; threads, the statistics of each pool with
+     * its own threads are in the <code>pools</code> list. The <code>taskList</code> holds the queued jobs of all
+     * the pools.</p>
      */
     public Map<String, Object> getPoolState() {
-        Map<String, Object> poolState = new HashMap<String, Object>();
-        poolState.put("keepAliveTimeInSeconds", executor.getKeepAliveTime(TimeUnit.SECONDS));
-        poolState.put("numberOfCoreInvokerThreads", executor.getCorePoolSize());
-        poolState.put("currentNumberOfInvokerThreads", executor.getPoolSize());
-        poolState.put("numberOfActiveInvokerThreads", executor.getActiveCount());
-        poolState.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
-        poolState.put("greatestNumberOfInvokerThreads", executor.getLargestPoolSize());
-        poolState.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
-        BlockingQueue<Runnable> queue = executor.getQueue();
+        Map<String, Object> poolState = getExecutorState(executor);
+        List<Map<String, Object>> pools = new ArrayList<Map<String, Object>>(poolExecutors.size() + 1);
+        pools.add(getExecutorState(executor));
+        for (JobPoolExecutor poolExecutor : poolExecutors.values()) {
+            pools.add(getExecutorState(poolExecutor));
+        }
+        poolState.put("pools", pools);
         List<Map<String, Object>> taskList = new ArrayList<Map<String, Object>>();
         Map<String, Object> taskInfo = null;
-        for (Runnable task : queue) {
-            Job job = (Job) task;
-            taskInfo = new HashMap<String, Object>();
-            taskInfo.put("id", job.getJobId());
-            taskInfo.put("name", job.getJobName());
-            String serviceName = "";
-            if (job instanceof GenericServiceJob) {
-                serviceName = ((GenericServiceJob) job).getServiceName();
+        for (JobPoolExecutor poolExecutor : getExecutors()) {
+            for (Runnable task : poolExecutor.getQueue()) {
+                Job job = ((QueuedJob) task).getJob();
+                taskInfo = new HashMap<String, Object>();
+                taskInfo.put("id", job.getJobId());
+                taskInfo.put("name", job.getJobName());
+                String serviceName = "";
+                if (job instanceof GenericServiceJob) {
+                    serviceName = ((GenericServiceJob) job).getServiceName();
+                }
+                taskInfo.put("serviceName", serviceName);
+                taskInfo.put("poolId", job.getPoolId());
+                taskInfo.put("priority", job.getPriority());
+                taskInfo.put("time", job.getStartTime());
+                taskInfo.put("runtime", job.getRuntime());
+                taskList.add(taskInfo);
             }
-            taskInfo.put("serviceName", serviceName);
-            taskInfo.put("time", job.getStartTime());
-            taskInfo.put("runtime", job.getRuntime());
-            taskList.add(taskInfo);
         }
         poolState.put("taskList", taskList);
         return poolState;
     }
 
+    private static Map<String, Object> getExecutorState(JobPoolExecutor poolExecutor) {
+        Map<String, Object> executorState = new HashMap<String, Object>();
+        executorState.put("poolName", poolExecutor.getPoolName() != null ? poolExecutor.getPoolName() : "");
+        executorState.put("keepAliveTimeInSeconds", poolExecutor.getKeepAliveTime(TimeUnit.SECONDS));
+        executorState.put("numberOfCoreInvokerThreads", poolExecutor.getCorePoolSize());
+        executorState.put("currentNumberOfInvokerThreads", poolExecutor.getPoolSize());
+        executorState.put("numberOfActiveInvokerThreads", poolExecutor.getActiveCount());
+        executorState.put("maxNumberOfInvokerThreads", poolExecutor.getMaximumPoolSize());
+        executorState.put("greatestNumberOfInvokerThreads", poolExecutor.getLargestPoolSize());
+        executorState.put("numberOfCompletedTasks", poolExecutor.getCompletedTaskCount());
+        executorState.put("numberOfQueuedTasks", poolExecutor.getQueue().size());
+        executorState.put("queueSize", poolExecutor.getCapacity());
+        return executorState;
+    }
+
+    private static List<JobPoolExecutor> getExecutors() {
+        List<JobPoolExecutor> executors = new ArrayList<JobPoolExecutor>(poolExecutors.size() + 1);
+        executors.add(executor);
+        executors.addAll(poolExecutors.values());
+        return executors;
+    }
+
     @Override
     public void onServiceConfigChange(ServiceConfig serviceConfig) {
         if (!executor.isShutdown()) {
             ThreadPool threadPool = serviceConfig.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
-            executor.setCorePoolSize(threadPool.getMinThreads());
-            executor.setMaximumPoolSize(threadPool.getMaxThreads());
-            executor.setKeepAliveTime(threadPool.getTtl(), TimeUnit.MILLISECONDS);
+            executor.resize(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl());
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                JobPoolExecutor poolExecutor = poolExecutors.get(runFromPool.getName());
+                if (poolExecutor != null && runFromPool.hasOwnThreads()) {
+                    poolExecutor.resize(runFromPool.getMinThreads(), runFromPool.getMaxThreads(), threadPool.getTtl());
+                } else if (poolExecutor == null && runFromPool.hasOwnThreads()) {
+                    Debug.logInfo("The job pool " + runFromPool.getName() + " will run in its own threads after a restart, until then it runs in the <thread-pool> threads", module);
+                }
+            }
         }
     }
 
@@ -161,14 +235,14 @@ public final class JobPoller implements ServiceConfigListener {
     }
 
     /**
-     * Adds a job to the job queue.
+     * Adds a job to the job queue of its pool.
      * @throws InvalidJobException if the job is in an invalid state.
      * @throws RejectedExecutionException if the poller is stopped.
      */
     public void queueNow(Job job) throws InvalidJobException {
         job.queue();
         try {
-            executor.execute(job);
+            getExecutor(job.getPoolId()).execute(new QueuedJob(job));
         } catch (Exception e) {
             job.deQueue();
         }
@@ -183,25 +257,20 @@ public final class JobPoller implements ServiceConfigListener {
         if (jobManagerPollerThread != null) {
             jobManagerPollerThread.interrupt();
         }
-        List<Runnable> queuedJobs = executor.shutdownNow();
-        for (Runnable task : queuedJobs) {
-            try {
-                Job queuedJob = (Job) task;
-                queuedJob.deQueue();
-            } catch (Exception e) {
-                Debug.logWarning(e, module);
+        for (JobPoolExecutor poolExecutor : getExecutors()) {
+            List<Runnable> queuedJobs = poolExecutor.shutdownNow();
+            for (Runnable task : queuedJobs) {
+                try {
+                    Job queuedJob = ((QueuedJob) task).getJob();
+                    queuedJob.deQueue();
+                } catch (Exception e) {
+                    Debug.logWarning(e, module);
+                }
             }
         }
         Debug.logInfo("JobPoller shutdown completed.", module);
     }
 
-    private static class JobInvokerThreadFactory implements ThreadFactory {
-
-        public Thread newThread(Runnable runnable) {
-            return new Thread(runnable, "OFBiz-JobQueue-" + created.getAndIncrement());
-        }
-    }
-
     // Polls all registered JobManagers for jobs to queue.
     private class JobManagerPoller implements Runnable {
 
@@ -214,39 +283,24 @@ public final class JobPoller implements ServiceConfigListener {
                     Thread.sleep(1000);
                 }
                 while (!executor.isShutdown()) {
-                    int remainingCapacity = executor.getQueue().remainingCapacity();
-                    if (remainingCapacity > 0) {
-                        // Build "list of lists"
-                        Collection<JobManager> jmCollection = jobManagers.values();
-                        List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
-                        for (JobManager jm : jmCollection) {
-                            if (!jm.isAvailable()) {
-                                if (Debug.infoOn()) Debug.logInfo("The job manager is locked.", module);
+                    Map<JobPoolExecutor, List<String>> runPools = null;
+                    try {
+                        runPools = getRunPools();
+                    } catch (GenericConfigException e) {
+                        Debug.logWarning(e, "Unable to get run pools - not running job: ", module);
+                    }
+                    List<JobManager> availableManagers = null;
+                    if (runPools != null) {
+                        for (Map.Entry<JobPoolExecutor, List<String>> entry : runPools.entrySet()) {
+                            JobPoolExecutor poolExecutor = entry.getKey();
+                            int remainingCapacity = poolExecutor.remainingCapacity();
+                            if (remainingCapacity == 0) {
                                 continue;
                             }
-                            jm.reloadCrashedJobs();
-                            pollResults.add(jm.poll(remainingCapacity).iterator());
-                        }
-                        // Create queue candidate list from "list of lists"
-                        List<Job> queueCandidates = new ArrayList<Job>();
-                        boolean addingJobs = true;
-                        while (addingJobs) {
-                            addingJobs = false;
-                            for (Iterator<Job> jobIterator : pollResults) {
-                                if (jobIterator.hasNext()) {
-                                    queueCandidates.add(jobIterator.next());
-                                    addingJobs = true;
-                                }
-                            }
-                        }
-                        // The candidate list might be larger than the queue remaining capacity,
-                        // but that is okay - the excess jobs will be dequeued and rescheduled.
-                        for (Job job : queueCandidates) {
-                            try {
-                                queueNow(job);
-                            } catch (InvalidJobException e) {
-                                Debug.logError(e, module);
+                            if (availableManagers == null) {
+                                availableManagers = getAvailableManagers();
                             }
+                            pollJobs(availableManagers, remainingCapacity, entry.getValue(), poolExecutor == executor);
                         }
                     }
                     Thread.sleep(pollWaitTime());
@@ -257,5 +311,48 @@ public final class JobPoller implements ServiceConfigListener {
             }
             Debug.logInfo("JobPoller thread stopped.", module);
         }
+
+        private List<JobManager> getAvailableManagers() {
+            Collection<JobManager> jmCollection = jobManagers.values();
+            List<JobManager> availableManagers = new ArrayList<JobManager>(jmCollection.size());
+            for (JobManager jm : jmCollection) {
+                if (!jm.isAvailable()) {
+                    if (Debug.infoOn()) Debug.logInfo("The job manager is locked.", module);
+                    continue;
+                }
+                jm.reloadCrashedJobs();
+                availableManagers.add(jm);
+            }
+            return availableManagers;
+        }
+
+        private void pollJobs(List<JobManager> availableManagers, int remainingCapacity, List<String> poolNames, boolean sharedQueue) {
+            // Build "list of lists"
+            List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
+            for (JobManager jm : availableManagers) {
+                pollResults.add(jm.poll(remainingCapacity, poolNames, sharedQueue).iterator());
+            }
+            // Create queue candidate list from "list of lists"
+            List<Job> queueCandidates = new ArrayList<Job>();
+            boolean addingJobs = true;
+            while (addingJobs) {
+                addingJobs = false;
+                for (Iterator<Job> jobIterator : pollResults) {
+                    if (jobIterator.hasNext()) {
+                        queueCandidates.add(jobIterator.next());
+                        addingJobs = true;
+                    }
+                }
+            }
+            // The candidate list might be larger than the queue remaining capacity,
+            // but that is okay - the excess jobs will be dequeued and rescheduled.
+            for (Job job : queueCandidates) {
+                try {
+                    queueNow(job);
+                } catch (InvalidJobException e) {
+                    Debug.logError(e, module);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executor of a job pool, or of the &lt;thread-pool&gt; element when the pool name is null.
+ * <p>The queued jobs are run by job priority, the highest priority first, then first in first out. The queue takes
+ * at most <code>jobs</code> jobs, the jobs over that are rejected. The executor runs <code>minThreads</code>
+ * threads and adds threads up to <code>maxThreads</code> while jobs are waiting. The added threads stop when
+ * they are idle for <code>ttl</code> milliseconds.</p>
+ */
+final class JobPoolExecutor extends ThreadPoolExecutor {
+
+    // the order of a job queue: the highest priority first, then first in first out
+    static final Comparator<Runnable> jobOrder = new Comparator<Runnable>() {
+        public int compare(Runnable task1, Runnable task2) {
+            QueuedJob job1 = (QueuedJob) task1;
+            QueuedJob job2 = (QueuedJob) task2;
+            if (job1.priority != job2.priority) {
+                return job1.priority > job2.priority ? -1 : 1;
+            }
+            return Long.compare(job1.sequenceNumber, job2.sequenceNumber);
+        }
+    };
+
+    private static final AtomicInteger created = new AtomicInteger();
+
+    private final String poolName;
+    private final int capacity;
+    private volatile int minThreads;
+
+    JobPoolExecutor(String poolName, int minThreads, int maxThreads, long ttl, int jobs) {
+        super(minThreads, maxThreads, ttl, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(jobs, jobOrder),
+                new JobInvokerThreadFactory(poolName), new ThreadPoolExecutor.AbortPolicy());
+        this.poolName = poolName;
+        this.capacity = jobs;
+        this.minThreads = minThreads;
+    }
+
+    /** Returns the pool name, <code>null</code> for the executor of the &lt;thread-pool&gt; element. */
+    String getPoolName() {
+        return poolName;
+    }
+
+    /** Returns the number of jobs the queue can take. */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /** Returns the number of jobs the queue can take before it is full. */
+    int remainingCapacity() {
+        return Math.max(0, capacity - getQueue().size());
+    }
+
+    /**
+     * Queues a job.
+     * @throws RejectedExecutionException if the queue is full or the executor is shut down.
+     */
+    @Override
+    public synchronized void execute(Runnable task) {
+        if (getQueue().size() >= capacity) {
+            throw new RejectedExecutionException("The job queue" + (poolName != null ? " of pool " + poolName : "") + " is full");
+        }
+        super.execute(task);
+        // the priority queue never refuses a job, so the threads over the minimum are started here
+        if (!getQueue().isEmpty() && getCorePoolSize() < getMaximumPoolSize()) {
+            setCorePoolSize(getCorePoolSize() + 1);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable t) {
+        // the threads over the minimum stop once they are idle for the ttl
+        if (getQueue().isEmpty() && getCorePoolSize() > minThreads) {
+            setCorePoolSize(minThreads);
+        }
+    }
+
+    void resize(int minThreads, int maxThreads, long ttl) {
+        this.minThreads = minThreads;
+        // the core size can not go over the maximum size
+        if (minThreads > getMaximumPoolSize()) {
+            setMaximumPoolSize(maxThreads);
+            setCorePoolSize(minThreads);
+        } else {
+            setCorePoolSize(minThreads);
+            setMaximumPoolSize(maxThreads);
+        }
+        setKeepAliveTime(ttl, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class JobInvokerThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private JobInvokerThreadFactory(String poolName) {
+            this.prefix = poolName != null ? "OFBiz-JobQueue-" + poolName + "-" : "OFBiz-JobQueue-";
+        }
+
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, prefix + created.getAndIncrement());
+        }
+    }
+
+    // A job in a job queue.
+    static final class QueuedJob implements Runnable {
+
+        private static final AtomicLong sequence = new AtomicLong();
+
+        private final Job job;
+        private final int priority;
+        private final long sequenceNumber = sequence.getAndIncrement();
+
+        QueuedJob(Job job) {
+            this.job = job;
+            this.priority = job.getPriority();
+        }
+
+        Job getJob() {
+            return job;
+        }
+
+        public void run() {
+            job.run();
+        }
+    }
+}
@@ -67,6 +67,7 @@ public class PersistedServiceJob extends GenericServiceJob {
     private final long currentRetryCount;
     private final GenericValue jobValue;
     private final long startTime;
+    private final int priority;
 
     /**
      * Creates a new PersistedServiceJob
@@ -80,6 +81,7 @@ public class PersistedServiceJob extends GenericServiceJob {
         this.jobValue = jobValue;
         Timestamp storedDate = jobValue.getTimestamp("runTime");
         this.startTime = storedDate.getTime();
+        this.priority = jobValue.get("priority") != null ? jobValue.getLong("priority").intValue() : 0;
         this.maxRetry = jobValue.get("maxRetry") != null ? jobValue.getLong("maxRetry").longValue() : -1;
         Long retryCount = jobValue.getLong("currentRetryCount");
         if (retryCount != null) {
@@ -201,6 +203,7 @@ public class PersistedServiceJob extends GenericServiceJob {
             newJob.set("statusId", "SERVICE_PENDING");
             newJob.set("startDateTime", null);
             newJob.set("runByInstanceId", null);
+            newJob.set("claimToken", null);
             newJob.set("runTime", new java.sql.Timestamp(next));
             if (isRetryOnFailure) {
                 newJob.set("currentRetryCount", new Long(currentRetryCount + 1));
@@ -360,6 +363,7 @@ public class PersistedServiceJob extends GenericServiceJob {
             jobValue.refresh();
             jobValue.set("startDateTime", null);
             jobValue.set("runByInstanceId", null);
+            jobValue.set("claimToken", null);
             jobValue.set("statusId", "SERVICE_PENDING");
             jobValue.store();
         } catch (GenericEntityException e) {
@@ -374,4 +378,14 @@ public class PersistedServiceJob extends GenericServiceJob {
     public Date getStartTime() {
         return new Date(startTime);
     }
+
+    @Override
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String getPoolId() {
+        return jobValue.getString("poolId");
+    }
 }
@@ -375,4 +375,9 @@ public class ServiceEngineTestServices {
 
         return ServiceUtil.returnSuccess();
     }
+
+    public static Map<String, Object> testServiceNoOp(DispatchContext dctx, Map<String, ? extends Object> context) {
+        // nothing to do, used to measure what calling a service costs
+        return ServiceUtil.returnSuccess();
+    }
 }
@@ -18,14 +18,23 @@
  *******************************************************************************/
 package org.apache.ofbiz.service.test;
 
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
+import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.service.ModelParam;
 import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.ModelServiceIface;
+import org.apache.ofbiz.service.ServiceValidationException;
 import org.apache.ofbiz.service.testtools.OFBizTestCase;
 
 public class ServiceEngineTests extends OFBizTestCase {
 
+    public static final String module = ServiceEngineTests.class.getName();
+
     public ServiceEngineTests(String name) {
         super(name);
     }
@@ -42,4 +51,109 @@ public class ServiceEngineTests extends OFBizTestCase {
         Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
         assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
     }
+
+    public void testServiceEcaRules() throws Exception {
+        // the service ECA rules still run with the plan of the service
+        Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "auto"));
+        assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
+    }
+
+    public void testServiceValidation() throws Exception {
+        ModelService model = dispatcher.getDispatchContext().getModelService("testServiceNoOp");
+        model.validate(UtilMisc.<String, Object>toMap("message", "Unit Test"), ModelService.IN_PARAM, Locale.getDefault());
+        try {
+            model.validate(UtilMisc.<String, Object>toMap("message", Integer.valueOf(1)), ModelService.IN_PARAM, Locale.getDefault());
+            fail("Wrong type not reported");
+        } catch (ServiceValidationException e) {
+            assertTrue("Type check message", e.getMessageList().get(0).startsWith("Type check failed for field [testServiceNoOp.message]"));
+        }
+        try {
+            model.validate(UtilMisc.<String, Object>toMap("message", "Unit Test", "unknown", "x"), ModelService.IN_PARAM, Locale.getDefault());
+            fail("Unknown parameter not reported");
+        } catch (ServiceValidationException e) {
+            assertEquals("Extra fields", UtilMisc.toList("unknown"), e.getExtraFields());
+        }
+
+        Locale locale = Locale.getDefault();
+        ModelService validationModel = dispatcher.getDispatchContext().getModelService("testServiceValidation");
+        validationModel.validate(UtilMisc.<String, Object>toMap("productId", "P", "facilityId", "F", "quantity", "12"), ModelService.IN_PARAM, locale);
+        try {
+            validationModel.validate(UtilMisc.<String, Object>toMap("quantity", "12"), ModelService.IN_PARAM, locale);
+            fail("Missing fields not reported");
+        } catch (ServiceValidationException e) {
+            // in name order
+            assertEquals("Missing fields", UtilMisc.toList("facilityId", "productId"), e.getMissingFields());
+            assertEquals("Missing field messages", 2, e.getMessageList().size());
+            assertTrue("First missing field message", e.getMessageList().get(0).endsWith("[IN] [testServiceValidation.facilityId]"));
+            assertTrue("Second missing field message", e.getMessageList().get(1).endsWith("[IN] [testServiceValidation.productId]"));
+        }
+        Map<String, Object> nullContext = new LinkedHashMap<String, Object>();
+        nullContext.put("productId", null);
+        try {
+            validationModel.validate(nullContext, ModelService.IN_PARAM, locale);
+            fail("Null field not reported");
+        } catch (ServiceValidationException e) {
+            // the null fields are reported before the missing ones
+            assertEquals("Null fields", UtilMisc.toList("productId"), e.getMissingFields());
+            assertEquals("Null field messages", 1, e.getMessageList().size());
+            assertTrue("Null field message", e.getMessageList().get(0).endsWith(" [testServiceValidation.productId]"));
+            assertFalse("Null field message without the mode", e.getMessageList().get(0).contains("[IN]"));
+        }
+        try {
+            validationModel.validate(UtilMisc.<String, Object>toMap("productId", "P", "facilityId", "F", "quantity", "twelve"), ModelService.IN_PARAM, locale);
+            fail("Type validator failure not reported");
+        } catch (ServiceValidationException e) {
+            assertEquals("Type validator message", UtilMisc.toList("The quantity must be a whole number"), e.getMessageList());
+        }
+
+        // the validator is made again when the parameters change
+        ModelService resetModel = new ModelService();
+        resetModel.name = "testServiceValidationReset";
+        resetModel.engineName = "interface";
+        resetModel.implServices.add(new ModelServiceIface("testServiceValidation", false));
+        Map<String, Object> context = UtilMisc.<String, Object>toMap("productId", "P", "facilityId", "F");
+        try {
+            resetModel.validate(context, ModelService.IN_PARAM, locale);
+            fail("Parameters not inherited yet");
+        } catch (ServiceValidationException e) {
+            assertEquals("Extra fields", UtilMisc.toList("facilityId", "productId"), e.getExtraFields());
+        }
+        resetModel.interfaceUpdate(dispatcher.getDispatchContext());
+        resetModel.validate(context, ModelService.IN_PARAM, locale);
+        ModelParam lotParam = new ModelParam();
+        lotParam.name = "lotId";
+        lotParam.type = "String";
+        lotParam.mode = ModelService.IN_PARAM;
+        resetModel.addParam(lotParam);
+        try {
+            resetModel.validate(context, ModelService.IN_PARAM, locale);
+            fail("Added parameter not required");
+        } catch (ServiceValidationException e) {
+            assertEquals("Missing fields", UtilMisc.toList("lotId"), e.getMissingFields());
+        }
+    }
+
+    /**
+     * Measures the runSync overhead with about 21000 calls of a no-op service. Only runs when
+     * test.runsync.benchmark is true in service.properties.
+     */
+    public void testRunSyncBenchmark() throws Exception {
+        if (!UtilProperties.propertyValueEqualsIgnoreCase("service", "test.runsync.benchmark", "true")) {
+            Debug.logInfo("Skipping the runSync benchmark, set test.runsync.benchmark=true in service.properties to run it", module);
+            return;
+        }
+        Map<String, Object> context = UtilMisc.<String, Object>toMap("message", "Unit Test");
+        // warm up
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.runSync("testServiceNoOp", context);
+        }
+        int calls = 20000;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            Map<String, Object> result = dispatcher.runSync("testServiceNoOp", context);
+            assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
+        }
+        long elapsed = System.nanoTime() - startTime;
+        Debug.logInfo("runSync of testServiceNoOp: " + calls + " calls in " + (elapsed / 1000000) + " ms, " + (elapsed / calls) + " ns per call", module);
+    }
 }
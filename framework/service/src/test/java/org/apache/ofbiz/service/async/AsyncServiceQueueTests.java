@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.service.GenericServiceException;
+import org.apache.ofbiz.service.ModelParam;
+import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.ServiceDispatcher;
+import org.apache.ofbiz.service.ServiceUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncServiceQueueTests {
+    private static final int threadCount = UtilProperties.getPropertyAsInteger("service", "async.queue.threads", 4);
+
+    private ServiceDispatcher dispatcher;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> callerThreads = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void initialize() throws Exception {
+        dispatcher = mock(ServiceDispatcher.class);
+        when(dispatcher.runSync(anyString(), any(ModelService.class), anyMapOf(String.class, Object.class))).thenAnswer(new Answer<Map<String, Object>>() {
+            public Map<String, Object> answer(InvocationOnMock invocation) throws InterruptedException {
+                ModelService service = (ModelService) invocation.getArguments()[1];
+                callerThreads.add(Thread.currentThread().getName());
+                if (service.name.startsWith("blocker")) {
+                    release.await();
+                }
+                return ServiceUtil.returnSuccess();
+            }
+        });
+    }
+
+    @After
+    public void releaseThreads() {
+        release.countDown();
+    }
+
+    private static ModelService service(String name, int queueSize, String policy, boolean coalesce) {
+        ModelService service = new ModelService();
+        service.name = name;
+        service.asyncQueueSize = queueSize;
+        service.asyncQueuePolicy = policy;
+        service.asyncQueueTimeout = 200;
+        service.asyncCoalesce = coalesce;
+        ModelParam param = new ModelParam();
+        param.name = "productId";
+        param.type = "String";
+        param.mode = ModelService.IN_PARAM;
+        service.addParam(param);
+        return service;
+    }
+
+    // holds all the queue threads until the test ends
+    private void occupyThreads(String blockerName) throws Exception {
+        ModelService blocker = service(blockerName, threadCount, "caller-runs", false);
+        for (int i = 0; i < threadCount; i++) {
+            AsyncServiceQueue.submit(dispatcher, "test", blocker, UtilMisc.<String, Object>toMap("productId", "blocker-" + i), null);
+        }
+        long end = System.currentTimeMillis() + 5000;
+        while (callerThreads.size() < threadCount && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("Queue threads occupied", threadCount, callerThreads.size());
+        callerThreads.clear();
+    }
+
+    private static Map<String, Object> statistics(String serviceName) {
+        for (Map<String, Object> stats : AsyncServiceQueue.getQueueStatistics()) {
+            if (serviceName.equals(stats.get("serviceName"))) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    private static void waitForCompleted(String serviceName, long completed) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (((Long) statistics(serviceName).get("completed")).longValue() < completed && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void callsWithTheSameInParametersAreCoalesced() throws Exception {
+        occupyThreads("blocker-coalesce");
+        ModelService service = service("coalesce", 10, "caller-runs", true);
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "A", "extra", "1"), null);
+        // the fields that are not IN parameters are not part of the call
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "A", "extra", "2"), null);
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "B"), null);
+        Map<String, Object> stats = statistics("coalesce");
+        assertEquals(3L, stats.get("submitted"));
+        assertEquals(1L, stats.get("coalesced"));
+        assertEquals(2, stats.get("pending"));
+        assertEquals(2, stats.get("maxPending"));
+
+        release.countDown();
+        waitForCompleted("coalesce", 2);
+        stats = statistics("coalesce");
+        assertEquals(2L, stats.get("completed"));
+        assertEquals(0L, stats.get("failed"));
+        assertEquals(0, stats.get("pending"));
+
+        // a started call no longer coalesces the same call
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "A"), null);
+        waitForCompleted("coalesce", 3);
+        assertEquals(3L, statistics("coalesce").get("completed"));
+        assertEquals(1L, statistics("coalesce").get("coalesced"));
+    }
+
+    @Test(timeout = 20000)
+    public void fullQueueRunsTheCallInTheCaller() throws Exception {
+        occupyThreads("blocker-caller-runs");
+        ModelService service = service("caller-runs", 1, "caller-runs", false);
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "A"), null);
+        assertTrue(callerThreads.isEmpty());
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "B"), null);
+        assertEquals(Collections.singletonList(Thread.currentThread().getName()), callerThreads);
+        Map<String, Object> stats = statistics("caller-runs");
+        assertEquals(2L, stats.get("submitted"));
+        assertEquals(1L, stats.get("callerRuns"));
+        assertEquals(1L, stats.get("completed"));
+        assertEquals(1, stats.get("pending"));
+        assertEquals(0L, stats.get("rejected"));
+    }
+
+    @Test(timeout = 20000)
+    public void fullQueueBlocksTheCallerThenRejects() throws Exception {
+        occupyThreads("blocker-block");
+        ModelService service = service("block", 1, "block", false);
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "A"), null);
+        long start = System.currentTimeMillis();
+        try {
+            AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "B"), null);
+            fail("Call queued in a full queue");
+        } catch (GenericServiceException e) {
+        }
+        assertTrue("Caller waited for the timeout", System.currentTimeMillis() - start >= 200);
+        assertTrue(callerThreads.isEmpty());
+        Map<String, Object> stats = statistics("block");
+        assertEquals(2L, stats.get("submitted"));
+        assertEquals(1L, stats.get("rejected"));
+        assertEquals(0L, stats.get("callerRuns"));
+        assertEquals(1, stats.get("pending"));
+    }
+
+    @Test(timeout = 20000)
+    public void blockedCallerIsQueuedWhenThereIsRoom() throws Exception {
+        occupyThreads("blocker-unblock");
+        final ModelService service = service("unblock", 1, "block", false);
+        service.asyncQueueTimeout = 10000;
+        AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "A"), null);
+        final CountDownLatch queued = new CountDownLatch(1);
+        Thread caller = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    AsyncServiceQueue.submit(dispatcher, "test", service, UtilMisc.<String, Object>toMap("productId", "B"), null);
+                    queued.countDown();
+                } catch (GenericServiceException e) {
+                }
+            }
+        });
+        caller.start();
+        assertFalse("Caller blocked while the queue is full", queued.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue("Caller queued once there is room", queued.await(5, TimeUnit.SECONDS));
+        waitForCompleted("unblock", 2);
+        Map<String, Object> stats = statistics("unblock");
+        assertEquals(2L, stats.get("completed"));
+        assertEquals(0L, stats.get("rejected"));
+        assertEquals(0L, stats.get("callerRuns"));
+    }
+}
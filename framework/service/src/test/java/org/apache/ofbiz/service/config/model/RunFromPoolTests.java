@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.config.model;
+
+import org.apache.ofbiz.base.util.UtilXml;
+import org.apache.ofbiz.service.config.ServiceConfigException;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import static org.junit.Assert.*;
+
+public class RunFromPoolTests {
+
+    private static Element runFromPoolElement(String... attributes) throws Exception {
+        Element element = UtilXml.makeEmptyXmlDocument("run-from-pool").getDocumentElement();
+        for (int i = 0; i < attributes.length; i += 2) {
+            element.setAttribute(attributes[i], attributes[i + 1]);
+        }
+        return element;
+    }
+
+    @Test
+    public void poolWithoutMaxThreadsSharesTheThreadPool() throws Exception {
+        RunFromPool runFromPool = new RunFromPool(runFromPoolElement("name", "pool"));
+        assertEquals("pool", runFromPool.getName());
+        assertFalse(runFromPool.hasOwnThreads());
+        assertEquals(0, runFromPool.getMaxThreads());
+        assertEquals(0, runFromPool.getMinThreads());
+        assertEquals(0, runFromPool.getJobs());
+    }
+
+    @Test
+    public void poolWithMaxThreadsHasDefaults() throws Exception {
+        RunFromPool runFromPool = new RunFromPool(runFromPoolElement("name", "reports", "max-threads", "4"));
+        assertTrue(runFromPool.hasOwnThreads());
+        assertEquals(4, runFromPool.getMaxThreads());
+        assertEquals(Math.min(ThreadPool.MIN_THREADS, 4), runFromPool.getMinThreads());
+        assertEquals(ThreadPool.QUEUE_SIZE, runFromPool.getJobs());
+    }
+
+    @Test
+    public void poolAttributesAreParsed() throws Exception {
+        RunFromPool runFromPool = new RunFromPool(runFromPoolElement("name", "reports", "max-threads", "4", "min-threads", "2", "jobs", "20"));
+        assertEquals(4, runFromPool.getMaxThreads());
+        assertEquals(2, runFromPool.getMinThreads());
+        assertEquals(20, runFromPool.getJobs());
+    }
+
+    @Test(expected = ServiceConfigException.class)
+    public void emptyNameIsInvalid() throws Exception {
+        new RunFromPool(runFromPoolElement("max-threads", "4"));
+    }
+
+    @Test(expected = ServiceConfigException.class)
+    public void zeroMaxThreadsIsInvalid() throws Exception {
+        new RunFromPool(runFromPoolElement("name", "reports", "max-threads", "0"));
+    }
+
+    @Test(expected = ServiceConfigException.class)
+    public void nonNumericMaxThreadsIsInvalid() throws Exception {
+        new RunFromPool(runFromPoolElement("name", "reports", "max-threads", "many"));
+    }
+
+    @Test(expected = ServiceConfigException.class)
+    public void minThreadsOverMaxThreadsIsInvalid() throws Exception {
+        new RunFromPool(runFromPoolElement("name", "reports", "max-threads", "2", "min-threads", "3"));
+    }
+
+    @Test(expected = ServiceConfigException.class)
+    public void zeroJobsIsInvalid() throws Exception {
+        new RunFromPool(runFromPoolElement("name", "reports", "max-threads", "2", "jobs", "0"));
+    }
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ofbiz.service.job.JobPoolExecutor.QueuedJob;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class JobPoolExecutorTests {
+    private final List<JobPoolExecutor> executors = new ArrayList<JobPoolExecutor>();
+    private final List<String> runJobs = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        for (JobPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    private JobPoolExecutor executor(String poolName, int minThreads, int maxThreads, long ttl, int jobs) {
+        JobPoolExecutor executor = new JobPoolExecutor(poolName, minThreads, maxThreads, ttl, jobs);
+        executors.add(executor);
+        return executor;
+    }
+
+    // a job that records its name when it runs
+    private QueuedJob job(final String name, int priority) {
+        Job job = mock(Job.class);
+        when(job.getPriority()).thenReturn(priority);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                runJobs.add(name);
+                return null;
+            }
+        }).when(job).run();
+        return new QueuedJob(job);
+    }
+
+    // a job that holds its thread until the test releases it
+    private QueuedJob blockingJob(final CountDownLatch started) {
+        Job job = mock(Job.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                runJobs.add(Thread.currentThread().getName());
+                started.countDown();
+                release.await();
+                return null;
+            }
+        }).when(job).run();
+        return new QueuedJob(job);
+    }
+
+    private static void waitUntilIdle(JobPoolExecutor executor) throws InterruptedException {
+        while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void jobsRunByPriorityThenFirstInFirstOut() throws Exception {
+        JobPoolExecutor executor = executor(null, 1, 1, 60000, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(blockingJob(started));
+        started.await();
+        executor.execute(job("low-1", 0));
+        executor.execute(job("high-1", 5));
+        executor.execute(job("low-2", 0));
+        executor.execute(job("high-2", 5));
+        executor.execute(job("highest", 9));
+        release.countDown();
+        waitUntilIdle(executor);
+        assertEquals(Arrays.asList("highest", "high-1", "high-2", "low-1", "low-2"), runJobs.subList(1, runJobs.size()));
+    }
+
+    @Test(timeout = 10000)
+    public void fullQueueRejectsJobs() throws Exception {
+        JobPoolExecutor executor = executor(null, 1, 1, 60000, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(blockingJob(started));
+        started.await();
+        executor.execute(job("queued-1", 0));
+        assertEquals(1, executor.remainingCapacity());
+        executor.execute(job("queued-2", 0));
+        assertEquals(0, executor.remainingCapacity());
+        try {
+            executor.execute(job("rejected", 9));
+            fail("Job queued in a full queue");
+        } catch (RejectedExecutionException e) {
+        }
+        release.countDown();
+        waitUntilIdle(executor);
+        assertFalse(runJobs.contains("rejected"));
+        assertEquals(2, executor.remainingCapacity());
+    }
+
+    @Test(timeout = 10000)
+    public void threadsAreAddedUpToTheMaximumWhileJobsWait() throws Exception {
+        JobPoolExecutor executor = executor("reports", 1, 3, 100, 10);
+        CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 5; i++) {
+            executor.execute(blockingJob(started));
+        }
+        started.await();
+        assertEquals(3, executor.getPoolSize());
+        assertEquals(2, executor.getQueue().size());
+        for (String threadName : runJobs) {
+            assertTrue(threadName, threadName.startsWith("OFBiz-JobQueue-reports-"));
+        }
+        release.countDown();
+        waitUntilIdle(executor);
+        // the threads over the minimum stop once idle for the ttl
+        while (executor.getPoolSize() > 1) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, executor.getCorePoolSize());
+        assertEquals(3, executor.getLargestPoolSize());
+    }
+
+    @Test(timeout = 10000)
+    public void fullPoolDoesNotHoldBackOtherPools() throws Exception {
+        JobPoolExecutor reports = executor("reports", 1, 1, 60000, 1);
+        JobPoolExecutor mail = executor("mail", 1, 1, 60000, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        reports.execute(blockingJob(started));
+        started.await();
+        reports.execute(job("report", 0));
+        assertEquals(0, reports.remainingCapacity());
+        mail.execute(job("mail", 0));
+        waitUntilIdle(mail);
+        assertTrue(runJobs.contains("mail"));
+        assertFalse(runJobs.contains("report"));
+        assertEquals(1, mail.remainingCapacity());
+    }
+
+    @Test
+    public void queuedJobsAreOrderedByPriorityThenSequence() {
+        QueuedJob first = job("first", 1);
+        QueuedJob second = job("second", 1);
+        QueuedJob urgent = job("urgent", 2);
+        assertTrue(JobPoolExecutor.jobOrder.compare(first, second) < 0);
+        assertTrue(JobPoolExecutor.jobOrder.compare(second, first) > 0);
+        assertTrue(JobPoolExecutor.jobOrder.compare(urgent, first) < 0);
+        assertEquals(0, JobPoolExecutor.jobOrder.compare(first, first));
+    }
+}
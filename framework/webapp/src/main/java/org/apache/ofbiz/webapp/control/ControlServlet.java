@@ -42,6 +42,7 @@ import org.apache.ofbiz.entity.DelegatorFactory;
 import org.apache.ofbiz.entity.GenericDelegator;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionMonitor;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.security.Security;
 import org.apache.ofbiz.service.LocalDispatcher;
@@ -205,6 +206,8 @@ public class ControlServlet extends HttpServlet {
         request.setAttribute(ControlFilter.FORWARDED_FROM_SERVLET, Boolean.TRUE);
 
         String errorPage = null;
+        // the request handler names the origin after the request-map once it is matched
+        String parentTransactionOrigin = TransactionMonitor.setOrigin("request:" + UtilHttp.getApplicationName(request));
         try {
             // the ServerHitBin call for the event is done inside the doRequest method
             requestHandler.doRequest(request, response, null, userLogin, delegator);
@@ -227,6 +230,8 @@ public class ControlServlet extends HttpServlet {
             Debug.logError(e, "Error in request handler: ", module);
             request.setAttribute("_ERROR_MESSAGE_", UtilCodec.getEncoder("html").encode(e.toString()));
             errorPage = requestHandler.getDefaultErrorPage(request);
+        } finally {
+            TransactionMonitor.setOrigin(parentTransactionOrigin);
         }
 
         // Forward to the JSP
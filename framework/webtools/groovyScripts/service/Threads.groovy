@@ -25,7 +25,9 @@ import java.util.Map
 import java.sql.Timestamp
 
 import org.apache.ofbiz.base.util.UtilMisc
+import org.apache.ofbiz.entityext.eca.EntityEcaAsyncExecutor
 import org.apache.ofbiz.service.RunningService
+import org.apache.ofbiz.service.async.AsyncServiceQueue
 import org.apache.ofbiz.service.engine.GenericEngine
 import org.apache.ofbiz.base.util.UtilHttp
 import org.apache.ofbiz.base.util.UtilProperties
@@ -37,6 +39,9 @@ threads = []
 poolState = dispatcher.getJobManager().getPoolState()
 context.poolState = poolState
 context.threads = poolState.taskList
+context.pools = poolState.pools
+context.asyncQueues = AsyncServiceQueue.getQueueStatistics()
+context.eecaAsyncState = [queuedCount : EntityEcaAsyncExecutor.getQueuedCount(), coalescedCount : EntityEcaAsyncExecutor.getCoalescedCount()]
 
 // Some stuff for general threads on the server
 currentThread = Thread.currentThread()
@@ -18,13 +18,9 @@
  */
 package org.apache.ofbiz.webtools;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -43,11 +39,15 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.ofbiz.base.concurrent.ExecutionPool;
 import org.apache.ofbiz.base.location.FlexibleLocation;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.GeneralException;
@@ -76,11 +76,9 @@ import org.apache.ofbiz.entity.model.ModelReader;
 import org.apache.ofbiz.entity.model.ModelRelation;
 import org.apache.ofbiz.entity.model.ModelUtil;
 import org.apache.ofbiz.entity.model.ModelViewEntity;
-import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.entity.util.EntityDataAssert;
+import org.apache.ofbiz.entity.util.EntityDataExport;
 import org.apache.ofbiz.entity.util.EntityDataLoader;
-import org.apache.ofbiz.entity.util.EntityListIterator;
-import org.apache.ofbiz.entity.util.EntityQuery;
 import org.apache.ofbiz.entity.util.EntitySaxReader;
 import org.apache.ofbiz.entityext.EntityGroupUtil;
 import org.apache.ofbiz.security.Security;
@@ -240,7 +238,8 @@ public class WebToolsServices {
                 File[] fileArray = baseDir.listFiles();
                 List<File> files = new LinkedList<File>();
                 for (File file: fileArray) {
-                    if (file.getName().toUpperCase().endsWith("XML")) {
+                    String fileName = file.getName().toUpperCase();
+                    if (fileName.endsWith("XML") || fileName.endsWith("XML.GZ") || EntityDataExport.isBinaryFile(fileName)) {
                         files.add(file);
                     }
                 }
@@ -443,6 +442,14 @@ public class WebToolsServices {
         }
 
         long rowProcessed = 0;
+        if (url != null && EntityDataExport.isBinaryFile(url.getPath()) && !checkDataOnly) {
+            try {
+                rowProcessed = EntityDataExport.importBinary(delegator, url, createDummyFks, maintainTimeStamps, mostlyInserts, 0, txTimeout.intValue());
+            } catch (Exception ex) {
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityImportParsingError", UtilMisc.toMap("errorString", ex.toString()), locale));
+            }
+            return UtilMisc.<String, Object>toMap("rowProcessed", rowProcessed);
+        }
         try {
             EntitySaxReader reader = new EntitySaxReader(delegator);
             reader.setUseTryInsertMethod(mostlyInserts);
@@ -463,19 +470,29 @@ public class WebToolsServices {
     }
 
     public static Map<String, Object> entityExportAll(DispatchContext dctx, Map<String, ? extends Object> context) {
-        Delegator delegator = dctx.getDelegator();
+        final Delegator delegator = dctx.getDelegator();
         Locale locale = (Locale) context.get("locale");
         String outpath = (String)context.get("outpath"); // mandatory
         Timestamp fromDate = (Timestamp)context.get("fromDate");
+        final boolean binary = "true".equals(context.get("binary")) || "Y".equals(context.get("binary"));
+        final boolean compress = "true".equals(context.get("compress")) || "Y".equals(context.get("compress"));
         Integer txTimeout = (Integer)context.get("txTimeout");
         if (txTimeout == null) {
             txTimeout = Integer.valueOf(7200);
         }
+        Integer fetchSize = (Integer) context.get("fetchSize");
+        if (fetchSize == null) {
+            fetchSize = Integer.valueOf(EntityDataExport.DEFAULT_FETCH_SIZE);
+        }
+        Integer threads = (Integer) context.get("threads");
+        if (threads == null || threads.intValue() < 1) {
+            threads = Integer.valueOf(1);
+        }
 
         List<String> results = new LinkedList<String>();
 
         if (UtilValidate.isNotEmpty(outpath)) {
-            File outdir = new File(outpath);
+            final File outdir = new File(outpath);
             if (!outdir.exists()) {
                 outdir.mkdir();
             }
@@ -488,67 +505,39 @@ public class WebToolsServices {
                 } catch (Exception exc) {
                     return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityImportErrorRetrievingEntityNames", locale));
                 }
-                int fileNumber = 1;
-
-                for (String curEntityName: passedEntityNames) {
-                    long numberWritten = 0;
-                    EntityListIterator values = null;
+                final EntityCondition condition = fromDate != null ? EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate) : null;
+                final int fetchSizeToUse = fetchSize.intValue();
+                final int txTimeoutToUse = txTimeout.intValue();
 
-                    try {
-                        ModelEntity me = delegator.getModelEntity(curEntityName);
-                        if (me instanceof ModelViewEntity) {
-                            results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
-                            continue;
-                        }
-
-                        boolean beganTx = TransactionUtil.begin();
-                        // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
-                        try {
-                            List<EntityCondition> conds = new LinkedList<EntityCondition>();
-                            if (UtilValidate.isNotEmpty(fromDate)) {
-                                conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
-                            }
-                            values = EntityQuery.use(delegator).from(curEntityName).where(conds).orderBy(me.getPkFieldNames()).queryIterator();
-                        } catch (Exception entityEx) {
-                            results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + entityEx);
-                            continue;
-                        }
-
-                        //Don't bother writing the file if there's nothing
-                        //to put into it
-                        GenericValue value = values.next();
-                        if (value != null) {
-                            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outdir, curEntityName +".xml")), "UTF-8")));
-                            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                            writer.println("<entity-engine-xml>");
-
-                            do {
-                                value.writeXmlText(writer, "");
-                                numberWritten++;
-                                if (numberWritten % 500 == 0) {
-                                    TransactionUtil.commit(beganTx);
-                                    beganTx = TransactionUtil.begin();
+                // each entity is exported in its own thread and transaction, the results are reported in the order of the entities
+                ExecutorService executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-entity-export", threads.intValue(), 0, false);
+                try {
+                    List<Future<String>> futures = new LinkedList<Future<String>>();
+                    int fileNumber = 1;
+                    for (final String curEntityName: passedEntityNames) {
+                        final String filePrefix = "[" + fileNumber++ + "] ";
+                        futures.add(executor.submit(new Callable<String>() {
+                            public String call() {
+                                if (delegator.getModelEntity(curEntityName) instanceof ModelViewEntity) {
+                                    return filePrefix + "[vvv] " + curEntityName + " skipping view entity";
+                                }
+                                try {
+                                    long numberWritten = EntityDataExport.exportEntity(delegator, curEntityName, condition, outdir, binary, compress, fetchSizeToUse, txTimeoutToUse);
+                                    if (numberWritten > 0) {
+                                        return filePrefix + "[" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records";
+                                    }
+                                    return filePrefix + "[---] " + curEntityName + " has no records, not writing file";
+                                } catch (Exception ex) {
+                                    // some databases don't support cursors, or other problems may happen, so log it and move on to get as much as possible
+                                    Debug.logError(ex, "Error when writing " + curEntityName, module);
+                                    return filePrefix + "[xxx] Error when writing " + curEntityName + ": " + ex;
                                 }
-                            } while ((value = values.next()) != null);
-                            writer.println("</entity-engine-xml>");
-                            writer.close();
-                            results.add("["+fileNumber +"] [" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records");
-                        } else {
-                            results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
-                        }
-                        values.close();
-                        TransactionUtil.commit(beganTx);
-                    } catch (Exception ex) {
-                        if (values != null) {
-                            try {
-                                values.close();
-                            } catch (Exception exc) {
-                                //Debug.warning();
                             }
-                        }
-                        results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + ex);
+                        }));
                     }
-                    fileNumber++;
+                    results.addAll(ExecutionPool.getAllFutures(futures));
+                } finally {
+                    executor.shutdown();
                 }
             } else {
                 results.add("Path not found or no write access.");
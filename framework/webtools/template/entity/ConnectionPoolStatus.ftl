@@ -30,6 +30,12 @@ under the License.
         <td>Min Idle</td>
         <td>Min Evictable Idle Time</td>
         <td>Max Wait</td>
+        <td>Num Waiters</td>
+        <td>Borrow Count</td>
+        <td>Borrow Failures</td>
+        <td>Mean Borrow Wait</td>
+        <td>Max Borrow Wait</td>
+        <td>Borrow Wait Histogram</td>
     </tr>
     <#assign alt_row = false>
     <#if (groups?has_content)>
@@ -48,6 +54,12 @@ under the License.
                         <td>${dataSourceInfo.poolMinIdle!}</td>
                         <td>${dataSourceInfo.poolMinEvictableIdleTimeMillis!}</td>
                         <td>${dataSourceInfo.poolMaxWait!}</td>
+                        <td>${dataSourceInfo.poolNumWaiters!}</td>
+                        <td>${dataSourceInfo.poolBorrowCount!}</td>
+                        <td>${dataSourceInfo.poolBorrowFailures!}</td>
+                        <td>${dataSourceInfo.poolMeanBorrowWait!}</td>
+                        <td>${dataSourceInfo.poolMaxBorrowWait!}</td>
+                        <td><#if (dataSourceInfo.poolBorrowWaitHistogram)??><#list dataSourceInfo.poolBorrowWaitHistogram as count>${count}<#if count_has_next> / </#if></#list></#if></td>
                     </tr>
                 </#if>
             </#if>
@@ -31,6 +31,10 @@ under the License.
     ${uiLabelMap.WebtoolsOutputDirectory}: <input type="text" size="60" name="outpath" value="${outpath!}" /><br />
     ${uiLabelMap.CommonFromDate}: <@htmlTemplate.renderDateTimeField name="fromDate" event="" action="" className="" alert="" title="Format: yyyy-MM-dd HH:mm:ss.SSS" value="" size="25" maxlength="30" id="fromDate" dateType="date" shortDateInput=false timeDropdownParamName="" defaultDateTimeString="" localizedIconTitle="" timeDropdown="" timeHourName="" classString="" hour1="" hour2="" timeMinutesName="" minutes="" isTwelveHour="" ampmName="" amSelected="" pmSelected="" compositeType="" formName=""/><br/>
     ${uiLabelMap.WebtoolsTimeoutSeconds}: <input type="text" size="6" value="${txTimeout?default('7200')}" name="txTimeout"/><br />
+    ${uiLabelMap.WebtoolsExportFetchSize}: <input type="text" size="6" value="${fetchSize?default('1000')}" name="fetchSize"/><br />
+    ${uiLabelMap.WebtoolsExportThreads}: <input type="text" size="6" value="${threads?default('1')}" name="threads"/><br />
+    <input type="checkbox" name="compress" value="true" <#if compress??>checked="checked"</#if>/> ${uiLabelMap.WebtoolsExportCompress}<br />
+    <input type="checkbox" name="binary" value="true" <#if binary??>checked="checked"</#if>/> ${uiLabelMap.WebtoolsExportBinary}<br />
     <br />
     <input type="submit" value="${uiLabelMap.WebtoolsExport}" />
 </form>
@@ -0,0 +1,106 @@
+<#--
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+-->
+<h1>Transaction Status</h1>
+
+<#assign monitor = Static["org.apache.ofbiz.entity.transaction.TransactionMonitor"].getInstance()/>
+<#if !monitor.isEnabled()>
+    <p>The transaction monitor is not enabled, see the transaction-monitor element of entityengine.xml.</p>
+</#if>
+<table class="basic-table light-grid hover-bar">
+    <tr class="header-row">
+        <td>Open</td>
+        <td>Suspended</td>
+        <td>Committed</td>
+        <td>Rolled Back</td>
+        <td>Long (over ${monitor.getLongTransactionThreshold()} ms)</td>
+    </tr>
+    <tr>
+        <td>${monitor.getOpenTransactionCount()}</td>
+        <td>${monitor.getSuspendedTransactionCount()}</td>
+        <td>${monitor.getCommittedCount()}</td>
+        <td>${monitor.getRolledBackCount()}</td>
+        <td>${monitor.getLongTransactionCount()}</td>
+    </tr>
+</table>
+
+<h2>Duration Histogram</h2>
+<#assign bounds = monitor.getHistogramBounds()/>
+<#assign counts = monitor.getDurationHistogram()/>
+<table class="basic-table light-grid hover-bar">
+    <tr class="header-row">
+        <#list bounds as bound>
+            <td>&lt;= ${bound} ms</td>
+        </#list>
+        <td>&gt; ${bounds[bounds?size - 1]} ms</td>
+        <td>Max</td>
+    </tr>
+    <tr>
+        <#list counts as count>
+            <td>${count}</td>
+        </#list>
+        <td>${monitor.getDurations().getMax()} ms</td>
+    </tr>
+</table>
+
+<h2>Open Transactions</h2>
+<table class="basic-table light-grid hover-bar">
+    <tr class="header-row">
+        <td>Origin</td>
+        <td>Thread</td>
+        <td>Age (ms)</td>
+        <td>SQL Statements</td>
+        <td>Suspended</td>
+        <td>Long</td>
+    </tr>
+    <#list monitor.getOpenTransactionList() as transaction>
+        <tr>
+            <td>${(transaction.origin!)?html}</td>
+            <td>${(transaction.threadName!)?html}</td>
+            <td>${transaction.age}</td>
+            <td>${transaction.statementCount}</td>
+            <td>${transaction.suspended?string("Y", "N")}</td>
+            <td>${transaction.longRunning?string("Y", "N")}</td>
+        </tr>
+    </#list>
+</table>
+
+<h2>Transactions By Origin</h2>
+<table class="basic-table light-grid hover-bar">
+    <tr class="header-row">
+        <td>Origin</td>
+        <td>Count</td>
+        <td>Rolled Back</td>
+        <td>Total Time (ms)</td>
+        <td>Max Time (ms)</td>
+    </tr>
+    <#list monitor.getOriginStatisticList() as statistic>
+        <tr>
+            <td>${(statistic.origin!)?html}</td>
+            <td>${statistic.count}</td>
+            <td>${statistic.rolledBackCount}</td>
+            <td>${statistic.totalTime}</td>
+            <td>${statistic.maxTime}</td>
+        </tr>
+    </#list>
+</table>
+
+<h2>Long Transactions</h2>
+<#list monitor.getLongTransactionReportList() as report>
+    <pre>${report?html}</pre>
+</#list>
@@ -41,6 +41,11 @@ import org.apache.ofbiz.widget.model.ModelForm;
 public final class Paginator {
 
     public static final String module = Paginator.class.getName();
+    /**
+     * Prefix of the request parameters holding the keysetNext values in the Next link of a keyset page; performFind
+     * reads them back from its inputFields when keysetPaging is Y.
+     */
+    public static final String KEYSET_AFTER_PREFIX = "keysetAfter_";
 
     public static int getActualPageSize(Map<String, Object> context) {
         Integer value = (Integer) context.get("actualPageSize");
@@ -57,6 +62,7 @@ public final class Paginator {
         int viewSize = 0;
         int lowIndex = 0;
         int highIndex = 0;
+        boolean keysetPage = false;
         int listSize = modelForm.getOverrideListSize(context);
         if (listSize > 0) {
             //setOverridenListSize(true);
@@ -76,6 +82,11 @@ public final class Paginator {
                 if(resultMap.containsKey("listSize")){
                     listSize = (int)resultMap.get("listSize");
                 }
+                if (resultMap.containsKey("keysetNext")) {
+                    // keyset page from performFindList, see isKeysetPage
+                    keysetPage = true;
+                    context.put("keysetNext", resultMap.get("keysetNext"));
+                }
             }
         } else if (entryList instanceof PagedList) {
             PagedList<?> pagedList = (PagedList<?>) entryList;
@@ -92,6 +103,12 @@ public final class Paginator {
             lowIndex = 0;
             highIndex = ModelForm.MAX_PAGE_SIZE;
         }
+        if (keysetPage) {
+            // the list only holds the current page, positioned by a keyset instead of an offset
+            lowIndex = 0;
+            highIndex = viewSize;
+        }
+        context.put("keysetPage", Boolean.valueOf(keysetPage));
         context.put("listSize", Integer.valueOf(listSize));
         context.put("viewIndex", Integer.valueOf(viewIndex));
         context.put("viewSize", Integer.valueOf(viewSize));
@@ -99,6 +116,14 @@ public final class Paginator {
         context.put("highIndex", Integer.valueOf(highIndex));
     }
 
+    /**
+     * Returns true if the list being paginated is a keyset page, ie it only holds the rows of the current
+     * page and the next page is requested with the <code>keysetNext</code> value in the context.
+     */
+    public static boolean isKeysetPage(Map<String, Object> context) {
+        return Boolean.TRUE.equals(context.get("keysetPage"));
+    }
+
     public static int getListSize(Map<String, Object> context) {
         Integer value = (Integer) context.get("listSize");
         return value != null ? value.intValue() : 0;
@@ -206,7 +231,7 @@ public final class Paginator {
         // Debug.logInfo("preparePager: low - high = " + lowIndex + " - " + highIndex, module);
 
         // we're passed a subset of the list, so use (0, viewSize) range
-        if (modelForm.isOverridenListSize()) {
+        if (modelForm.isOverridenListSize() || isKeysetPage(context)) {
             lowIndex = 0;
             highIndex = ((Integer) context.get("viewSize")).intValue();
         }
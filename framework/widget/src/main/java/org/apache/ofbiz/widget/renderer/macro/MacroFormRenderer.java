@@ -26,6 +26,7 @@ import java.rmi.server.UID;
 import java.sql.Timestamp;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -2295,6 +2296,9 @@ public final class MacroFormRenderer implements FormStringRenderer {
         int lowIndex = Paginator.getLowIndex(context);
         int highIndex = Paginator.getHighIndex(context);
         int actualPageSize = Paginator.getActualPageSize(context);
+        // a keyset page only links to the first page and, unless it is the last one, to the next page
+        boolean keysetPage = Paginator.isKeysetPage(context);
+        Map<String, Object> keysetNext = keysetPage ? UtilGenerics.<String, Object>checkMap(context.get("keysetNext")) : null;
         // needed for the "Page" and "rows" labels
         Map<String, String> uiLabelMap = UtilGenerics.checkMap(context.get("uiLabelMap"));
         String pageLabel = "";
@@ -2306,6 +2310,10 @@ public final class MacroFormRenderer implements FormStringRenderer {
             Map<String, Integer> messageMap = UtilMisc.toMap("lowCount", Integer.valueOf(lowIndex + 1), "highCount", Integer.valueOf(lowIndex + actualPageSize), "total", Integer.valueOf(listSize));
             commonDisplaying = UtilProperties.getMessage("CommonUiLabels", "CommonDisplaying", messageMap, (Locale) context.get("locale"));
         }
+        if (keysetPage) {
+            // the total is not known
+            commonDisplaying = "";
+        }
         // for legacy support, the viewSizeParam is VIEW_SIZE and viewIndexParam is VIEW_INDEX when the fields are "viewSize" and "viewIndex"
         if (viewIndexParam.equals("viewIndex" + "_" + paginatorNumber))
             viewIndexParam = "VIEW_INDEX" + "_" + paginatorNumber;
@@ -2318,6 +2326,15 @@ public final class MacroFormRenderer implements FormStringRenderer {
         Set<String> paramNames = new HashSet<String>();
         paramNames.add(viewIndexParam);
         paramNames.add(viewSizeParam);
+        // and the position of the current keyset page
+        if (UtilValidate.isNotEmpty(queryString)) {
+            for (String token: StringUtil.split(queryString.replace("&amp;", "&"), "&")) {
+                if (token.startsWith(Paginator.KEYSET_AFTER_PREFIX)) {
+                    int equalsIndex = token.indexOf("=");
+                    paramNames.add(equalsIndex > 0 ? token.substring(0, equalsIndex) : token);
+                }
+            }
+        }
         queryString = UtilHttp.stripNamedParamsFromQueryString(queryString, paramNames);
         String anchor = "";
         String paginateAnchor = modelForm.getPaginateTargetAnchor();
@@ -2380,7 +2397,7 @@ public final class MacroFormRenderer implements FormStringRenderer {
                 firstUrl = rh.makeLink(this.request, this.response, urlPath + linkText);
             }
         }
-        if (viewIndex > 0) {
+        if (viewIndex > 0 && !keysetPage) {
             if (ajaxEnabled) {
                 ajaxPreviousUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + (viewIndex - 1) + anchor, context);
             } else {
@@ -2389,7 +2406,7 @@ public final class MacroFormRenderer implements FormStringRenderer {
             }
         }
         // Page select dropdown
-        if (listSize > 0 && this.javaScriptEnabled) {
+        if (listSize > 0 && this.javaScriptEnabled && !keysetPage) {
             if (ajaxEnabled) {
                 ajaxSelectUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + "' + this.value + '", context);
             } else {
@@ -2401,7 +2418,21 @@ public final class MacroFormRenderer implements FormStringRenderer {
             }
         }
         // Next button
-        if (highIndex < listSize) {
+        if (keysetPage) {
+            if (keysetNext != null) {
+                Map<String, Object> keysetParams = new LinkedHashMap<String, Object>();
+                for (Map.Entry<String, Object> entry: keysetNext.entrySet()) {
+                    keysetParams.put(Paginator.KEYSET_AFTER_PREFIX + entry.getKey(), entry.getValue());
+                }
+                String keysetParamsText = UtilHttp.urlEncodeArgs(keysetParams);
+                if (ajaxEnabled) {
+                    ajaxNextUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + (viewIndex + 1) + "&" + keysetParamsText.replace("&amp;", "&") + anchor, context);
+                } else {
+                    linkText = prepLinkText + (viewIndex + 1) + "&amp;" + keysetParamsText + anchor;
+                    nextUrl = rh.makeLink(this.request, this.response, urlPath + linkText);
+                }
+            }
+        } else if (highIndex < listSize) {
             if (ajaxEnabled) {
                 ajaxNextUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + (viewIndex + 1) + anchor, context);
             } else {
@@ -2410,7 +2441,7 @@ public final class MacroFormRenderer implements FormStringRenderer {
             }
         }
         // Last button
-        if (highIndex < listSize) {
+        if (highIndex < listSize && !keysetPage) {
             int lastIndex = UtilMisc.getViewLastIndex(listSize, viewSize);
             if (ajaxEnabled) {
                 ajaxLastUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + lastIndex + anchor, context);
@@ -2497,7 +2528,9 @@ public final class MacroFormRenderer implements FormStringRenderer {
         sr.append(paginateLastLabel);
         sr.append("\" paginateViewSizeLabel=\"");
         sr.append(paginateViewSizeLabel);
-        sr.append("\" />");
+        sr.append("\" keysetPage=");
+        sr.append(Boolean.toString(keysetPage));
+        sr.append(" />");
         executeMacro(writer, sr.toString());
     }
 